@@ -0,0 +1,115 @@
+package com.griffin3.simplemusic;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Per-call latency of the hot DatabaseHelper queries on a 50k-track library, comparing the
+ * old open/query/close pattern against the shared connection with cached statements.
+ */
+@RunWith(AndroidJUnit4.class)
+public class DatabaseBenchmarkTest {
+    private static final String TAG = "DatabaseBenchmark";
+    private static final String DB_NAME = "benchmark.db";
+    private static final int TRACKS = 50000;
+    private static final int CALLS = 500;
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        dbHelper = new DatabaseHelper(context, DB_NAME);
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement(
+                    "INSERT INTO media (artist, title, duration, data) VALUES (?, ?, ?, ?)");
+            for (int i = 0; i < TRACKS; i++) {
+                insert.bindString(1, "Artist " + (i % 500));
+                insert.bindString(2, "Title " + i);
+                insert.bindLong(3, 180000 + i);
+                insert.bindString(4, "/sdcard/Music/track" + i + ".mp3");
+                insert.executeInsert();
+            }
+            db.execSQL("INSERT INTO queue (media_id) SELECT id FROM media");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void hotQueries_perCallLatency() {
+        String path = context.getDatabasePath(DB_NAME).getPath();
+
+        // Warm up both paths so JIT and page cache do not skew the first measurement
+        for (int i = 0; i < 50; i++) {
+            reopenPerCall(path);
+            sharedConnection(i);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            reopenPerCall(path);
+        }
+        long beforeNs = (System.nanoTime() - start) / CALLS;
+
+        start = System.nanoTime();
+        for (int i = 0; i < CALLS; i++) {
+            sharedConnection(i);
+        }
+        long afterNs = (System.nanoTime() - start) / CALLS;
+
+        Log.i(TAG, "tracks=" + TRACKS + " open/close per call: " + beforeNs / 1000 + " us/call, "
+                + "shared connection: " + afterNs / 1000 + " us/call");
+        assertTrue("shared connection should be faster than reopening", afterNs < beforeNs);
+    }
+
+    // The pre-refactor pattern: open, run the query, close, for each of the startup calls
+    private void reopenPerCall(String path) {
+        SQLiteDatabase db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READWRITE);
+        Cursor cursor = db.query("media", new String[]{"id"}, null, null, null, null, null);
+        cursor.getCount();
+        cursor.close();
+        db.close();
+
+        db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READWRITE);
+        cursor = db.query("state", new String[]{"position"}, "id=1", null, null, null, null);
+        cursor.moveToFirst();
+        cursor.close();
+        db.close();
+
+        db = SQLiteDatabase.openDatabase(path, null, SQLiteDatabase.OPEN_READWRITE);
+        db.execSQL("UPDATE state SET position=0 WHERE id=1");
+        db.close();
+    }
+
+    private void sharedConnection(int i) {
+        dbHelper.getMediaCount();
+        dbHelper.getQueuePosition();
+        dbHelper.setQueuePosition(i & 1);
+    }
+}
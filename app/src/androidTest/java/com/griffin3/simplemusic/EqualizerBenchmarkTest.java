@@ -0,0 +1,55 @@
+package com.griffin3.simplemusic;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Throughput of filtering stereo buffers through all five equalizer bands, on the device whose
+ * audio thread has to keep up with it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class EqualizerBenchmarkTest {
+    private static final String TAG = "EqualizerBenchmark";
+    private static final int RATE = 44100;
+    // 1024 stereo frames is the size the sink usually hands over, about 23 ms of audio
+    private static final int FRAMES = 1024;
+    private static final int WARMUP = 2000;
+    private static final int BUFFERS = 20000;
+    // Share of a buffer's own duration that filtering it may take, all bands active
+    private static final double BUFFER_BUDGET = 0.1;
+
+    @Test
+    public void fiveBandsStereo_throughput() {
+        float[] source = new float[FRAMES * 2];
+        for (int i = 0; i < FRAMES; i++) {
+            source[2 * i] = (float) (0.25 * Math.sin(2 * Math.PI * 1000 * i / RATE));
+        }
+        float[] samples = source.clone();
+        Equalizer equalizer = new Equalizer(RATE, 2, Equalizer.DEFAULT_FREQUENCIES);
+        equalizer.setGains(new float[]{6f, -3f, 4f, -6f, 3f});
+        for (int i = 0; i < WARMUP; i++) {
+            System.arraycopy(source, 0, samples, 0, samples.length);
+            equalizer.process(samples, 0, FRAMES);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < BUFFERS; i++) {
+            System.arraycopy(source, 0, samples, 0, samples.length);
+            equalizer.process(samples, 0, FRAMES);
+        }
+        long nanos = System.nanoTime() - start;
+        long perBuffer = nanos / BUFFERS;
+        double samplesPerSecond = (double) FRAMES * 2 * BUFFERS / nanos * 1e9;
+        double bufferNanos = FRAMES * 1e9 / RATE;
+
+        Log.i(TAG, "5 bands stereo: " + Math.round(samplesPerSecond / 1e6) + "M samples/s, " + perBuffer / 1000
+                + " us per " + FRAMES + "-frame buffer of " + Math.round(bufferNanos / 1000) + " us");
+        assertTrue(perBuffer / 1000 + " us per buffer", perBuffer < bufferNanos * BUFFER_BUDGET);
+    }
+}
@@ -0,0 +1,189 @@
+package com.griffin3.simplemusic;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.DefaultRenderersFactory;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.audio.AudioProcessor;
+import com.google.android.exoplayer2.audio.AudioSink;
+import com.google.android.exoplayer2.audio.BaseAudioProcessor;
+import com.google.android.exoplayer2.audio.DefaultAudioSink;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Track changes through PlaylistWindow should leave no gap. Each run plays more short
+ * square-wave tracks than the window holds at once, so it has to slide and refill as the
+ * player moves on, the way PlaybackService drives it. Two things are measured. A GapMeter on
+ * the PCM stream catches silence inside the decoded audio. Wall-clock time from the first
+ * sound to the end, minus the audio length, catches stalls where the pipeline stopped to
+ * re-prepare. The old setMediaItem-per-track path is measured alongside for comparison.
+ */
+@RunWith(AndroidJUnit4.class)
+public class GaplessPlaybackTest {
+    private static final String TAG = "GaplessPlayback";
+    private static final int SAMPLE_RATE = 44100;
+    private static final int TRACKS = PlaybackService.WINDOW_AHEAD + 3;
+    private static final int TRACK_MS = 700;
+
+    private Context context;
+    private final ArrayList<File> files = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        for (int i = 0; i < TRACKS; i++) {
+            File file = new File(context.getCacheDir(), "gapless_" + i + ".wav");
+            WavFixtures.writeSquare(file, SAMPLE_RATE, SAMPLE_RATE * TRACK_MS / 1000);
+            files.add(file);
+        }
+    }
+
+    @After
+    public void tearDown() {
+        for (File file : files) {
+            file.delete();
+        }
+    }
+
+    @Test
+    public void windowTransitions_areGapless() throws InterruptedException {
+        GapMeter windowMeter = new GapMeter(1, 0);
+        long windowStall = play(windowMeter, true);
+        // A window that stops refilling ends early, which is silent in the meter but short here
+        assertTrue("played " + windowMeter.getFrameCount() + " frames",
+                windowMeter.getFrameCount() >= (long) TRACKS * SAMPLE_RATE * TRACK_MS / 1000);
+        GapMeter legacyMeter = new GapMeter(1, 0);
+        long legacyStall = play(legacyMeter, false);
+
+        Log.i(TAG, "window: " + windowMeter.getLongestGapMillis(SAMPLE_RATE) + " ms longest PCM gap, "
+                + windowStall + " ms stalled over " + (TRACKS - 1) + " transitions");
+        Log.i(TAG, "setMediaItem per track: " + legacyMeter.getLongestGapMillis(SAMPLE_RATE) + " ms longest PCM gap, "
+                + legacyStall + " ms stalled over " + (TRACKS - 1) + " transitions");
+
+        assertEquals(0, windowMeter.getLongestGapFrames());
+        assertTrue("window stalled " + windowStall + " ms", windowStall < 20L * (TRACKS - 1));
+        assertTrue(windowStall <= legacyStall);
+    }
+
+    // Plays every track once and returns how much longer than the audio itself it took
+    private long play(GapMeter meter, boolean throughWindow) throws InterruptedException {
+        CountDownLatch ended = new CountDownLatch(1);
+        ExoPlayer[] player = new ExoPlayer[1];
+        PlaylistWindow[] window = new PlaylistWindow[1];
+        long[] startedAt = new long[1];
+        int[] next = {1};
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            player[0] = new ExoPlayer.Builder(context, new TapRenderersFactory(context, meter)).build();
+            player[0].addListener(new Player.Listener() {
+                @Override
+                public void onIsPlayingChanged(boolean isPlaying) {
+                    if (isPlaying && startedAt[0] == 0) {
+                        startedAt[0] = SystemClock.elapsedRealtime();
+                    }
+                }
+
+                @Override
+                public void onMediaItemTransition(MediaItem mediaItem, int reason) {
+                    if (throughWindow && reason == Player.MEDIA_ITEM_TRANSITION_REASON_AUTO) {
+                        window[0].advanced();
+                    }
+                }
+
+                @Override
+                public void onPlaybackStateChanged(int state) {
+                    if (state != Player.STATE_ENDED) {
+                        return;
+                    }
+                    if (!throughWindow && next[0] < TRACKS) {
+                        player[0].setMediaItem(itemAt(next[0]++));
+                        player[0].prepare();
+                    } else {
+                        ended.countDown();
+                    }
+                }
+            });
+            if (throughWindow) {
+                window[0] = new PlaylistWindow(new PlayerPlaylist(player[0]),
+                        position -> position < TRACKS ? files.get(position).getPath() : null, PlaybackService.WINDOW_AHEAD);
+                window[0].start(0);
+            } else {
+                player[0].setMediaItem(itemAt(0));
+            }
+            player[0].prepare();
+            player[0].play();
+        });
+        assertTrue("never finished", ended.await(TRACKS * TRACK_MS + 10000, TimeUnit.MILLISECONDS));
+        long elapsed = SystemClock.elapsedRealtime() - startedAt[0];
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> player[0].release());
+        return Math.max(0, elapsed - (long) TRACKS * TRACK_MS);
+    }
+
+    private MediaItem itemAt(int index) {
+        return MediaItem.fromUri(Uri.fromFile(files.get(index)));
+    }
+
+    private static class TapRenderersFactory extends DefaultRenderersFactory {
+        private final GapMeter meter;
+
+        TapRenderersFactory(Context context, GapMeter meter) {
+            super(context);
+            this.meter = meter;
+        }
+
+        @Override
+        protected AudioSink buildAudioSink(Context context, boolean enableFloatOutput, boolean enableAudioTrackPlaybackParams, boolean enableOffload) {
+            return new DefaultAudioSink.Builder()
+                    .setAudioProcessors(new AudioProcessor[]{new TapProcessor(meter)})
+                    .build();
+        }
+    }
+
+    // Passes 16-bit PCM through unchanged while the meter reads it
+    private static class TapProcessor extends BaseAudioProcessor {
+        private final GapMeter meter;
+
+        TapProcessor(GapMeter meter) {
+            this.meter = meter;
+        }
+
+        @Override
+        protected AudioFormat onConfigure(AudioFormat inputAudioFormat) throws UnhandledAudioFormatException {
+            if (inputAudioFormat.encoding != C.ENCODING_PCM_16BIT || inputAudioFormat.channelCount != 1) {
+                throw new UnhandledAudioFormatException(inputAudioFormat);
+            }
+            return inputAudioFormat;
+        }
+
+        @Override
+        public void queueInput(ByteBuffer inputBuffer) {
+            int remaining = inputBuffer.remaining();
+            if (remaining == 0) {
+                return;
+            }
+            meter.process(inputBuffer);
+            replaceOutputBuffer(remaining).put(inputBuffer).flip();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.griffin3.simplemusic;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Prefix search over a 100k-track library should answer within 20 ms, rank every match and
+ * follow media edits. A prefix that matches the whole library is ranked in full too; its time
+ * is logged rather than held to the same budget.
+ */
+@RunWith(AndroidJUnit4.class)
+public class MediaSearchTest {
+    private static final String TAG = "MediaSearch";
+    private static final String DB_NAME = "media_search.db";
+    private static final int TRACKS = 100000;
+    private static final int RUNS = 20;
+    private static final String[] QUERIES = {"artist 42", "title 9999", "song", "zzz"};
+    // Every track's artist starts with it
+    private static final String BROAD_QUERY = "art";
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        dbHelper = new DatabaseHelper(context, DB_NAME);
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement(
+                    "INSERT INTO media (artist, title, duration, data) VALUES (?, ?, ?, ?)");
+            for (int i = 0; i < TRACKS; i++) {
+                insert.bindString(1, "Artist " + (i % 500));
+                insert.bindString(2, i % 1000 == 0 ? "Song of Title " + i : "Title " + i);
+                insert.bindLong(3, 180000);
+                insert.bindString(4, "/sdcard/Music/track" + i + ".mp3");
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void search_answersWithin20ms() {
+        for (String query : QUERIES) {
+            dbHelper.searchMedia(query, 200, null);
+        }
+        for (String query : QUERIES) {
+            long start = System.nanoTime();
+            for (int i = 0; i < RUNS; i++) {
+                dbHelper.searchMedia(query, 200, null);
+            }
+            long micros = (System.nanoTime() - start) / RUNS / 1000;
+            Log.i(TAG, "\"" + query + "\": " + micros + " us/search");
+            assertTrue("\"" + query + "\" took " + micros + " us", micros < 20000);
+        }
+        dbHelper.searchMedia(BROAD_QUERY, 200, null);
+        long start = System.nanoTime();
+        for (int i = 0; i < RUNS; i++) {
+            dbHelper.searchMedia(BROAD_QUERY, 200, null);
+        }
+        Log.i(TAG, "\"" + BROAD_QUERY + "\", all " + TRACKS + " ranked: " + (System.nanoTime() - start) / RUNS / 1000 + " us/search");
+    }
+
+    @Test
+    public void search_ranksTitleStartFirst() {
+        QueueModel results = dbHelper.searchMedia("song", 10, null);
+        assertEquals(10, results.size());
+        assertTrue(results.getTitle(0).startsWith("Song"));
+
+        QueueModel exact = dbHelper.searchMedia("artist 42 title 42", 10, null);
+        assertEquals("Title 42", exact.getTitle(0));
+    }
+
+    @Test
+    public void search_ranksHitsBeyondTheFirstThousandMatches() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            // Artist-only matches ahead of the title hit in library order
+            for (int i = 0; i < 1500; i++) {
+                db.execSQL("INSERT INTO media (artist, title, duration, data) VALUES ('Love Parade', 'Track " + i + "', 1, 'x')");
+            }
+            db.execSQL("INSERT INTO media (artist, title, duration, data) VALUES ('Someone', 'Love', 1, 'x')");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        QueueModel results = dbHelper.searchMedia("love", 10, null);
+        assertEquals(10, results.size());
+        assertEquals("Love", results.getTitle(0));
+        assertEquals("Track 0", results.getTitle(1));
+    }
+
+    @Test
+    public void index_followsMediaChanges() {
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.execSQL("UPDATE media SET title = 'Quokka Anthem' WHERE id = 7");
+        assertEquals(1, dbHelper.searchMedia("quok", 10, null).size());
+
+        db.execSQL("DELETE FROM media WHERE id = 7");
+        assertTrue(dbHelper.searchMedia("quok", 10, null).isEmpty());
+    }
+}
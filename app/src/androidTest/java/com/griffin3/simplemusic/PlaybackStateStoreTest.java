@@ -0,0 +1,103 @@
+package com.griffin3.simplemusic;
+
+import android.content.Context;
+import android.database.Cursor;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Rapid playback state changes should reach the database as one write holding the latest values,
+ * made once they settle.
+ */
+@RunWith(AndroidJUnit4.class)
+public class PlaybackStateStoreTest {
+    private static final String DB_NAME = "playback_state.db";
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        dbHelper = new DatabaseHelper(context, DB_NAME);
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void skippingTracks_coalescesIntoOneWrite() throws InterruptedException {
+        PlaybackStateStore state = dbHelper.getPlaybackState();
+        // Ten skips spread over longer than the flush delay, each before the previous one is due
+        for (int position = 0; position < 10; position++) {
+            state.setTrack(position, 0);
+            state.setOffset(position * 1000L);
+            Thread.sleep(80);
+        }
+        state.setShuffle(DatabaseHelper.SHUFFLE_SMART);
+        assertEquals(0, state.getWriteCount());
+
+        awaitWrites(state, 1);
+        // Nothing else is left to write
+        Thread.sleep(1000);
+        assertEquals(1, state.getWriteCount());
+
+        Cursor cursor = dbHelper.getReadableDatabase().rawQuery(
+                "SELECT position, play_offset, shuffle FROM state WHERE id=1", null);
+        assertTrue(cursor.moveToFirst());
+        assertEquals(9, cursor.getInt(0));
+        assertEquals(9000, cursor.getLong(1));
+        assertEquals(DatabaseHelper.SHUFFLE_SMART, cursor.getInt(2));
+        cursor.close();
+    }
+
+    @Test
+    public void steadySkipping_isStillWrittenWhileItGoesOn() throws InterruptedException {
+        PlaybackStateStore state = dbHelper.getPlaybackState();
+        // A skip every 300 ms never leaves the flush delay quiet, for over three seconds
+        for (int position = 0; position < 12; position++) {
+            state.setTrack(position, 0);
+            Thread.sleep(300);
+        }
+        assertTrue(state.getWriteCount() >= 1);
+    }
+
+    @Test
+    public void flush_writesWithoutWaitingForTheDelay() throws InterruptedException {
+        PlaybackStateStore state = dbHelper.getPlaybackState();
+        state.setOffset(42000);
+        state.flush();
+        awaitWrites(state, 1);
+        assertEquals(1, state.getWriteCount());
+    }
+
+    @Test
+    public void clearAllData_dropsPendingChanges() {
+        PlaybackStateStore state = dbHelper.getPlaybackState();
+        state.setTrack(5, 1234);
+        dbHelper.clearAllData();
+        state.flushNow();
+
+        assertEquals(0, state.getWriteCount());
+        assertEquals(-1, dbHelper.getQueuePosition());
+    }
+
+    // Waits up to a second for the store to have made the given number of writes
+    private static void awaitWrites(PlaybackStateStore state, int writes) throws InterruptedException {
+        for (int i = 0; i < 100 && state.getWriteCount() < writes; i++) {
+            Thread.sleep(10);
+        }
+    }
+}
@@ -0,0 +1,141 @@
+package com.griffin3.simplemusic;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Positional queue lookups and edits should cost the same at the head of a 100k-entry queue as at its tail.
+ * The queue is stored row by row, so lookups go through the ordinal index; the lazily shuffled queue,
+ * which resolves positions through its permutation instead, gets its own cases.
+ */
+@RunWith(AndroidJUnit4.class)
+public class QueueLookupScalingTest {
+    private static final String TAG = "QueueLookupScaling";
+    private static final String DB_NAME = "queue_scaling.db";
+    private static final int QUEUE_SIZE = 100000;
+    private static final int LOOKUPS = 200;
+    private static final int[] POSITIONS = {0, 1000, 10000, 50000, QUEUE_SIZE - 1};
+
+    private Context context;
+    private DatabaseHelper dbHelper;
+
+    @Before
+    public void setUp() {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        context.deleteDatabase(DB_NAME);
+        dbHelper = new DatabaseHelper(context, DB_NAME);
+
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement(
+                    "INSERT INTO media (artist, title, duration, data) VALUES (?, ?, ?, ?)");
+            for (int i = 0; i < QUEUE_SIZE; i++) {
+                insert.bindString(1, "Artist " + (i % 500));
+                insert.bindString(2, "Title " + i);
+                insert.bindLong(3, 180000);
+                insert.bindString(4, "/sdcard/Music/track" + i + ".mp3");
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        dbHelper.fillQueueWithSmartShuffle();
+        assertNull(dbHelper.getShuffleOrder());
+    }
+
+    @After
+    public void tearDown() {
+        dbHelper.close();
+        context.deleteDatabase(DB_NAME);
+    }
+
+    @Test
+    public void positionLookup_isFlatAcrossQueueDepth() {
+        assertLookupsAreFlat("stored");
+    }
+
+    @Test
+    public void shuffledPositionLookup_isFlatAcrossQueueDepth() {
+        dbHelper.fillQueueWithShuffledMedia();
+        assertNotNull(dbHelper.getShuffleOrder());
+        assertLookupsAreFlat("shuffled");
+    }
+
+    @Test
+    public void neighbourAndRangeLookups_followQueueOrder() {
+        assertNeighboursFollowQueueOrder();
+    }
+
+    @Test
+    public void shuffledNeighbourAndRangeLookups_followQueueOrder() {
+        dbHelper.fillQueueWithShuffledMedia();
+        assertNeighboursFollowQueueOrder();
+    }
+
+    private void assertLookupsAreFlat(String queue) {
+        // Warm up the statement cache and page cache
+        for (int position : POSITIONS) {
+            assertNotNull(dbHelper.getCurrentSongInfo(position));
+        }
+
+        long[] nanosPerLookup = new long[POSITIONS.length];
+        for (int p = 0; p < POSITIONS.length; p++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < LOOKUPS; i++) {
+                dbHelper.getCurrentSongInfo(POSITIONS[p]);
+            }
+            nanosPerLookup[p] = (System.nanoTime() - start) / LOOKUPS;
+            Log.i(TAG, queue + " position " + POSITIONS[p] + ": " + nanosPerLookup[p] / 1000 + " us/lookup");
+        }
+
+        long head = nanosPerLookup[0];
+        long tail = nanosPerLookup[POSITIONS.length - 1];
+        assertTrue("tail lookup " + tail + " ns vs head " + head + " ns", tail < head * 3);
+    }
+
+    private void assertNeighboursFollowQueueOrder() {
+        SongInfo current = SongInfo.fromJsonString(dbHelper.getCurrentSongInfo(50000));
+        SongInfo next = dbHelper.getNextSongInfo(50000);
+        SongInfo previous = dbHelper.getPreviousSongInfo(50000);
+        assertEquals(SongInfo.fromJsonString(dbHelper.getCurrentSongInfo(50001)).getId(), next.getId());
+        assertEquals(SongInfo.fromJsonString(dbHelper.getCurrentSongInfo(49999)).getId(), previous.getId());
+        assertEquals(current.getId(), dbHelper.getQueueRange(50000, 3).get(0).getId());
+        assertNull(dbHelper.getNextSongInfo(QUEUE_SIZE - 1));
+    }
+
+    @Test
+    public void queueEdits_stayFastAtAnyDepth() {
+        // The first edit loads the key array; only the edits after it are timed
+        dbHelper.moveQueueItem(0, 1);
+        long insertedId = dbHelper.getSongAt(0).getId();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            dbHelper.insertIntoQueue(50000, insertedId);
+            dbHelper.removeFromQueue(50000);
+            dbHelper.moveQueueItem(QUEUE_SIZE - 1, 10);
+        }
+        long nanosPerEdit = (System.nanoTime() - start) / (LOOKUPS * 3);
+        Log.i(TAG, "queue edit: " + nanosPerEdit / 1000 + " us/edit");
+        assertTrue("edit took " + nanosPerEdit / 1000 + " us", nanosPerEdit < 16000000);
+
+        long lastId = dbHelper.getSongAt(QUEUE_SIZE - 1).getId();
+        dbHelper.moveQueueItem(QUEUE_SIZE - 1, 10);
+        assertEquals(lastId, dbHelper.getSongAt(10).getId());
+        assertEquals(QUEUE_SIZE, dbHelper.getQueueItems().size());
+    }
+}
@@ -0,0 +1,107 @@
+package com.griffin3.simplemusic;
+
+import android.content.Context;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.Player;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Resuming after a pause shorter than the idle timeout should skip preparing and be near
+ * instant; only a pause past the timeout pays for preparing again. Measures the time from
+ * resume() until the player reports playing after pauses of several lengths.
+ */
+@RunWith(AndroidJUnit4.class)
+public class ResumeLatencyTest {
+    private static final String TAG = "ResumeLatency";
+    private static final long IDLE_TIMEOUT_MS = 2000;
+    private static final long[] PAUSES_MS = {100, 1000, 3000};
+
+    private Context context;
+    private File audioFile;
+    private ExoPlayer player;
+    private WarmPause warmPause;
+    private volatile CountDownLatch playing;
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        audioFile = new File(context.getCacheDir(), "resume_silence.wav");
+        // A minute of silence never ends during the test
+        WavFixtures.writeSilence(audioFile, 8000, 8000 * 60);
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            player = new ExoPlayer.Builder(context).build();
+            warmPause = new WarmPause(player, IDLE_TIMEOUT_MS);
+            player.addListener(new Player.Listener() {
+                @Override
+                public void onIsPlayingChanged(boolean isPlaying) {
+                    CountDownLatch latch = playing;
+                    if (isPlaying && latch != null) {
+                        latch.countDown();
+                    }
+                }
+            });
+            player.setMediaItem(MediaItem.fromUri(Uri.fromFile(audioFile)));
+        });
+    }
+
+    @After
+    public void tearDown() {
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+            warmPause.release();
+            player.release();
+        });
+        audioFile.delete();
+    }
+
+    @Test
+    public void resume_isInstantUntilTheIdleTimeout() throws InterruptedException {
+        resume();
+        long[] latencies = new long[PAUSES_MS.length];
+        boolean[] warm = new boolean[PAUSES_MS.length];
+        for (int i = 0; i < PAUSES_MS.length; i++) {
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> player.pause());
+            SystemClock.sleep(PAUSES_MS[i]);
+            boolean[] probe = new boolean[1];
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> probe[0] = warmPause.isWarm());
+            warm[i] = probe[0];
+            latencies[i] = resume();
+            Log.i(TAG, "after a " + PAUSES_MS[i] + " ms pause: " + (warm[i] ? "warm" : "cold") + ", "
+                    + latencies[i] / 1000 + " us to playing");
+        }
+
+        for (int i = 0; i < PAUSES_MS.length; i++) {
+            assertEquals(PAUSES_MS[i] < IDLE_TIMEOUT_MS, warm[i]);
+        }
+        assertEquals(1, warmPause.getReleaseCount());
+        assertTrue(latencies[0] < latencies[PAUSES_MS.length - 1]);
+        assertTrue(latencies[1] < latencies[PAUSES_MS.length - 1]);
+    }
+
+    // Returns nanoseconds from resume() until the player reports playing
+    private long resume() throws InterruptedException {
+        playing = new CountDownLatch(1);
+        long start = System.nanoTime();
+        InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> warmPause.resume());
+        assertTrue("never started playing", playing.await(5, TimeUnit.SECONDS));
+        return System.nanoTime() - start;
+    }
+}
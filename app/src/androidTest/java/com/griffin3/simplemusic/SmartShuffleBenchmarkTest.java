@@ -0,0 +1,51 @@
+package com.griffin3.simplemusic;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Build, draw and like-update costs of SmartShuffle over a 100k library, on the device that
+ * refills the queue with it.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SmartShuffleBenchmarkTest {
+    private static final String TAG = "SmartShuffleBenchmark";
+    private static final int SIZE = 100000;
+    private static final int UPDATES = 1000;
+
+    @Test
+    public void library100k_buildDrawAndUpdate() {
+        int[] likes = new int[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            likes[i] = i % 10 == 0 ? i % 7 : 0;
+        }
+
+        long start = System.nanoTime();
+        SmartShuffle shuffle = new SmartShuffle(likes, 50, 1);
+        long buildNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        long checksum = 0;
+        for (int i = 0; i < SIZE; i++) {
+            checksum += shuffle.next();
+        }
+        long drawNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (int i = 0; i < UPDATES; i++) {
+            shuffle.setLikes(i * 97, 5);
+        }
+        long updateNanos = System.nanoTime() - start;
+
+        Log.i(TAG, "100k tracks: build " + buildNanos / 1000 + " us, " + drawNanos / SIZE + " ns/pick, "
+                + updateNanos / UPDATES + " ns/update (checksum " + checksum + ")");
+        // A full refill draws the whole library; it should not hold the queue up for seconds
+        assertTrue("draws took " + drawNanos / 1000000 + " ms", drawNanos < 2000000000L);
+    }
+}
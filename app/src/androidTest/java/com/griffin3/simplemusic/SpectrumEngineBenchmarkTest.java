@@ -0,0 +1,70 @@
+package com.griffin3.simplemusic;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Per-capture cost of turning an FFT into 32 bars with SpectrumEngine, against the per-frame
+ * sqrt loop the views used to run.
+ */
+@RunWith(AndroidJUnit4.class)
+public class SpectrumEngineBenchmarkTest {
+    private static final String TAG = "SpectrumEngineBenchmark";
+    private static final int CAPTURE = 1024;
+    private static final int BARS = 32;
+    private static final int FRAMES = 50000;
+
+    @Test
+    public void thirtyTwoBars_perFrameTime() {
+        byte[] fft = new byte[CAPTURE];
+        new Random(7).nextBytes(fft);
+        SpectrumEngine engine = new SpectrumEngine(BARS);
+        float[] bands = new float[BARS];
+        float sink = 0;
+        for (int i = 0; i < FRAMES / 10; i++) {
+            sink += engine.process(fft, 44100, bands);
+            sink += naive(fft, BARS);
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            sink += engine.process(fft, 44100, bands);
+        }
+        long engineNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            sink += naive(fft, BARS);
+        }
+        long naiveNanos = System.nanoTime() - start;
+
+        Log.i(TAG, BARS + " bars: " + engineNanos / FRAMES + " ns per frame, per-frame sqrt loop "
+                + naiveNanos / FRAMES + " ns (" + sink + ")");
+        // A capture arrives every 50 ms or so; a frame of work must be a rounding error against that
+        assertTrue(engineNanos / FRAMES + " ns per frame", engineNanos / FRAMES < 500000);
+    }
+
+    // The loop the views used to run on every frame
+    private static float naive(byte[] fft, int bars) {
+        int maxBins = (int) ((4096.0 / 22050.0) * (fft.length / 2));
+        int binsPerBar = Math.max(1, maxBins / bars);
+        int max = 0;
+        for (int i = 0; i < bars; i++) {
+            int start = i * binsPerBar * 2;
+            int total = 0;
+            for (int j = 0; j < binsPerBar && start + j * 2 < fft.length - 1; j++) {
+                int magnitude = (int) Math.sqrt(fft[start + j * 2] * fft[start + j * 2] + fft[start + j * 2 + 1] * fft[start + j * 2 + 1]);
+                total += magnitude;
+                max = Math.max(max, magnitude);
+            }
+        }
+        return max;
+    }
+}
@@ -0,0 +1,169 @@
+package com.griffin3.simplemusic;
+
+import android.content.Context;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.Player;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Cold-start cost with the now-playing snapshot should not grow with the library. Measures the
+ * data needed for the first player frame (title and artist of the saved track) and the time
+ * until audio is playing, on a 1k and a 100k library, against the old path that loaded the
+ * whole queue from the database first.
+ */
+@RunWith(AndroidJUnit4.class)
+public class StartupBenchmarkTest {
+    private static final String TAG = "StartupBenchmark";
+    private static final int SMALL = 1000;
+    private static final int LARGE = 100000;
+    private static final int RUNS = 10;
+
+    private Context context;
+    private File audioFile;
+
+    @Before
+    public void setUp() throws IOException {
+        context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        audioFile = new File(context.getCacheDir(), "startup_silence.wav");
+        WavFixtures.writeSilence(audioFile, 8000, 8000);
+    }
+
+    @After
+    public void tearDown() {
+        for (int size : new int[]{SMALL, LARGE}) {
+            context.deleteDatabase(dbName(size));
+            DatabaseHelper.getSnapshotFile(context, dbName(size)).delete();
+        }
+        audioFile.delete();
+    }
+
+    @Test
+    public void firstFrameAndFirstAudio_doNotDependOnLibrarySize() throws InterruptedException {
+        prepareLibrary(SMALL);
+        prepareLibrary(LARGE);
+
+        long smallFrame = snapshotFirstFrameNanos(SMALL);
+        long largeFrame = snapshotFirstFrameNanos(LARGE);
+        long smallLegacy = legacyFirstFrameNanos(SMALL);
+        long largeLegacy = legacyFirstFrameNanos(LARGE);
+        long smallAudio = firstAudioNanos(SMALL);
+        long largeAudio = firstAudioNanos(LARGE);
+
+        Log.i(TAG, "first frame, snapshot: " + smallFrame / 1000 + " us (1k) vs " + largeFrame / 1000 + " us (100k)");
+        Log.i(TAG, "first frame, full queue load: " + smallLegacy / 1000 + " us (1k) vs " + largeLegacy / 1000 + " us (100k)");
+        Log.i(TAG, "first audio, snapshot: " + smallAudio / 1000000 + " ms (1k) vs " + largeAudio / 1000000 + " ms (100k)");
+
+        // Allow for noise on small numbers; what matters is the absence of growth with size
+        assertTrue(largeFrame < smallFrame * 2 + TimeUnit.MILLISECONDS.toNanos(2));
+        assertTrue(largeAudio < smallAudio * 2 + TimeUnit.MILLISECONDS.toNanos(50));
+        assertTrue(largeFrame < largeLegacy);
+    }
+
+    private static String dbName(int size) {
+        return "startup_" + size + ".db";
+    }
+
+    private void prepareLibrary(int size) {
+        context.deleteDatabase(dbName(size));
+        DatabaseHelper dbHelper = new DatabaseHelper(context, dbName(size));
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        db.beginTransaction();
+        try {
+            SQLiteStatement insert = db.compileStatement(
+                    "INSERT INTO media (artist, title, duration, data) VALUES (?, ?, ?, ?)");
+            for (int i = 0; i < size; i++) {
+                insert.bindString(1, "Artist " + (i % 500));
+                insert.bindString(2, "Title " + i);
+                insert.bindLong(3, 1000);
+                insert.bindString(4, audioFile.getPath());
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        dbHelper.fillQueueWithShuffledMedia();
+        dbHelper.setQueuePosition(size / 2);
+        dbHelper.getPlaybackState().flushNow();
+        dbHelper.close();
+        assertTrue(DatabaseHelper.getSnapshotFile(context, dbName(size)).isFile());
+    }
+
+    private long snapshotFirstFrameNanos(int size) {
+        File file = DatabaseHelper.getSnapshotFile(context, dbName(size));
+        long total = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            NowPlayingSnapshot snapshot = NowPlayingSnapshot.read(file);
+            assertNotNull(snapshot.getTitle(snapshot.getPosition()));
+            assertNotNull(snapshot.getArtist(snapshot.getPosition()));
+            total += System.nanoTime() - start;
+        }
+        return total / RUNS;
+    }
+
+    private long legacyFirstFrameNanos(int size) {
+        long total = 0;
+        for (int i = 0; i < RUNS; i++) {
+            long start = System.nanoTime();
+            DatabaseHelper dbHelper = new DatabaseHelper(context, dbName(size));
+            dbHelper.getMediaCount();
+            dbHelper.isQueueEmpty();
+            int position = dbHelper.getQueuePosition();
+            QueueModel queue = dbHelper.getQueueItems();
+            assertNotNull(queue.getTitle(position));
+            total += System.nanoTime() - start;
+            dbHelper.close();
+        }
+        return total / RUNS;
+    }
+
+    private long firstAudioNanos(int size) throws InterruptedException {
+        File file = DatabaseHelper.getSnapshotFile(context, dbName(size));
+        long total = 0;
+        for (int i = 0; i < RUNS; i++) {
+            CountDownLatch playing = new CountDownLatch(1);
+            ExoPlayer[] player = new ExoPlayer[1];
+            long start = System.nanoTime();
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> {
+                NowPlayingSnapshot snapshot = NowPlayingSnapshot.read(file);
+                player[0] = new ExoPlayer.Builder(context).build();
+                player[0].addListener(new Player.Listener() {
+                    @Override
+                    public void onIsPlayingChanged(boolean isPlaying) {
+                        if (isPlaying) {
+                            playing.countDown();
+                        }
+                    }
+                });
+                player[0].setMediaItem(MediaItem.fromUri(Uri.fromFile(new File(snapshot.getData(snapshot.getPosition())))));
+                player[0].prepare();
+                player[0].play();
+            });
+            assertTrue("never started playing", playing.await(5, TimeUnit.SECONDS));
+            total += System.nanoTime() - start;
+            InstrumentationRegistry.getInstrumentation().runOnMainSync(() -> player[0].release());
+        }
+        return total / RUNS;
+    }
+}
@@ -0,0 +1,51 @@
+package com.griffin3.simplemusic;
+
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import static org.junit.Assert.*;
+
+/**
+ * Throughput of handing visualizer captures from a capture thread to a drawing thread through
+ * TripleBuffer, on the device that runs both.
+ */
+@RunWith(AndroidJUnit4.class)
+public class TripleBufferBenchmarkTest {
+    private static final String TAG = "TripleBufferBenchmark";
+    private static final int SIZE = 1024;
+    private static final int FRAMES = 200000;
+
+    @Test
+    public void captureToDrawHandoff_perFrameTime() throws InterruptedException {
+        TripleBuffer buffer = new TripleBuffer(SIZE);
+        int[] taken = new int[1];
+        Thread writer = new Thread(() -> {
+            byte[] capture = new byte[SIZE];
+            for (int n = 1; n <= FRAMES; n++) {
+                buffer.publish(capture, n);
+            }
+        }, "writer");
+        Thread reader = new Thread(() -> {
+            while (buffer.getSampleRate() < FRAMES) {
+                if (buffer.take()) {
+                    taken[0]++;
+                }
+            }
+        }, "reader");
+
+        long start = System.nanoTime();
+        reader.start();
+        writer.start();
+        writer.join(60000);
+        reader.join(60000);
+        long nanos = System.nanoTime() - start;
+
+        Log.i(TAG, FRAMES + " frames of " + SIZE + " bytes: " + nanos / FRAMES + " ns per publish, reader took "
+                + taken[0]);
+        assertFalse("reader never saw the last frame", reader.isAlive());
+    }
+}
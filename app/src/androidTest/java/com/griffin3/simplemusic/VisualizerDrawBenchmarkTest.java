@@ -0,0 +1,144 @@
+package com.griffin3.simplemusic;
+
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.RecordingCanvas;
+import android.graphics.RenderNode;
+import android.util.Log;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * Per-frame cost of drawing the visualizer's 32-bar landscape layout, comparing the old
+ * per-segment drawRect loop against LedLayout's one drawLines call per colour. Frames are
+ * recorded into a RenderNode, which is the work lockHardwareCanvas leaves on the render thread.
+ */
+@RunWith(AndroidJUnit4.class)
+public class VisualizerDrawBenchmarkTest {
+    private static final String TAG = "VisualizerDrawBenchmark";
+    private static final int WIDTH = 2400;
+    private static final int HEIGHT = 800;
+    private static final int BARS = 32;
+    private static final int FRAMES = 2000;
+    private static final String VIZ_TYPE = "classic";
+
+    private final Paint barPaint = new Paint();
+
+    @Test
+    public void landscapeFrame_perFrameTime() {
+        Random random = new Random(5);
+        float[][] frames = new float[64][BARS];
+        for (float[] frame : frames) {
+            for (int bar = 0; bar < BARS; bar++) {
+                frame[bar] = random.nextFloat() * 100;
+            }
+        }
+        LedLayout leds = new LedLayout(false);
+        leds.setSize(WIDTH, HEIGHT, BARS);
+        Paint[] bandPaints = new Paint[LedLayout.BANDS];
+        for (int band = 0; band < LedLayout.BANDS; band++) {
+            bandPaints[band] = new Paint();
+            bandPaints[band].setStyle(Paint.Style.STROKE);
+            bandPaints[band].setStrokeCap(Paint.Cap.BUTT);
+            bandPaints[band].setStrokeWidth(leds.getBarWidth());
+            bandPaints[band].setColor(LedLayout.BAND_COLOURS[band]);
+        }
+        Paint outlinePaint = new Paint();
+        outlinePaint.setStyle(Paint.Style.STROKE);
+        outlinePaint.setStrokeWidth(2f);
+        outlinePaint.setColor(Color.RED);
+        barPaint.setStyle(Paint.Style.FILL);
+        barPaint.setAntiAlias(true);
+        RenderNode node = new RenderNode("visualizer");
+        node.setPosition(0, 0, WIDTH, HEIGHT);
+
+        // Warm up both paths so JIT does not skew the first measurement
+        for (int i = 0; i < 200; i++) {
+            RecordingCanvas canvas = node.beginRecording();
+            drawPerSegment(canvas, frames[i & 63]);
+            node.endRecording();
+            canvas = node.beginRecording();
+            drawBatched(canvas, leds, bandPaints, outlinePaint, frames[i & 63]);
+            node.endRecording();
+        }
+
+        long start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            RecordingCanvas canvas = node.beginRecording();
+            drawPerSegment(canvas, frames[i & 63]);
+            node.endRecording();
+        }
+        long beforeNs = (System.nanoTime() - start) / FRAMES;
+
+        start = System.nanoTime();
+        for (int i = 0; i < FRAMES; i++) {
+            RecordingCanvas canvas = node.beginRecording();
+            drawBatched(canvas, leds, bandPaints, outlinePaint, frames[i & 63]);
+            node.endRecording();
+        }
+        long afterNs = (System.nanoTime() - start) / FRAMES;
+
+        Log.i(TAG, "32 bars " + WIDTH + "x" + HEIGHT + " per-segment drawRect: " + beforeNs / 1000 + " us/frame, "
+                + "batched drawLines: " + afterNs / 1000 + " us/frame");
+        assertTrue("batched drawing should be faster than a call per segment", afterNs < beforeNs);
+        // A 60 Hz frame is 16.7 ms; recording should be a small part of it
+        assertTrue(afterNs / 1000 + " us per frame", afterNs < 2000000);
+    }
+
+    private static void drawBatched(RecordingCanvas canvas, LedLayout leds, Paint[] bandPaints, Paint outlinePaint, float[] magnitudes) {
+        canvas.drawColor(Color.BLACK);
+        leds.layout(magnitudes, 100, 1.5f);
+        for (int band = 0; band < LedLayout.BANDS; band++) {
+            if (leds.getLineCount(band) > 0) {
+                canvas.drawLines(leds.getLines(band), 0, leds.getLineCount(band), bandPaints[band]);
+            }
+        }
+        canvas.drawRect(1, 1, WIDTH - 1, HEIGHT - 1, outlinePaint);
+    }
+
+    // The pre-refactor loop: a colour decision and a drawRect per segment, and a new outline paint
+    private void drawPerSegment(RecordingCanvas canvas, float[] magnitudes) {
+        canvas.drawColor(Color.BLACK);
+        int totalSpacing = (int) (WIDTH * 0.20f * BARS / (BARS + 0.20f * BARS));
+        int barWidth = (WIDTH - totalSpacing) / BARS;
+        int spacing = (int) (barWidth * 0.20f);
+        int startX = (WIDTH - (barWidth * BARS + spacing * (BARS - 1))) / 2;
+        for (int i = 0; i < BARS; i++) {
+            int barHeight = (int) ((magnitudes[i] * HEIGHT * 1.5f) / 100);
+            int left = startX + i * (barWidth + spacing);
+            int rectHeight = Math.max(4, barWidth / 2);
+            int verticalSpacing = (int) (rectHeight * 0.30f);
+            int rectWithSpacing = rectHeight + verticalSpacing;
+            int numRects = barHeight / rectWithSpacing;
+            if (numRects == 0 && barHeight > 0) numRects = 1;
+            for (int r = 0; r < numRects; r++) {
+                int rectTop = HEIGHT - (r + 1) * rectWithSpacing + verticalSpacing;
+                if (rectTop < HEIGHT - barHeight) break;
+                float ratio = VIZ_TYPE.equals("fire") ? (float) r / Math.max(1, numRects - 1) : 1.0f - ((float) rectTop / HEIGHT);
+                if (ratio >= 0.9f) {
+                    barPaint.setColor(Color.RED);
+                } else if (ratio >= 0.7f) {
+                    barPaint.setColor(Color.rgb(255, 165, 0));
+                } else if (ratio >= 0.5f) {
+                    barPaint.setColor(Color.YELLOW);
+                } else {
+                    barPaint.setColor(Color.GREEN);
+                }
+                canvas.drawRect(left, rectTop, left + barWidth, rectTop + rectHeight, barPaint);
+            }
+        }
+        Paint outlinePaint = new Paint();
+        outlinePaint.setStyle(Paint.Style.STROKE);
+        outlinePaint.setStrokeWidth(2f);
+        outlinePaint.setColor(Color.RED);
+        outlinePaint.setAntiAlias(true);
+        canvas.drawRect(1, 1, WIDTH - 1, HEIGHT - 1, outlinePaint);
+    }
+}
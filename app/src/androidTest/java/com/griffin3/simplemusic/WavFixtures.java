@@ -0,0 +1,38 @@
+package com.griffin3.simplemusic;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.function.IntUnaryOperator;
+
+/** Writes the 16-bit mono PCM WAV files the playback tests play. */
+final class WavFixtures {
+    private WavFixtures() {}
+
+    // sample maps each frame index to its 16-bit sample
+    static void writeWav(File file, int sampleRate, int frames, IntUnaryOperator sample) throws IOException {
+        int dataSize = frames * 2;
+        ByteBuffer buffer = ByteBuffer.allocate(44 + dataSize).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put("RIFF".getBytes()).putInt(36 + dataSize).put("WAVE".getBytes())
+                .put("fmt ".getBytes()).putInt(16).putShort((short) 1).putShort((short) 1)
+                .putInt(sampleRate).putInt(sampleRate * 2).putShort((short) 2).putShort((short) 16)
+                .put("data".getBytes()).putInt(dataSize);
+        for (int i = 0; i < frames; i++) {
+            buffer.putShort((short) sample.applyAsInt(i));
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(buffer.array());
+        }
+    }
+
+    static void writeSilence(File file, int sampleRate, int frames) throws IOException {
+        writeWav(file, sampleRate, frames, i -> 0);
+    }
+
+    // A square wave well short of full scale, so no sample of it is ever zero
+    static void writeSquare(File file, int sampleRate, int frames) throws IOException {
+        writeWav(file, sampleRate, frames, i -> (i / 50) % 2 == 0 ? 8000 : -8000);
+    }
+}
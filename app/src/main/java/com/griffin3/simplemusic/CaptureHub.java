@@ -0,0 +1,131 @@
+package com.griffin3.simplemusic;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Shares one audio capture per session among any number of subscribers. The capture is opened
+ * by the first subscriber to a session, runs at the rate the fastest subscriber asked for, and
+ * is released when the last one leaves. Each capture is handed to every subscriber of its
+ * session as it arrives; subscribers must copy what they keep, since the array may be reused.
+ * VisualizerHub opens the platform Visualizer; the bookkeeping lives here so it can be tested
+ * without one. Main thread only, which is also where captures are delivered.
+ */
+public class CaptureHub {
+    public interface Subscriber {
+        // samplingRate is in milliHertz, as the Visualizer reports it
+        void onFftCapture(byte[] fft, int samplingRate);
+    }
+
+    public interface Capture {
+        void setRate(int rate);
+        void release();
+    }
+
+    public interface Opener {
+        // Starts capturing the session at the rate, delivering to hub.deliver(); throws if it cannot
+        Capture open(int sessionId, int rate, CaptureHub hub);
+    }
+
+    private static final class Session {
+        Capture capture;
+        int rate;
+        // Replaced, never changed, so a delivery can walk it while a subscriber leaves
+        Subscriber[] subscribers = new Subscriber[0];
+        final ArrayList<Integer> rates = new ArrayList<>();
+    }
+
+    private final Opener opener;
+    private final HashMap<Integer, Session> sessions = new HashMap<>();
+    private final HashMap<Subscriber, Integer> subscriberSessions = new HashMap<>();
+
+    protected CaptureHub(Opener opener) {
+        this.opener = opener;
+    }
+
+    // Subscribes to a session's captures at the given rate, leaving any other session first.
+    // Returns false when the session cannot be captured, in which case nothing is subscribed.
+    public boolean subscribe(int sessionId, Subscriber subscriber, int rate) {
+        Integer current = subscriberSessions.get(subscriber);
+        if (current != null && current == sessionId) {
+            return true;
+        }
+        unsubscribe(subscriber);
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            session = new Session();
+            try {
+                session.capture = opener.open(sessionId, rate, this);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                return false;
+            }
+            session.rate = rate;
+            sessions.put(sessionId, session);
+        }
+        Subscriber[] subscribers = new Subscriber[session.subscribers.length + 1];
+        System.arraycopy(session.subscribers, 0, subscribers, 0, session.subscribers.length);
+        subscribers[subscribers.length - 1] = subscriber;
+        session.subscribers = subscribers;
+        session.rates.add(rate);
+        subscriberSessions.put(subscriber, sessionId);
+        updateRate(session);
+        return true;
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        Integer sessionId = subscriberSessions.remove(subscriber);
+        if (sessionId == null) {
+            return;
+        }
+        Session session = sessions.get(sessionId);
+        int index = 0;
+        while (session.subscribers[index] != subscriber) {
+            index++;
+        }
+        if (session.subscribers.length == 1) {
+            sessions.remove(sessionId);
+            session.capture.release();
+            return;
+        }
+        Subscriber[] subscribers = new Subscriber[session.subscribers.length - 1];
+        System.arraycopy(session.subscribers, 0, subscribers, 0, index);
+        System.arraycopy(session.subscribers, index + 1, subscribers, index, subscribers.length - index);
+        session.subscribers = subscribers;
+        session.rates.remove(index);
+        updateRate(session);
+    }
+
+    // Called by a capture with its session's latest FFT
+    public void deliver(int sessionId, byte[] fft, int samplingRate) {
+        Session session = sessions.get(sessionId);
+        if (session == null) {
+            return;
+        }
+        for (Subscriber subscriber : session.subscribers) {
+            subscriber.onFftCapture(fft, samplingRate);
+        }
+    }
+
+    public int getSubscriberCount(int sessionId) {
+        Session session = sessions.get(sessionId);
+        return session == null ? 0 : session.subscribers.length;
+    }
+
+    // The rate the session is captured at, or 0 when it is not
+    public int getRate(int sessionId) {
+        Session session = sessions.get(sessionId);
+        return session == null ? 0 : session.rate;
+    }
+
+    private void updateRate(Session session) {
+        int fastest = 0;
+        for (int rate : session.rates) {
+            fastest = Math.max(fastest, rate);
+        }
+        if (fastest != session.rate) {
+            session.rate = fastest;
+            session.capture.setRate(fastest);
+        }
+    }
+}
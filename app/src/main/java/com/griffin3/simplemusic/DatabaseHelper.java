@@ -4,39 +4,147 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
 import android.database.sqlite.SQLiteOpenHelper;
-import android.provider.MediaStore;
+import android.database.sqlite.SQLiteStatement;
+import android.os.CancellationSignal;
 import org.json.JSONObject;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class DatabaseHelper extends SQLiteOpenHelper {
     private static final String DATABASE_NAME = "music.db";
-    private static final int DATABASE_VERSION = 2;
+    private static final int DATABASE_VERSION = 9;
 
     // Media table
-    private static final String TABLE_MEDIA = "media";
-    private static final String COLUMN_MEDIA_ID = "id";
-    private static final String COLUMN_ARTIST = "artist";
-    private static final String COLUMN_TITLE = "title";
-    private static final String COLUMN_DURATION = "duration";
-    private static final String COLUMN_DATA = "data";
+    static final String TABLE_MEDIA = "media";
+    static final String COLUMN_MEDIA_ID = "id";
+    static final String COLUMN_ARTIST = "artist";
+    static final String COLUMN_TITLE = "title";
+    static final String COLUMN_DURATION = "duration";
+    static final String COLUMN_DATA = "data";
+    static final String COLUMN_STORE_ID = "store_id";
+    static final String COLUMN_DATE_MODIFIED = "date_modified";
+    // SeekIndex.encode() of the file, or an empty blob once it turned out not to be indexable
+    static final String COLUMN_SEEK_INDEX = "seek_index";
+    // Integrated loudness in LUFS, NULL until LoudnessScanner has measured the file. The volume
+    // column holds the gain derived from it, 128 being unity.
+    static final String COLUMN_LOUDNESS = "loudness";
+
+    // Full-text index over artist and title, with the media table as its content
+    static final String TABLE_MEDIA_FTS = "media_fts";
 
     // Queue table
-    private static final String TABLE_QUEUE = "queue";
+    static final String TABLE_QUEUE = "queue";
     private static final String COLUMN_QUEUE_ID = "id";
-    private static final String COLUMN_MEDIA_ID_FK = "media_id";
-    private static final String COLUMN_VOLUME = "volume";
-    private static final String COLUMN_LIKES = "likes";
+    static final String COLUMN_MEDIA_ID_FK = "media_id";
+    static final String COLUMN_ORDINAL = "ordinal";
+    static final String COLUMN_VOLUME = "volume";
+    static final String COLUMN_LIKES = "likes";
 
     // State table
-    private static final String TABLE_STATE = "state";
-    private static final String COLUMN_STATE_ID = "id";
+    static final String TABLE_STATE = "state";
+    static final String COLUMN_STATE_ID = "id";
     private static final String COLUMN_POSITION = "position";
     private static final String COLUMN_SHUFFLE = "shuffle";
     private static final String COLUMN_LOOP = "loop";
+    static final String COLUMN_STORE_VERSION = "store_version";
+    static final String COLUMN_STORE_GENERATIONS = "store_generations";
+    private static final String COLUMN_SHUFFLE_SEED = "shuffle_seed";
+    private static final String COLUMN_SHUFFLE_SIZE = "shuffle_size";
+    private static final String COLUMN_PLAY_OFFSET = "play_offset";
+
+    // Values of the shuffle state column
+    public static final int SHUFFLE_OFF = 0;
+    public static final int SHUFFLE_RANDOM = 1;
+    public static final int SHUFFLE_SMART = 2;
+
+    // Smart shuffle never repeats a track within this many picks
+    private static final int SMART_SHUFFLE_RECENT = 50;
+
+    private static DatabaseHelper sInstance;
+
+    // All writes go through one thread so callers on any thread never race each other
+    private final ExecutorService writeExecutor;
+    private volatile Thread writerThread;
+
+    // Hot queries, compiled once and reused for the lifetime of the shared connection
+    private static final String SQL_MEDIA_COUNT = "SELECT COUNT(*) FROM " + TABLE_MEDIA;
+    private static final String SQL_QUEUE_COUNT = "SELECT COUNT(*) FROM " + TABLE_QUEUE;
+    // Rows before the ordinal, which is the position of the row with it or of the one after
+    private static final String SQL_QUEUE_RANK = "SELECT COUNT(*) FROM " + TABLE_QUEUE + " WHERE " + COLUMN_ORDINAL + " < ?";
+    private static final String SQL_QUEUE_NOT_EMPTY = "SELECT EXISTS(SELECT 1 FROM " + TABLE_QUEUE + ")";
+    private static final String SQL_SET_PLAYBACK_STATE = "UPDATE " + TABLE_STATE + " SET " + COLUMN_POSITION + "=?, " +
+            COLUMN_PLAY_OFFSET + "=?, " + COLUMN_SHUFFLE + "=?, " + COLUMN_LOOP + "=? WHERE " + COLUMN_STATE_ID + "=1";
+    private static final String SQL_GET_SHUFFLE_SEED = "SELECT " + COLUMN_SHUFFLE_SEED + " FROM " + TABLE_STATE + " WHERE " + COLUMN_STATE_ID + "=1";
+    private static final String SQL_GET_SHUFFLE_SIZE = "SELECT " + COLUMN_SHUFFLE_SIZE + " FROM " + TABLE_STATE + " WHERE " + COLUMN_STATE_ID + "=1";
+    private static final String SQL_INSERT_QUEUE = "INSERT INTO " + TABLE_QUEUE + " (" + COLUMN_MEDIA_ID_FK + ", " + COLUMN_ORDINAL + ") VALUES (?, ?)";
+    private static final String SQL_MOVE_QUEUE = "UPDATE " + TABLE_QUEUE + " SET " + COLUMN_ORDINAL + "=? WHERE " + COLUMN_ORDINAL + "=?";
+    private static final String SQL_DELETE_QUEUE = "DELETE FROM " + TABLE_QUEUE + " WHERE " + COLUMN_ORDINAL + "=?";
+    private static final String SQL_SET_LOUDNESS = "UPDATE " + TABLE_MEDIA + " SET " + COLUMN_LOUDNESS + "=?, " + COLUMN_VOLUME + "=? WHERE " + COLUMN_DATA + "=?";
+    private static final String SQL_SET_SEEK_INDEX = "UPDATE " + TABLE_MEDIA + " SET " + COLUMN_SEEK_INDEX + "=? WHERE " + COLUMN_DATA + "=?";
+    private final HashMap<String, SQLiteStatement> statementCache = new HashMap<>();
+
+    // Media ids in id order, so a shuffled position resolves to a row without touching the queue
+    // table. Rebuilt lazily after the library changes.
+    private volatile long[] mediaIdIndex;
+
+    // Likes-weighted sampler over the library in id order, built on the first smart shuffle and
+    // kept current by setLikes. Only touched on the writer thread.
+    private SmartShuffle smartShuffle;
+    private long[] smartShuffleIds;
+
+    // Sort keys of the stored queue in play order, loaded on the first positional lookup and
+    // edited alongside the queue table
+    private volatile QueueKeys queueKeys;
+
+    // Any thread may load the two caches above, but only the writer drops or replaces them, and
+    // it bumps this each time. A load keeps its result only if no bump came in while it ran, so
+    // one that read the tables before a write committed cannot outlive the write.
+    private final Object cacheLock = new Object();
+    private int cacheGeneration;
+
+    // Position, offset, shuffle and loop, read from the state row once and written behind
+    private PlaybackStateStore playbackState;
+
+    // Rewritten with the state row so the next launch can start playing without the database
+    private static final int SNAPSHOT_WINDOW = 16;
+    private final File snapshotFile;
+
+    public static File getSnapshotFile(Context context) {
+        return getSnapshotFile(context, DATABASE_NAME);
+    }
+
+    static File getSnapshotFile(Context context, String name) {
+        return new File(context.getFilesDir(), name + ".nowplaying");
+    }
 
-    public DatabaseHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    public static synchronized DatabaseHelper getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DatabaseHelper(context.getApplicationContext(), DATABASE_NAME);
+        }
+        return sInstance;
+    }
+
+    // Package-private so tests and benchmarks can work on a scratch database
+    DatabaseHelper(Context context, String name) {
+        super(context, name, null, DATABASE_VERSION);
+        snapshotFile = getSnapshotFile(context, name);
+        // Readers keep going while the writer thread commits
+        setWriteAheadLoggingEnabled(true);
+        writeExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "db-writer");
+            writerThread = thread;
+            return thread;
+        });
     }
 
     @Override
@@ -48,20 +156,28 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                 COLUMN_DURATION + " INTEGER, " +
                 COLUMN_DATA + " TEXT, " +
                 COLUMN_VOLUME + " INTEGER DEFAULT 128, " +
-                COLUMN_LIKES + " INTEGER DEFAULT 0)";
+                COLUMN_LIKES + " INTEGER DEFAULT 0, " +
+                COLUMN_STORE_ID + " INTEGER, " +
+                COLUMN_DATE_MODIFIED + " INTEGER, " +
+                COLUMN_SEEK_INDEX + " BLOB, " +
+                COLUMN_LOUDNESS + " REAL)";
         db.execSQL(createMediaTable);
+        createMediaIndexes(db);
+        createMediaSearch(db);
 
-        String createQueueTable = "CREATE TABLE " + TABLE_QUEUE + " (" +
-                COLUMN_QUEUE_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
-                COLUMN_MEDIA_ID_FK + " INTEGER, " +
-                "FOREIGN KEY(" + COLUMN_MEDIA_ID_FK + ") REFERENCES " + TABLE_MEDIA + "(" + COLUMN_MEDIA_ID + "))";
-        db.execSQL(createQueueTable);
+        createQueueTable(db, TABLE_QUEUE);
+        createQueueIndexes(db);
 
         String createStateTable = "CREATE TABLE " + TABLE_STATE + " (" +
                 COLUMN_STATE_ID + " INTEGER PRIMARY KEY, " +
                 COLUMN_POSITION + " INTEGER DEFAULT -1, " +
                 COLUMN_SHUFFLE + " INTEGER DEFAULT 1, " +
-                COLUMN_LOOP + " INTEGER DEFAULT 1)";
+                COLUMN_LOOP + " INTEGER DEFAULT 1, " +
+                COLUMN_STORE_VERSION + " TEXT, " +
+                COLUMN_STORE_GENERATIONS + " TEXT, " +
+                COLUMN_SHUFFLE_SEED + " INTEGER DEFAULT 0, " +
+                COLUMN_SHUFFLE_SIZE + " INTEGER DEFAULT 0, " +
+                COLUMN_PLAY_OFFSET + " INTEGER DEFAULT 0)";
         db.execSQL(createStateTable);
 
         // Insert default state
@@ -87,192 +203,863 @@ public class DatabaseHelper extends SQLiteOpenHelper {
                     "FOREIGN KEY(" + COLUMN_MEDIA_ID_FK + ") REFERENCES " + TABLE_MEDIA + "(" + COLUMN_MEDIA_ID + "))";
             db.execSQL(createQueueTable);
         }
+        if (oldVersion < 3) {
+            // Key media rows on the MediaStore _ID so sync can update them in place. Existing rows
+            // start unlinked and are matched back to MediaStore by path on the next sync.
+            db.execSQL("ALTER TABLE " + TABLE_MEDIA + " ADD COLUMN " + COLUMN_STORE_ID + " INTEGER");
+            db.execSQL("ALTER TABLE " + TABLE_MEDIA + " ADD COLUMN " + COLUMN_DATE_MODIFIED + " INTEGER");
+            createMediaIndexes(db);
+            db.execSQL("ALTER TABLE " + TABLE_STATE + " ADD COLUMN " + COLUMN_STORE_VERSION + " TEXT");
+            db.execSQL("ALTER TABLE " + TABLE_STATE + " ADD COLUMN " + COLUMN_STORE_GENERATIONS + " TEXT");
+        }
+        if (oldVersion < 4) {
+            // Give the queue an explicit position. Copying in id order numbers the rows 1..n in the
+            // new table, so the existing order is kept as ordinal = id - 1.
+            createQueueTable(db, TABLE_QUEUE + "_new");
+            db.execSQL("INSERT INTO " + TABLE_QUEUE + "_new (" + COLUMN_MEDIA_ID_FK + ", " + COLUMN_ORDINAL + ") " +
+                    "SELECT " + COLUMN_MEDIA_ID_FK + ", 0 FROM " + TABLE_QUEUE + " ORDER BY " + COLUMN_QUEUE_ID);
+            db.execSQL("UPDATE " + TABLE_QUEUE + "_new SET " + COLUMN_ORDINAL + " = " + COLUMN_QUEUE_ID + " - 1");
+            db.execSQL("DROP TABLE " + TABLE_QUEUE);
+            db.execSQL("ALTER TABLE " + TABLE_QUEUE + "_new RENAME TO " + TABLE_QUEUE);
+            createQueueIndexes(db);
+        }
+        if (oldVersion < 5) {
+            // Existing queues stay materialized (seed 0) until the next reshuffle
+            db.execSQL("ALTER TABLE " + TABLE_STATE + " ADD COLUMN " + COLUMN_SHUFFLE_SEED + " INTEGER DEFAULT 0");
+            db.execSQL("ALTER TABLE " + TABLE_STATE + " ADD COLUMN " + COLUMN_SHUFFLE_SIZE + " INTEGER DEFAULT 0");
+        }
+        if (oldVersion < 6) {
+            db.execSQL("ALTER TABLE " + TABLE_STATE + " ADD COLUMN " + COLUMN_PLAY_OFFSET + " INTEGER DEFAULT 0");
+        }
+        if (oldVersion < 7) {
+            createMediaSearch(db);
+            db.execSQL("INSERT INTO " + TABLE_MEDIA_FTS + "(" + TABLE_MEDIA_FTS + ") VALUES('rebuild')");
+        }
+        if (oldVersion < 8) {
+            // The player now looks rows up by path, so the partial path index becomes a full one
+            db.execSQL("ALTER TABLE " + TABLE_MEDIA + " ADD COLUMN " + COLUMN_SEEK_INDEX + " BLOB");
+            db.execSQL("DROP INDEX IF EXISTS idx_media_unlinked");
+            db.execSQL("CREATE INDEX IF NOT EXISTS idx_media_data ON " + TABLE_MEDIA + "(" + COLUMN_DATA + ")");
+        }
+        if (oldVersion < 9) {
+            db.execSQL("ALTER TABLE " + TABLE_MEDIA + " ADD COLUMN " + COLUMN_LOUDNESS + " REAL");
+        }
+    }
+
+    private void createQueueTable(SQLiteDatabase db, String name) {
+        db.execSQL("CREATE TABLE " + name + " (" +
+                COLUMN_QUEUE_ID + " INTEGER PRIMARY KEY AUTOINCREMENT, " +
+                COLUMN_MEDIA_ID_FK + " INTEGER, " +
+                COLUMN_ORDINAL + " INTEGER NOT NULL, " +
+                "FOREIGN KEY(" + COLUMN_MEDIA_ID_FK + ") REFERENCES " + TABLE_MEDIA + "(" + COLUMN_MEDIA_ID + "))");
+    }
+
+    private void createQueueIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX idx_queue_ordinal ON " + TABLE_QUEUE + "(" + COLUMN_ORDINAL + ")");
+    }
+
+    private void createMediaIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX idx_media_store_id ON " + TABLE_MEDIA + "(" + COLUMN_STORE_ID + ")");
+        // Sync matches unlinked rows by path, and the player finds a file's seek index by it
+        db.execSQL("CREATE INDEX IF NOT EXISTS idx_media_data ON " + TABLE_MEDIA + "(" + COLUMN_DATA + ")");
+    }
+
+    // An external-content FTS4 table stores only the index; triggers keep it in step with every
+    // insert, delete and artist/title change, whichever importer path made it
+    private void createMediaSearch(SQLiteDatabase db) {
+        db.execSQL("CREATE VIRTUAL TABLE " + TABLE_MEDIA_FTS + " USING fts4(content=\"" + TABLE_MEDIA + "\", " +
+                COLUMN_ARTIST + ", " + COLUMN_TITLE + ", tokenize=unicode61)");
+        String deleteOld = "DELETE FROM " + TABLE_MEDIA_FTS + " WHERE docid=old." + COLUMN_MEDIA_ID + "; ";
+        String insertNew = "INSERT INTO " + TABLE_MEDIA_FTS + "(docid, " + COLUMN_ARTIST + ", " + COLUMN_TITLE + ") VALUES(new." +
+                COLUMN_MEDIA_ID + ", new." + COLUMN_ARTIST + ", new." + COLUMN_TITLE + "); ";
+        db.execSQL("CREATE TRIGGER media_fts_insert AFTER INSERT ON " + TABLE_MEDIA + " BEGIN " + insertNew + "END");
+        db.execSQL("CREATE TRIGGER media_fts_delete BEFORE DELETE ON " + TABLE_MEDIA + " BEGIN " + deleteOld + "END");
+        db.execSQL("CREATE TRIGGER media_fts_before_update BEFORE UPDATE OF " + COLUMN_ARTIST + ", " + COLUMN_TITLE + " ON " +
+                TABLE_MEDIA + " BEGIN " + deleteOld + "END");
+        db.execSQL("CREATE TRIGGER media_fts_after_update AFTER UPDATE OF " + COLUMN_ARTIST + ", " + COLUMN_TITLE + " ON " +
+                TABLE_MEDIA + " BEGIN " + insertNew + "END");
+    }
+
+    // Runs a write on the single writer thread and waits for it, so writes are serialized
+    // no matter which thread calls in. Re-entrant calls from the writer thread run inline.
+    <T> T runWrite(Callable<T> work) {
+        try {
+            if (Thread.currentThread() == writerThread) {
+                return work.call();
+            }
+            return writeExecutor.submit(work).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    synchronized SQLiteStatement statement(String sql) {
+        SQLiteStatement statement = statementCache.get(sql);
+        if (statement == null) {
+            statement = getWritableDatabase().compileStatement(sql);
+            statementCache.put(sql, statement);
+        }
+        return statement;
+    }
+
+    @Override
+    public synchronized void close() {
+        for (SQLiteStatement statement : statementCache.values()) {
+            statement.close();
+        }
+        statementCache.clear();
+        super.close();
+    }
+
+    private static long queryLong(SQLiteStatement statement, long fallback) {
+        synchronized (statement) {
+            try {
+                return statement.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                return fallback;
+            }
+        }
     }
 
     public int getMediaCount() {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_MEDIA, new String[]{COLUMN_MEDIA_ID}, null, null, null, null, null);
-        int count = cursor.getCount();
-        cursor.close();
-        db.close();
-        return count;
+        return (int) queryLong(statement(SQL_MEDIA_COUNT), 0);
     }
 
     public boolean isQueueEmpty() {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_QUEUE, new String[]{COLUMN_QUEUE_ID}, null, null, null, null, null);
-        boolean empty = cursor.getCount() == 0;
-        cursor.close();
-        db.close();
-        return empty;
+        if (getShuffleOrder() != null) {
+            return getMediaCount() == 0;
+        }
+        return queryLong(statement(SQL_QUEUE_NOT_EMPTY), 0) == 0;
     }
 
-    public long loadMediaFromMediaStore(Context context) {
-        long startTime = System.currentTimeMillis();
-        SQLiteDatabase db = this.getWritableDatabase();
-        // Clear existing
-        db.delete(TABLE_MEDIA, null, null);
+    // Brings the media table up to date with MediaStore, touching only the rows that changed and
+    // keeping the volume and likes already stored for them
+    public ImportStats syncMediaFromMediaStore(Context context) {
+        MediaImporter importer = new MediaImporter(MediaImporter.DEFAULT_BATCH_SIZE);
+        return runWrite(() -> {
+            // The current track is remembered by its media id in a shuffled queue and by its
+            // ordinal in a stored one, so the position can follow it past deleted rows
+            ShufflePermutation order = getShuffleOrder();
+            long currentMediaId = -1;
+            long currentOrdinal = -1;
+            int position = getQueuePosition();
+            if (order != null && position >= 0 && position < order.size()) {
+                long[] index = getLibraryIndex();
+                int rank = order.apply(position);
+                currentMediaId = rank < index.length ? index[rank] : -1;
+            } else if (order == null) {
+                QueueKeys keys = getQueueKeys();
+                currentOrdinal = position >= 0 && position < keys.size() ? keys.get(position) : -1;
+            }
 
-        Cursor cursor = context.getContentResolver().query(
-                MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
-                new String[]{
-                        MediaStore.Audio.Media.ARTIST,
-                        MediaStore.Audio.Media.TITLE,
-                        MediaStore.Audio.Media.DURATION,
-                        MediaStore.Audio.Media.DATA
-                },
-                null, null, null);
-
-        if (cursor != null) {
-            while (cursor.moveToNext()) {
-                String artist = cursor.getString(0).trim();
-                String title = cursor.getString(1).trim();
-                long duration = cursor.getLong(2);
-                String data = cursor.getString(3);
-
-                if (artist.equals("<unknown>") && title.contains(" - ")) {
-                    String[] parts = title.split(" - ", 2);
-                    if (parts.length == 2) {
-                        artist = parts[0].trim();
-                        title = parts[1].trim();
-                    }
+            ImportStats stats = importer.sync(context, getWritableDatabase());
+            if (stats.getDeleted() > 0) {
+                replaceQueueKeys(null);
+            }
+            if (stats.getInserted() > 0 || stats.getDeleted() > 0) {
+                getPlaybackState().queueChanged();
+                invalidateLibraryIndex();
+                if (order != null) {
+                    resizeShuffle(order.getSeed(), currentMediaId);
+                } else if (stats.getDeleted() > 0 && currentOrdinal >= 0) {
+                    reanchorQueuePosition(currentOrdinal);
                 }
+            }
+            return stats;
+        });
+    }
+
+    // Points the position at the queue row with the ordinal again after rows were deleted, or at
+    // the survivor that took its place when it was deleted itself, the last row at the end
+    private void reanchorQueuePosition(long ordinal) {
+        SQLiteStatement rank = statement(SQL_QUEUE_RANK);
+        int position;
+        synchronized (rank) {
+            rank.bindLong(1, ordinal);
+            position = (int) rank.simpleQueryForLong();
+        }
+        int size = (int) queryLong(statement(SQL_QUEUE_COUNT), 0);
+        setQueuePosition(Math.min(position, size - 1));
+    }
+
+    // Called after anything adds or removes media rows
+    void invalidateLibraryIndex() {
+        synchronized (cacheLock) {
+            cacheGeneration++;
+            mediaIdIndex = null;
+        }
+        runWrite(() -> {
+            smartShuffle = null;
+            smartShuffleIds = null;
+            return null;
+        });
+    }
 
-                ContentValues values = new ContentValues();
-                values.put(COLUMN_ARTIST, artist);
-                values.put(COLUMN_TITLE, title);
-                values.put(COLUMN_DURATION, duration);
-                values.put(COLUMN_DATA, data);
-                values.put(COLUMN_VOLUME, 128);
-                values.put(COLUMN_LIKES, 0);
-                db.insert(TABLE_MEDIA, null, values);
+    private long[] getLibraryIndex() {
+        long[] index = mediaIdIndex;
+        if (index == null) {
+            int generation = getCacheGeneration();
+            SQLiteDatabase db = this.getReadableDatabase();
+            Cursor cursor = db.query(TABLE_MEDIA, new String[]{COLUMN_MEDIA_ID}, null, null, null, null, COLUMN_MEDIA_ID);
+            index = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                index[i] = cursor.getLong(0);
             }
             cursor.close();
+            synchronized (cacheLock) {
+                if (generation == cacheGeneration) {
+                    mediaIdIndex = index;
+                }
+            }
+        }
+        return index;
+    }
+
+    private int getCacheGeneration() {
+        synchronized (cacheLock) {
+            return cacheGeneration;
+        }
+    }
+
+    // Writer thread only
+    private void replaceQueueKeys(QueueKeys keys) {
+        synchronized (cacheLock) {
+            cacheGeneration++;
+            queueKeys = keys;
+        }
+    }
+
+    // The permutation behind a lazily shuffled queue, or null when the queue table holds the order
+    public ShufflePermutation getShuffleOrder() {
+        long seed = queryLong(statement(SQL_GET_SHUFFLE_SEED), 0);
+        if (seed == 0) {
+            return null;
         }
-        db.close();
-        long endTime = System.currentTimeMillis();
-        return endTime - startTime;
+        return new ShufflePermutation(seed, (int) queryLong(statement(SQL_GET_SHUFFLE_SIZE), 0));
+    }
+
+    // Re-keys the shuffle to the new library size, keeping the current track at the current position
+    // of the new order so playback carries on where it was
+    private void resizeShuffle(long seed, long currentMediaId) {
+        long[] index = getLibraryIndex();
+        ShufflePermutation order = new ShufflePermutation(seed, index.length);
+        int rank = currentMediaId >= 0 ? Arrays.binarySearch(index, currentMediaId) : -1;
+        int position = rank >= 0 ? order.inverse(rank) : (index.length > 0 ? 0 : -1);
+        getWritableDatabase().execSQL("UPDATE " + TABLE_STATE + " SET " + COLUMN_SHUFFLE_SIZE + "=? WHERE " + COLUMN_STATE_ID + "=1",
+                new Object[]{index.length});
+        setQueuePosition(position);
     }
 
-    public ArrayList<String> getQueueItems() {
-        ArrayList<String> items = new ArrayList<>();
+    public QueueModel getQueueItems() {
+        ShufflePermutation order = getShuffleOrder();
+        if (order != null) {
+            return getShuffledQueueItems(order);
+        }
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery("SELECT m." + COLUMN_ARTIST + ", m." + COLUMN_TITLE + ", m." + COLUMN_DURATION + ", m." + COLUMN_DATA +
-                " FROM " + TABLE_QUEUE + " q INNER JOIN " + TABLE_MEDIA + " m ON q." + COLUMN_MEDIA_ID_FK + " = m." + COLUMN_MEDIA_ID, null);
+        Cursor cursor = db.rawQuery("SELECT m." + COLUMN_MEDIA_ID + ", m." + COLUMN_ARTIST + ", m." + COLUMN_TITLE + ", m." + COLUMN_DURATION + ", m." + COLUMN_DATA + ", m." + COLUMN_VOLUME + ", m." + COLUMN_LIKES +
+                " FROM " + TABLE_QUEUE + " q INNER JOIN " + TABLE_MEDIA + " m ON q." + COLUMN_MEDIA_ID_FK + " = m." + COLUMN_MEDIA_ID +
+                " ORDER BY q." + COLUMN_ORDINAL, null);
+        QueueModel.Builder builder = new QueueModel.Builder(cursor.getCount());
         while (cursor.moveToNext()) {
-            String artist = cursor.getString(0);
-            String title = cursor.getString(1);
-            long duration = cursor.getLong(2);
-            String data = cursor.getString(3);
-            items.add(artist + "|" + title + "|" + duration + "|" + data);
+            builder.add(cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getLong(3), cursor.getString(4), cursor.getInt(5), cursor.getInt(6));
         }
         cursor.close();
-        db.close();
-        return items;
+        return builder.build();
     }
 
-    public void fillQueueWithShuffledMedia() {
-        SQLiteDatabase db = this.getWritableDatabase();
-        db.delete(TABLE_QUEUE, null, null);
-        Cursor cursor = db.query(TABLE_MEDIA, new String[]{COLUMN_MEDIA_ID}, null, null, null, null, null);
-        ArrayList<Long> mediaIds = new ArrayList<>();
+    // Library columns in id order with the permutation on top; the shuffled order is never stored
+    private QueueModel getShuffledQueueItems(ShufflePermutation order) {
+        SQLiteDatabase db = this.getReadableDatabase();
+        Cursor cursor = db.rawQuery("SELECT " + COLUMN_MEDIA_ID + ", " + COLUMN_ARTIST + ", " + COLUMN_TITLE + ", " +
+                COLUMN_DURATION + ", " + COLUMN_DATA + ", " + COLUMN_VOLUME + ", " + COLUMN_LIKES + " FROM " + TABLE_MEDIA + " ORDER BY " + COLUMN_MEDIA_ID, null);
+        int count = cursor.getCount();
+        QueueModel.Builder builder = new QueueModel.Builder(count);
+        builder.setOrder(order.size() == count ? order : new ShufflePermutation(order.getSeed(), count));
         while (cursor.moveToNext()) {
-            mediaIds.add(cursor.getLong(0));
+            builder.add(cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getLong(3), cursor.getString(4), cursor.getInt(5), cursor.getInt(6));
         }
         cursor.close();
-        // Shuffle
-        java.util.Collections.shuffle(mediaIds);
-        for (Long id : mediaIds) {
-            ContentValues values = new ContentValues();
-            values.put(COLUMN_MEDIA_ID_FK, id);
-            db.insert(TABLE_QUEUE, null, values);
+        return builder.build();
+    }
+
+    // Reshuffles in O(1): stores a fresh seed and the library size instead of writing out every row
+    public void fillQueueWithShuffledMedia() {
+        runWrite(() -> {
+            long seed = 0;
+            while (seed == 0) {
+                seed = new Random().nextLong();
+            }
+            SQLiteDatabase db = getWritableDatabase();
+            db.beginTransactionNonExclusive();
+            try {
+                db.delete(TABLE_QUEUE, null, null);
+                db.execSQL("UPDATE " + TABLE_STATE + " SET " + COLUMN_SHUFFLE_SEED + "=?, " + COLUMN_SHUFFLE_SIZE + "=? WHERE " +
+                        COLUMN_STATE_ID + "=1", new Object[]{seed, getLibraryIndex().length});
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            replaceQueueKeys(null);
+            getPlaybackState().queueChanged();
+            return null;
+        });
+    }
+
+    // Writes a queue of library size drawn by likes, skipping anything played in the last few picks.
+    // Unlike the random shuffle this order cannot be derived from a seed, so it is stored row by row.
+    public void fillQueueWithSmartShuffle() {
+        runWrite(() -> {
+            SmartShuffle shuffle = getSmartShuffle();
+            long[] ids = smartShuffleIds;
+            long[] picks = new long[ids.length];
+            int count = 0;
+            while (count < picks.length) {
+                int rank = shuffle.next();
+                if (rank < 0) {
+                    break;
+                }
+                picks[count++] = ids[rank];
+            }
+            writeQueue(picks, count);
+            return null;
+        });
+    }
+
+    // Replaces the queue table with the given media in order, keys spaced for later edits
+    private void writeQueue(long[] mediaIds, int count) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransactionNonExclusive();
+        try {
+            db.delete(TABLE_QUEUE, null, null);
+            SQLiteStatement insert = db.compileStatement(SQL_INSERT_QUEUE);
+            for (int position = 0; position < count; position++) {
+                insert.bindLong(1, mediaIds[position]);
+                insert.bindLong(2, position * QueueKeys.GAP);
+                insert.executeInsert();
+            }
+            insert.close();
+            db.execSQL("UPDATE " + TABLE_STATE + " SET " + COLUMN_SHUFFLE_SEED + "=0, " + COLUMN_SHUFFLE_SIZE + "=0 WHERE " +
+                    COLUMN_STATE_ID + "=1");
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
         }
-        db.close();
+        replaceQueueKeys(new QueueKeys(QueueKeys.spaced(count)));
+        getPlaybackState().queueChanged();
     }
 
-    public int getQueuePosition() {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_STATE, new String[]{COLUMN_POSITION}, COLUMN_STATE_ID + "=1", null, null, null, null);
-        int position = -1;
-        if (cursor.moveToFirst()) {
-            position = cursor.getInt(0);
+    // Fills the queue the way the stored shuffle mode asks for
+    public void fillQueue() {
+        if (getShuffle() == SHUFFLE_SMART) {
+            fillQueueWithSmartShuffle();
+        } else {
+            fillQueueWithShuffledMedia();
+        }
+    }
+
+    private SmartShuffle getSmartShuffle() {
+        if (smartShuffle == null) {
+            Cursor cursor = getReadableDatabase().query(TABLE_MEDIA, new String[]{COLUMN_MEDIA_ID, COLUMN_LIKES},
+                    null, null, null, null, COLUMN_MEDIA_ID);
+            long[] ids = new long[cursor.getCount()];
+            int[] likes = new int[ids.length];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+                likes[i] = cursor.getInt(1);
+            }
+            cursor.close();
+            smartShuffleIds = ids;
+            smartShuffle = new SmartShuffle(likes, SMART_SHUFFLE_RECENT, new Random().nextLong());
+        }
+        return smartShuffle;
+    }
+
+    // Stores the like count and reweights the smart shuffle in place rather than rebuilding it
+    public void setLikes(long mediaId, int likes) {
+        runWrite(() -> {
+            getWritableDatabase().execSQL("UPDATE " + TABLE_MEDIA + " SET " + COLUMN_LIKES + "=? WHERE " + COLUMN_MEDIA_ID + "=?",
+                    new Object[]{likes, mediaId});
+            if (smartShuffle != null) {
+                int rank = Arrays.binarySearch(smartShuffleIds, mediaId);
+                if (rank >= 0) {
+                    smartShuffle.setLikes(rank, likes);
+                }
+            }
+            return null;
+        });
+    }
+
+    private QueueKeys getQueueKeys() {
+        QueueKeys keys = queueKeys;
+        if (keys == null) {
+            int generation = getCacheGeneration();
+            Cursor cursor = getReadableDatabase().query(TABLE_QUEUE, new String[]{COLUMN_ORDINAL}, null, null, null, null, COLUMN_ORDINAL);
+            long[] ordinals = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ordinals[i] = cursor.getLong(0);
+            }
+            cursor.close();
+            keys = new QueueKeys(ordinals);
+            synchronized (cacheLock) {
+                if (generation == cacheGeneration) {
+                    queueKeys = keys;
+                }
+            }
+        }
+        return keys;
+    }
+
+    // Edits need real rows, so the first edit of a lazily shuffled queue writes its order out once
+    private QueueKeys getEditableQueueKeys() {
+        ShufflePermutation order = getShuffleOrder();
+        if (order != null) {
+            long[] index = getLibraryIndex();
+            if (order.size() != index.length) {
+                order = new ShufflePermutation(order.getSeed(), index.length);
+            }
+            long[] mediaIds = new long[index.length];
+            for (int position = 0; position < mediaIds.length; position++) {
+                mediaIds[position] = index[order.apply(position)];
+            }
+            writeQueue(mediaIds, mediaIds.length);
+        }
+        return getQueueKeys();
+    }
+
+    // The queue edits below each write one queue row and shift the in-memory key array. The
+    // caller keeps the stored position on the track that was playing; QueueRepository does.
+
+    public void insertIntoQueue(int position, long mediaId) {
+        runWrite(() -> {
+            QueueKeys keys = getEditableQueueKeys();
+            long key = keys.keyFor(position);
+            if (key == QueueKeys.NO_ROOM) {
+                keys = respaceQueueKeys();
+                key = keys.keyFor(position);
+            }
+            SQLiteStatement insert = statement(SQL_INSERT_QUEUE);
+            synchronized (insert) {
+                insert.bindLong(1, mediaId);
+                insert.bindLong(2, key);
+                insert.executeInsert();
+            }
+            keys.insert(position, key);
+            getPlaybackState().queueChanged();
+            respaceInBackgroundIfCrowded(keys);
+            return null;
+        });
+    }
+
+    public void moveQueueItem(int from, int to) {
+        runWrite(() -> {
+            QueueKeys keys = getEditableQueueKeys();
+            if (from == to) {
+                return null;
+            }
+            long oldKey = keys.remove(from);
+            long key = keys.keyFor(to);
+            if (key == QueueKeys.NO_ROOM) {
+                keys.insert(from, oldKey);
+                keys = respaceQueueKeys();
+                oldKey = keys.remove(from);
+                key = keys.keyFor(to);
+            }
+            SQLiteStatement move = statement(SQL_MOVE_QUEUE);
+            synchronized (move) {
+                move.bindLong(1, key);
+                move.bindLong(2, oldKey);
+                move.executeUpdateDelete();
+            }
+            keys.insert(to, key);
+            getPlaybackState().queueChanged();
+            respaceInBackgroundIfCrowded(keys);
+            return null;
+        });
+    }
+
+    public void removeFromQueue(int position) {
+        runWrite(() -> {
+            QueueKeys keys = getEditableQueueKeys();
+            long key = keys.remove(position);
+            SQLiteStatement delete = statement(SQL_DELETE_QUEUE);
+            synchronized (delete) {
+                delete.bindLong(1, key);
+                delete.executeUpdateDelete();
+            }
+            getPlaybackState().queueChanged();
+            return null;
+        });
+    }
+
+    // Queued behind the edit that crowded the keys, so the edit itself returns straight away
+    private void respaceInBackgroundIfCrowded(QueueKeys keys) {
+        if (!keys.isCrowded()) {
+            return;
+        }
+        writeExecutor.execute(() -> {
+            if (queueKeys != keys) {
+                return;
+            }
+            try {
+                respaceQueueKeys();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        });
+    }
+
+    private QueueKeys respaceQueueKeys() {
+        SQLiteDatabase db = getWritableDatabase();
+        int count;
+        db.beginTransactionNonExclusive();
+        try {
+            count = respaceQueue(db);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        QueueKeys keys = new QueueKeys(QueueKeys.spaced(count));
+        replaceQueueKeys(keys);
+        return keys;
+    }
+
+    // Spaces the queue keys GAP apart again in the same order. Rows first move to keys far below
+    // any real one, so the unique ordinal index never sees two rows on one key along the way.
+    static int respaceQueue(SQLiteDatabase db) {
+        Cursor cursor = db.query(TABLE_QUEUE, new String[]{COLUMN_QUEUE_ID}, null, null, null, null, COLUMN_ORDINAL);
+        long[] ids = new long[cursor.getCount()];
+        for (int i = 0; cursor.moveToNext(); i++) {
+            ids[i] = cursor.getLong(0);
         }
         cursor.close();
-        db.close();
-        return position;
+        SQLiteStatement update = db.compileStatement("UPDATE " + TABLE_QUEUE + " SET " + COLUMN_ORDINAL + "=? WHERE " +
+                COLUMN_QUEUE_ID + "=?");
+        for (int i = 0; i < ids.length; i++) {
+            update.bindLong(1, Long.MIN_VALUE / 2 + i);
+            update.bindLong(2, ids[i]);
+            update.executeUpdateDelete();
+        }
+        for (int i = 0; i < ids.length; i++) {
+            update.bindLong(1, i * QueueKeys.GAP);
+            update.bindLong(2, ids[i]);
+            update.executeUpdateDelete();
+        }
+        update.close();
+        return ids.length;
+    }
+
+    public synchronized PlaybackStateStore getPlaybackState() {
+        if (playbackState == null) {
+            Cursor cursor = getReadableDatabase().query(TABLE_STATE, new String[]{COLUMN_POSITION, COLUMN_PLAY_OFFSET, COLUMN_SHUFFLE, COLUMN_LOOP},
+                    COLUMN_STATE_ID + "=1", null, null, null, null);
+            if (cursor.moveToFirst()) {
+                playbackState = new PlaybackStateStore(this, cursor.getInt(0), cursor.getLong(1), cursor.getInt(2), cursor.getInt(3));
+            } else {
+                playbackState = new PlaybackStateStore(this, -1, 0, SHUFFLE_RANDOM, 1);
+            }
+            cursor.close();
+        }
+        return playbackState;
+    }
+
+    // Called by PlaybackStateStore on the writer thread; every field goes out in one statement.
+    // The snapshot is only rebuilt when the track or the queue around it may have changed; for
+    // the offset ticks of a playing track its offset is patched in place.
+    void writePlaybackState(int position, long offset, int shuffle, int loop, boolean offsetOnly) {
+        SQLiteStatement update = statement(SQL_SET_PLAYBACK_STATE);
+        synchronized (update) {
+            update.bindLong(1, position);
+            update.bindLong(2, offset);
+            update.bindLong(3, shuffle);
+            update.bindLong(4, loop);
+            update.executeUpdateDelete();
+        }
+        if (offsetOnly) {
+            writeSnapshotOffset(position, offset);
+        } else {
+            writeSnapshot(position, offset);
+        }
+    }
+
+    private void writeSnapshotOffset(int position, long offset) {
+        try {
+            if (NowPlayingSnapshot.writeOffset(snapshotFile, position, offset)) {
+                return;
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        writeSnapshot(position, offset);
+    }
+
+    // A failed snapshot only costs the fast start, so errors are logged and dropped
+    private void writeSnapshot(int position, long offset) {
+        try {
+            int queueSize = getShuffleOrder() != null ? getLibraryIndex().length : getQueueKeys().size();
+            if (position < 0 || position >= queueSize) {
+                snapshotFile.delete();
+                return;
+            }
+            int windowStart = Math.max(0, position - 1);
+            ArrayList<SongInfo> songs = getQueueRange(windowStart, SNAPSHOT_WINDOW);
+            QueueModel.Builder window = new QueueModel.Builder(songs.size());
+            for (SongInfo song : songs) {
+                window.add(song.getId(), song.getArtist(), song.getTitle(), song.getDuration(), song.getData());
+            }
+            NowPlayingSnapshot.write(snapshotFile, position, offset, queueSize, windowStart, window.build());
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public int getQueuePosition() {
+        return getPlaybackState().getPosition();
     }
 
     public void setQueuePosition(int position) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_POSITION, position);
-        db.update(TABLE_STATE, values, COLUMN_STATE_ID + "=1", null);
-        db.close();
+        getPlaybackState().setPosition(position);
     }
 
     public int getShuffle() {
-        SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_STATE, new String[]{COLUMN_SHUFFLE}, COLUMN_STATE_ID + "=1", null, null, null, null);
-        int shuffle = 1;
-        if (cursor.moveToFirst()) {
-            shuffle = cursor.getInt(0);
-        }
-        cursor.close();
-        db.close();
-        return shuffle;
+        return getPlaybackState().getShuffle();
     }
 
     public void setShuffle(int shuffle) {
-        SQLiteDatabase db = this.getWritableDatabase();
-        ContentValues values = new ContentValues();
-        values.put(COLUMN_SHUFFLE, shuffle);
-        db.update(TABLE_STATE, values, COLUMN_STATE_ID + "=1", null);
-        db.close();
+        getPlaybackState().setShuffle(shuffle);
     }
 
     public int getLoop() {
+        return getPlaybackState().getLoop();
+    }
+
+    public void setLoop(int loop) {
+        getPlaybackState().setLoop(loop);
+    }
+
+    private static final String SQL_SELECT_SONG = "SELECT m." + COLUMN_MEDIA_ID + ", m." + COLUMN_ARTIST + ", m." + COLUMN_TITLE + ", m." + COLUMN_DURATION + ", m." + COLUMN_DATA + ", m." + COLUMN_VOLUME + ", m." + COLUMN_LIKES +
+            " FROM " + TABLE_QUEUE + " q INNER JOIN " + TABLE_MEDIA + " m ON q." + COLUMN_MEDIA_ID_FK + " = m." + COLUMN_MEDIA_ID;
+    private static final String SQL_SELECT_MEDIA = "SELECT m." + COLUMN_MEDIA_ID + ", m." + COLUMN_ARTIST + ", m." + COLUMN_TITLE + ", m." + COLUMN_DURATION + ", m." + COLUMN_DATA + ", m." + COLUMN_VOLUME + ", m." + COLUMN_LIKES +
+            " FROM " + TABLE_MEDIA + " m WHERE m." + COLUMN_MEDIA_ID + " = ?";
+
+    // All positional lookups below cost O(log n) at any depth: a shuffled queue resolves the
+    // position through its permutation and the media primary key, a stored queue through its
+    // key array and the ordinal index
+    public String getCurrentSongInfo(int position) {
+        SongInfo song = getSongAt(position);
+        if (song == null) {
+            return null;
+        }
+        String info = null;
+        try {
+            JSONObject json = new JSONObject();
+            json.put("id", song.getId());
+            json.put("artist", song.getArtist());
+            json.put("title", song.getTitle());
+            json.put("duration", song.getDuration());
+            json.put("data", song.getData());
+            json.put("volume", song.getVolume());
+            json.put("likes", song.getLikes());
+            info = json.toString();
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+        return info;
+    }
+
+    public SongInfo getSongAt(int position) {
+        ShufflePermutation order = getShuffleOrder();
+        if (order != null) {
+            long[] index = getLibraryIndex();
+            // Sized to the library as it is now, as getShuffledQueueItems does
+            if (order.size() != index.length) {
+                order = new ShufflePermutation(order.getSeed(), index.length);
+            }
+            if (position < 0 || position >= index.length) {
+                return null;
+            }
+            return querySingleSong(SQL_SELECT_MEDIA, index[order.apply(position)]);
+        }
+        QueueKeys keys = getQueueKeys();
+        if (position < 0 || position >= keys.size()) {
+            return null;
+        }
+        return querySingleSong(SQL_SELECT_SONG + " WHERE q." + COLUMN_ORDINAL + " = ?", keys.get(position));
+    }
+
+    public ArrayList<SongInfo> getQueueRange(int fromPosition, int count) {
+        if (getShuffleOrder() != null) {
+            ArrayList<SongInfo> songs = new ArrayList<>(count);
+            for (int position = fromPosition; position < fromPosition + count; position++) {
+                SongInfo song = getSongAt(position);
+                if (song == null) {
+                    break;
+                }
+                songs.add(song);
+            }
+            return songs;
+        }
+        QueueKeys keys = getQueueKeys();
+        if (fromPosition < 0 || fromPosition >= keys.size()) {
+            return new ArrayList<>();
+        }
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.query(TABLE_STATE, new String[]{COLUMN_LOOP}, COLUMN_STATE_ID + "=1", null, null, null, null);
-        int loop = 1;
-        if (cursor.moveToFirst()) {
-            loop = cursor.getInt(0);
+        Cursor cursor = db.rawQuery(SQL_SELECT_SONG + " WHERE q." + COLUMN_ORDINAL + " >= ? ORDER BY q." + COLUMN_ORDINAL + " LIMIT ?",
+                new String[]{String.valueOf(keys.get(fromPosition)), String.valueOf(count)});
+        ArrayList<SongInfo> songs = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            songs.add(readSongInfo(cursor));
         }
         cursor.close();
-        db.close();
-        return loop;
+        return songs;
     }
 
-    public String getCurrentSongInfo(int position) {
+    // The nearest queue entry after the given position, or null at the end of the queue
+    public SongInfo getNextSongInfo(int position) {
+        return getSongAt(position + 1);
+    }
+
+    // The nearest queue entry before the given position, or null at the start of the queue
+    public SongInfo getPreviousSongInfo(int position) {
+        return getSongAt(position - 1);
+    }
+
+    private SongInfo querySingleSong(String sql, long key) {
         SQLiteDatabase db = this.getReadableDatabase();
-        Cursor cursor = db.rawQuery("SELECT m." + COLUMN_MEDIA_ID + ", m." + COLUMN_ARTIST + ", m." + COLUMN_TITLE + ", m." + COLUMN_DURATION + ", m." + COLUMN_DATA + ", m." + COLUMN_VOLUME + ", m." + COLUMN_LIKES +
-                " FROM " + TABLE_QUEUE + " q INNER JOIN " + TABLE_MEDIA + " m ON q." + COLUMN_MEDIA_ID_FK + " = m." + COLUMN_MEDIA_ID +
-                " LIMIT 1 OFFSET " + position, null);
-        String info = null;
-        if (cursor.moveToFirst()) {
-            try {
-                JSONObject json = new JSONObject();
-                json.put("id", cursor.getLong(0));
-                json.put("artist", cursor.getString(1));
-                json.put("title", cursor.getString(2));
-                json.put("duration", cursor.getLong(3));
-                json.put("data", cursor.getString(4));
-                json.put("volume", cursor.getInt(5));
-                json.put("likes", cursor.getInt(6));
-                info = json.toString();
-            } catch (Exception e) {
-                e.printStackTrace();
+        Cursor cursor = db.rawQuery(sql, new String[]{String.valueOf(key)});
+        SongInfo song = cursor.moveToFirst() ? readSongInfo(cursor) : null;
+        cursor.close();
+        return song;
+    }
+
+    private static SongInfo readSongInfo(Cursor cursor) {
+        return new SongInfo(cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getLong(3),
+                cursor.getString(4), cursor.getInt(5), cursor.getInt(6));
+    }
+
+    // The stored seek index of the file, null when it has none yet
+    public byte[] getSeekIndex(String data) {
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT " + COLUMN_SEEK_INDEX + " FROM " + TABLE_MEDIA + " WHERE " +
+                COLUMN_DATA + "=? LIMIT 1", new String[]{data});
+        byte[] index = cursor.moveToFirst() ? cursor.getBlob(0) : null;
+        cursor.close();
+        return index;
+    }
+
+    public void setSeekIndex(String data, byte[] index) {
+        runWrite(() -> {
+            SQLiteStatement update = statement(SQL_SET_SEEK_INDEX);
+            synchronized (update) {
+                update.bindBlob(1, index);
+                update.bindString(2, data);
+                update.executeUpdateDelete();
             }
+            return null;
+        });
+    }
+
+    // Paths of MP3 files that have never been indexed, at most `limit`
+    public ArrayList<String> getUnindexedPaths(int limit) {
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT " + COLUMN_DATA + " FROM " + TABLE_MEDIA + " WHERE " +
+                COLUMN_SEEK_INDEX + " IS NULL AND " + COLUMN_DATA + " LIKE '%.mp3' LIMIT ?", new String[]{String.valueOf(limit)});
+        ArrayList<String> paths = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            paths.add(cursor.getString(0));
         }
         cursor.close();
-        db.close();
-        return info;
+        return paths;
+    }
+
+    // The gain stored for the file, LoudnessMeter.UNITY_VOLUME when it is not in the library
+    public int getVolume(String data) {
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT " + COLUMN_VOLUME + " FROM " + TABLE_MEDIA + " WHERE " +
+                COLUMN_DATA + "=? LIMIT 1", new String[]{data});
+        int volume = cursor.moveToFirst() ? cursor.getInt(0) : LoudnessMeter.UNITY_VOLUME;
+        cursor.close();
+        return volume;
+    }
+
+    public void setLoudness(String data, double loudness, int volume) {
+        runWrite(() -> {
+            SQLiteStatement update = statement(SQL_SET_LOUDNESS);
+            synchronized (update) {
+                update.bindDouble(1, loudness);
+                update.bindLong(2, volume);
+                update.bindString(3, data);
+                update.executeUpdateDelete();
+            }
+            return null;
+        });
+    }
+
+    // Paths of files whose loudness has not been measured yet, at most `limit`
+    public ArrayList<String> getUnmeasuredPaths(int limit) {
+        Cursor cursor = getReadableDatabase().rawQuery("SELECT " + COLUMN_DATA + " FROM " + TABLE_MEDIA + " WHERE " +
+                COLUMN_LOUDNESS + " IS NULL AND " + COLUMN_DATA + " IS NOT NULL LIMIT ?", new String[]{String.valueOf(limit)});
+        ArrayList<String> paths = new ArrayList<>(cursor.getCount());
+        while (cursor.moveToNext()) {
+            paths.add(cursor.getString(0));
+        }
+        cursor.close();
+        return paths;
+    }
+
+    // Matches the most relevant media rows, at most `limit`, ranked by LibrarySearch over every
+    // match; a title starting with the first word counts 2 more, and ties keep library order.
+    // Throws OperationCanceledException once the signal is cancelled.
+    public QueueModel searchMedia(String input, int limit, CancellationSignal signal) {
+        String match = LibrarySearch.toMatchQuery(input);
+        if (match == null) {
+            return QueueModel.EMPTY;
+        }
+        String sql = searchSql(LibrarySearch.countWords(match), limit);
+        String titleStart = LibrarySearch.toStartQuery(match, COLUMN_TITLE);
+        Cursor cursor = getReadableDatabase().rawQuery(sql, new String[]{match, titleStart}, signal);
+        try {
+            QueueModel.Builder builder = new QueueModel.Builder(cursor.getCount());
+            while (cursor.moveToNext()) {
+                builder.add(cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getLong(3), cursor.getString(4), cursor.getInt(5), cursor.getInt(6));
+            }
+            return builder.build();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    // Scores and sorts on the FTS table alone and joins only the rows kept to media, so the
+    // full rows of the other matches are never read
+    private static String searchSql(int words, int limit) {
+        return "SELECT m." + COLUMN_MEDIA_ID + ", m." + COLUMN_ARTIST + ", m." + COLUMN_TITLE + ", m." + COLUMN_DURATION + ", m." + COLUMN_DATA + ", m." + COLUMN_VOLUME + ", m." + COLUMN_LIKES +
+                " FROM (SELECT docid, " + LibrarySearch.scoreSql("matchinfo(" + TABLE_MEDIA_FTS + ", 'x')", words) +
+                " + 2 * (docid IN (SELECT docid FROM " + TABLE_MEDIA_FTS + " WHERE " + TABLE_MEDIA_FTS + " MATCH ?2)) AS score" +
+                " FROM " + TABLE_MEDIA_FTS + " WHERE " + TABLE_MEDIA_FTS + " MATCH ?1 ORDER BY score DESC, docid LIMIT " + limit + ") r" +
+                " INNER JOIN " + TABLE_MEDIA + " m ON m." + COLUMN_MEDIA_ID + " = r.docid ORDER BY r.score DESC, r.docid";
     }
 
     public void clearAllData() {
+        runWrite(() -> {
+            clearAllDataLocked();
+            return null;
+        });
+    }
+
+    private void clearAllDataLocked() {
         SQLiteDatabase db = this.getWritableDatabase();
         db.delete(TABLE_QUEUE, null, null);
         db.delete(TABLE_MEDIA, null, null);
         db.delete(TABLE_STATE, null, null);
+        invalidateLibraryIndex();
+        replaceQueueKeys(null);
         // Re-insert default state
         ContentValues values = new ContentValues();
         values.put(COLUMN_STATE_ID, 1);
@@ -280,6 +1067,7 @@ public class DatabaseHelper extends SQLiteOpenHelper {
         values.put(COLUMN_SHUFFLE, 1);
         values.put(COLUMN_LOOP, 1);
         db.insert(TABLE_STATE, null, values);
-        db.close();
+        getPlaybackState().reset(-1, 0, 1, 1);
+        snapshotFile.delete();
     }
 }
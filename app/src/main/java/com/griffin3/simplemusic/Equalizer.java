@@ -0,0 +1,186 @@
+package com.griffin3.simplemusic;
+
+/**
+ * A chain of peaking biquads over interleaved float PCM, filtered in place. What depends only on
+ * the sample rate and band frequencies is worked out once, and the coefficients only when a gain
+ * moves. A change glides in dB from the old gains to the new ones over RAMP_FRAMES, a small step
+ * every GLIDE_FRAMES, and Direct Form I keeps each filter's history meaningful across the steps,
+ * so dragging a slider does not click. Not thread safe: the audio thread owns it and hands it new
+ * gains between buffers.
+ */
+public final class Equalizer {
+    // The bands of the platform equalizer, an octave and a bit apart
+    public static final float[] DEFAULT_FREQUENCIES = {60f, 230f, 910f, 3600f, 14000f};
+    public static final float MAX_GAIN_DB = 12f;
+    // About 10 ms at 44.1 kHz, in steps of under a dB for the widest swing
+    static final int RAMP_FRAMES = 512;
+    static final int GLIDE_FRAMES = 16;
+    private static final double Q = 1.0;
+
+    private final int channels;
+    private final int bands;
+    // Per band, from the frequency alone; a band past Nyquist is left out
+    private final double[] cos;
+    private final double[] alpha;
+    private final boolean[] bypass;
+    // Gains in dB: in use now, being glided to, and the change per glide step
+    private final float[] gains;
+    private final float[] targetGains;
+    private final float[] gainSteps;
+    private int glideSteps;
+    private int glideFrames;
+    // b0, b1, b2, a1, a2 for each band
+    private final float[] coefficients;
+    private final boolean[] flat;
+    // x1, x2, y1, y2 for each band and channel
+    private final float[] history;
+    private float[] appliedGains;
+
+    public Equalizer(int sampleRate, int channels, float[] frequencies) {
+        this.channels = channels;
+        bands = frequencies.length;
+        cos = new double[bands];
+        alpha = new double[bands];
+        bypass = new boolean[bands];
+        gains = new float[bands];
+        targetGains = new float[bands];
+        gainSteps = new float[bands];
+        coefficients = new float[bands * 5];
+        flat = new boolean[bands];
+        history = new float[bands * channels * 4];
+        for (int band = 0; band < bands; band++) {
+            double w0 = 2.0 * Math.PI * frequencies[band] / sampleRate;
+            cos[band] = Math.cos(w0);
+            alpha[band] = Math.sin(w0) / (2.0 * Q);
+            bypass[band] = frequencies[band] >= sampleRate * 0.45f;
+        }
+        updateCoefficients();
+    }
+
+    public int getBandCount() {
+        return bands;
+    }
+
+    // Gains in dB, one per band. Only an array other than the one last passed counts as a
+    // change, so callers publish a fresh array per change and pass the same one otherwise.
+    public void setGains(float[] gainsDb) {
+        if (gainsDb == appliedGains) {
+            return;
+        }
+        boolean first = appliedGains == null;
+        appliedGains = gainsDb;
+        for (int band = 0; band < bands; band++) {
+            targetGains[band] = band < gainsDb.length ? Math.max(-MAX_GAIN_DB, Math.min(MAX_GAIN_DB, gainsDb[band])) : 0f;
+        }
+        if (first) {
+            System.arraycopy(targetGains, 0, gains, 0, bands);
+            updateCoefficients();
+            return;
+        }
+        glideSteps = RAMP_FRAMES / GLIDE_FRAMES;
+        glideFrames = 0;
+        for (int band = 0; band < bands; band++) {
+            gainSteps[band] = (targetGains[band] - gains[band]) / glideSteps;
+        }
+    }
+
+    // Whether processing would leave the samples as they are
+    public boolean isFlat() {
+        if (glideSteps > 0) {
+            return false;
+        }
+        for (int band = 0; band < bands; band++) {
+            if (!flat[band]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    // Forgets the signal so far, e.g. after a seek
+    public void reset() {
+        java.util.Arrays.fill(history, 0f);
+    }
+
+    public void process(float[] samples, int offset, int frames) {
+        int done = 0;
+        while (glideSteps > 0 && done < frames) {
+            if (glideFrames == 0) {
+                glideSteps--;
+                for (int band = 0; band < bands; band++) {
+                    gains[band] = glideSteps == 0 ? targetGains[band] : gains[band] + gainSteps[band];
+                }
+                updateCoefficients();
+                glideFrames = GLIDE_FRAMES;
+            }
+            int count = Math.min(glideFrames, frames - done);
+            filter(samples, offset + done * channels, count);
+            glideFrames -= count;
+            done += count;
+        }
+        if (done < frames) {
+            filter(samples, offset + done * channels, frames - done);
+        }
+    }
+
+    // Band by band and channel by channel, with the coefficients and history in locals
+    private void filter(float[] samples, int offset, int frames) {
+        int end = offset + frames * channels;
+        for (int band = 0; band < bands; band++) {
+            for (int channel = 0; channel < channels; channel++) {
+                int h = (band * channels + channel) * 4;
+                if (flat[band]) {
+                    // Keep the history what it would have been, so a later glide starts clean
+                    int last = end - channels + channel;
+                    history[h] = samples[last];
+                    history[h + 2] = samples[last];
+                    if (frames > 1) {
+                        history[h + 1] = samples[last - channels];
+                        history[h + 3] = samples[last - channels];
+                    }
+                    continue;
+                }
+                int c = band * 5;
+                float b0 = coefficients[c], b1 = coefficients[c + 1], b2 = coefficients[c + 2];
+                float a1 = coefficients[c + 3], a2 = coefficients[c + 4];
+                float x1 = history[h], x2 = history[h + 1], y1 = history[h + 2], y2 = history[h + 3];
+                for (int i = offset + channel; i < end; i += channels) {
+                    float x = samples[i];
+                    float y = b0 * x + b1 * x1 + b2 * x2 - a1 * y1 - a2 * y2;
+                    x2 = x1;
+                    x1 = x;
+                    y2 = y1;
+                    y1 = y;
+                    samples[i] = y;
+                }
+                history[h] = x1;
+                history[h + 1] = x2;
+                history[h + 2] = y1;
+                history[h + 3] = y2;
+            }
+        }
+    }
+
+    // RBJ cookbook peaking filters for the current gains; a flat band passes straight through
+    private void updateCoefficients() {
+        for (int band = 0; band < bands; band++) {
+            int c = band * 5;
+            flat[band] = gains[band] == 0f || bypass[band];
+            if (flat[band]) {
+                coefficients[c] = 1f;
+                coefficients[c + 1] = 0f;
+                coefficients[c + 2] = 0f;
+                coefficients[c + 3] = 0f;
+                coefficients[c + 4] = 0f;
+                continue;
+            }
+            double a = Math.pow(10.0, gains[band] / 40.0);
+            double a0 = 1.0 + alpha[band] / a;
+            coefficients[c] = (float) ((1.0 + alpha[band] * a) / a0);
+            coefficients[c + 1] = (float) (-2.0 * cos[band] / a0);
+            coefficients[c + 2] = (float) ((1.0 - alpha[band] * a) / a0);
+            coefficients[c + 3] = coefficients[c + 1];
+            coefficients[c + 4] = (float) ((1.0 - alpha[band] / a) / a0);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.griffin3.simplemusic;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.audio.BaseAudioProcessor;
+import java.nio.ByteBuffer;
+
+/**
+ * Runs the sink's PCM through an Equalizer. Gains can be set from any thread; the playback
+ * thread picks the latest ones up at the start of each buffer and the equalizer glides to them.
+ * Samples go through one float array and one output buffer, both only reallocated when a bigger
+ * input arrives, so a buffer costs no allocation. With every band flat the input is copied
+ * through untouched.
+ */
+public class EqualizerAudioProcessor extends BaseAudioProcessor {
+    private final float[] frequencies;
+    private volatile float[] gains;
+    // Built for the input format at flush; only touched on the playback thread
+    private Equalizer equalizer;
+    private int equalizerRate;
+    private int equalizerChannels;
+    private float[] samples = new float[0];
+
+    public EqualizerAudioProcessor(float[] frequencies, float[] gains) {
+        this.frequencies = frequencies.clone();
+        this.gains = gains.clone();
+    }
+
+    // Takes the array as it is; the caller hands over a fresh one for every change
+    public void setGains(float[] gains) {
+        this.gains = gains;
+    }
+
+    @Override
+    protected AudioFormat onConfigure(AudioFormat inputAudioFormat) throws UnhandledAudioFormatException {
+        if (inputAudioFormat.encoding != C.ENCODING_PCM_16BIT && inputAudioFormat.encoding != C.ENCODING_PCM_FLOAT) {
+            throw new UnhandledAudioFormatException(inputAudioFormat);
+        }
+        return inputAudioFormat;
+    }
+
+    @Override
+    public void queueInput(ByteBuffer inputBuffer) {
+        int position = inputBuffer.position();
+        int limit = inputBuffer.limit();
+        int size = limit - position;
+        if (size == 0) {
+            return;
+        }
+        ByteBuffer output = replaceOutputBuffer(size);
+        equalizer.setGains(gains);
+        if (equalizer.isFlat()) {
+            output.put(inputBuffer).flip();
+            return;
+        }
+        int channels = inputAudioFormat.channelCount;
+        boolean shorts = inputAudioFormat.encoding == C.ENCODING_PCM_16BIT;
+        int count = shorts ? size / 2 : size / 4;
+        if (samples.length < count) {
+            samples = new float[count];
+        }
+        if (shorts) {
+            for (int i = 0; i < count; i++) {
+                samples[i] = inputBuffer.getShort(position + 2 * i) / 32768f;
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                samples[i] = inputBuffer.getFloat(position + 4 * i);
+            }
+        }
+        equalizer.process(samples, 0, count / channels);
+        if (shorts) {
+            for (int i = 0; i < count; i++) {
+                int value = (int) (samples[i] * 32768f);
+                output.putShort(2 * i, (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value)));
+            }
+        } else {
+            for (int i = 0; i < count; i++) {
+                output.putFloat(4 * i, samples[i]);
+            }
+        }
+        inputBuffer.position(limit);
+        output.limit(size);
+    }
+
+    // A new format needs filters for its rate; otherwise a seek or new stream only clears history
+    @Override
+    protected void onFlush() {
+        if (equalizer == null || equalizerRate != inputAudioFormat.sampleRate || equalizerChannels != inputAudioFormat.channelCount) {
+            equalizerRate = inputAudioFormat.sampleRate;
+            equalizerChannels = inputAudioFormat.channelCount;
+            equalizer = new Equalizer(equalizerRate, equalizerChannels, frequencies);
+        } else {
+            equalizer.reset();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        equalizer = null;
+        samples = new float[0];
+    }
+}
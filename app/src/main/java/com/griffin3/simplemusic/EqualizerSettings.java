@@ -0,0 +1,85 @@
+package com.griffin3.simplemusic;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import java.util.ArrayList;
+
+/**
+ * The band gains the user has set, kept in shared preferences. Every change hands observers a
+ * fresh array, which is what lets the audio thread notice it with a reference check.
+ */
+public class EqualizerSettings {
+    private static final String PREFS = "equalizer";
+
+    public interface Observer {
+        // Called on the thread that made the change, with an array nobody else will write to
+        void onGainsChanged(float[] gains);
+    }
+
+    private static EqualizerSettings sInstance;
+
+    private final SharedPreferences prefs;
+    private final ArrayList<Observer> observers = new ArrayList<>();
+    private float[] gains;
+
+    public static synchronized EqualizerSettings getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new EqualizerSettings(context.getApplicationContext().getSharedPreferences(PREFS, Context.MODE_PRIVATE));
+        }
+        return sInstance;
+    }
+
+    private EqualizerSettings(SharedPreferences prefs) {
+        this.prefs = prefs;
+        gains = new float[Equalizer.DEFAULT_FREQUENCIES.length];
+        for (int band = 0; band < gains.length; band++) {
+            gains[band] = prefs.getFloat("band" + band, 0f);
+        }
+    }
+
+    public float[] getFrequencies() {
+        return Equalizer.DEFAULT_FREQUENCIES.clone();
+    }
+
+    public synchronized float[] getGains() {
+        return gains.clone();
+    }
+
+    public void setGain(int band, float gainDb) {
+        float[] changed;
+        synchronized (this) {
+            changed = gains.clone();
+            changed[band] = Math.max(-Equalizer.MAX_GAIN_DB, Math.min(Equalizer.MAX_GAIN_DB, gainDb));
+            gains = changed;
+        }
+        prefs.edit().putFloat("band" + band, changed[band]).apply();
+        notifyObservers(changed);
+    }
+
+    public void resetGains() {
+        float[] changed = new float[Equalizer.DEFAULT_FREQUENCIES.length];
+        synchronized (this) {
+            gains = changed;
+        }
+        prefs.edit().clear().apply();
+        notifyObservers(changed);
+    }
+
+    public synchronized void addObserver(Observer observer) {
+        observers.add(observer);
+    }
+
+    public synchronized void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
+    private void notifyObservers(float[] changed) {
+        ArrayList<Observer> current;
+        synchronized (this) {
+            current = new ArrayList<>(observers);
+        }
+        for (Observer observer : current) {
+            observer.onGainsChanged(changed.clone());
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.griffin3.simplemusic;
+
+/**
+ * Frame times of a render loop, in a fixed histogram of quarter-millisecond buckets so that
+ * recording a frame never allocates. Frames over the budget, usually one refresh period, are
+ * the ones that show as jank. Captures that arrive while a frame is already waiting to be drawn
+ * are counted as coalesced: the display could not have shown them anyway.
+ *
+ * <p>Synchronized because the render thread records while the UI thread reads.
+ */
+public class FrameStats {
+    private static final long BUCKET_NANOS = 250000;
+    private static final int BUCKETS = 200;
+
+    private final int[] histogram = new int[BUCKETS];
+    private long budgetNanos;
+    private int frames;
+    private int overBudget;
+    private int coalesced;
+    private long totalNanos;
+    private long worstNanos;
+
+    public FrameStats(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+
+    public synchronized void setBudgetNanos(long budgetNanos) {
+        this.budgetNanos = budgetNanos;
+    }
+
+    public synchronized void recordFrame(long nanos) {
+        frames++;
+        totalNanos += nanos;
+        worstNanos = Math.max(worstNanos, nanos);
+        if (nanos > budgetNanos) {
+            overBudget++;
+        }
+        histogram[(int) Math.min(BUCKETS - 1, nanos / BUCKET_NANOS)]++;
+    }
+
+    public synchronized void recordCoalesced() {
+        coalesced++;
+    }
+
+    public synchronized int getFrameCount() { return frames; }
+    public synchronized int getOverBudgetCount() { return overBudget; }
+    public synchronized int getCoalescedCount() { return coalesced; }
+    public synchronized long getWorstNanos() { return worstNanos; }
+
+    public synchronized long getAverageNanos() {
+        return frames == 0 ? 0 : totalNanos / frames;
+    }
+
+    // The upper edge of the bucket holding the given share of frames, e.g. 0.95
+    public synchronized long getPercentileNanos(double fraction) {
+        int wanted = (int) Math.ceil(frames * fraction);
+        int seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += histogram[bucket];
+            if (seen >= wanted && seen > 0) {
+                return (bucket + 1) * BUCKET_NANOS;
+            }
+        }
+        return 0;
+    }
+
+    public synchronized void reset() {
+        java.util.Arrays.fill(histogram, 0);
+        frames = 0;
+        overBudget = 0;
+        coalesced = 0;
+        totalNanos = 0;
+        worstNanos = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return frames + " frames, avg " + getAverageNanos() / 1000 + " us, p95 " + getPercentileNanos(0.95) / 1000
+                + " us, worst " + worstNanos / 1000 + " us, " + overBudget + " over budget, " + coalesced + " coalesced";
+    }
+}
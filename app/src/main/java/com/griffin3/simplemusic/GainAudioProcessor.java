@@ -0,0 +1,89 @@
+package com.griffin3.simplemusic;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.audio.BaseAudioProcessor;
+import java.nio.ByteBuffer;
+
+/**
+ * Scales PCM by the gain of the track being processed. Samples are read and written with
+ * absolute gets and puts between the sink's buffer and one output buffer that is only
+ * reallocated when a bigger input arrives. A gain change ramps across the buffer it lands in
+ * rather than stepping, so it never clicks. Runs on the playback thread.
+ */
+public class GainAudioProcessor extends BaseAudioProcessor {
+    private float targetGain = 1f;
+    // What the last sample was scaled by
+    private float gain = 1f;
+
+    // From a volume column value, 128 being unity
+    public void setVolume(int volume) {
+        targetGain = volume / (float) LoudnessMeter.UNITY_VOLUME;
+    }
+
+    @Override
+    protected AudioFormat onConfigure(AudioFormat inputAudioFormat) throws UnhandledAudioFormatException {
+        if (inputAudioFormat.encoding != C.ENCODING_PCM_16BIT && inputAudioFormat.encoding != C.ENCODING_PCM_FLOAT) {
+            throw new UnhandledAudioFormatException(inputAudioFormat);
+        }
+        return inputAudioFormat;
+    }
+
+    @Override
+    public void queueInput(ByteBuffer inputBuffer) {
+        int position = inputBuffer.position();
+        int limit = inputBuffer.limit();
+        int size = limit - position;
+        if (size == 0) {
+            return;
+        }
+        ByteBuffer output = replaceOutputBuffer(size);
+        float start = gain;
+        float end = targetGain;
+        if (start == 1f && end == 1f) {
+            output.put(inputBuffer).flip();
+            return;
+        }
+        int channels = inputAudioFormat.channelCount;
+        if (inputAudioFormat.encoding == C.ENCODING_PCM_16BIT) {
+            int frames = size / (2 * channels);
+            float step = (end - start) / frames;
+            float g = start;
+            int out = 0;
+            for (int in = position; in < limit; in += 2 * channels) {
+                g += step;
+                for (int channel = 0; channel < channels; channel++) {
+                    int value = (int) (inputBuffer.getShort(in + 2 * channel) * g);
+                    output.putShort(out, (short) Math.max(Short.MIN_VALUE, Math.min(Short.MAX_VALUE, value)));
+                    out += 2;
+                }
+            }
+        } else {
+            int frames = size / (4 * channels);
+            float step = (end - start) / frames;
+            float g = start;
+            int out = 0;
+            for (int in = position; in < limit; in += 4 * channels) {
+                g += step;
+                for (int channel = 0; channel < channels; channel++) {
+                    output.putFloat(out, inputBuffer.getFloat(in + 4 * channel) * g);
+                    out += 4;
+                }
+            }
+        }
+        gain = end;
+        inputBuffer.position(limit);
+        output.limit(size);
+    }
+
+    // After a seek or a new stream the gain applies straight away; there is nothing to ramp from
+    @Override
+    protected void onFlush() {
+        gain = targetGain;
+    }
+
+    @Override
+    protected void onReset() {
+        gain = 1f;
+        targetGain = 1f;
+    }
+}
@@ -0,0 +1,92 @@
+package com.griffin3.simplemusic;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Measures the silence inserted between tracks by watching the 16-bit PCM stream on its way to
+ * the audio output. A frame is silent when every channel is within the threshold of zero; the
+ * longest run of silent frames that has sound on both sides is the worst gap. Silence before
+ * the first sound and after the last one does not count.
+ *
+ * <p>Synchronized because the audio thread feeds it while a test thread reads it.
+ */
+public class GapMeter {
+    private final int channels;
+    private final int threshold;
+
+    private boolean heardSound;
+    private long silentRun;
+    private long longestGap;
+    private int gapCount;
+    private long frames;
+
+    public GapMeter(int channels, int threshold) {
+        if (channels < 1) {
+            throw new IllegalArgumentException("channels must be positive, was " + channels);
+        }
+        this.channels = channels;
+        this.threshold = threshold;
+    }
+
+    // Reads the interleaved samples between position and limit in the buffer's byte order,
+    // without moving its position
+    public synchronized void process(ByteBuffer pcm) {
+        int end = pcm.limit() - (pcm.limit() - pcm.position()) % (channels * 2);
+        for (int i = pcm.position(); i < end; i += channels * 2) {
+            boolean silent = true;
+            for (int c = 0; c < channels; c++) {
+                int sample = pcm.getShort(i + c * 2);
+                if (sample > threshold || sample < -threshold) {
+                    silent = false;
+                }
+            }
+            frame(silent);
+        }
+    }
+
+    public synchronized void process(short[] samples, int offset, int length) {
+        int end = offset + length - length % channels;
+        for (int i = offset; i < end; i += channels) {
+            boolean silent = true;
+            for (int c = 0; c < channels; c++) {
+                int sample = samples[i + c];
+                if (sample > threshold || sample < -threshold) {
+                    silent = false;
+                }
+            }
+            frame(silent);
+        }
+    }
+
+    private void frame(boolean silent) {
+        frames++;
+        if (silent) {
+            if (heardSound) {
+                silentRun++;
+            }
+            return;
+        }
+        if (silentRun > 0) {
+            gapCount++;
+            longestGap = Math.max(longestGap, silentRun);
+            silentRun = 0;
+        }
+        heardSound = true;
+    }
+
+    public synchronized void reset() {
+        heardSound = false;
+        silentRun = 0;
+        longestGap = 0;
+        gapCount = 0;
+        frames = 0;
+    }
+
+    public synchronized long getLongestGapFrames() { return longestGap; }
+    public synchronized int getGapCount() { return gapCount; }
+    public synchronized long getFrameCount() { return frames; }
+
+    public synchronized double getLongestGapMillis(int sampleRate) {
+        return longestGap * 1000.0 / sampleRate;
+    }
+}
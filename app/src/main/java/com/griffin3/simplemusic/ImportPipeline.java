@@ -0,0 +1,253 @@
+package com.griffin3.simplemusic;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.Looper;
+import android.provider.MediaStore;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Imports the MediaStore library off the UI thread as three stages joined by bounded queues:
+ * one reader per external volume streams its cursor, a normalizer cleans up the tags, and a
+ * writer commits whatever has arrived in batches through the database writer thread. Rows
+ * circulate through a fixed pool, so the pipeline allocates nothing per track beyond the
+ * strings the cursors return. Progress and completion are delivered on the main thread.
+ */
+public class ImportPipeline {
+    private static final String TAG = "ImportPipeline";
+    private static final int QUEUE_CAPACITY = 256;
+
+    public interface Listener {
+        void onProgress(int written, int total);
+        void onComplete(ImportStats stats, boolean cancelled);
+        void onError(Exception error);
+    }
+
+    // Marks the end of a stage's output
+    private static final MediaRow END = new MediaRow();
+
+    private final Context context;
+    private final DatabaseHelper dbHelper;
+    private final int batchSize;
+    private final Listener listener;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private final ArrayBlockingQueue<MediaRow> free;
+    private final ArrayBlockingQueue<MediaRow> raw = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final ArrayBlockingQueue<MediaRow> normalized = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+    private final AtomicBoolean cancelled = new AtomicBoolean();
+    private final AtomicInteger total = new AtomicInteger();
+    private final ImportStats stats = new ImportStats();
+    private volatile Exception failure;
+    private boolean started;
+
+    public ImportPipeline(Context context, DatabaseHelper dbHelper, int batchSize, Listener listener) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1, was " + batchSize);
+        }
+        this.context = context.getApplicationContext();
+        this.dbHelper = dbHelper;
+        this.batchSize = batchSize;
+        this.listener = listener;
+
+        // Enough rows to keep both queues and a full batch in flight
+        int poolSize = 2 * QUEUE_CAPACITY + batchSize;
+        free = new ArrayBlockingQueue<>(poolSize);
+        for (int i = 0; i < poolSize; i++) {
+            free.add(new MediaRow());
+        }
+    }
+
+    public void start() {
+        if (started) {
+            throw new IllegalStateException("ImportPipeline can only be started once");
+        }
+        started = true;
+
+        final long startTime = System.nanoTime();
+        // Captured before reading so changes made during the import are picked up by the next sync
+        final String version = MediaStore.getVersion(context);
+        final String generations = MediaImporter.currentGenerations(context);
+        Set<String> volumes = MediaStore.getExternalVolumeNames(context);
+
+        for (String volume : volumes) {
+            new Thread(() -> read(volume), "import-reader-" + volume).start();
+        }
+        new Thread(() -> normalize(volumes.size()), "import-normalizer").start();
+        new Thread(() -> write(startTime, version, generations), "import-writer").start();
+    }
+
+    // Stops the readers; rows already committed stay and the next sync completes the library
+    public void cancel() {
+        cancelled.set(true);
+    }
+
+    public boolean isCancelled() {
+        return cancelled.get();
+    }
+
+    private void read(String volume) {
+        long readNanos = 0;
+        Cursor cursor = null;
+        try {
+            long queryStart = System.nanoTime();
+            cursor = context.getContentResolver().query(
+                    MediaStore.Audio.Media.getContentUri(volume), MediaImporter.PROJECTION, null, null, null);
+            readNanos += System.nanoTime() - queryStart;
+            if (cursor == null) {
+                return;
+            }
+            total.addAndGet(cursor.getCount());
+
+            while (!cancelled.get()) {
+                MediaRow row = free.take();
+                long readStart = System.nanoTime();
+                if (!cursor.moveToNext()) {
+                    free.put(row);
+                    break;
+                }
+                MediaImporter.readRow(cursor, row);
+                readNanos += System.nanoTime() - readStart;
+                raw.put(row);
+            }
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+            synchronized (stats) {
+                stats.readNanos += readNanos;
+            }
+            putEnd(raw);
+        }
+    }
+
+    private void normalize(int readers) {
+        long transformNanos = 0;
+        try {
+            int finishedReaders = 0;
+            while (finishedReaders < readers) {
+                MediaRow row = raw.take();
+                if (row == END) {
+                    finishedReaders++;
+                    continue;
+                }
+                long transformStart = System.nanoTime();
+                row.normalize();
+                transformNanos += System.nanoTime() - transformStart;
+                normalized.put(row);
+            }
+        } catch (Exception e) {
+            fail(e);
+        } finally {
+            synchronized (stats) {
+                stats.transformNanos += transformNanos;
+            }
+            putEnd(normalized);
+        }
+    }
+
+    private void write(long startTime, String version, String generations) {
+        ArrayList<MediaRow> batch = new ArrayList<>(batchSize);
+        boolean done = false;
+        try {
+            dbHelper.runWrite(() -> dbHelper.getWritableDatabase().delete(DatabaseHelper.TABLE_MEDIA, null, null));
+
+            while (!done) {
+                // Commit whatever has arrived rather than waiting for a full batch
+                batch.add(normalized.take());
+                normalized.drainTo(batch, batchSize - 1);
+                if (batch.get(batch.size() - 1) == END) {
+                    batch.remove(batch.size() - 1);
+                    done = true;
+                }
+
+                if (!cancelled.get() && !batch.isEmpty()) {
+                    long writeStart = System.nanoTime();
+                    dbHelper.runWrite(() -> {
+                        MediaImporter.insertBatch(dbHelper.getWritableDatabase(),
+                                dbHelper.statement(MediaImporter.SQL_INSERT_MEDIA), batch);
+                        return null;
+                    });
+                    stats.writeNanos += System.nanoTime() - writeStart;
+                    stats.rows += batch.size();
+                    stats.inserted += batch.size();
+                    publishProgress(stats.rows, total.get());
+                }
+                for (int i = 0; i < batch.size(); i++) {
+                    free.put(batch.get(i));
+                }
+                batch.clear();
+            }
+
+            if (!cancelled.get()) {
+                dbHelper.runWrite(() -> {
+                    MediaImporter.writeSyncState(dbHelper.getWritableDatabase(), version, generations);
+                    return null;
+                });
+            }
+            dbHelper.invalidateLibraryIndex();
+        } catch (Exception e) {
+            fail(e);
+            for (int i = 0; i < batch.size(); i++) {
+                free.offer(batch.get(i));
+            }
+            drainUntilEnd(done);
+        }
+
+        stats.totalNanos = System.nanoTime() - startTime;
+        final Exception error = failure;
+        final boolean wasCancelled = cancelled.get();
+        mainHandler.post(() -> {
+            if (error != null) {
+                listener.onError(error);
+            } else {
+                listener.onComplete(stats, wasCancelled);
+            }
+        });
+    }
+
+    private void publishProgress(final int written, final int expected) {
+        mainHandler.post(() -> listener.onProgress(written, expected));
+    }
+
+    private void fail(Exception e) {
+        Log.e(TAG, "Import failed", e);
+        if (failure == null) {
+            failure = e;
+        }
+        cancelled.set(true);
+    }
+
+    // After a writer failure, keep recycling rows so blocked readers can see the cancel and exit
+    private void drainUntilEnd(boolean sawEnd) {
+        try {
+            while (!sawEnd) {
+                MediaRow row = normalized.take();
+                if (row == END) {
+                    sawEnd = true;
+                } else {
+                    free.put(row);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void putEnd(ArrayBlockingQueue<MediaRow> queue) {
+        try {
+            queue.put(END);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.griffin3.simplemusic;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Row count and elapsed time of a media import, split into its read, transform and write phases.
+ */
+public class ImportStats {
+    int rows;
+    int inserted;
+    int updated;
+    int deleted;
+    boolean skipped;
+    long readNanos;
+    long transformNanos;
+    long writeNanos;
+    long totalNanos;
+
+    public int getRows() { return rows; }
+    public int getInserted() { return inserted; }
+    public int getUpdated() { return updated; }
+    public int getDeleted() { return deleted; }
+    public boolean isSkipped() { return skipped; }
+    public boolean hasChanges() { return inserted + updated + deleted > 0; }
+    public long getReadMs() { return TimeUnit.NANOSECONDS.toMillis(readNanos); }
+    public long getTransformMs() { return TimeUnit.NANOSECONDS.toMillis(transformNanos); }
+    public long getWriteMs() { return TimeUnit.NANOSECONDS.toMillis(writeNanos); }
+    public long getTotalMs() { return TimeUnit.NANOSECONDS.toMillis(totalNanos); }
+
+    @Override
+    public String toString() {
+        if (skipped) {
+            return "library unchanged, checked in " + getTotalMs() + " ms";
+        }
+        return rows + " files in " + getTotalMs() + " ms (read " + getReadMs() + ", transform "
+                + getTransformMs() + ", write " + getWriteMs() + "; " + inserted + " added, " + updated
+                + " updated, " + deleted + " removed)";
+    }
+}
@@ -0,0 +1,133 @@
+package com.griffin3.simplemusic;
+
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.audio.MpegAudioUtil;
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorInput;
+import com.google.android.exoplayer2.extractor.ExtractorOutput;
+import com.google.android.exoplayer2.extractor.PositionHolder;
+import com.google.android.exoplayer2.extractor.SeekMap;
+import com.google.android.exoplayer2.extractor.SeekPoint;
+import com.google.android.exoplayer2.extractor.TrackOutput;
+import java.io.IOException;
+
+/**
+ * Reads an MP3 file whose frames are already listed in a SeekIndex. Seeking looks the time up
+ * in the index and lands on a frame boundary with that frame's exact time, where Mp3Extractor
+ * would estimate a VBR file without a TOC from its average bitrate. Frames are handed on as
+ * they are; the decoder drops the ones before the seek target.
+ */
+public final class IndexedMp3Extractor implements Extractor {
+    private final SeekIndex index;
+    private final MpegAudioUtil.Header header = new MpegAudioUtil.Header();
+    private final byte[] scratch = new byte[4];
+    private TrackOutput trackOutput;
+    private boolean formatOutput;
+    // Time of the frame the last seek landed on, and the samples read since
+    private long basisTimeUs;
+    private long samplesRead;
+    private long sampleTimeUs;
+    private int sampleBytesRemaining;
+
+    public IndexedMp3Extractor(SeekIndex index) {
+        this.index = index;
+    }
+
+    // Only created for a file the index was built from
+    @Override
+    public boolean sniff(ExtractorInput input) {
+        return true;
+    }
+
+    @Override
+    public void init(ExtractorOutput output) {
+        trackOutput = output.track(0, C.TRACK_TYPE_AUDIO);
+        output.endTracks();
+        output.seekMap(new IndexSeekMap());
+    }
+
+    @Override
+    public int read(ExtractorInput input, PositionHolder seekPosition) throws IOException {
+        if (sampleBytesRemaining == 0) {
+            long position = input.getPosition();
+            if (position < index.getDataStart()) {
+                // Jump over the tags and the Xing frame without reading them
+                seekPosition.position = index.getDataStart();
+                return RESULT_SEEK;
+            }
+            if (position >= index.getDataEnd()) {
+                return RESULT_END_OF_INPUT;
+            }
+            input.resetPeekPosition();
+            if (!input.peekFully(scratch, 0, 4, true)) {
+                return RESULT_END_OF_INPUT;
+            }
+            int headerData = (scratch[0] & 0xFF) << 24 | (scratch[1] & 0xFF) << 16 | (scratch[2] & 0xFF) << 8 | (scratch[3] & 0xFF);
+            if (!header.setForHeader(headerData)) {
+                // Junk between frames, which the index skipped the same way
+                input.skipFully(1);
+                return RESULT_CONTINUE;
+            }
+            if (!formatOutput) {
+                formatOutput = true;
+                trackOutput.format(new Format.Builder()
+                        .setSampleMimeType(header.mimeType)
+                        .setMaxInputSize(MpegAudioUtil.MAX_FRAME_SIZE_BYTES)
+                        .setChannelCount(header.channels)
+                        .setSampleRate(header.sampleRate)
+                        .setEncoderDelay(index.getEncoderDelay())
+                        .setEncoderPadding(index.getEncoderPadding())
+                        .build());
+            }
+            sampleTimeUs = basisTimeUs + samplesRead * C.MICROS_PER_SECOND / header.sampleRate;
+            samplesRead += header.samplesPerFrame;
+            sampleBytesRemaining = header.frameSize;
+        }
+        int bytes = trackOutput.sampleData(input, sampleBytesRemaining, true);
+        if (bytes == C.RESULT_END_OF_INPUT) {
+            return RESULT_END_OF_INPUT;
+        }
+        sampleBytesRemaining -= bytes;
+        if (sampleBytesRemaining > 0) {
+            return RESULT_CONTINUE;
+        }
+        trackOutput.sampleMetadata(sampleTimeUs, C.BUFFER_FLAG_KEY_FRAME, header.frameSize, 0, null);
+        return RESULT_CONTINUE;
+    }
+
+    // The position is 0 or one the seek map handed out, so it is an entry of the index
+    @Override
+    public void seek(long position, long timeUs) {
+        basisTimeUs = position <= index.getDataStart() ? 0 : index.getTimeUs(index.indexOfPosition(position));
+        samplesRead = 0;
+        sampleBytesRemaining = 0;
+    }
+
+    @Override
+    public void release() {
+    }
+
+    private final class IndexSeekMap implements SeekMap {
+        @Override
+        public boolean isSeekable() {
+            return true;
+        }
+
+        @Override
+        public long getDurationUs() {
+            return index.getDurationUs();
+        }
+
+        // O(log n) in the entries; the entry after is offered too for closest-sync seeks
+        @Override
+        public SeekPoints getSeekPoints(long timeUs) {
+            int entry = index.indexOfTime(timeUs);
+            SeekPoint point = new SeekPoint(index.getTimeUs(entry), index.getPosition(entry));
+            if (point.timeUs >= timeUs || entry + 1 == index.size()) {
+                return new SeekPoints(point);
+            }
+            return new SeekPoints(point, new SeekPoint(index.getTimeUs(entry + 1), index.getPosition(entry + 1)));
+        }
+    }
+}
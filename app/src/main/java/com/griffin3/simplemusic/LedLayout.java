@@ -0,0 +1,157 @@
+package com.griffin3.simplemusic;
+
+/**
+ * Where the LED segments of the visualizer go and what colour each one is. Bar positions, row
+ * positions and row colours only change with the view's size or the bar count, so they are
+ * worked out then, together with line buffers big enough for every segment. A frame only picks
+ * how many rows of each bar are lit and appends those segments to the buffer of their colour.
+ * The view then draws each colour with a single drawLines call, a segment being a line as wide
+ * as the bar with butt caps.
+ */
+public final class LedLayout {
+    public static final int BANDS = 4;
+    static final int GREEN = 0;
+    static final int YELLOW = 1;
+    static final int ORANGE = 2;
+    static final int RED = 3;
+    public static final int[] BAND_COLOURS = {0xFF00FF00, 0xFFFFFF00, 0xFFFFA500, 0xFFFF0000};
+
+    // Fire colours a segment by its place in its own bar; classic by its height in the view
+    private final boolean fire;
+
+    private int width;
+    private int height;
+    private int bars;
+    private float barWidth;
+    private float[] barCentres = new float[0];
+    private int rowPitch;
+    private int rectHeight;
+    // Rows that are at least partly on screen, from the bottom up
+    private int rows;
+    private float[] rowTops = new float[0];
+    private byte[] rowBands = new byte[0];
+    // Fire only: the band of row r in a bar of n lit rows, at (n - 1) * rows + r
+    private byte[] fireBands = new byte[0];
+    private final float[][] lines = new float[BANDS][];
+    private final int[] lineCounts = new int[BANDS];
+
+    public LedLayout(boolean fire) {
+        this.fire = fire;
+        for (int band = 0; band < BANDS; band++) {
+            lines[band] = new float[0];
+        }
+    }
+
+    // Rebuilds the tables if anything changed; true when it did
+    public boolean setSize(int width, int height, int bars) {
+        if (width == this.width && height == this.height && bars == this.bars) {
+            return false;
+        }
+        this.width = width;
+        this.height = height;
+        this.bars = bars;
+
+        // Spacing is 20% of a bar, and the bars are centred
+        int totalSpacing = (int) (width * 0.20f * bars / (bars + 0.20f * bars));
+        int whole = (width - totalSpacing) / bars;
+        int spacing = (int) (whole * 0.20f);
+        int startX = (width - (whole * bars + spacing * (bars - 1))) / 2;
+        barWidth = whole;
+        barCentres = new float[bars];
+        for (int bar = 0; bar < bars; bar++) {
+            barCentres[bar] = startX + bar * (whole + spacing) + whole / 2f;
+        }
+
+        // Segments are half as high as a bar is wide, with 30% of that between them
+        rectHeight = Math.max(4, whole / 2);
+        rowPitch = rectHeight + (int) (rectHeight * 0.30f);
+        rows = 0;
+        while (rowTop(rows) + rectHeight > 0) {
+            rows++;
+        }
+        rowTops = new float[rows];
+        rowBands = new byte[rows];
+        int[] perBand = new int[BANDS];
+        for (int row = 0; row < rows; row++) {
+            rowTops[row] = rowTop(row);
+            rowBands[row] = band(1.0f - rowTop(row) / (float) height);
+            perBand[rowBands[row]]++;
+        }
+        if (fire) {
+            fireBands = new byte[rows * rows];
+            for (int lit = 1; lit <= rows; lit++) {
+                for (int row = 0; row < lit; row++) {
+                    fireBands[(lit - 1) * rows + row] = band((float) row / Math.max(1, lit - 1));
+                }
+            }
+        }
+        for (int band = 0; band < BANDS; band++) {
+            lines[band] = new float[(fire ? rows : perBand[band]) * bars * 4];
+        }
+        return true;
+    }
+
+    private int rowTop(int row) {
+        return height - (row + 1) * rowPitch + (rowPitch - rectHeight);
+    }
+
+    private static byte band(float ratio) {
+        if (ratio >= 0.9f) {
+            return RED;
+        } else if (ratio >= 0.7f) {
+            return ORANGE;
+        } else if (ratio >= 0.5f) {
+            return YELLOW;
+        }
+        return GREEN;
+    }
+
+    // Fills the line buffers for one frame: a bar is magnitude / maxMagnitude * scale of the
+    // view high, and shows every whole segment under that, or one for a sliver at least a
+    // segment high
+    public void layout(float[] magnitudes, float maxMagnitude, float scale) {
+        for (int band = 0; band < BANDS; band++) {
+            lineCounts[band] = 0;
+        }
+        for (int bar = 0; bar < bars; bar++) {
+            int barHeight = (int) ((magnitudes[bar] * height * scale) / maxMagnitude);
+            int lit = barHeight / rowPitch;
+            if (lit == 0 && barHeight >= rectHeight) {
+                lit = 1;
+            }
+            // A bar taller than the view still spreads its fire colours over its full height
+            int shown = Math.min(lit, rows);
+            float x = barCentres[bar];
+            for (int row = 0; row < shown; row++) {
+                int band;
+                if (!fire) {
+                    band = rowBands[row];
+                } else if (lit <= rows) {
+                    band = fireBands[(lit - 1) * rows + row];
+                } else {
+                    band = band((float) row / (lit - 1));
+                }
+                float[] out = lines[band];
+                int at = lineCounts[band];
+                out[at] = x;
+                out[at + 1] = rowTops[row];
+                out[at + 2] = x;
+                out[at + 3] = rowTops[row] + rectHeight;
+                lineCounts[band] = at + 4;
+            }
+        }
+    }
+
+    public float getBarWidth() {
+        return barWidth;
+    }
+
+    // Points for Canvas.drawLines, four floats a segment
+    public float[] getLines(int band) {
+        return lines[band];
+    }
+
+    public int getLineCount(int band) {
+        return lineCounts[band];
+    }
+}
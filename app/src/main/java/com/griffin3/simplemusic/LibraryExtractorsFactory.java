@@ -0,0 +1,199 @@
+package com.griffin3.simplemusic;
+
+import android.net.Uri;
+import android.os.Parcel;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.extractor.DefaultExtractorsFactory;
+import com.google.android.exoplayer2.extractor.Extractor;
+import com.google.android.exoplayer2.extractor.ExtractorInput;
+import com.google.android.exoplayer2.extractor.ExtractorOutput;
+import com.google.android.exoplayer2.extractor.ExtractorsFactory;
+import com.google.android.exoplayer2.extractor.PositionHolder;
+import com.google.android.exoplayer2.extractor.SeekMap;
+import com.google.android.exoplayer2.extractor.TrackOutput;
+import com.google.android.exoplayer2.metadata.Metadata;
+import com.google.android.exoplayer2.upstream.DataReader;
+import com.google.android.exoplayer2.util.ParsableByteArray;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * The default extractors, with what the library knows about a local file added: an MP3 file is
+ * read by IndexedMp3Extractor from its seek index, and the audio format of any file carries its
+ * stored volume in its metadata for the gain stage. Called on the loading thread; an MP3 file without
+ * an index yet plays through the default extractor while it is indexed in the background.
+ */
+public class LibraryExtractorsFactory implements ExtractorsFactory {
+    private final DefaultExtractorsFactory defaults = new DefaultExtractorsFactory();
+    private final SeekIndexStore store;
+    private final DatabaseHelper dbHelper;
+
+    public LibraryExtractorsFactory(SeekIndexStore store, DatabaseHelper dbHelper) {
+        this.store = store;
+        this.dbHelper = dbHelper;
+    }
+
+    // The volume a format was given here, unity for anything from elsewhere
+    public static int volumeOf(Format format) {
+        if (format.metadata != null) {
+            for (int i = 0; i < format.metadata.length(); i++) {
+                Metadata.Entry entry = format.metadata.get(i);
+                if (entry instanceof VolumeEntry) {
+                    return ((VolumeEntry) entry).volume;
+                }
+            }
+        }
+        return LoudnessMeter.UNITY_VOLUME;
+    }
+
+    @Override
+    public Extractor[] createExtractors() {
+        return defaults.createExtractors();
+    }
+
+    @Override
+    public Extractor[] createExtractors(Uri uri, Map<String, List<String>> responseHeaders) {
+        String path = uri.getPath();
+        boolean local = uri.getScheme() == null || "file".equals(uri.getScheme());
+        if (!local || path == null) {
+            return defaults.createExtractors(uri, responseHeaders);
+        }
+        Extractor[] extractors = null;
+        if (path.toLowerCase(Locale.ROOT).endsWith(".mp3")) {
+            SeekIndex index = store.get(path);
+            if (index != null) {
+                extractors = new Extractor[]{new IndexedMp3Extractor(index)};
+            }
+        }
+        if (extractors == null) {
+            extractors = defaults.createExtractors(uri, responseHeaders);
+        }
+        int volume = dbHelper.getVolume(path);
+        if (volume != LoudnessMeter.UNITY_VOLUME) {
+            for (int i = 0; i < extractors.length; i++) {
+                extractors[i] = new VolumeExtractor(extractors[i], new VolumeEntry(volume));
+            }
+        }
+        return extractors;
+    }
+
+    // Passes everything through, except that audio formats leave with the volume
+    private static final class VolumeExtractor implements Extractor, ExtractorOutput {
+        private final Extractor extractor;
+        private final VolumeEntry volume;
+        private ExtractorOutput output;
+
+        VolumeExtractor(Extractor extractor, VolumeEntry volume) {
+            this.extractor = extractor;
+            this.volume = volume;
+        }
+
+        @Override
+        public boolean sniff(ExtractorInput input) throws IOException {
+            return extractor.sniff(input);
+        }
+
+        @Override
+        public void init(ExtractorOutput output) {
+            this.output = output;
+            extractor.init(this);
+        }
+
+        @Override
+        public int read(ExtractorInput input, PositionHolder seekPosition) throws IOException {
+            return extractor.read(input, seekPosition);
+        }
+
+        @Override
+        public void seek(long position, long timeUs) {
+            extractor.seek(position, timeUs);
+        }
+
+        @Override
+        public void release() {
+            extractor.release();
+        }
+
+        @Override
+        public TrackOutput track(int id, int type) {
+            TrackOutput track = output.track(id, type);
+            return type == C.TRACK_TYPE_AUDIO ? new VolumeTrackOutput(track, volume) : track;
+        }
+
+        @Override
+        public void endTracks() {
+            output.endTracks();
+        }
+
+        @Override
+        public void seekMap(SeekMap seekMap) {
+            output.seekMap(seekMap);
+        }
+    }
+
+    private static final class VolumeTrackOutput implements TrackOutput {
+        private final TrackOutput track;
+        private final VolumeEntry volume;
+
+        VolumeTrackOutput(TrackOutput track, VolumeEntry volume) {
+            this.track = track;
+            this.volume = volume;
+        }
+
+        // Tags read from the file stay alongside the volume
+        @Override
+        public void format(Format format) {
+            Metadata metadata = format.metadata == null ? new Metadata(volume) : format.metadata.copyWithAppendedEntries(volume);
+            track.format(format.buildUpon().setMetadata(metadata).build());
+        }
+
+        @Override
+        public int sampleData(DataReader input, int length, boolean allowEndOfInput, int sampleDataPart) throws IOException {
+            return track.sampleData(input, length, allowEndOfInput, sampleDataPart);
+        }
+
+        @Override
+        public void sampleData(ParsableByteArray data, int length, int sampleDataPart) {
+            track.sampleData(data, length, sampleDataPart);
+        }
+
+        @Override
+        public void sampleMetadata(long timeUs, int flags, int size, int offset, CryptoData cryptoData) {
+            track.sampleMetadata(timeUs, flags, size, offset, cryptoData);
+        }
+    }
+
+    // The stored volume, riding along in the format's metadata; it never leaves the process
+    private static final class VolumeEntry implements Metadata.Entry {
+        public static final Creator<VolumeEntry> CREATOR = new Creator<VolumeEntry>() {
+            @Override
+            public VolumeEntry createFromParcel(Parcel in) {
+                return new VolumeEntry(in.readInt());
+            }
+
+            @Override
+            public VolumeEntry[] newArray(int size) {
+                return new VolumeEntry[size];
+            }
+        };
+
+        final int volume;
+
+        VolumeEntry(int volume) {
+            this.volume = volume;
+        }
+
+        @Override
+        public int describeContents() {
+            return 0;
+        }
+
+        @Override
+        public void writeToParcel(Parcel dest, int flags) {
+            dest.writeInt(volume);
+        }
+    }
+}
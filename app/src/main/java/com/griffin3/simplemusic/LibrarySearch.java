@@ -0,0 +1,83 @@
+package com.griffin3.simplemusic;
+
+import java.util.Locale;
+
+/**
+ * Turns what the user typed into FTS prefix queries and writes the SQL that ranks their matches.
+ * The index holds artist (column 0) and title (column 1). Ranking happens inside SQLite over
+ * every match, from {@code matchinfo()} and a second query for titles that start with the first
+ * word, so no text is compared in Java and no good hit is lost behind a candidate cap.
+ */
+public final class LibrarySearch {
+    static final int COLUMN_ARTIST = 0;
+    static final int COLUMN_TITLE = 1;
+    private static final int COLUMNS = 2;
+
+    private LibrarySearch() {}
+
+    // "beat sgt" becomes "beat* sgt*": every word must prefix-match some word of artist or title.
+    // Returns null when nothing searchable was typed.
+    public static String toMatchQuery(String input) {
+        if (input == null) {
+            return null;
+        }
+        StringBuilder query = new StringBuilder();
+        int length = input.length();
+        int i = 0;
+        while (i < length) {
+            while (i < length && !Character.isLetterOrDigit(input.charAt(i))) {
+                i++;
+            }
+            int start = i;
+            while (i < length && Character.isLetterOrDigit(input.charAt(i))) {
+                i++;
+            }
+            if (i > start) {
+                if (query.length() > 0) {
+                    query.append(' ');
+                }
+                // Lower case keeps words like OR and NEAR from being read as operators; the
+                // tokenizer folds case anyway
+                query.append(input.substring(start, i).toLowerCase(Locale.ROOT)).append('*');
+            }
+        }
+        return query.length() > 0 ? query.toString() : null;
+    }
+
+    // Words in a query from toMatchQuery, which is the number of phrases matchinfo() reports on
+    public static int countWords(String match) {
+        int words = 1;
+        for (int i = 0; i < match.length(); i++) {
+            if (match.charAt(i) == ' ') {
+                words++;
+            }
+        }
+        return words;
+    }
+
+    // "beat* sgt*" becomes "title:^beat*": rows whose column starts with the first word
+    public static String toStartQuery(String match, String column) {
+        int end = match.indexOf(' ');
+        return column + ":^" + (end < 0 ? match : match.substring(0, end));
+    }
+
+    // SQL scoring a row from `matchinfo` evaluated with the 'x' format, for a query of `words`
+    // words: a word found in the title counts 2, in the artist 1. The 'x' blob holds three 32-bit
+    // counts per word and column, the first of them this row's hits, so a hit is that slice not
+    // being all zero bytes.
+    public static String scoreSql(String matchinfo, int words) {
+        StringBuilder sql = new StringBuilder("(0");
+        for (int word = 0; word < words; word++) {
+            sql.append(" + (substr(").append(matchinfo).append(", ").append(hitsOffset(word, COLUMN_ARTIST))
+                    .append(", 4) != x'00000000')");
+            sql.append(" + 2 * (substr(").append(matchinfo).append(", ").append(hitsOffset(word, COLUMN_TITLE))
+                    .append(", 4) != x'00000000')");
+        }
+        return sql.append(')').toString();
+    }
+
+    // 1-based byte offset of a word's hits in a column of this row, as substr() counts
+    static int hitsOffset(int word, int column) {
+        return 1 + 4 * 3 * (word * COLUMNS + column);
+    }
+}
@@ -0,0 +1,181 @@
+package com.griffin3.simplemusic;
+
+import java.util.Arrays;
+
+/**
+ * Integrated loudness of a whole track per ITU-R BS.1770: K-weighting, 400 ms blocks every
+ * 100 ms, an absolute gate at -70 LUFS and a relative gate 10 LU under the ungated level. Every
+ * channel counts with weight 1, which is right for the mono and stereo files a phone library
+ * holds. Also tracks the sample peak, so the gain that levels a track can be kept from clipping.
+ */
+public final class LoudnessMeter {
+    // What a track with nothing above the absolute gate reports
+    public static final double SILENCE = -70.0;
+    // The ReplayGain 2.0 reference level every track is brought to
+    public static final double TARGET_LUFS = -18.0;
+    // Volume column values: 128 is unity, the rest scale linearly
+    public static final int UNITY_VOLUME = 128;
+    public static final int MAX_VOLUME = 4 * UNITY_VOLUME;
+
+    private static final double RELATIVE_GATE = -10.0;
+
+    private final int channels;
+    // K-weighting: a high shelf then a high-pass, each with its own state per channel
+    private final double b0, b1, b2, a1, a2;
+    private final double hb0, hb1, hb2, ha1, ha2;
+    private final double[] z1, z2, hz1, hz2;
+    // Squared weighted samples summed per channel for the current 100 ms step
+    private final double[] stepEnergy;
+    private final int stepFrames;
+    private int framesInStep;
+    // Mean square of each finished step, summed over channels; four make a block
+    private double[] steps = new double[1024];
+    private int stepCount;
+    private double peak;
+
+    public LoudnessMeter(int sampleRate, int channels) {
+        this.channels = channels;
+        stepFrames = Math.max(1, sampleRate / 10);
+        stepEnergy = new double[channels];
+        z1 = new double[channels];
+        z2 = new double[channels];
+        hz1 = new double[channels];
+        hz2 = new double[channels];
+
+        // Coefficients for any sample rate, from the analog prototypes behind the 48 kHz ones
+        double f0 = 1681.974450955533;
+        double gain = 3.999843853973347;
+        double q = 0.7071752369554196;
+        double k = Math.tan(Math.PI * f0 / sampleRate);
+        double vh = Math.pow(10.0, gain / 20.0);
+        double vb = Math.pow(vh, 0.4996667741545416);
+        double a0 = 1.0 + k / q + k * k;
+        b0 = (vh + vb * k / q + k * k) / a0;
+        b1 = 2.0 * (k * k - vh) / a0;
+        b2 = (vh - vb * k / q + k * k) / a0;
+        a1 = 2.0 * (k * k - 1.0) / a0;
+        a2 = (1.0 - k / q + k * k) / a0;
+
+        f0 = 38.13547087602444;
+        q = 0.5003270373238773;
+        k = Math.tan(Math.PI * f0 / sampleRate);
+        a0 = 1.0 + k / q + k * k;
+        hb0 = 1.0;
+        hb1 = -2.0;
+        hb2 = 1.0;
+        ha1 = 2.0 * (k * k - 1.0) / a0;
+        ha2 = (1.0 - k / q + k * k) / a0;
+    }
+
+    // Interleaved 16-bit samples
+    public void process(short[] samples, int offset, int length) {
+        for (int i = offset; i < offset + length; ) {
+            for (int channel = 0; channel < channels; channel++, i++) {
+                addSample(channel, samples[i] / 32768.0);
+            }
+            endFrame();
+        }
+    }
+
+    // Interleaved float samples, full scale at 1.0
+    public void process(float[] samples, int offset, int length) {
+        for (int i = offset; i < offset + length; ) {
+            for (int channel = 0; channel < channels; channel++, i++) {
+                addSample(channel, samples[i]);
+            }
+            endFrame();
+        }
+    }
+
+    // Transposed direct form II, shelf into high-pass
+    private void addSample(int channel, double x) {
+        double abs = Math.abs(x);
+        if (abs > peak) {
+            peak = abs;
+        }
+        double y = b0 * x + z1[channel];
+        z1[channel] = b1 * x - a1 * y + z2[channel];
+        z2[channel] = b2 * x - a2 * y;
+        double w = hb0 * y + hz1[channel];
+        hz1[channel] = hb1 * y - ha1 * w + hz2[channel];
+        hz2[channel] = hb2 * y - ha2 * w;
+        stepEnergy[channel] += w * w;
+    }
+
+    private void endFrame() {
+        if (++framesInStep < stepFrames) {
+            return;
+        }
+        double sum = 0;
+        for (int channel = 0; channel < channels; channel++) {
+            sum += stepEnergy[channel] / stepFrames;
+            stepEnergy[channel] = 0;
+        }
+        if (stepCount == steps.length) {
+            steps = Arrays.copyOf(steps, stepCount * 2);
+        }
+        steps[stepCount++] = sum;
+        framesInStep = 0;
+    }
+
+    public double getPeak() {
+        return peak;
+    }
+
+    // Integrated loudness in LUFS over everything processed so far, or SILENCE
+    public double getIntegratedLoudness() {
+        int blocks = stepCount - 3;
+        if (blocks <= 0) {
+            return SILENCE;
+        }
+        double absoluteGate = energyOf(SILENCE);
+        double sum = 0;
+        int count = 0;
+        for (int block = 0; block < blocks; block++) {
+            double energy = blockEnergy(block);
+            if (energy > absoluteGate) {
+                sum += energy;
+                count++;
+            }
+        }
+        if (count == 0) {
+            return SILENCE;
+        }
+        double relativeGate = energyOf(loudnessOf(sum / count) + RELATIVE_GATE);
+        sum = 0;
+        count = 0;
+        for (int block = 0; block < blocks; block++) {
+            double energy = blockEnergy(block);
+            if (energy > absoluteGate && energy > relativeGate) {
+                sum += energy;
+                count++;
+            }
+        }
+        return count == 0 ? SILENCE : loudnessOf(sum / count);
+    }
+
+    private double blockEnergy(int block) {
+        return (steps[block] + steps[block + 1] + steps[block + 2] + steps[block + 3]) / 4;
+    }
+
+    private static double loudnessOf(double energy) {
+        return -0.691 + 10.0 * Math.log10(energy);
+    }
+
+    private static double energyOf(double loudness) {
+        return Math.pow(10.0, (loudness + 0.691) / 10.0);
+    }
+
+    // The volume column value that brings the track to TARGET_LUFS without pushing its peak
+    // past full scale; unity when there was nothing to measure
+    public static int volumeFor(double loudness, double peak) {
+        if (loudness <= SILENCE) {
+            return UNITY_VOLUME;
+        }
+        double gain = Math.pow(10.0, (TARGET_LUFS - loudness) / 20.0);
+        if (peak > 0) {
+            gain = Math.min(gain, 1.0 / peak);
+        }
+        return (int) Math.max(1, Math.min(MAX_VOLUME, Math.round(gain * UNITY_VOLUME)));
+    }
+}
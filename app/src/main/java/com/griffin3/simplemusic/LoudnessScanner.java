@@ -0,0 +1,187 @@
+package com.griffin3.simplemusic;
+
+import android.content.Context;
+import android.media.AudioFormat;
+import android.media.MediaCodec;
+import android.media.MediaExtractor;
+import android.media.MediaFormat;
+import android.util.Log;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures the loudness of every library file once and stores the gain that levels it in the
+ * volume column, where PlaybackRenderersFactory picks it up. Files are decoded with MediaCodec,
+ * a few at a time on low-priority threads, so the work stays off the playback path.
+ */
+public class LoudnessScanner {
+    private static final String TAG = "LoudnessScanner";
+    private static final long TIMEOUT_US = 10000;
+
+    // Decoding is CPU bound; leave the other cores to playback and the UI
+    private static final int PARALLELISM = Math.max(1, Math.min(2, Runtime.getRuntime().availableProcessors() / 2));
+
+    private static LoudnessScanner sInstance;
+
+    private final DatabaseHelper dbHelper;
+    private final ExecutorService coordinator = Executors.newSingleThreadExecutor(r -> lowPriority(r, "loudness-scan"));
+    private final ExecutorService decoders = Executors.newFixedThreadPool(PARALLELISM, r -> lowPriority(r, "loudness-decode"));
+    private boolean scanning;
+
+    private static Thread lowPriority(Runnable r, String name) {
+        Thread thread = new Thread(r, name);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    }
+
+    public static synchronized LoudnessScanner getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new LoudnessScanner(DatabaseHelper.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    private LoudnessScanner(DatabaseHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    // Measures the files that have no loudness yet, PARALLELISM at a time
+    public void scanInBackground() {
+        synchronized (this) {
+            if (scanning) {
+                return;
+            }
+            scanning = true;
+        }
+        coordinator.execute(() -> {
+            try {
+                ArrayList<String> paths;
+                while (!(paths = dbHelper.getUnmeasuredPaths(PARALLELISM * 4)).isEmpty()) {
+                    ArrayList<Future<?>> batch = new ArrayList<>(paths.size());
+                    for (String path : paths) {
+                        batch.add(decoders.submit(() -> measureAndStore(path)));
+                    }
+                    for (Future<?> future : batch) {
+                        future.get();
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Loudness scan stopped", e);
+            } finally {
+                synchronized (this) {
+                    scanning = false;
+                }
+            }
+        });
+    }
+
+    // A file that cannot be decoded is stored as silence, which keeps unity gain and is not retried
+    private void measureAndStore(String path) {
+        double loudness = LoudnessMeter.SILENCE;
+        double peak = 0;
+        try {
+            LoudnessMeter meter = measure(path);
+            if (meter != null) {
+                loudness = meter.getIntegratedLoudness();
+                peak = meter.getPeak();
+            }
+        } catch (IOException | RuntimeException e) {
+            Log.e(TAG, "Cannot measure " + path, e);
+        }
+        dbHelper.setLoudness(path, loudness, LoudnessMeter.volumeFor(loudness, peak));
+    }
+
+    // Decodes the first audio track of the file to 16-bit PCM and feeds it to a meter
+    private static LoudnessMeter measure(String path) throws IOException {
+        MediaExtractor extractor = new MediaExtractor();
+        MediaCodec codec = null;
+        try {
+            extractor.setDataSource(path);
+            MediaFormat format = null;
+            for (int track = 0; track < extractor.getTrackCount(); track++) {
+                MediaFormat candidate = extractor.getTrackFormat(track);
+                String mime = candidate.getString(MediaFormat.KEY_MIME);
+                if (mime != null && mime.startsWith("audio/")) {
+                    extractor.selectTrack(track);
+                    format = candidate;
+                    break;
+                }
+            }
+            if (format == null) {
+                return null;
+            }
+            format.setInteger(MediaFormat.KEY_PCM_ENCODING, AudioFormat.ENCODING_PCM_16BIT);
+            codec = MediaCodec.createDecoderByType(format.getString(MediaFormat.KEY_MIME));
+            codec.configure(format, null, null, 0);
+            codec.start();
+
+            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
+            LoudnessMeter meter = null;
+            // Some decoders give float PCM whatever was asked for
+            boolean floatOutput = false;
+            short[] samples = new short[0];
+            float[] floatSamples = new float[0];
+            boolean inputDone = false;
+            while (true) {
+                if (!inputDone) {
+                    int inputIndex = codec.dequeueInputBuffer(TIMEOUT_US);
+                    if (inputIndex >= 0) {
+                        ByteBuffer input = codec.getInputBuffer(inputIndex);
+                        int size = extractor.readSampleData(input, 0);
+                        if (size < 0) {
+                            codec.queueInputBuffer(inputIndex, 0, 0, 0, MediaCodec.BUFFER_FLAG_END_OF_STREAM);
+                            inputDone = true;
+                        } else {
+                            codec.queueInputBuffer(inputIndex, 0, size, extractor.getSampleTime(), 0);
+                            extractor.advance();
+                        }
+                    }
+                }
+                int outputIndex = codec.dequeueOutputBuffer(info, TIMEOUT_US);
+                if (outputIndex >= 0) {
+                    if (meter == null) {
+                        MediaFormat output = codec.getOutputFormat();
+                        meter = new LoudnessMeter(output.getInteger(MediaFormat.KEY_SAMPLE_RATE), output.getInteger(MediaFormat.KEY_CHANNEL_COUNT));
+                        floatOutput = output.containsKey(MediaFormat.KEY_PCM_ENCODING)
+                                && output.getInteger(MediaFormat.KEY_PCM_ENCODING) == AudioFormat.ENCODING_PCM_FLOAT;
+                    }
+                    ByteBuffer output = codec.getOutputBuffer(outputIndex);
+                    output.position(info.offset);
+                    output.order(ByteOrder.nativeOrder());
+                    if (floatOutput) {
+                        int count = info.size / 4;
+                        if (floatSamples.length < count) {
+                            floatSamples = new float[count];
+                        }
+                        output.asFloatBuffer().get(floatSamples, 0, count);
+                        meter.process(floatSamples, 0, count);
+                    } else {
+                        int count = info.size / 2;
+                        if (samples.length < count) {
+                            samples = new short[count];
+                        }
+                        output.asShortBuffer().get(samples, 0, count);
+                        meter.process(samples, 0, count);
+                    }
+                    codec.releaseOutputBuffer(outputIndex, false);
+                    if ((info.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
+                        return meter;
+                    }
+                }
+            }
+        } finally {
+            if (codec != null) {
+                codec.release();
+            }
+            extractor.release();
+        }
+    }
+}
@@ -5,6 +5,8 @@ import android.app.AlertDialog;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.Gravity;
 import android.view.View;
 import android.widget.Button;
@@ -15,17 +17,34 @@ import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
-import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class MainActivity extends AppCompatActivity {
     private static final int REQUEST_READ_EXTERNAL_STORAGE = 1001;
     private DatabaseHelper dbHelper;
+    private QueueRepository repository;
+    private TextView debugArea;
+    private ImportPipeline importPipeline;
+    private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        dbHelper = new DatabaseHelper(this);
+        // Fast path: with a snapshot on disk the player can start without opening the database;
+        // it loads the queue and syncs the library once it is already playing
+        if (DatabaseHelper.getSnapshotFile(this).isFile()) {
+            Intent intent = new Intent(this, PlayerActivity.class);
+            intent.putExtra("fromSnapshot", true);
+            startActivity(intent);
+            finish();
+            return;
+        }
+
+        dbHelper = DatabaseHelper.getInstance(this);
+        repository = QueueRepository.getInstance(this);
 
         LinearLayout layout = new LinearLayout(this);
         layout.setOrientation(LinearLayout.VERTICAL);
@@ -50,61 +69,111 @@ public class MainActivity extends AppCompatActivity {
         clearButton.setOnClickListener(new View.OnClickListener() {
             @Override
             public void onClick(View v) {
-                dbHelper.clearAllData();
+                repository.clearAllData();
                 finish();
             }
         });
         layout.addView(clearButton);
 
-        TextView debugArea = new TextView(this);
+        debugArea = new TextView(this);
         layout.addView(debugArea);
 
-        boolean reloadedMedia = false;
-        boolean reloadedQueue = false;
+        // Show the screen straight away; the library loads in the background and fills it in
+        setContentView(layout);
 
         if (dbHelper.getMediaCount() == 0) {
-            long elapsed = dbHelper.loadMediaFromMediaStore(this);
-            Toast.makeText(this, "Loaded media in " + elapsed + " ms", Toast.LENGTH_SHORT).show();
-            reloadedMedia = true;
-        }
+            debugArea.setText("Loading media...");
+            importPipeline = new ImportPipeline(this, dbHelper, MediaImporter.DEFAULT_BATCH_SIZE, new ImportPipeline.Listener() {
+                @Override
+                public void onProgress(int written, int total) {
+                    debugArea.setText("Loading media: " + written + " / " + total);
+                }
 
-        if (dbHelper.isQueueEmpty()) {
-            dbHelper.fillQueueWithShuffledMedia();
-            dbHelper.setQueuePosition(0);
-            reloadedQueue = true;
+                @Override
+                public void onComplete(ImportStats stats, boolean cancelled) {
+                    importPipeline = null;
+                    if (!cancelled && !isDestroyed()) {
+                        Toast.makeText(MainActivity.this, "Loaded " + stats, Toast.LENGTH_SHORT).show();
+                        prepareQueue(true);
+                    }
+                }
+
+                @Override
+                public void onError(Exception error) {
+                    importPipeline = null;
+                    debugArea.setText("Loading media failed: " + error.getMessage());
+                }
+            });
+            importPipeline.start();
+        } else {
+            backgroundExecutor.execute(() -> {
+                ImportStats stats = dbHelper.syncMediaFromMediaStore(this);
+                mainHandler.post(() -> {
+                    if (isDestroyed()) return;
+                    if (stats.hasChanges()) {
+                        Toast.makeText(this, "Synced " + stats, Toast.LENGTH_SHORT).show();
+                    }
+                    prepareQueue(false);
+                });
+            });
         }
+    }
+
+    // Fills the queue if needed off the UI thread, then shows the summary or jumps to the player.
+    // This is the one place the queue is read; the other screens share the loaded copy.
+    private void prepareQueue(boolean reloadedMedia) {
+        backgroundExecutor.execute(() -> {
+            boolean reloadedQueue = false;
+            if (dbHelper.isQueueEmpty()) {
+                dbHelper.fillQueue();
+                dbHelper.setQueuePosition(0);
+                reloadedQueue = true;
+            }
+            int mediaCount = dbHelper.getMediaCount();
+            QueueModel queue = repository.reload();
+            int position = dbHelper.getQueuePosition();
+            final boolean queueReloaded = reloadedQueue;
+            mainHandler.post(() -> {
+                if (!isDestroyed()) {
+                    showLibrary(mediaCount, queue, position, reloadedMedia, queueReloaded);
+                }
+            });
+        });
+    }
 
-        int mediaCount = dbHelper.getMediaCount();
+    private void showLibrary(int mediaCount, QueueModel queue, int position, boolean reloadedMedia, boolean reloadedQueue) {
         String debugText = mediaCount > 0 ? "Files in st_media: " + mediaCount : "st_media database doesn't exist";
         if (reloadedMedia) debugText += " (reloaded)";
-        ArrayList<String> queue = dbHelper.getQueueItems();
         if (!queue.isEmpty()) {
-            int position = dbHelper.getQueuePosition();
             debugText += "\nFiles in queue: " + queue.size() + "\nQueue position: " + position;
             if (position >= 0 && position < queue.size()) {
-                SongInfo songInfo = SongInfo.fromQueueString(queue.get(position));
-                if (songInfo != null) {
-                    debugText += "\nTitle: " + songInfo.getTitle() + "\nArtist: " + songInfo.getArtist();
-                    // Navigate directly to PlayerActivity if queue is loaded and position is valid
-                    Intent intent = new Intent(this, PlayerActivity.class);
-                    intent.putExtra("position", position);
-                    startActivity(intent);
-                    finish(); // Close MainActivity so back from PlayerActivity goes to queue page
-                }
+                debugText += "\nTitle: " + queue.getTitle(position) + "\nArtist: " + queue.getArtist(position);
+                // Navigate directly to PlayerActivity if queue is loaded and position is valid
+                Intent intent = new Intent(this, PlayerActivity.class);
+                intent.putExtra("position", position);
+                startActivity(intent);
+                finish(); // Close MainActivity so back from PlayerActivity goes to queue page
             }
             if (reloadedQueue) debugText += " (reloaded)";
         } else {
             debugText += "\nQueue is empty";
         }
         debugArea.setText(debugText);
+    }
 
-        setContentView(layout);
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (importPipeline != null) {
+            importPipeline.cancel();
+            importPipeline = null;
+        }
+        backgroundExecutor.shutdown();
     }
 
     private void queryMediaFiles() {
-        ArrayList<String> fileList = dbHelper.getQueueItems();
+        // MediaListActivity shows the shared queue, loading it first if nothing has yet
         Intent intent = new Intent(this, MediaListActivity.class);
-        intent.putStringArrayListExtra("fileList", fileList);
         startActivity(intent);
     }
 
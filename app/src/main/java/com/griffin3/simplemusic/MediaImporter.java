@@ -0,0 +1,400 @@
+package com.griffin3.simplemusic;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.os.Build;
+import android.provider.MediaStore;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Loads the MediaStore audio table into the media table: the batched inserts ImportPipeline's
+ * full import commits through, and the incremental sync keyed on the MediaStore _ID. Rows are
+ * written through compiled statements in transactions of {@code batchSize} rows, reusing a
+ * single {@link MediaRow} so the only per-row allocations are the strings the cursor hands back.
+ */
+public class MediaImporter {
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    static final String[] PROJECTION = {
+            MediaStore.Audio.Media._ID,
+            MediaStore.Audio.Media.DATE_MODIFIED,
+            MediaStore.Audio.Media.ARTIST,
+            MediaStore.Audio.Media.TITLE,
+            MediaStore.Audio.Media.DURATION,
+            MediaStore.Audio.Media.DATA
+    };
+
+    static final String SQL_INSERT_MEDIA = "INSERT INTO " + DatabaseHelper.TABLE_MEDIA + " (" +
+            DatabaseHelper.COLUMN_ARTIST + ", " + DatabaseHelper.COLUMN_TITLE + ", " +
+            DatabaseHelper.COLUMN_DURATION + ", " + DatabaseHelper.COLUMN_DATA + ", " +
+            DatabaseHelper.COLUMN_STORE_ID + ", " + DatabaseHelper.COLUMN_DATE_MODIFIED + ", " +
+            DatabaseHelper.COLUMN_VOLUME + ", " + DatabaseHelper.COLUMN_LIKES + ") VALUES (?, ?, ?, ?, ?, ?, 128, 0)";
+    // A changed file gets its loudness measured again
+    private static final String SQL_UPDATE_MEDIA = "UPDATE " + DatabaseHelper.TABLE_MEDIA + " SET " +
+            DatabaseHelper.COLUMN_ARTIST + "=?, " + DatabaseHelper.COLUMN_TITLE + "=?, " +
+            DatabaseHelper.COLUMN_DURATION + "=?, " + DatabaseHelper.COLUMN_DATA + "=?, " +
+            DatabaseHelper.COLUMN_STORE_ID + "=?, " + DatabaseHelper.COLUMN_DATE_MODIFIED + "=?, " +
+            DatabaseHelper.COLUMN_LOUDNESS + "=NULL WHERE " +
+            DatabaseHelper.COLUMN_STORE_ID + "=?";
+    // Links a row imported before store ids were tracked back to its MediaStore entry by path
+    private static final String SQL_LINK_MEDIA = "UPDATE " + DatabaseHelper.TABLE_MEDIA + " SET " +
+            DatabaseHelper.COLUMN_ARTIST + "=?, " + DatabaseHelper.COLUMN_TITLE + "=?, " +
+            DatabaseHelper.COLUMN_DURATION + "=?, " + DatabaseHelper.COLUMN_DATA + "=?, " +
+            DatabaseHelper.COLUMN_STORE_ID + "=?, " + DatabaseHelper.COLUMN_DATE_MODIFIED + "=? WHERE " +
+            DatabaseHelper.COLUMN_MEDIA_ID + " = (SELECT " + DatabaseHelper.COLUMN_MEDIA_ID + " FROM " +
+            DatabaseHelper.TABLE_MEDIA + " WHERE " + DatabaseHelper.COLUMN_STORE_ID + " IS NULL AND " +
+            DatabaseHelper.COLUMN_DATA + "=? LIMIT 1)";
+    private static final String SQL_DELETE_MEDIA = "DELETE FROM " + DatabaseHelper.TABLE_MEDIA +
+            " WHERE " + DatabaseHelper.COLUMN_MEDIA_ID + "=?";
+
+    private final int batchSize;
+
+    // Rows written in the transaction currently open; see commitIfBatchFull
+    private int inBatch;
+
+    public MediaImporter(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be at least 1, was " + batchSize);
+        }
+        this.batchSize = batchSize;
+    }
+
+    // Inserts a batch of new rows in one transaction through the given compiled SQL_INSERT_MEDIA.
+    // The full import's writer stage commits through here. Must run on the writer thread.
+    static void insertBatch(SQLiteDatabase db, SQLiteStatement insert, List<MediaRow> rows) {
+        db.beginTransactionNonExclusive();
+        try {
+            for (int i = 0; i < rows.size(); i++) {
+                bindRow(insert, rows.get(i));
+                insert.executeInsert();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    // Applies only what changed in MediaStore since the last import or sync. When the volume
+    // generations have not moved nothing is scanned at all. Must run on the writer thread.
+    public ImportStats sync(Context context, SQLiteDatabase db) {
+        ImportStats stats = new ImportStats();
+        long startTime = System.nanoTime();
+
+        String version = MediaStore.getVersion(context);
+        String generations = currentGenerations(context);
+        String savedVersion = null;
+        String savedGenerations = null;
+        Cursor state = db.query(DatabaseHelper.TABLE_STATE,
+                new String[]{DatabaseHelper.COLUMN_STORE_VERSION, DatabaseHelper.COLUMN_STORE_GENERATIONS},
+                DatabaseHelper.COLUMN_STATE_ID + "=1", null, null, null, null);
+        if (state.moveToFirst()) {
+            savedVersion = state.getString(0);
+            savedGenerations = state.getString(1);
+        }
+        state.close();
+
+        boolean sameStore = version.equals(savedVersion);
+        if (sameStore && generations != null && generations.equals(savedGenerations)) {
+            stats.skipped = true;
+            stats.totalNanos = System.nanoTime() - startTime;
+            return stats;
+        }
+
+        Writer writer = new Writer(db);
+        beginBatch(db);
+        try {
+            if (!sameStore) {
+                // A different MediaStore version means its _IDs were reassigned; relink everything by path
+                db.execSQL("UPDATE " + DatabaseHelper.TABLE_MEDIA + " SET " + DatabaseHelper.COLUMN_STORE_ID + " = NULL");
+            }
+            writer.hasUnlinked = hasUnlinkedRows(db);
+
+            if (sameStore && generations != null && savedGenerations != null) {
+                for (String volume : MediaStore.getExternalVolumeNames(context)) {
+                    long since = generationOf(savedGenerations, volume);
+                    Cursor cursor = context.getContentResolver().query(
+                            MediaStore.Audio.Media.getContentUri(volume), PROJECTION,
+                            MediaStore.Audio.Media.GENERATION_MODIFIED + ">?",
+                            new String[]{String.valueOf(since)}, null);
+                    applyRows(db, cursor, writer, null, stats);
+                }
+                // Generations say nothing about deletions, and a delete plus an add leaves the
+                // counts equal, so the ids are always compared; one column, no row is rewritten
+                removeStale(db, storeIds(context), writer, stats);
+            } else {
+                // No usable generations (API 29 or a rebuilt MediaStore): compare DATE_MODIFIED per row
+                long[] local = localDates(db);
+                Cursor cursor = context.getContentResolver().query(
+                        MediaStore.Audio.Media.EXTERNAL_CONTENT_URI, PROJECTION, null, null, null);
+                long[] seen = applyRows(db, cursor, writer, local, stats);
+                removeStale(db, seen, writer, stats);
+            }
+
+            if (stats.deleted > 0) {
+                db.execSQL("DELETE FROM " + DatabaseHelper.TABLE_QUEUE + " WHERE " + DatabaseHelper.COLUMN_MEDIA_ID_FK +
+                        " NOT IN (SELECT " + DatabaseHelper.COLUMN_MEDIA_ID + " FROM " + DatabaseHelper.TABLE_MEDIA + ")");
+            }
+            writeSyncState(db, version, generations);
+            endBatch(db);
+        } finally {
+            abortBatch(db);
+            writer.close();
+        }
+
+        stats.totalNanos = System.nanoTime() - startTime;
+        return stats;
+    }
+
+    // Upserts every row of the cursor, skipping rows whose DATE_MODIFIED matches {@code localDates}
+    // when given. Returns the sorted store ids seen.
+    private long[] applyRows(SQLiteDatabase db, Cursor cursor, Writer writer, long[] localDates, ImportStats stats) {
+        if (cursor == null) {
+            return new long[0];
+        }
+        long[] seen = new long[cursor.getCount()];
+        int seenCount = 0;
+        MediaRow row = new MediaRow();
+        try {
+            while (true) {
+                long readStart = System.nanoTime();
+                if (!cursor.moveToNext()) {
+                    stats.readNanos += System.nanoTime() - readStart;
+                    break;
+                }
+                readRow(cursor, row);
+                seen[seenCount++] = row.storeId;
+                stats.rows++;
+                long transformStart = System.nanoTime();
+                stats.readNanos += transformStart - readStart;
+
+                if (localDates != null && dateOf(localDates, row.storeId) == row.dateModified) {
+                    stats.transformNanos += System.nanoTime() - transformStart;
+                    continue;
+                }
+                row.normalize();
+                long writeStart = System.nanoTime();
+                stats.transformNanos += writeStart - transformStart;
+
+                writer.upsert(row, stats);
+                commitIfBatchFull(db);
+                stats.writeNanos += System.nanoTime() - writeStart;
+            }
+        } finally {
+            cursor.close();
+        }
+        long[] ids = Arrays.copyOf(seen, seenCount);
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    // Deletes local rows whose store id is not in the sorted {@code storeIds}
+    private void removeStale(SQLiteDatabase db, long[] storeIds, Writer writer, ImportStats stats) {
+        long readStart = System.nanoTime();
+        Cursor cursor = db.query(DatabaseHelper.TABLE_MEDIA,
+                new String[]{DatabaseHelper.COLUMN_MEDIA_ID, DatabaseHelper.COLUMN_STORE_ID},
+                null, null, null, null, null);
+        // Collect first: deleting while the cursor is still paging through the table would shift its window
+        long[] stale = new long[cursor.getCount()];
+        int staleCount = 0;
+        while (cursor.moveToNext()) {
+            if (cursor.isNull(1) || Arrays.binarySearch(storeIds, cursor.getLong(1)) < 0) {
+                stale[staleCount++] = cursor.getLong(0);
+            }
+        }
+        cursor.close();
+        long writeStart = System.nanoTime();
+        stats.readNanos += writeStart - readStart;
+
+        for (int i = 0; i < staleCount; i++) {
+            writer.delete(stale[i]);
+            stats.deleted++;
+            commitIfBatchFull(db);
+        }
+        stats.writeNanos += System.nanoTime() - writeStart;
+    }
+
+    private static boolean hasUnlinkedRows(SQLiteDatabase db) {
+        return DatabaseUtils.longForQuery(db, "SELECT EXISTS(SELECT 1 FROM " +
+                DatabaseHelper.TABLE_MEDIA + " WHERE " + DatabaseHelper.COLUMN_STORE_ID + " IS NULL)", null) != 0;
+    }
+
+    // Interleaved (store id, date modified) pairs sorted by store id
+    private static long[] localDates(SQLiteDatabase db) {
+        Cursor cursor = db.query(DatabaseHelper.TABLE_MEDIA,
+                new String[]{DatabaseHelper.COLUMN_STORE_ID, DatabaseHelper.COLUMN_DATE_MODIFIED},
+                DatabaseHelper.COLUMN_STORE_ID + " IS NOT NULL", null, null, null, DatabaseHelper.COLUMN_STORE_ID);
+        long[] pairs = new long[cursor.getCount() * 2];
+        int i = 0;
+        while (cursor.moveToNext()) {
+            pairs[i++] = cursor.getLong(0);
+            pairs[i++] = cursor.getLong(1);
+        }
+        cursor.close();
+        return pairs;
+    }
+
+    private static long dateOf(long[] pairs, long storeId) {
+        int low = 0;
+        int high = pairs.length / 2 - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            long id = pairs[mid * 2];
+            if (id < storeId) {
+                low = mid + 1;
+            } else if (id > storeId) {
+                high = mid - 1;
+            } else {
+                return pairs[mid * 2 + 1];
+            }
+        }
+        return -1;
+    }
+
+    private static long[] storeIds(Context context) {
+        Cursor cursor = context.getContentResolver().query(MediaStore.Audio.Media.EXTERNAL_CONTENT_URI,
+                new String[]{MediaStore.Audio.Media._ID}, null, null, null);
+        if (cursor == null) {
+            return new long[0];
+        }
+        long[] ids = new long[cursor.getCount()];
+        int i = 0;
+        while (cursor.moveToNext()) {
+            ids[i++] = cursor.getLong(0);
+        }
+        cursor.close();
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    // "volume=generation;..." for every external volume, or null where generations are unsupported
+    static String currentGenerations(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.R) {
+            return null;
+        }
+        Set<String> volumes = MediaStore.getExternalVolumeNames(context);
+        String[] names = volumes.toArray(new String[0]);
+        Arrays.sort(names);
+        StringBuilder builder = new StringBuilder();
+        for (String volume : names) {
+            if (builder.length() > 0) {
+                builder.append(';');
+            }
+            builder.append(volume).append('=').append(MediaStore.getGeneration(context, volume));
+        }
+        return builder.toString();
+    }
+
+    static long generationOf(String generations, String volume) {
+        for (String entry : generations.split(";")) {
+            int separator = entry.lastIndexOf('=');
+            if (separator > 0 && entry.substring(0, separator).equals(volume)) {
+                return Long.parseLong(entry.substring(separator + 1));
+            }
+        }
+        // A volume we have not seen before: everything on it is new
+        return 0;
+    }
+
+    static void writeSyncState(SQLiteDatabase db, String version, String generations) {
+        db.execSQL("UPDATE " + DatabaseHelper.TABLE_STATE + " SET " + DatabaseHelper.COLUMN_STORE_VERSION + "=?, " +
+                DatabaseHelper.COLUMN_STORE_GENERATIONS + "=? WHERE " + DatabaseHelper.COLUMN_STATE_ID + "=1",
+                new Object[]{version, generations});
+    }
+
+    private void beginBatch(SQLiteDatabase db) {
+        db.beginTransactionNonExclusive();
+        inBatch = 0;
+    }
+
+    private void commitIfBatchFull(SQLiteDatabase db) {
+        if (++inBatch == batchSize) {
+            db.setTransactionSuccessful();
+            db.endTransaction();
+            beginBatch(db);
+        }
+    }
+
+    private void endBatch(SQLiteDatabase db) {
+        db.setTransactionSuccessful();
+        db.endTransaction();
+    }
+
+    // Rolls back the open batch if an exception left one behind
+    private void abortBatch(SQLiteDatabase db) {
+        if (db.inTransaction()) {
+            db.endTransaction();
+        }
+    }
+
+    static void readRow(Cursor cursor, MediaRow row) {
+        row.set(cursor.getLong(0), cursor.getLong(1), cursor.getString(2), cursor.getString(3),
+                cursor.getLong(4), cursor.getString(5));
+    }
+
+    // Binds the six leading columns shared by the insert, update and link statements
+    static void bindRow(SQLiteStatement statement, MediaRow row) {
+        statement.bindString(1, row.artist);
+        statement.bindString(2, row.title);
+        statement.bindLong(3, row.duration);
+        if (row.data != null) {
+            statement.bindString(4, row.data);
+        } else {
+            statement.bindNull(4);
+        }
+        statement.bindLong(5, row.storeId);
+        statement.bindLong(6, row.dateModified);
+    }
+
+    // The compiled statements a sync writes through
+    private static class Writer {
+        final SQLiteStatement insert;
+        final SQLiteStatement update;
+        final SQLiteStatement link;
+        final SQLiteStatement delete;
+        boolean hasUnlinked;
+
+        Writer(SQLiteDatabase db) {
+            insert = db.compileStatement(SQL_INSERT_MEDIA);
+            update = db.compileStatement(SQL_UPDATE_MEDIA);
+            link = db.compileStatement(SQL_LINK_MEDIA);
+            delete = db.compileStatement(SQL_DELETE_MEDIA);
+        }
+
+        void upsert(MediaRow row, ImportStats stats) {
+            bindRow(update, row);
+            update.bindLong(7, row.storeId);
+            if (update.executeUpdateDelete() > 0) {
+                stats.updated++;
+                return;
+            }
+            if (hasUnlinked && row.data != null) {
+                bindRow(link, row);
+                link.bindString(7, row.data);
+                if (link.executeUpdateDelete() > 0) {
+                    stats.updated++;
+                    return;
+                }
+            }
+            bindRow(insert, row);
+            insert.executeInsert();
+            stats.inserted++;
+        }
+
+        void delete(long mediaId) {
+            delete.bindLong(1, mediaId);
+            delete.executeUpdateDelete();
+        }
+
+        void close() {
+            insert.close();
+            update.close();
+            link.close();
+            delete.close();
+        }
+    }
+}
@@ -2,33 +2,67 @@ package com.griffin3.simplemusic;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.CancellationSignal;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.OperationCanceledException;
+import android.text.Editable;
+import android.text.TextWatcher;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
+import android.view.MotionEvent;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.widget.BaseAdapter;
+import android.widget.EditText;
 import android.widget.ImageView;
+import android.widget.LinearLayout;
 import android.widget.ListView;
+import android.widget.PopupMenu;
+import android.widget.SeekBar;
 import android.widget.TextView;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
-import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 public class MediaListActivity extends AppCompatActivity {
-    private ArrayList<String> fileList;
+    private static final long SEARCH_DEBOUNCE_MS = 150;
+    private static final int SEARCH_LIMIT = 200;
+    private QueueModel queue;
     private int currentPosition = -1;
     private DatabaseHelper dbHelper;
+    private QueueRepository repository;
     private CustomAdapter adapter;
+    private ListView listView;
+    // Row picked up by a long press and the row it would be dropped on, or -1 when not dragging
+    private int dragFrom = -1;
+    private int dragTo = -1;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    // Searches get their own thread so they never wait behind queue writes
+    private final ExecutorService searchExecutor = Executors.newSingleThreadExecutor();
+    private CancellationSignal searchSignal;
+    private String searchQuery = "";
+    private final Runnable searchRunnable = this::runSearch;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_media_list);
 
-        dbHelper = new DatabaseHelper(this);
-        fileList = dbHelper.getQueueItems();
-        currentPosition = dbHelper.getQueuePosition();
+        dbHelper = DatabaseHelper.getInstance(this);
+        repository = QueueRepository.getInstance(this);
+        // Coming from the player the queue is already in memory; otherwise it shows once loaded
+        queue = repository.getQueue();
+        if (queue == null) {
+            queue = QueueModel.EMPTY;
+            repository.load();
+        }
+        currentPosition = repository.getPosition();
+        repository.addObserver(queueObserver);
 
         getSupportActionBar().setDisplayShowCustomEnabled(true);
         getSupportActionBar().setCustomView(R.layout.action_bar_layout);
@@ -42,57 +76,323 @@ public class MediaListActivity extends AppCompatActivity {
             }
         });
 
-        ListView listView = findViewById(R.id.listView);
-        adapter = new CustomAdapter(this, fileList);
+        listView = findViewById(R.id.listView);
+        adapter = new CustomAdapter(queue);
         listView.setAdapter(adapter);
 
         if (currentPosition > 0) {
             listView.setSelection(currentPosition - 1);
         }
+
+        EditText searchText = findViewById(R.id.searchText);
+        searchText.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(CharSequence s, int start, int count, int after) {}
+
+            @Override
+            public void onTextChanged(CharSequence s, int start, int before, int count) {}
+
+            @Override
+            public void afterTextChanged(Editable s) {
+                onSearchChanged(s.toString().trim());
+            }
+        });
+    }
+
+    // Waits for typing to pause, and drops any search still running for older text
+    private void onSearchChanged(String query) {
+        if (query.equals(searchQuery)) {
+            return;
+        }
+        searchQuery = query;
+        mainHandler.removeCallbacks(searchRunnable);
+        if (searchSignal != null) {
+            searchSignal.cancel();
+            searchSignal = null;
+        }
+        if (query.isEmpty()) {
+            listView.setAdapter(adapter);
+        } else {
+            mainHandler.postDelayed(searchRunnable, SEARCH_DEBOUNCE_MS);
+        }
+    }
+
+    private void runSearch() {
+        final String query = searchQuery;
+        final CancellationSignal signal = new CancellationSignal();
+        searchSignal = signal;
+        searchExecutor.execute(() -> {
+            try {
+                QueueModel results = dbHelper.searchMedia(query, SEARCH_LIMIT, signal);
+                mainHandler.post(() -> {
+                    if (!signal.isCanceled() && !isDestroyed()) {
+                        listView.setAdapter(new ResultsAdapter(results));
+                    }
+                });
+            } catch (OperationCanceledException e) {
+                // Superseded by newer text
+            }
+        });
+    }
+
+    // Queues the picked result right after the current track and starts playing it
+    private void playSearchResult(long mediaId) {
+        final int position = currentPosition + 1;
+        repository.insertMedia(position, mediaId, () -> {
+            if (isDestroyed()) return;
+            Intent intent = new Intent(MediaListActivity.this, PlayerActivity.class);
+            intent.putExtra("position", position);
+            startActivity(intent);
+            finish();
+        });
+    }
+
+    // Follows edits, reloads and reshuffles from any screen
+    private final QueueRepository.Observer queueObserver = new QueueRepository.Observer() {
+        @Override
+        public void onQueueChanged(QueueModel changed, int position) {
+            currentPosition = position;
+            if (changed != queue) {
+                queue = changed;
+                adapter = new CustomAdapter(queue);
+                if (searchQuery.isEmpty()) {
+                    listView.setAdapter(adapter);
+                    if (currentPosition > 0) {
+                        listView.setSelection(currentPosition - 1);
+                    }
+                }
+            } else {
+                adapter.notifyDataSetChanged();
+            }
+        }
+    };
+
+    @Override
+    public boolean onCreateOptionsMenu(Menu menu) {
+        MenuInflater inflater = getMenuInflater();
+        inflater.inflate(R.menu.menu_queue, menu);
+        return true;
     }
 
+    @Override
+    public boolean onOptionsItemSelected(MenuItem item) {
+        if (item.getItemId() == R.id.action_shuffle) {
+            repository.shuffle(DatabaseHelper.SHUFFLE_RANDOM);
+            return true;
+        } else if (item.getItemId() == R.id.action_smart_shuffle) {
+            repository.shuffle(DatabaseHelper.SHUFFLE_SMART);
+            return true;
+        } else if (item.getItemId() == R.id.action_equalizer) {
+            showEqualizer();
+            return true;
+        } else if (item.getItemId() == R.id.action_exit) {
+            finish();
+            return true;
+        }
+        return super.onOptionsItemSelected(item);
+    }
+
+    // A slider per band in half-dB steps. Each move goes straight to the player, which glides to it.
+    private void showEqualizer() {
+        EqualizerSettings settings = EqualizerSettings.getInstance(this);
+        float[] frequencies = settings.getFrequencies();
+        float[] gains = settings.getGains();
+        int steps = (int) (Equalizer.MAX_GAIN_DB * 2);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        LinearLayout layout = new LinearLayout(this);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.setPadding(padding, padding, padding, 0);
+        SeekBar[] bars = new SeekBar[frequencies.length];
+        for (int band = 0; band < frequencies.length; band++) {
+            final int b = band;
+            TextView label = new TextView(this);
+            SeekBar bar = new SeekBar(this);
+            bar.setMax(steps * 2);
+            bar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
+                @Override
+                public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
+                    float gain = (progress - steps) / 2f;
+                    label.setText(bandLabel(frequencies[b], gain));
+                    if (fromUser) {
+                        settings.setGain(b, gain);
+                    }
+                }
+
+                @Override
+                public void onStartTrackingTouch(SeekBar seekBar) {}
+
+                @Override
+                public void onStopTrackingTouch(SeekBar seekBar) {}
+            });
+            bar.setProgress(Math.round(gains[band] * 2) + steps);
+            label.setText(bandLabel(frequencies[band], gains[band]));
+            layout.addView(label);
+            layout.addView(bar);
+            bars[band] = bar;
+        }
+        AlertDialog dialog = new AlertDialog.Builder(this)
+                .setTitle("Equalizer")
+                .setView(layout)
+                .setPositiveButton("Done", null)
+                .setNeutralButton("Flat", null)
+                .show();
+        // Kept open so the sliders can be seen going back to the middle
+        dialog.getButton(AlertDialog.BUTTON_NEUTRAL).setOnClickListener(v -> {
+            settings.resetGains();
+            for (SeekBar bar : bars) {
+                bar.setProgress(steps);
+            }
+        });
+    }
+
+    private static String bandLabel(float frequency, float gain) {
+        String hz = frequency >= 1000 ? (frequency / 1000f) + " kHz" : (int) frequency + " Hz";
+        return hz + "   " + (gain > 0 ? "+" : "") + gain + " dB";
+    }
+
+    // Queue edits change the shared list straight away; the observer redraws it
+    private void moveItem(int from, int to) {
+        repository.move(from, to);
+    }
+
+    private void insertItem(int position, int sourcePosition) {
+        repository.insert(position, sourcePosition);
+    }
+
+    private void removeItem(int position) {
+        repository.remove(position);
+    }
+
+    private void showItemActions(View anchor, int position) {
+        PopupMenu popup = new PopupMenu(this, anchor);
+        popup.getMenuInflater().inflate(R.menu.menu_queue_item, popup.getMenu());
+        popup.setOnMenuItemClickListener(new PopupMenu.OnMenuItemClickListener() {
+            @Override
+            public boolean onMenuItemClick(MenuItem item) {
+                if (item.getItemId() == R.id.action_play_next) {
+                    insertItem(currentPosition + 1, position);
+                } else if (item.getItemId() == R.id.action_add_to_end) {
+                    insertItem(queue.size(), position);
+                } else if (item.getItemId() == R.id.action_remove) {
+                    removeItem(position);
+                } else {
+                    return false;
+                }
+                return true;
+            }
+        });
+        popup.show();
+    }
+
+    // After a long press picks a row up, the row that saw the touch go down keeps getting the
+    // gesture, so follow the finger from there. Releasing on the same row opens its actions.
+    private final View.OnTouchListener dragListener = new View.OnTouchListener() {
+        @Override
+        public boolean onTouch(View v, MotionEvent event) {
+            if (dragFrom < 0) {
+                return false;
+            }
+            switch (event.getActionMasked()) {
+                case MotionEvent.ACTION_MOVE:
+                    int target = listView.pointToPosition((int) event.getX() + v.getLeft(), (int) event.getY() + v.getTop());
+                    if (target != ListView.INVALID_POSITION && target != dragTo) {
+                        dragTo = target;
+                        adapter.notifyDataSetChanged();
+                    }
+                    break;
+                case MotionEvent.ACTION_UP:
+                    int from = dragFrom;
+                    int to = dragTo;
+                    dragFrom = -1;
+                    dragTo = -1;
+                    if (from == to) {
+                        adapter.notifyDataSetChanged();
+                        showItemActions(v, from);
+                    } else {
+                        moveItem(from, to);
+                    }
+                    break;
+                case MotionEvent.ACTION_CANCEL:
+                    dragFrom = -1;
+                    dragTo = -1;
+                    adapter.notifyDataSetChanged();
+                    break;
+            }
+            return true;
+        }
+    };
+
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        mainHandler.removeCallbacks(searchRunnable);
+        if (searchSignal != null) {
+            searchSignal.cancel();
+        }
+        searchExecutor.shutdown();
+        repository.removeObserver(queueObserver);
     }
 
-    private class CustomAdapter extends ArrayAdapter<String> {
-        private ArrayList<String> items;
+    private static String formatDuration(long duration) {
+        if (duration <= 0) {
+            return "";
+        }
+        return String.format("%02d:%02d",
+                TimeUnit.MILLISECONDS.toMinutes(duration),
+                TimeUnit.MILLISECONDS.toSeconds(duration) % 60);
+    }
 
-        public CustomAdapter(MediaListActivity context, ArrayList<String> items) {
-            super(context, 0, items);
+    private class CustomAdapter extends BaseAdapter {
+        private final QueueModel items;
+
+        public CustomAdapter(QueueModel items) {
             this.items = items;
         }
 
+        @Override
+        public int getCount() {
+            return items.size();
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return items.getSongInfo(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return items.getMediaId(position);
+        }
+
         @Override
         public View getView(int position, View convertView, ViewGroup parent) {
             if (convertView == null) {
-                convertView = LayoutInflater.from(getContext()).inflate(R.layout.list_item, parent, false);
+                convertView = LayoutInflater.from(MediaListActivity.this).inflate(R.layout.list_item, parent, false);
             }
 
-            String item = items.get(position);
-            String[] parts = item.split("\\|", -1);
-            String artist = parts[0];
-            String title = parts[1];
-            long duration = Long.parseLong(parts[2]);
+            long duration = items.getDuration(position);
 
             TextView titleText = convertView.findViewById(R.id.titleText);
             TextView artistText = convertView.findViewById(R.id.artistText);
             TextView durationText = convertView.findViewById(R.id.durationText);
+            TextView heartText = convertView.findViewById(R.id.heartText);
 
-            titleText.setText((position + 1) + ". " + title);
-            artistText.setText(artist);
+            titleText.setText((position + 1) + ". " + items.getTitle(position));
+            artistText.setText(items.getArtist(position));
 
-            if (duration > 0) {
-                String durationStr = String.format("%02d:%02d",
-                        TimeUnit.MILLISECONDS.toMinutes(duration),
-                        TimeUnit.MILLISECONDS.toSeconds(duration) % 60);
-                durationText.setText(durationStr);
-            } else {
-                durationText.setText("");
-            }
+            heartText.setText(items.getLikes(position) > 0 ? "♥" : "♡");
+            heartText.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    repository.setLikes(position, items.getLikes(position) > 0 ? 0 : 1);
+                }
+            });
+
+            durationText.setText(formatDuration(duration));
 
-            if (position == currentPosition) {
+            if (dragFrom >= 0 && position == dragTo) {
+                convertView.setBackgroundColor(getResources().getColor(android.R.color.holo_orange_light));
+            } else if (position == currentPosition) {
                 convertView.setBackgroundColor(getResources().getColor(android.R.color.holo_blue_light));
             } else {
                 convertView.setBackgroundColor(0);
@@ -106,6 +406,72 @@ public class MediaListActivity extends AppCompatActivity {
                     startActivity(intent);
                 }
             });
+            convertView.setOnLongClickListener(new View.OnLongClickListener() {
+                @Override
+                public boolean onLongClick(View v) {
+                    dragFrom = position;
+                    dragTo = position;
+                    listView.requestDisallowInterceptTouchEvent(true);
+                    notifyDataSetChanged();
+                    return true;
+                }
+            });
+            convertView.setOnTouchListener(dragListener);
+
+            return convertView;
+        }
+    }
+
+    // Search matches in rank order; tapping one plays it next
+    private class ResultsAdapter extends BaseAdapter {
+        private final QueueModel results;
+
+        public ResultsAdapter(QueueModel results) {
+            this.results = results;
+        }
+
+        @Override
+        public int getCount() {
+            return results.size();
+        }
+
+        @Override
+        public Object getItem(int position) {
+            return results.getSongInfo(position);
+        }
+
+        @Override
+        public long getItemId(int position) {
+            return results.getMediaId(position);
+        }
+
+        @Override
+        public View getView(int position, View convertView, ViewGroup parent) {
+            if (convertView == null) {
+                convertView = LayoutInflater.from(MediaListActivity.this).inflate(R.layout.list_item, parent, false);
+            }
+
+            TextView titleText = convertView.findViewById(R.id.titleText);
+            TextView artistText = convertView.findViewById(R.id.artistText);
+            TextView durationText = convertView.findViewById(R.id.durationText);
+            TextView heartText = convertView.findViewById(R.id.heartText);
+
+            titleText.setText(results.getTitle(position));
+            artistText.setText(results.getArtist(position));
+            durationText.setText(formatDuration(results.getDuration(position)));
+            heartText.setText(results.getLikes(position) > 0 ? "♥" : "♡");
+            heartText.setOnClickListener(null);
+            convertView.setBackgroundColor(0);
+
+            long mediaId = results.getMediaId(position);
+            convertView.setOnClickListener(new View.OnClickListener() {
+                @Override
+                public void onClick(View v) {
+                    playSearchResult(mediaId);
+                }
+            });
+            convertView.setOnLongClickListener(null);
+            convertView.setOnTouchListener(null);
 
             return convertView;
         }
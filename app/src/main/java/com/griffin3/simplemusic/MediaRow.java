@@ -0,0 +1,40 @@
+package com.griffin3.simplemusic;
+
+/**
+ * A mutable, reusable holder for one MediaStore row while it is being imported,
+ * so the importer does not allocate an object per track.
+ */
+public class MediaRow {
+    private static final String UNKNOWN_ARTIST = "<unknown>";
+    private static final String ARTIST_TITLE_SEPARATOR = " - ";
+
+    public long storeId;
+    public long dateModified;
+    public String artist;
+    public String title;
+    public long duration;
+    public String data;
+
+    public void set(long storeId, long dateModified, String artist, String title, long duration, String data) {
+        this.storeId = storeId;
+        this.dateModified = dateModified;
+        this.artist = artist;
+        this.title = title;
+        this.duration = duration;
+        this.data = data;
+    }
+
+    // Trims the tags and, for files with no artist tag, splits "Artist - Title" titles in place
+    public void normalize() {
+        artist = artist != null ? artist.trim() : "";
+        title = title != null ? title.trim() : "";
+
+        if (artist.equals(UNKNOWN_ARTIST)) {
+            int separator = title.indexOf(ARTIST_TITLE_SEPARATOR);
+            if (separator >= 0) {
+                artist = title.substring(0, separator).trim();
+                title = title.substring(separator + ARTIST_TITLE_SEPARATOR.length()).trim();
+            }
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.griffin3.simplemusic;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A small binary file holding the current queue position, the offset into that track and the
+ * tracks around it. Startup reads it with a single memory-mapped read instead of opening the
+ * database and loading the queue, so reaching the player costs the same for any library size.
+ *
+ * <p>Layout, big-endian: magic, version, position, offset, queue size, window start, window
+ * count, then per track its media id, duration, artist, title and path, each string as a
+ * length-prefixed UTF-8 run. Writes go to a temporary file that is synced and renamed over the
+ * old one, so a reader sees either the previous snapshot or the new one. While a track plays only
+ * its offset moves, and that is patched in place without a sync: losing the patch costs a few
+ * seconds of resume position, never a broken snapshot.
+ */
+public final class NowPlayingSnapshot {
+    private static final int MAGIC = 0x534d4e50; // "SMNP"
+    private static final int VERSION = 1;
+    private static final int POSITION_AT = 8;
+    private static final int OFFSET_AT = 12;
+
+    private final int position;
+    private final long offset;
+    private final int queueSize;
+    private final int windowStart;
+    private final QueueModel window;
+
+    private NowPlayingSnapshot(int position, long offset, int queueSize, int windowStart, QueueModel window) {
+        this.position = position;
+        this.offset = offset;
+        this.queueSize = queueSize;
+        this.windowStart = windowStart;
+        this.window = window;
+    }
+
+    public int getPosition() { return position; }
+    public long getOffset() { return offset; }
+    public int getQueueSize() { return queueSize; }
+
+    // Whether the track at the given queue position is in the snapshot
+    public boolean contains(int queuePosition) {
+        int index = queuePosition - windowStart;
+        return index >= 0 && index < window.size();
+    }
+
+    public long getMediaId(int queuePosition) { return window.getMediaId(queuePosition - windowStart); }
+    public String getArtist(int queuePosition) { return window.getArtist(queuePosition - windowStart); }
+    public String getTitle(int queuePosition) { return window.getTitle(queuePosition - windowStart); }
+    public String getData(int queuePosition) { return window.getData(queuePosition - windowStart); }
+    public int getDuration(int queuePosition) { return window.getDuration(queuePosition - windowStart); }
+
+    // Returns null when there is no snapshot or it cannot be trusted
+    public static NowPlayingSnapshot read(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r"); FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            int position = buffer.getInt();
+            long offset = buffer.getLong();
+            int queueSize = buffer.getInt();
+            int windowStart = buffer.getInt();
+            int count = buffer.getInt();
+            if (count < 0 || count > queueSize) {
+                return null;
+            }
+            QueueModel.Builder builder = new QueueModel.Builder(count);
+            for (int i = 0; i < count; i++) {
+                long mediaId = buffer.getLong();
+                long duration = buffer.getLong();
+                String artist = readString(buffer);
+                String title = readString(buffer);
+                String data = readString(buffer);
+                builder.add(mediaId, artist, title, duration, data);
+            }
+            return new NowPlayingSnapshot(position, offset, queueSize, windowStart, builder.build());
+        } catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    // Writes the snapshot for the queue position; window holds the tracks from windowStart on
+    public static void write(File file, int position, long offset, int queueSize, int windowStart, QueueModel window) throws IOException {
+        byte[][] strings = new byte[window.size() * 3][];
+        int length = 32 + window.size() * 16;
+        for (int i = 0; i < window.size(); i++) {
+            strings[i * 3] = encode(window.getArtist(i));
+            strings[i * 3 + 1] = encode(window.getTitle(i));
+            strings[i * 3 + 2] = encode(window.getData(i));
+            length += 12 + strings[i * 3].length + strings[i * 3 + 1].length + strings[i * 3 + 2].length;
+        }
+
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putInt(MAGIC).putInt(VERSION).putInt(position).putLong(offset)
+                .putInt(queueSize).putInt(windowStart).putInt(window.size());
+        for (int i = 0; i < window.size(); i++) {
+            buffer.putLong(window.getMediaId(i)).putLong(window.getDuration(i));
+            for (int s = 0; s < 3; s++) {
+                byte[] bytes = strings[i * 3 + s];
+                buffer.putInt(bytes.length).put(bytes);
+            }
+        }
+
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(buffer.array(), 0, buffer.position());
+            out.getFD().sync();
+        }
+        if (!temp.renameTo(file)) {
+            throw new IOException("Could not replace " + file);
+        }
+    }
+
+    // Moves the offset of a snapshot already written for this position. Returns false when there
+    // is none to patch, in which case the caller writes it in full.
+    public static boolean writeOffset(File file, int position, long offset) throws IOException {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw"); FileChannel channel = raf.getChannel()) {
+            if (channel.size() < OFFSET_AT + 8) {
+                return false;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, OFFSET_AT + 8);
+            if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(POSITION_AT) != position) {
+                return false;
+            }
+            buffer.putLong(OFFSET_AT, offset);
+            return true;
+        }
+    }
+
+    private static byte[] encode(String value) {
+        return value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Bad string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,73 @@
+package com.griffin3.simplemusic;
+
+import android.content.Context;
+import android.media.MediaFormat;
+import android.os.Handler;
+import com.google.android.exoplayer2.DefaultRenderersFactory;
+import com.google.android.exoplayer2.ExoPlaybackException;
+import com.google.android.exoplayer2.Format;
+import com.google.android.exoplayer2.Renderer;
+import com.google.android.exoplayer2.audio.AudioProcessor;
+import com.google.android.exoplayer2.audio.AudioRendererEventListener;
+import com.google.android.exoplayer2.audio.AudioSink;
+import com.google.android.exoplayer2.audio.DefaultAudioSink;
+import com.google.android.exoplayer2.audio.MediaCodecAudioRenderer;
+import com.google.android.exoplayer2.mediacodec.MediaCodecAdapter;
+import com.google.android.exoplayer2.mediacodec.MediaCodecSelector;
+import java.util.ArrayList;
+
+/**
+ * The player's renderers with the gain stage in the audio path. The stored volume of each track
+ * travels on its format, labelled by LibraryExtractorsFactory. The renderer hands it to the
+ * processor when that format reaches its output, which is the moment the track's first decoded
+ * buffer goes to the sink. A gapless change of track therefore changes the gain on the right
+ * sample, not when the player gets around to reporting the transition. The equalizer comes after
+ * the gain, so a boosted band is shaped from the levelled signal.
+ */
+public class PlaybackRenderersFactory extends DefaultRenderersFactory {
+    private final GainAudioProcessor gainProcessor = new GainAudioProcessor();
+    private final EqualizerAudioProcessor equalizerProcessor;
+
+    public PlaybackRenderersFactory(Context context, EqualizerAudioProcessor equalizerProcessor) {
+        super(context);
+        this.equalizerProcessor = equalizerProcessor;
+    }
+
+    @Override
+    protected AudioSink buildAudioSink(Context context, boolean enableFloatOutput, boolean enableAudioTrackPlaybackParams, boolean enableOffload) {
+        // Offload would skip the processors, so it stays off
+        return new DefaultAudioSink.Builder()
+                .setAudioProcessors(new AudioProcessor[]{gainProcessor, equalizerProcessor})
+                .setEnableFloatOutput(enableFloatOutput)
+                .setEnableAudioTrackPlaybackParams(enableAudioTrackPlaybackParams)
+                .build();
+    }
+
+    // The app ships no decoder extensions, so the MediaCodec renderer is the only audio renderer
+    @Override
+    protected void buildAudioRenderers(Context context, int extensionRendererMode, MediaCodecSelector mediaCodecSelector,
+                                       boolean enableDecoderFallback, AudioSink audioSink, Handler eventHandler,
+                                       AudioRendererEventListener eventListener, ArrayList<Renderer> out) {
+        out.add(new GainAudioRenderer(context, getCodecAdapterFactory(), mediaCodecSelector, enableDecoderFallback,
+                eventHandler, eventListener, audioSink, gainProcessor));
+    }
+
+    private static final class GainAudioRenderer extends MediaCodecAudioRenderer {
+        private final GainAudioProcessor gainProcessor;
+
+        GainAudioRenderer(Context context, MediaCodecAdapter.Factory codecAdapterFactory, MediaCodecSelector mediaCodecSelector,
+                          boolean enableDecoderFallback, Handler eventHandler, AudioRendererEventListener eventListener,
+                          AudioSink audioSink, GainAudioProcessor gainProcessor) {
+            super(context, codecAdapterFactory, mediaCodecSelector, enableDecoderFallback, eventHandler, eventListener, audioSink);
+            this.gainProcessor = gainProcessor;
+        }
+
+        // Called on the playback thread in output order, once per stream even when the format
+        // itself is unchanged, just before the stream's first buffer is handed to the sink
+        @Override
+        protected void onOutputFormatChanged(Format format, MediaFormat mediaFormat) throws ExoPlaybackException {
+            super.onOutputFormatChanged(format, mediaFormat);
+            gainProcessor.setVolume(LibraryExtractorsFactory.volumeOf(format));
+        }
+    }
+}
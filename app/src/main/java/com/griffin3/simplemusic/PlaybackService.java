@@ -0,0 +1,483 @@
+package com.griffin3.simplemusic;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.graphics.drawable.Icon;
+import android.media.MediaMetadata;
+import android.media.session.MediaSession;
+import android.media.session.PlaybackState;
+import android.os.Binder;
+import android.os.Handler;
+import android.os.IBinder;
+import android.os.Looper;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.Player;
+import com.google.android.exoplayer2.source.DefaultMediaSourceFactory;
+import java.util.ArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Owns the player for the whole process, so leaving or recreating a screen never touches the
+ * audio. While playing it runs in the foreground with a media notification, and a MediaSession
+ * takes headset and lock screen controls. Activities bind to it and only drive it.
+ *
+ * <p>The player holds the current track and a few after it as one playlist, fed from the
+ * shared QueueRepository; on a cold start it plays from the now-playing snapshot until the
+ * queue has loaded.
+ */
+public class PlaybackService extends Service {
+    private static final String TAG = "PlaybackService";
+    private static final String CHANNEL_ID = "playback";
+    private static final int NOTIFICATION_ID = 1;
+    private static final String ACTION_PLAY_PAUSE = "com.griffin3.simplemusic.PLAY_PAUSE";
+    private static final String ACTION_NEXT = "com.griffin3.simplemusic.NEXT";
+    private static final String ACTION_PREVIOUS = "com.griffin3.simplemusic.PREVIOUS";
+    private static final String ACTION_STOP = "com.griffin3.simplemusic.STOP";
+    private static final long OFFSET_SAVE_INTERVAL_MS = 1000;
+
+    // The player holds the current track and this many after it as one playlist
+    static final int WINDOW_AHEAD = 2;
+
+    public interface Listener {
+        // Called on the main thread when the current queue position or the track at it changes
+        void onTrackChanged(int position);
+    }
+
+    public class LocalBinder extends Binder {
+        public PlaybackService getService() {
+            return PlaybackService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final Handler handler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Listener> listeners = new ArrayList<>();
+    private final ExecutorService backgroundExecutor = Executors.newSingleThreadExecutor();
+    private DatabaseHelper dbHelper;
+    private PlaybackStateStore playbackState;
+    private QueueRepository repository;
+    private ExoPlayer player;
+    private PlaylistWindow window;
+    private WarmPause warmPause;
+    private MediaSession mediaSession;
+    private EqualizerSettings equalizerSettings;
+    private EqualizerSettings.Observer equalizerObserver;
+    private boolean foreground;
+
+    // Set on a cold start from the snapshot; serves tracks until the full queue has loaded
+    private NowPlayingSnapshot snapshot;
+    // Where the first track starts, and whether it waits for the queue to load first
+    private long resumeOffset;
+    private boolean startWhenLoaded;
+    private int currentPosition = -1;
+
+    private final Runnable saveOffsetRunnable = new Runnable() {
+        @Override
+        public void run() {
+            saveOffset();
+            handler.postDelayed(this, OFFSET_SAVE_INTERVAL_MS);
+        }
+    };
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        dbHelper = DatabaseHelper.getInstance(this);
+        playbackState = dbHelper.getPlaybackState();
+        repository = QueueRepository.getInstance(this);
+        repository.addObserver(queueObserver);
+
+        // MP3 files seek through their stored frame index, and every track plays at the gain
+        // its measured loudness calls for. The rest of the library is indexed and measured in
+        // the background, so this work is done once and never on the way to the speaker.
+        SeekIndexStore seekIndexStore = SeekIndexStore.getInstance(this);
+        equalizerSettings = EqualizerSettings.getInstance(this);
+        EqualizerAudioProcessor equalizerProcessor = new EqualizerAudioProcessor(equalizerSettings.getFrequencies(), equalizerSettings.getGains());
+        equalizerObserver = equalizerProcessor::setGains;
+        equalizerSettings.addObserver(equalizerObserver);
+        player = new ExoPlayer.Builder(this, new PlaybackRenderersFactory(this, equalizerProcessor))
+                .setMediaSourceFactory(new DefaultMediaSourceFactory(this, new LibraryExtractorsFactory(seekIndexStore, dbHelper)))
+                .build();
+        seekIndexStore.indexLibraryInBackground();
+        LoudnessScanner.getInstance(this).scanInBackground();
+        window = new PlaylistWindow(new PlayerPlaylist(player), position -> hasTrack(position) ? trackData(position) : null, WINDOW_AHEAD);
+        warmPause = new WarmPause(player, WarmPause.DEFAULT_IDLE_TIMEOUT_MS);
+        player.addListener(new Player.Listener() {
+            @Override
+            public void onPlaybackStateChanged(int state) {
+                if (state == Player.STATE_ENDED) {
+                    playNext(true);
+                }
+                updateSession();
+            }
+
+            @Override
+            public void onMediaItemTransition(MediaItem mediaItem, int reason) {
+                // Replacing the playlist in playSong reports PLAYLIST_CHANGED and needs nothing here
+                if (reason == Player.MEDIA_ITEM_TRANSITION_REASON_AUTO || reason == Player.MEDIA_ITEM_TRANSITION_REASON_SEEK) {
+                    onAdvanced();
+                }
+            }
+
+            @Override
+            public void onIsPlayingChanged(boolean isPlaying) {
+                handler.removeCallbacks(saveOffsetRunnable);
+                if (isPlaying) {
+                    handler.post(saveOffsetRunnable);
+                } else {
+                    // A pause keeps the pipeline warm; WarmPause lets it go once idle too long
+                    saveOffset();
+                }
+                updateSession();
+            }
+        });
+
+        NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Playback", NotificationManager.IMPORTANCE_LOW);
+        getSystemService(NotificationManager.class).createNotificationChannel(channel);
+
+        mediaSession = new MediaSession(this, TAG);
+        mediaSession.setCallback(new MediaSession.Callback() {
+            @Override
+            public void onPlay() {
+                play();
+            }
+
+            @Override
+            public void onPause() {
+                player.pause();
+            }
+
+            @Override
+            public void onSkipToNext() {
+                next();
+            }
+
+            @Override
+            public void onSkipToPrevious() {
+                previous();
+            }
+
+            @Override
+            public void onSeekTo(long position) {
+                player.seekTo(position);
+            }
+
+            @Override
+            public void onStop() {
+                player.pause();
+            }
+        });
+        mediaSession.setActive(true);
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    // The last screen went away; a good moment to get the state on disk
+    @Override
+    public boolean onUnbind(Intent intent) {
+        saveOffset();
+        playbackState.flush();
+        // Asks for onRebind, so the next screen to leave lands here again
+        return true;
+    }
+
+    @Override
+    public void onRebind(Intent intent) {
+    }
+
+    // Notification buttons arrive here; the service itself is started when playback begins
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        String action = intent != null ? intent.getAction() : null;
+        if (ACTION_PLAY_PAUSE.equals(action)) {
+            if (player.isPlaying()) {
+                player.pause();
+            } else {
+                play();
+            }
+        } else if (ACTION_NEXT.equals(action)) {
+            next();
+        } else if (ACTION_PREVIOUS.equals(action)) {
+            previous();
+        } else if (ACTION_STOP.equals(action) && !player.isPlaying()) {
+            stopSelf();
+        }
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        super.onDestroy();
+        handler.removeCallbacks(saveOffsetRunnable);
+        saveOffset();
+        playbackState.flush();
+        repository.removeObserver(queueObserver);
+        equalizerSettings.removeObserver(equalizerObserver);
+        backgroundExecutor.shutdown();
+        warmPause.release();
+        mediaSession.release();
+        player.release();
+    }
+
+    public ExoPlayer getPlayer() { return player; }
+    public int getCurrentPosition() { return currentPosition; }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    // Starts playback the way a screen asked for it. When the player already holds what was
+    // asked for, e.g. the screen was only recreated, this does nothing and the audio carries on.
+    public void start(int position, boolean fromSnapshot) {
+        if (player.getMediaItemCount() > 0 && currentPosition >= 0 && (fromSnapshot || position == currentPosition)) {
+            return;
+        }
+        snapshot = fromSnapshot ? NowPlayingSnapshot.read(DatabaseHelper.getSnapshotFile(this)) : null;
+        if (snapshot != null) {
+            currentPosition = snapshot.getPosition();
+            resumeOffset = snapshot.getOffset();
+            loadQueueInBackground();
+        } else {
+            // A damaged snapshot falls back to the saved position
+            currentPosition = fromSnapshot ? Math.max(0, playbackState.getPosition()) : position;
+            // Reopening on the saved track picks up where it was left
+            resumeOffset = currentPosition == playbackState.getPosition() ? playbackState.getOffset() : 0;
+            if (fromSnapshot) {
+                loadQueueInBackground();
+            } else {
+                repository.load();
+            }
+        }
+        if (hasTrack(currentPosition)) {
+            startPlayback();
+        } else {
+            startWhenLoaded = true;
+        }
+    }
+
+    // Instant after a short pause; after the idle timeout it prepares again from the same spot
+    public void play() {
+        warmPause.resume();
+    }
+
+    // How long a pause keeps the decoder and buffers before giving them back
+    public void setIdleTimeout(long idleTimeoutMs) {
+        warmPause.setIdleTimeout(idleTimeoutMs);
+    }
+
+    public void playAt(int position) {
+        playSong(position, true);
+    }
+
+    public void next() {
+        if (player.hasNextMediaItem()) {
+            player.seekToNextMediaItem();
+        } else {
+            playNext(false);
+        }
+    }
+
+    public void previous() {
+        if (currentPosition > 0) {
+            playSong(currentPosition - 1, false);
+        }
+    }
+
+    // Tracks come from the shared queue or its prefetch ring, and from the snapshot before either has them
+    public boolean hasTrack(int position) {
+        return repository.getSong(position) != null || (snapshot != null && snapshot.contains(position));
+    }
+
+    public String getTitle(int position) {
+        SongInfo song = repository.getSong(position);
+        return song != null ? song.getTitle() : snapshot.getTitle(position);
+    }
+
+    public String getArtist(int position) {
+        SongInfo song = repository.getSong(position);
+        return song != null ? song.getArtist() : snapshot.getArtist(position);
+    }
+
+    private String trackData(int position) {
+        SongInfo song = repository.getSong(position);
+        return song != null ? song.getData() : snapshot.getData(position);
+    }
+
+    private int queueSize() {
+        QueueModel queue = repository.getQueue();
+        if (queue != null) {
+            return queue.size();
+        }
+        return snapshot != null ? snapshot.getQueueSize() : 0;
+    }
+
+    private void startPlayback() {
+        startWhenLoaded = false;
+        playSong(currentPosition, true);
+        if (resumeOffset > 0) {
+            player.seekTo(resumeOffset);
+            playbackState.setOffset(resumeOffset);
+        }
+    }
+
+    // The full queue loads behind a cold start; the catalogue sync that MainActivity would have
+    // run goes after it, and only reloads the queue if the library actually changed
+    private void loadQueueInBackground() {
+        // The next few tracks come in one small read ahead of the full queue
+        repository.prefetch(currentPosition + 1);
+        repository.load();
+        backgroundExecutor.execute(() -> {
+            ImportStats stats = dbHelper.syncMediaFromMediaStore(this);
+            if (stats.hasChanges()) {
+                repository.reload();
+            }
+        });
+    }
+
+    // Reloads, edits from the queue list and reshuffles all land here
+    private final QueueRepository.Observer queueObserver = new QueueRepository.Observer() {
+        @Override
+        public void onQueueChanged(QueueModel queue, int position) {
+            currentPosition = position;
+            if (startWhenLoaded && hasTrack(currentPosition)) {
+                startPlayback();
+                return;
+            }
+            if (currentPosition >= 0 && player.getMediaItemCount() > 0
+                    && !window.queueChanged(currentPosition) && hasTrack(currentPosition)) {
+                // The track that was playing is gone, so whatever took its place starts now
+                playSong(currentPosition, player.getPlayWhenReady());
+                return;
+            }
+            trackChanged();
+        }
+    };
+
+    // Starts a new playlist at the position; for jumps, not for the track after the current one
+    private void playSong(int position, boolean autoPlay) {
+        if (!window.start(position)) return;
+        currentPosition = position;
+        player.prepare();
+        if (autoPlay) {
+            player.play();
+        }
+        playbackState.setTrack(currentPosition, 0);
+        repository.prefetch(currentPosition + 1);
+        trackChanged();
+    }
+
+    private void playNext(boolean autoPlay) {
+        if (currentPosition + 1 < queueSize()) {
+            playSong(currentPosition + 1, autoPlay);
+        } else {
+            player.stop();
+            currentPosition = -1;
+            playbackState.setTrack(currentPosition, 0);
+            trackChanged();
+            stopForeground(STOP_FOREGROUND_REMOVE);
+            foreground = false;
+            stopSelf();
+        }
+    }
+
+    // The player moved on inside the playlist, by itself or through the next button. Played
+    // items are dropped and the window slides, so the player never holds more than it needs.
+    private void onAdvanced() {
+        currentPosition = window.advanced();
+        playbackState.setTrack(currentPosition, 0);
+        repository.prefetch(currentPosition + 1);
+        trackChanged();
+    }
+
+    private void saveOffset() {
+        if (currentPosition >= 0 && player.getMediaItemCount() > 0) {
+            playbackState.setOffset(player.getCurrentPosition());
+        }
+    }
+
+    private void trackChanged() {
+        if (hasTrack(currentPosition)) {
+            SongInfo song = repository.getSong(currentPosition);
+            mediaSession.setMetadata(new MediaMetadata.Builder()
+                    .putString(MediaMetadata.METADATA_KEY_TITLE, getTitle(currentPosition))
+                    .putString(MediaMetadata.METADATA_KEY_ARTIST, getArtist(currentPosition))
+                    .putLong(MediaMetadata.METADATA_KEY_DURATION, song != null ? song.getDuration() : snapshot.getDuration(currentPosition))
+                    .build());
+        }
+        updateSession();
+        for (Listener listener : new ArrayList<>(listeners)) {
+            listener.onTrackChanged(currentPosition);
+        }
+    }
+
+    // Publishes the play state to the session and moves the service in or out of the foreground
+    private void updateSession() {
+        boolean playing = player.isPlaying();
+        mediaSession.setPlaybackState(new PlaybackState.Builder()
+                .setActions(PlaybackState.ACTION_PLAY | PlaybackState.ACTION_PAUSE | PlaybackState.ACTION_PLAY_PAUSE |
+                        PlaybackState.ACTION_SKIP_TO_NEXT | PlaybackState.ACTION_SKIP_TO_PREVIOUS | PlaybackState.ACTION_SEEK_TO)
+                .setState(playing ? PlaybackState.STATE_PLAYING : PlaybackState.STATE_PAUSED, player.getCurrentPosition(), playing ? 1f : 0f)
+                .build());
+        if (currentPosition < 0 || !hasTrack(currentPosition)) {
+            return;
+        }
+        Notification notification = buildNotification(playing);
+        if (playing && !foreground) {
+            // Started as well as bound, so the music outlives the screens that bound to it
+            startService(new Intent(this, PlaybackService.class));
+            startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_MEDIA_PLAYBACK);
+            foreground = true;
+        } else if (!playing && foreground) {
+            // Keep the notification so playback can be resumed from it
+            stopForeground(STOP_FOREGROUND_DETACH);
+            foreground = false;
+            getSystemService(NotificationManager.class).notify(NOTIFICATION_ID, notification);
+        } else {
+            getSystemService(NotificationManager.class).notify(NOTIFICATION_ID, notification);
+        }
+    }
+
+    private Notification buildNotification(boolean playing) {
+        Intent open = new Intent(this, PlayerActivity.class);
+        open.setFlags(Intent.FLAG_ACTIVITY_SINGLE_TOP);
+        return new Notification.Builder(this, CHANNEL_ID)
+                .setSmallIcon(android.R.drawable.ic_media_play)
+                .setContentTitle(getTitle(currentPosition))
+                .setContentText(getArtist(currentPosition))
+                .setContentIntent(PendingIntent.getActivity(this, 0, open, PendingIntent.FLAG_IMMUTABLE))
+                .setDeleteIntent(serviceIntent(ACTION_STOP))
+                .setVisibility(Notification.VISIBILITY_PUBLIC)
+                .setOngoing(playing)
+                .addAction(action(android.R.drawable.ic_media_previous, "Previous", ACTION_PREVIOUS))
+                .addAction(playing ? action(android.R.drawable.ic_media_pause, "Pause", ACTION_PLAY_PAUSE)
+                        : action(android.R.drawable.ic_media_play, "Play", ACTION_PLAY_PAUSE))
+                .addAction(action(android.R.drawable.ic_media_next, "Next", ACTION_NEXT))
+                .setStyle(new Notification.MediaStyle()
+                        .setMediaSession(mediaSession.getSessionToken())
+                        .setShowActionsInCompactView(0, 1, 2))
+                .build();
+    }
+
+    private Notification.Action action(int icon, String title, String action) {
+        return new Notification.Action.Builder(Icon.createWithResource(this, icon), title, serviceIntent(action)).build();
+    }
+
+    private PendingIntent serviceIntent(String action) {
+        Intent intent = new Intent(this, PlaybackService.class).setAction(action);
+        return PendingIntent.getService(this, action.hashCode(), intent, PendingIntent.FLAG_IMMUTABLE);
+    }
+}
@@ -0,0 +1,182 @@
+package com.griffin3.simplemusic;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.SystemClock;
+
+/**
+ * Write-behind cache of the playback state row. Reads and writes hit the in-memory copy; a
+ * change schedules one flush a little after the last change, so skipping through ten tracks
+ * costs a single database write. A flush writes every field in one UPDATE on the database
+ * writer thread, so the stored row is always a state that actually existed.
+ */
+public class PlaybackStateStore {
+    // Track changes settle quickly; offset ticks arrive every second while playing and can wait longer
+    private static final long TRACK_FLUSH_DELAY_MS = 500;
+    private static final long OFFSET_FLUSH_DELAY_MS = 5000;
+    // Someone skipping steadily still gets the state written this often
+    private static final long TRACK_FLUSH_MAX_WAIT_MS = 2000;
+
+    private final DatabaseHelper dbHelper;
+    private final Handler handler;
+    private final Runnable flushRunnable = this::flushNow;
+
+    private int position;
+    private long offset;
+    private int shuffle;
+    private int loop;
+    private boolean dirty;
+    // Whether anything but the offset changed since the last write
+    private boolean trackDirty;
+    private long flushAt = Long.MAX_VALUE;
+    // When the first unwritten track change was made, and when the changes so far are due
+    private long trackSince = Long.MAX_VALUE;
+    private long trackDue = Long.MAX_VALUE;
+    private long offsetDue = Long.MAX_VALUE;
+    private int writeCount;
+
+    PlaybackStateStore(DatabaseHelper dbHelper, int position, long offset, int shuffle, int loop) {
+        this.dbHelper = dbHelper;
+        this.position = position;
+        this.offset = offset;
+        this.shuffle = shuffle;
+        this.loop = loop;
+        HandlerThread thread = new HandlerThread("playback-state");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    public synchronized int getPosition() { return position; }
+    public synchronized long getOffset() { return offset; }
+    public synchronized int getShuffle() { return shuffle; }
+    public synchronized int getLoop() { return loop; }
+
+    // Number of database writes so far, for tests
+    synchronized int getWriteCount() { return writeCount; }
+
+    public synchronized void setPosition(int position) {
+        if (this.position != position) {
+            this.position = position;
+            markTrackDirty();
+        }
+    }
+
+    // A new track starts from its beginning
+    public synchronized void setTrack(int position, long offset) {
+        if (this.position != position || this.offset != offset) {
+            this.position = position;
+            this.offset = offset;
+            markTrackDirty();
+        }
+    }
+
+    public synchronized void setOffset(long offset) {
+        if (this.offset != offset) {
+            this.offset = offset;
+            markOffsetDirty();
+        }
+    }
+
+    public synchronized void setShuffle(int shuffle) {
+        if (this.shuffle != shuffle) {
+            this.shuffle = shuffle;
+            markTrackDirty();
+        }
+    }
+
+    public synchronized void setLoop(int loop) {
+        if (this.loop != loop) {
+            this.loop = loop;
+            markTrackDirty();
+        }
+    }
+
+    // The queue around the current track changed; rewrites the state so the startup snapshot follows
+    public synchronized void queueChanged() {
+        markTrackDirty();
+    }
+
+    // Replaces the cached state without writing it, for when the row itself was just rewritten
+    synchronized void reset(int position, long offset, int shuffle, int loop) {
+        this.position = position;
+        this.offset = offset;
+        this.shuffle = shuffle;
+        this.loop = loop;
+        clearDeadlines();
+        handler.removeCallbacks(flushRunnable);
+    }
+
+    // Writes pending changes as soon as possible without waiting for them; for onStop and onDestroy
+    public void flush() {
+        handler.removeCallbacks(flushRunnable);
+        handler.postAtFrontOfQueue(flushRunnable);
+    }
+
+    // Writes pending changes and returns once they are stored
+    public void flushNow() {
+        dbHelper.runWrite(() -> {
+            int position;
+            long offset;
+            int shuffle;
+            int loop;
+            boolean offsetOnly;
+            // Take the snapshot on the writer thread so a write queued behind a reset sees it
+            synchronized (this) {
+                if (!dirty) {
+                    return null;
+                }
+                position = this.position;
+                offset = this.offset;
+                shuffle = this.shuffle;
+                loop = this.loop;
+                offsetOnly = !trackDirty;
+                clearDeadlines();
+                writeCount++;
+            }
+            dbHelper.writePlaybackState(position, offset, shuffle, loop, offsetOnly);
+            return null;
+        });
+    }
+
+    // Debounced: each track change pushes the write back to TRACK_FLUSH_DELAY_MS after itself,
+    // so a burst of skips is written once after the last one, but no later than
+    // TRACK_FLUSH_MAX_WAIT_MS after the first
+    private void markTrackDirty() {
+        dirty = true;
+        trackDirty = true;
+        long now = SystemClock.uptimeMillis();
+        if (trackSince == Long.MAX_VALUE) {
+            trackSince = now;
+        }
+        trackDue = Math.min(now + TRACK_FLUSH_DELAY_MS, trackSince + TRACK_FLUSH_MAX_WAIT_MS);
+        schedule();
+    }
+
+    // Offset ticks come every second while playing, so they keep the first deadline instead;
+    // otherwise they would never be written until playback stopped
+    private void markOffsetDirty() {
+        dirty = true;
+        if (offsetDue == Long.MAX_VALUE) {
+            offsetDue = SystemClock.uptimeMillis() + OFFSET_FLUSH_DELAY_MS;
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        long due = Math.min(trackDue, offsetDue);
+        if (due != flushAt) {
+            flushAt = due;
+            handler.removeCallbacks(flushRunnable);
+            handler.postAtTime(flushRunnable, flushAt);
+        }
+    }
+
+    private void clearDeadlines() {
+        dirty = false;
+        trackDirty = false;
+        flushAt = Long.MAX_VALUE;
+        trackSince = Long.MAX_VALUE;
+        trackDue = Long.MAX_VALUE;
+        offsetDue = Long.MAX_VALUE;
+    }
+}
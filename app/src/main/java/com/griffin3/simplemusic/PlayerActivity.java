@@ -1,10 +1,15 @@
 package com.griffin3.simplemusic;
 
+import android.Manifest;
+import android.content.ComponentName;
+import android.content.Context;
 import android.content.Intent;
+import android.content.ServiceConnection;
+import android.content.pm.PackageManager;
 import android.content.res.Configuration;
-import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
-import android.os.Handler;
+import android.os.IBinder;
 import android.view.View;
 import android.widget.ImageButton;
 import android.widget.SeekBar;
@@ -15,14 +20,18 @@ import android.widget.Button;
 import com.griffin3.simplemusic.VisualActivity.VisualizerView;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.app.ActivityCompat;
+import androidx.core.content.ContextCompat;
 import android.util.Log;
+import com.google.android.exoplayer2.C;
 import com.google.android.exoplayer2.ExoPlayer;
-import com.google.android.exoplayer2.MediaItem;
 import com.google.android.exoplayer2.Player;
-import java.util.ArrayList;
-import java.util.concurrent.TimeUnit;
 
+// Controls for the player in PlaybackService; binding to it is all this screen costs the audio
 public class PlayerActivity extends AppCompatActivity {
+    private static final int REQUEST_POST_NOTIFICATIONS = 1002;
+    private static final long SKIP_MS = 10000;
+    private PlaybackService service;
     private ExoPlayer player;
     private TextView titleText;
     private SeekBar seekBar;
@@ -36,12 +45,66 @@ public class PlayerActivity extends AppCompatActivity {
     private VisualizerView embeddedVisualizerView;
     private TextView positionText;
     private TextView artistText;
-    private DatabaseHelper dbHelper;
-    private ArrayList<String> queue;
+    // Whether the intent asked for something to play; handed to the service on the first
+    // connection only. Opening from the notification just shows what is playing.
+    private boolean startPending;
     private int currentPosition;
     private int audioSessionId = 0;
-    private Handler handler = new Handler();
-    private Runnable updateRunnable;
+    private ProgressRenderer progressRenderer;
+
+    private final ServiceConnection connection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            service = ((PlaybackService.LocalBinder) binder).getService();
+            player = service.getPlayer();
+            player.addListener(playerListener);
+            service.addListener(trackListener);
+            if (startPending) {
+                startPending = false;
+                service.start(getIntent().getIntExtra("position", 0), getIntent().getBooleanExtra("fromSnapshot", false));
+            }
+            currentPosition = service.getCurrentPosition();
+            updateUI();
+            updatePlayPauseButton();
+            if (player.isPlaying()) {
+                showEmbeddedVisualizer(player.getAudioSessionId());
+            }
+            progressRenderer.attach(player);
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            detach();
+        }
+    };
+
+    private final Player.Listener playerListener = new Player.Listener() {
+        @Override
+        public void onPlaybackStateChanged(int playbackState) {
+            updatePlayPauseButton();
+            // The audio session only goes away once the player stops, not on a pause
+            if (playbackState == Player.STATE_IDLE || playbackState == Player.STATE_ENDED) {
+                showVisualizationButton();
+            }
+        }
+
+        @Override
+        public void onIsPlayingChanged(boolean isPlaying) {
+            updatePlayPauseButton();
+            if (isPlaying) {
+                // Show embedded visualizer when music starts playing
+                showEmbeddedVisualizer(player.getAudioSessionId());
+            }
+        }
+    };
+
+    private final PlaybackService.Listener trackListener = new PlaybackService.Listener() {
+        @Override
+        public void onTrackChanged(int position) {
+            currentPosition = position;
+            updateUI();
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -53,15 +116,23 @@ public class PlayerActivity extends AppCompatActivity {
             getSupportActionBar().hide();
         }
 
-        dbHelper = new DatabaseHelper(this);
-        queue = dbHelper.getQueueItems();
-        currentPosition = getIntent().getIntExtra("position", 0);
+        Intent intent = getIntent();
+        startPending = savedInstanceState == null && (intent.hasExtra("position") || intent.hasExtra("fromSnapshot"));
+
+        // The playback notification carries the controls while this screen is gone
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS) != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this, new String[]{Manifest.permission.POST_NOTIFICATIONS}, REQUEST_POST_NOTIFICATIONS);
+        }
 
         initializeViews();
-        initializePlayer();
         setupControls();
-        updateUI();
-        startUpdatingProgress();
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        bindService(new Intent(this, PlaybackService.class), connection, Context.BIND_AUTO_CREATE);
     }
 
     private void initializeViews() {
@@ -69,6 +140,7 @@ public class PlayerActivity extends AppCompatActivity {
         artistText = findViewById(R.id.artist_text);
         positionText = findViewById(R.id.position_text);
         seekBar = findViewById(R.id.seek_bar);
+        progressRenderer = new ProgressRenderer(seekBar, positionText);
         back10Button = findViewById(R.id.back_10_button);
         prevButton = findViewById(R.id.prev_button);
         playPauseButton = findViewById(R.id.play_pause_button);
@@ -81,8 +153,9 @@ public class PlayerActivity extends AppCompatActivity {
         visualizationButton.setText("VISUALIZATION");
         visualizationButton.setGravity(android.view.Gravity.CENTER);
         visualizationButton.setOnClickListener(v -> {
-            Log.d("DEBUG: PlayerActivity", "Visualization button clicked, audioSessionId: " + audioSessionId + ", isPlaying: " + player.isPlaying());
-            if (audioSessionId != 0 && player.isPlaying()) {
+            boolean playing = player != null && player.isPlaying();
+            Log.d("DEBUG: PlayerActivity", "Visualization button clicked, audioSessionId: " + audioSessionId + ", isPlaying: " + playing);
+            if (audioSessionId != 0 && playing) {
                 Intent intent = new Intent(this, VisualActivity.class);
                 intent.putExtra("audioSessionId", audioSessionId);
                 startActivity(intent);
@@ -98,190 +171,113 @@ public class PlayerActivity extends AppCompatActivity {
         showVisualizationButton();
     }
 
-    private void initializePlayer() {
-        player = new ExoPlayer.Builder(this).build();
-        player.addListener(new Player.Listener() {
-            @Override
-            public void onPlaybackStateChanged(int playbackState) {
-                if (playbackState == Player.STATE_ENDED) {
-                    playNext();
-                }
-                updatePlayPauseButton();
-            }
-
-            @Override
-            public void onIsPlayingChanged(boolean isPlaying) {
-                updatePlayPauseButton();
-                if (isPlaying) {
-                    audioSessionId = player.getAudioSessionId();
-                    // Show embedded visualizer when music starts playing
-                    showEmbeddedVisualizer();
-                } else {
-                    // Show button and stop music when paused
-                    showVisualizationButton();
-                    player.stop();
-                }
+    private void setupControls() {
+        // MP3 seeks go through the file's seek index, so skipping is exact and cheap
+        back10Button.setOnClickListener(v -> {
+            if (player != null) {
+                player.seekTo(Math.max(0, player.getCurrentPosition() - SKIP_MS));
             }
         });
-        playSong(currentPosition, true);
-    }
-
-    private void setupControls() {
-        // Disable and gray out fast reverse button
-        back10Button.setEnabled(false);
-        back10Button.setAlpha(0.5f);
-        // back10Button.setOnClickListener(v -> {
-        //     long newPosition = player.getCurrentPosition() - 10000;
-        //     player.seekTo(Math.max(0, newPosition));
-        // });
 
         prevButton.setOnClickListener(v -> {
-            if (currentPosition > 0) {
-                currentPosition--;
-                playSong(currentPosition, false);
+            if (service != null) {
+                service.previous();
             }
         });
 
         playPauseButton.setOnClickListener(v -> {
+            if (service == null) {
+                return;
+            }
             if (player.isPlaying()) {
                 player.pause();
             } else {
-                player.play();
+                service.play();
             }
         });
 
-        nextButton.setOnClickListener(v -> playNext(false));
+        nextButton.setOnClickListener(v -> {
+            if (service != null) {
+                service.next();
+            }
+        });
 
-        // Disable and gray out fast forward button
-        forward10Button.setEnabled(false);
-        forward10Button.setAlpha(0.5f);
-        // forward10Button.setOnClickListener(v -> {
-        //     long newPosition = player.getCurrentPosition() + 10000;
-        //     player.seekTo(Math.min(player.getDuration(), newPosition));
-        // });
+        forward10Button.setOnClickListener(v -> {
+            if (player != null && player.getDuration() != C.TIME_UNSET) {
+                player.seekTo(Math.min(player.getDuration(), player.getCurrentPosition() + SKIP_MS));
+            }
+        });
 
         seekBar.setOnSeekBarChangeListener(new SeekBar.OnSeekBarChangeListener() {
             @Override
             public void onProgressChanged(SeekBar seekBar, int progress, boolean fromUser) {
-                if (fromUser) {
-                    long duration = player.getDuration();
-                    long newPosition = (progress * duration) / 100;
-                    player.seekTo(newPosition);
+                // The bar runs in milliseconds, so progress is the position itself
+                if (fromUser && player != null) {
+                    player.seekTo(progress);
                 }
             }
 
             @Override
-            public void onStartTrackingTouch(SeekBar seekBar) {}
+            public void onStartTrackingTouch(SeekBar seekBar) {
+                progressRenderer.setTracking(true);
+            }
 
             @Override
-            public void onStopTrackingTouch(SeekBar seekBar) {}
-        });
-    }
-
-    private void playSong(int position) {
-        playSong(position, true);
-    }
-
-    private void playSong(int position, boolean autoPlay) {
-        if (position < 0 || position >= queue.size()) return;
-        SongInfo songInfo = SongInfo.fromQueueString(queue.get(position));
-        if (songInfo != null) {
-            Uri uri = Uri.parse(songInfo.getData());
-            MediaItem mediaItem = MediaItem.fromUri(uri);
-            player.setMediaItem(mediaItem);
-            player.prepare();
-            if (autoPlay) {
-                player.play();
+            public void onStopTrackingTouch(SeekBar seekBar) {
+                progressRenderer.setTracking(false);
             }
-            currentPosition = position;
-            dbHelper.setQueuePosition(currentPosition);
-            updateUI();
-        }
-    }
-
-    private void playNext() {
-        playNext(true);
-    }
-
-    private void playNext(boolean autoPlay) {
-        currentPosition++;
-        if (currentPosition < queue.size()) {
-            playSong(currentPosition, autoPlay);
-        } else {
-            player.stop();
-            currentPosition = -1;
-            dbHelper.setQueuePosition(currentPosition);
-        }
+        });
     }
 
     private void updateUI() {
-        if (currentPosition >= 0 && currentPosition < queue.size()) {
-            SongInfo songInfo = SongInfo.fromQueueString(queue.get(currentPosition));
-            if (songInfo != null) {
-                titleText.setText(songInfo.getTitle());
-                artistText.setText(songInfo.getArtist());
-                titleText.setTextSize(24);
-                artistText.setTextSize(14.4f);
-            }
+        if (service != null && service.hasTrack(currentPosition)) {
+            titleText.setText(service.getTitle(currentPosition));
+            artistText.setText(service.getArtist(currentPosition));
+            titleText.setTextSize(24);
+            artistText.setTextSize(14.4f);
         }
     }
 
     private void updatePlayPauseButton() {
-        if (player.isPlaying()) {
+        if (player != null && player.isPlaying()) {
             playPauseButton.setImageResource(android.R.drawable.ic_media_pause);
         } else {
             playPauseButton.setImageResource(android.R.drawable.ic_media_play);
         }
     }
 
-    private void startUpdatingProgress() {
-        updateRunnable = new Runnable() {
-            @Override
-            public void run() {
-                updateProgress();
-                handler.postDelayed(this, 1000);
-            }
-        };
-        handler.post(updateRunnable);
-    }
-
-    private void updateProgress() {
-        long current = player.getCurrentPosition();
-        long duration = player.getDuration();
-        if (duration > 0) {
-            int progress = (int) ((current * 100) / duration);
-            seekBar.setProgress(progress);
-            positionText.setText(formatTime(current) + " / " + formatTime(duration));
-        }
-    }
-
-    private String formatTime(long millis) {
-        return String.format("%02d:%02d",
-                TimeUnit.MILLISECONDS.toMinutes(millis),
-                TimeUnit.MILLISECONDS.toSeconds(millis) % 60);
-    }
-
     private void showVisualizationButton() {
         visualizationContainer.removeAllViews();
         visualizationContainer.addView(visualizationButton);
     }
 
-    private void showEmbeddedVisualizer() {
+    // Resuming from a pause finds the visualizer still attached to the same session and keeps it
+    private void showEmbeddedVisualizer(int sessionId) {
+        if (sessionId == audioSessionId && embeddedVisualizerView.getParent() != null) {
+            return;
+        }
+        audioSessionId = sessionId;
         visualizationContainer.removeAllViews();
         embeddedVisualizerView.updateAudioSession(audioSessionId);
         visualizationContainer.addView(embeddedVisualizerView);
     }
 
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        if (player != null) {
-            player.release();
-            player = null;
-        }
-        if (handler != null && updateRunnable != null) {
-            handler.removeCallbacks(updateRunnable);
+    // Drops every reference into the service; playback itself carries on there
+    private void detach() {
+        progressRenderer.detach();
+        if (service != null) {
+            player.removeListener(playerListener);
+            service.removeListener(trackListener);
         }
+        service = null;
+        player = null;
+    }
+
+    @Override
+    protected void onStop() {
+        super.onStop();
+        detach();
+        unbindService(connection);
     }
 
     @Override
@@ -0,0 +1,48 @@
+package com.griffin3.simplemusic;
+
+import android.net.Uri;
+import com.google.android.exoplayer2.MediaItem;
+import com.google.android.exoplayer2.Player;
+
+/** The player's playlist as PlaylistWindow sees it: one item per file, identified by its path. */
+public final class PlayerPlaylist implements PlaylistWindow.Playlist {
+    private final Player player;
+
+    public PlayerPlaylist(Player player) {
+        this.player = player;
+    }
+
+    @Override
+    public int getItemCount() {
+        return player.getMediaItemCount();
+    }
+
+    @Override
+    public int getCurrentIndex() {
+        return player.getCurrentMediaItemIndex();
+    }
+
+    @Override
+    public String getItemId(int index) {
+        return player.getMediaItemAt(index).mediaId;
+    }
+
+    @Override
+    public void setItem(String data) {
+        player.setMediaItem(item(data));
+    }
+
+    @Override
+    public void addItem(String data) {
+        player.addMediaItem(item(data));
+    }
+
+    @Override
+    public void removeItems(int fromIndex, int toIndex) {
+        player.removeMediaItems(fromIndex, toIndex);
+    }
+
+    private static MediaItem item(String data) {
+        return new MediaItem.Builder().setUri(Uri.parse(data)).setMediaId(data).build();
+    }
+}
@@ -0,0 +1,100 @@
+package com.griffin3.simplemusic;
+
+/**
+ * Keeps the player's playlist to the current track and a few after it, so the next track is
+ * already buffered when the current one ends and the change is sample-accurate. As the player
+ * moves on, played items are dropped and new ones appended; after a queue change the upcoming
+ * items that still match are kept and the rest replaced. PlayerPlaylist puts ExoPlayer behind
+ * Playlist; the bookkeeping lives here so it can be tested without one. Main thread only.
+ */
+public final class PlaylistWindow {
+    public interface Playlist {
+        int getItemCount();
+        int getCurrentIndex();
+        String getItemId(int index);
+        // Replaces the whole playlist with the one track
+        void setItem(String data);
+        void addItem(String data);
+        // Removes the items from fromIndex up to, but not including, toIndex
+        void removeItems(int fromIndex, int toIndex);
+    }
+
+    public interface Tracks {
+        // The file of the queue entry at the position, or null while it is not known
+        String getData(int position);
+    }
+
+    private final Playlist playlist;
+    private final Tracks tracks;
+    private final int ahead;
+    // Queue position of the first item in the playlist
+    private int windowStart;
+
+    public PlaylistWindow(Playlist playlist, Tracks tracks, int ahead) {
+        this.playlist = playlist;
+        this.tracks = tracks;
+        this.ahead = ahead;
+    }
+
+    // Starts a new playlist at the position; for jumps, not for the track after the current one.
+    // Returns false when the track is not known, in which case the playlist is left alone.
+    public boolean start(int position) {
+        String data = tracks.getData(position);
+        if (data == null) {
+            return false;
+        }
+        windowStart = position;
+        playlist.setItem(data);
+        fill();
+        return true;
+    }
+
+    // The player moved on inside the playlist. Returns the queue position it is now at.
+    public int advanced() {
+        int index = playlist.getCurrentIndex();
+        if (index > 0) {
+            playlist.removeItems(0, index);
+            windowStart += index;
+        }
+        fill();
+        return windowStart;
+    }
+
+    // The queue changed and the current track is now at the position. Returns false when the
+    // playing item is no longer the track there, e.g. it was removed; the caller then starts
+    // the position afresh, and until it does the playlist is left alone.
+    public boolean queueChanged(int position) {
+        int current = playlist.getCurrentIndex();
+        String playing = tracks.getData(position);
+        if (playing == null || !playing.equals(playlist.getItemId(current))) {
+            return false;
+        }
+        windowStart = position - current;
+        int count = playlist.getItemCount();
+        for (int index = current + 1; index < count; index++) {
+            String data = tracks.getData(windowStart + index);
+            if (data == null || !data.equals(playlist.getItemId(index))) {
+                playlist.removeItems(index, count);
+                break;
+            }
+        }
+        fill();
+        return true;
+    }
+
+    public int getCurrentPosition() {
+        return windowStart + playlist.getCurrentIndex();
+    }
+
+    // Appends queue entries until the playlist reaches `ahead` tracks past the current one
+    private void fill() {
+        int last = getCurrentPosition() + ahead;
+        for (int next = windowStart + playlist.getItemCount(); next <= last; next++) {
+            String data = tracks.getData(next);
+            if (data == null) {
+                break;
+            }
+            playlist.addItem(data);
+        }
+    }
+}
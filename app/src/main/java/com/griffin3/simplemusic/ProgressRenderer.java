@@ -0,0 +1,113 @@
+package com.griffin3.simplemusic;
+
+import android.view.Choreographer;
+import android.widget.SeekBar;
+import android.widget.TextView;
+import com.google.android.exoplayer2.C;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Player;
+
+/**
+ * Draws the seek bar and the "mm:ss / mm:ss" label once per display frame while the attached
+ * player is playing, and once per change while it is not. The bar runs in milliseconds and the
+ * label is written into a reused char array, so a frame allocates nothing. Detaching stops the
+ * frame callbacks altogether.
+ */
+public class ProgressRenderer implements Choreographer.FrameCallback, Player.Listener {
+    private final SeekBar seekBar;
+    private final TextView positionText;
+    private final Choreographer choreographer = Choreographer.getInstance();
+    private final char[] text = new char[TimeText.MAX_LENGTH];
+    private ExoPlayer player;
+    private boolean frameScheduled;
+    private boolean tracking;
+    // What the label shows now, in whole seconds, so it is only rewritten when that changes
+    private long shownSecond = -1;
+    private long shownDurationSecond = -1;
+
+    // Call on the main thread, which is the player's application thread
+    public ProgressRenderer(SeekBar seekBar, TextView positionText) {
+        this.seekBar = seekBar;
+        this.positionText = positionText;
+    }
+
+    public void attach(ExoPlayer player) {
+        detach();
+        this.player = player;
+        player.addListener(this);
+        render();
+        scheduleIfPlaying();
+    }
+
+    public void detach() {
+        if (player != null) {
+            player.removeListener(this);
+            player = null;
+        }
+        if (frameScheduled) {
+            choreographer.removeFrameCallback(this);
+            frameScheduled = false;
+        }
+    }
+
+    // While the user drags the bar it shows their finger, not the player
+    public void setTracking(boolean tracking) {
+        this.tracking = tracking;
+        if (!tracking) {
+            render();
+        }
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frameScheduled = false;
+        render();
+        scheduleIfPlaying();
+    }
+
+    @Override
+    public void onIsPlayingChanged(boolean isPlaying) {
+        render();
+        scheduleIfPlaying();
+    }
+
+    @Override
+    public void onPositionDiscontinuity(Player.PositionInfo oldPosition, Player.PositionInfo newPosition, int reason) {
+        render();
+    }
+
+    @Override
+    public void onPlaybackStateChanged(int playbackState) {
+        render();
+    }
+
+    private void scheduleIfPlaying() {
+        if (player != null && player.isPlaying() && !frameScheduled) {
+            frameScheduled = true;
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    private void render() {
+        if (player == null) {
+            return;
+        }
+        long duration = player.getDuration();
+        if (duration == C.TIME_UNSET || duration <= 0) {
+            return;
+        }
+        long current = Math.min(player.getCurrentPosition(), duration);
+        if (!tracking) {
+            int max = (int) Math.min(duration, Integer.MAX_VALUE);
+            if (seekBar.getMax() != max) {
+                seekBar.setMax(max);
+            }
+            seekBar.setProgress((int) Math.min(current, max));
+        }
+        if (current / 1000 != shownSecond || duration / 1000 != shownDurationSecond) {
+            shownSecond = current / 1000;
+            shownDurationSecond = duration / 1000;
+            positionText.setText(text, 0, TimeText.formatPosition(current, duration, text));
+        }
+    }
+}
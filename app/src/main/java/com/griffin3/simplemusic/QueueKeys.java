@@ -0,0 +1,117 @@
+package com.griffin3.simplemusic;
+
+import java.util.Arrays;
+
+/**
+ * The sort keys of the stored queue in play order. Keys start {@link #GAP} apart, so an entry
+ * can be inserted or moved by giving it a key halfway between its new neighbours, and an edit
+ * rewrites a single queue row. Repeated edits in one spot halve the room each time; once it gets
+ * tight the queue is flagged as crowded so the caller can respace every key in the background.
+ *
+ * <p>Positions resolve to keys through this array, so positional lookups stay O(log n) on the
+ * ordinal index however sparse the keys become.
+ */
+public final class QueueKeys {
+    public static final long GAP = 1L << 16;
+    // Returned by keyFor when the neighbours are adjacent and the keys must be respaced first
+    public static final long NO_ROOM = Long.MIN_VALUE;
+    // Room left between neighbours below which the keys count as crowded
+    private static final long CROWDED_ROOM = 4;
+
+    private long[] keys;
+    private int size;
+    private boolean crowded;
+
+    public QueueKeys(long[] sortedKeys) {
+        keys = Arrays.copyOf(sortedKeys, Math.max(16, sortedKeys.length + sortedKeys.length / 2));
+        size = sortedKeys.length;
+    }
+
+    // Keys for a freshly written queue of the given length
+    public static long[] spaced(int count) {
+        long[] keys = new long[count];
+        for (int i = 0; i < count; i++) {
+            keys[i] = i * GAP;
+        }
+        return keys;
+    }
+
+    public synchronized int size() { return size; }
+    public synchronized boolean isCrowded() { return crowded; }
+
+    public synchronized long get(int position) {
+        checkIndex(position, size);
+        return keys[position];
+    }
+
+    // A key that sorts a new entry into the given position, or NO_ROOM
+    public synchronized long keyFor(int position) {
+        checkIndex(position, size + 1);
+        if (size == 0) {
+            return 0;
+        }
+        if (position == 0) {
+            return keys[0] - GAP;
+        }
+        if (position == size) {
+            return keys[size - 1] + GAP;
+        }
+        long low = keys[position - 1];
+        long room = (keys[position] - low) / 2;
+        if (room < 1) {
+            crowded = true;
+            return NO_ROOM;
+        }
+        if (room < CROWDED_ROOM) {
+            crowded = true;
+        }
+        return low + room;
+    }
+
+    public synchronized void insert(int position, long key) {
+        checkIndex(position, size + 1);
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, keys.length * 2);
+        }
+        System.arraycopy(keys, position, keys, position + 1, size - position);
+        keys[position] = key;
+        size++;
+    }
+
+    public synchronized long remove(int position) {
+        checkIndex(position, size);
+        long key = keys[position];
+        System.arraycopy(keys, position + 1, keys, position, size - position - 1);
+        size--;
+        return key;
+    }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException("index " + index + " out of range for size " + bound);
+        }
+    }
+
+    // Where the current track ends up after an entry is inserted at the given position
+    public static int positionAfterInsert(int current, int position) {
+        return current >= 0 && position <= current ? current + 1 : current;
+    }
+
+    // Removing the current track leaves the one after it at the same position
+    public static int positionAfterRemove(int current, int position) {
+        return position < current ? current - 1 : current;
+    }
+
+    public static int positionAfterMove(int current, int from, int to) {
+        if (from == current) {
+            return to;
+        }
+        if (from < current && to >= current) {
+            return current - 1;
+        }
+        if (from > current && to <= current) {
+            return current + 1;
+        }
+        return current;
+    }
+}
@@ -0,0 +1,207 @@
+package com.griffin3.simplemusic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The play queue held column by column in primitive arrays. Artists repeat a lot across a
+ * library, so each distinct artist is stored once in a string table and rows keep an index
+ * into it. Accessors return stored values directly and never allocate or parse.
+ *
+ * <p>A shuffled queue keeps the columns in library order and maps positions through a
+ * {@link ShufflePermutation}, so the shuffled order itself is never materialized.
+ *
+ * <p>Volume is the gain LoudnessScanner stored for the file, LoudnessMeter.UNITY_VOLUME until
+ * it has been measured.
+ *
+ * <p>Likes are the one column edited in place, so the list can toggle a heart without reloading.
+ * Queue edits only rearrange positions: the first one copies the position to row mapping into
+ * an int array, and later ones shift that array, so the columns themselves never move.
+ */
+public class QueueModel {
+    public static final QueueModel EMPTY = new Builder(0).build();
+
+    private final int size;
+    private final long[] mediaIds;
+    private final int[] durations;
+    private final int[] artistRefs;
+    private final String[] artistTable;
+    private final String[] titles;
+    private final String[] paths;
+    private final int[] volumes;
+    private final int[] likes;
+    private final ShufflePermutation order;
+
+    // Position to row once the queue has been edited; null until then
+    private int[] rowAt;
+    private int length;
+
+    private QueueModel(Builder builder) {
+        size = builder.size;
+        mediaIds = Arrays.copyOf(builder.mediaIds, size);
+        durations = Arrays.copyOf(builder.durations, size);
+        artistRefs = Arrays.copyOf(builder.artistRefs, size);
+        artistTable = builder.artistTable.toArray(new String[0]);
+        titles = Arrays.copyOf(builder.titles, size);
+        paths = Arrays.copyOf(builder.paths, size);
+        volumes = Arrays.copyOf(builder.volumes, size);
+        likes = Arrays.copyOf(builder.likes, size);
+        order = builder.order != null && builder.order.size() == size ? builder.order : null;
+        length = size;
+    }
+
+    private int row(int position) {
+        if (rowAt != null) {
+            checkIndex(position, length);
+            return rowAt[position];
+        }
+        return order != null ? order.apply(position) : position;
+    }
+
+    public int size() { return length; }
+    public boolean isEmpty() { return length == 0; }
+    public boolean isShuffled() { return order != null; }
+    public long getMediaId(int position) { return mediaIds[row(position)]; }
+    public int getDuration(int position) { return durations[row(position)]; }
+    public String getArtist(int position) { return artistTable[artistRefs[row(position)]]; }
+    public String getTitle(int position) { return titles[row(position)]; }
+    public String getData(int position) { return paths[row(position)]; }
+    public int getVolume(int position) { return volumes[row(position)]; }
+    public int getLikes(int position) { return likes[row(position)]; }
+    public int getDistinctArtistCount() { return artistTable.length; }
+
+    public void setLikes(int position, int count) {
+        likes[row(position)] = count;
+    }
+
+    // Materializes one row for code that wants a SongInfo; this is the only allocating accessor
+    public SongInfo getSongInfo(int position) {
+        int row = row(position);
+        return new SongInfo(mediaIds[row], artistTable[artistRefs[row]], titles[row], durations[row], paths[row], volumes[row], likes[row]);
+    }
+
+    // Puts another copy of the entry at sourcePosition at the given position
+    public void insert(int position, int sourcePosition) {
+        int source = row(sourcePosition);
+        checkIndex(position, length + 1);
+        ensureEditable();
+        if (length == rowAt.length) {
+            rowAt = Arrays.copyOf(rowAt, rowAt.length * 2);
+        }
+        System.arraycopy(rowAt, position, rowAt, position + 1, length - position);
+        rowAt[position] = source;
+        length++;
+    }
+
+    public void remove(int position) {
+        checkIndex(position, length);
+        ensureEditable();
+        System.arraycopy(rowAt, position + 1, rowAt, position, length - position - 1);
+        length--;
+    }
+
+    public void move(int from, int to) {
+        checkIndex(from, length);
+        checkIndex(to, length);
+        ensureEditable();
+        int moved = rowAt[from];
+        if (from < to) {
+            System.arraycopy(rowAt, from + 1, rowAt, from, to - from);
+        } else {
+            System.arraycopy(rowAt, to, rowAt, to + 1, from - to);
+        }
+        rowAt[to] = moved;
+    }
+
+    private void ensureEditable() {
+        if (rowAt == null) {
+            int[] rows = new int[Math.max(16, length + length / 2)];
+            for (int position = 0; position < length; position++) {
+                rows[position] = row(position);
+            }
+            rowAt = rows;
+        }
+    }
+
+    private static void checkIndex(int index, int bound) {
+        if (index < 0 || index >= bound) {
+            throw new IndexOutOfBoundsException("index " + index + " out of range for size " + bound);
+        }
+    }
+
+    public static class Builder {
+        private int size;
+        private long[] mediaIds;
+        private int[] durations;
+        private int[] artistRefs;
+        private String[] titles;
+        private String[] paths;
+        private int[] volumes;
+        private int[] likes;
+        private ShufflePermutation order;
+        private final ArrayList<String> artistTable = new ArrayList<>();
+        private final HashMap<String, Integer> artistIndex = new HashMap<>();
+
+        public Builder(int expectedSize) {
+            int capacity = Math.max(expectedSize, 16);
+            mediaIds = new long[capacity];
+            durations = new int[capacity];
+            artistRefs = new int[capacity];
+            titles = new String[capacity];
+            paths = new String[capacity];
+            volumes = new int[capacity];
+            likes = new int[capacity];
+        }
+
+        public Builder add(long mediaId, String artist, String title, long duration, String data) {
+            return add(mediaId, artist, title, duration, data, LoudnessMeter.UNITY_VOLUME, 0);
+        }
+
+        public Builder add(long mediaId, String artist, String title, long duration, String data, int volume, int likeCount) {
+            if (size == mediaIds.length) {
+                grow();
+            }
+            mediaIds[size] = mediaId;
+            durations[size] = (int) Math.min(duration, Integer.MAX_VALUE);
+            artistRefs[size] = internArtist(artist != null ? artist : "");
+            titles[size] = title;
+            paths[size] = data;
+            volumes[size] = volume;
+            likes[size] = likeCount;
+            size++;
+            return this;
+        }
+
+        // Plays the added rows in the given order; ignored if it does not cover exactly the added rows
+        public Builder setOrder(ShufflePermutation order) {
+            this.order = order;
+            return this;
+        }
+
+        public QueueModel build() {
+            return new QueueModel(this);
+        }
+
+        private int internArtist(String artist) {
+            Integer ref = artistIndex.get(artist);
+            if (ref == null) {
+                ref = artistTable.size();
+                artistTable.add(artist);
+                artistIndex.put(artist, ref);
+            }
+            return ref;
+        }
+
+        private void grow() {
+            int capacity = mediaIds.length * 2;
+            mediaIds = Arrays.copyOf(mediaIds, capacity);
+            durations = Arrays.copyOf(durations, capacity);
+            artistRefs = Arrays.copyOf(artistRefs, capacity);
+            titles = Arrays.copyOf(titles, capacity);
+            paths = Arrays.copyOf(paths, capacity);
+            volumes = Arrays.copyOf(volumes, capacity);
+            likes = Arrays.copyOf(likes, capacity);
+        }
+    }
+}
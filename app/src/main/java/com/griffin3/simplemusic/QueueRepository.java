@@ -0,0 +1,301 @@
+package com.griffin3.simplemusic;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * The play queue for the whole process. It is loaded from the database once and then kept in
+ * memory, so moving between the player and the queue list reads nothing. Edits change the
+ * shared model at once, tell the observers and write through in the background.
+ *
+ * <p>Getters, edits and observers belong to the main thread. Loads and writes run in order on
+ * the repository's own thread, so a reload always sees the edits queued before it. A reload
+ * that finishes while an edit's write is still queued behind it would undo that edit in
+ * memory, so it is dropped and read again after the write. The repository also keeps a small
+ * ring of SongInfo records for the tracks after the current one. The player can step through
+ * them before the full queue has loaded on a cold start.
+ */
+public class QueueRepository {
+    private static final int PREFETCH_AHEAD = 8;
+
+    public interface Observer {
+        // Called on the main thread with the current queue and queue position
+        void onQueueChanged(QueueModel queue, int position);
+    }
+
+    private static QueueRepository sInstance;
+
+    private final DatabaseHelper dbHelper;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ArrayList<Observer> observers = new ArrayList<>();
+    private final SongRing upcoming = new SongRing(PREFETCH_AHEAD * 2);
+    private final ExecutorService executor;
+    private volatile Thread executorThread;
+
+    // Null until the first load has finished
+    private QueueModel queue;
+    private boolean loading;
+    // Edits made to the model whose database write has not run yet
+    private int pendingEdits;
+
+    public static synchronized QueueRepository getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new QueueRepository(DatabaseHelper.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    private QueueRepository(DatabaseHelper dbHelper) {
+        this.dbHelper = dbHelper;
+        executor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "queue-repository");
+            executorThread = thread;
+            return thread;
+        });
+    }
+
+    public synchronized QueueModel getQueue() {
+        return queue;
+    }
+
+    public synchronized boolean isLoaded() {
+        return queue != null;
+    }
+
+    public int getPosition() {
+        return dbHelper.getQueuePosition();
+    }
+
+    public void addObserver(Observer observer) {
+        observers.add(observer);
+    }
+
+    public void removeObserver(Observer observer) {
+        observers.remove(observer);
+    }
+
+    // Loads the queue in the background unless it is loaded or loading already
+    public void load() {
+        synchronized (this) {
+            if (queue != null || loading) {
+                return;
+            }
+            loading = true;
+        }
+        executor.execute(() -> {
+            try {
+                reloadLocked();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            } finally {
+                synchronized (this) {
+                    loading = false;
+                }
+            }
+        });
+    }
+
+    // Reads the queue again after the database changed it, e.g. a refill or a library sync.
+    // Blocks until the new queue is in place, so it must not be called on the main thread.
+    public QueueModel reload() {
+        return run(this::reloadLocked);
+    }
+
+    private QueueModel reloadLocked() {
+        QueueModel loaded = dbHelper.getQueueItems();
+        synchronized (this) {
+            if (pendingEdits > 0) {
+                // The writes of those edits are queued behind this, so read again after them
+                executor.execute(() -> {
+                    try {
+                        reloadLocked();
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    }
+                });
+                return queue;
+            }
+            queue = loaded;
+        }
+        mainHandler.post(() -> {
+            upcoming.clear();
+            notifyObservers();
+        });
+        return loaded;
+    }
+
+    // The track at the position from memory, or null when it is not loaded or out of range
+    public SongInfo getSong(int position) {
+        SongInfo song = upcoming.get(position);
+        if (song == null) {
+            QueueModel current = getQueue();
+            if (current != null && position >= 0 && position < current.size()) {
+                song = current.getSongInfo(position);
+                upcoming.put(position, song);
+            }
+        }
+        return song;
+    }
+
+    // Makes the tracks from the position on ready in the ring. Before the queue has loaded they
+    // come from the database in one range query.
+    public void prefetch(int position) {
+        if (position < 0 || upcoming.contains(position + PREFETCH_AHEAD - 1)) {
+            return;
+        }
+        QueueModel current = getQueue();
+        if (current != null) {
+            int end = Math.min(current.size(), position + PREFETCH_AHEAD);
+            for (int p = position; p < end; p++) {
+                if (!upcoming.contains(p)) {
+                    upcoming.put(p, current.getSongInfo(p));
+                }
+            }
+            return;
+        }
+        executor.execute(() -> {
+            ArrayList<SongInfo> songs = dbHelper.getQueueRange(position, PREFETCH_AHEAD);
+            mainHandler.post(() -> {
+                if (isLoaded()) {
+                    return;
+                }
+                for (int i = 0; i < songs.size(); i++) {
+                    upcoming.put(position + i, songs.get(i));
+                }
+            });
+        });
+    }
+
+    // The edits below keep the stored position on the track that was playing
+
+    public void move(int from, int to) {
+        edit(model -> model.move(from, to));
+        edited(QueueKeys.positionAfterMove(getPosition(), from, to));
+        write(() -> dbHelper.moveQueueItem(from, to));
+    }
+
+    // Puts another copy of the entry at sourcePosition at the given position
+    public void insert(int position, int sourcePosition) {
+        QueueModel current = edit(model -> model.insert(position, sourcePosition));
+        long mediaId = current.getMediaId(position);
+        edited(QueueKeys.positionAfterInsert(getPosition(), position));
+        write(() -> dbHelper.insertIntoQueue(position, mediaId));
+    }
+
+    public void remove(int position) {
+        QueueModel current = edit(model -> model.remove(position));
+        edited(Math.min(QueueKeys.positionAfterRemove(getPosition(), position), current.size() - 1));
+        write(() -> dbHelper.removeFromQueue(position));
+    }
+
+    // Queues media that is not in the queue yet, e.g. a search result. Its columns are not in
+    // the model, so the queue is read again; onDone runs on the main thread once it is in place.
+    public void insertMedia(int position, long mediaId, Runnable onDone) {
+        dbHelper.setQueuePosition(QueueKeys.positionAfterInsert(getPosition(), position));
+        executor.execute(() -> {
+            dbHelper.insertIntoQueue(position, mediaId);
+            reloadLocked();
+            mainHandler.post(onDone);
+        });
+    }
+
+    public void setLikes(int position, int likes) {
+        QueueModel current = edit(model -> model.setLikes(position, likes));
+        long mediaId = current.getMediaId(position);
+        upcoming.clear();
+        notifyObservers();
+        write(() -> dbHelper.setLikes(mediaId, likes));
+    }
+
+    // Switches to the shuffle mode, DatabaseHelper.SHUFFLE_RANDOM or SHUFFLE_SMART, and redraws
+    // the queue from the top in it; later refills keep to that mode
+    public void shuffle(int mode) {
+        executor.execute(() -> {
+            dbHelper.setShuffle(mode);
+            dbHelper.fillQueue();
+            dbHelper.setQueuePosition(0);
+            reloadLocked();
+        });
+    }
+
+    // Empties the library and the queue; blocks like DatabaseHelper.clearAllData
+    public void clearAllData() {
+        run(() -> {
+            dbHelper.clearAllData();
+            synchronized (this) {
+                queue = null;
+            }
+            return null;
+        });
+        upcoming.clear();
+        notifyObservers();
+    }
+
+    // Changes the model under the lock a reload swaps it under, and counts the edit as pending
+    // until write() has run it, so no reload can replace the model with one read before it
+    private synchronized QueueModel edit(Consumer<QueueModel> change) {
+        if (queue == null) {
+            throw new IllegalStateException("Queue not loaded");
+        }
+        change.accept(queue);
+        pendingEdits++;
+        return queue;
+    }
+
+    // Writes an edit through on the repository thread and marks it no longer pending
+    private void write(Runnable work) {
+        executor.execute(() -> {
+            try {
+                work.run();
+            } finally {
+                synchronized (this) {
+                    pendingEdits--;
+                }
+            }
+        });
+    }
+
+    private void edited(int position) {
+        dbHelper.setQueuePosition(position);
+        upcoming.clear();
+        notifyObservers();
+    }
+
+    private void notifyObservers() {
+        QueueModel current = getQueue();
+        int position = getPosition();
+        for (Observer observer : new ArrayList<>(observers)) {
+            observer.onQueueChanged(current != null ? current : QueueModel.EMPTY, position);
+        }
+    }
+
+    // Runs work on the repository thread, after anything queued before it, and waits for it
+    private <T> T run(Callable<T> work) {
+        try {
+            if (Thread.currentThread() == executorThread) {
+                return work.call();
+            }
+            return executor.submit(work).get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
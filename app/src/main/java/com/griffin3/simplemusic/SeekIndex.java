@@ -0,0 +1,399 @@
+package com.griffin3.simplemusic;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Byte offsets of the MPEG audio frames in one file, every FRAMES_PER_ENTRY frames, with the
+ * time each one starts at. Built once by walking the frame headers, so a seek in a VBR file
+ * without a usable TOC becomes a binary search instead of a bitrate guess. Stored as a few
+ * bytes per entry next to the media row.
+ */
+public final class SeekIndex {
+    // About 0.4 s of a 44.1 kHz MP3; the decoder drops what lies before the seek target
+    public static final int FRAMES_PER_ENTRY = 16;
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final long fileLength;
+    private final long dataEnd;
+    private final long durationUs;
+    private final int encoderDelay;
+    private final int encoderPadding;
+    private final long[] timesUs;
+    private final long[] positions;
+
+    SeekIndex(long fileLength, long dataEnd, long durationUs, int encoderDelay, int encoderPadding, long[] timesUs, long[] positions) {
+        this.fileLength = fileLength;
+        this.dataEnd = dataEnd;
+        this.durationUs = durationUs;
+        this.encoderDelay = encoderDelay;
+        this.encoderPadding = encoderPadding;
+        this.timesUs = timesUs;
+        this.positions = positions;
+    }
+
+    // Length of the file the index was built from; a different length means it changed since
+    public long getFileLength() { return fileLength; }
+    // Where the first audio frame starts, past any ID3 tag and Xing/Info frame
+    public long getDataStart() { return positions[0]; }
+    // Where the last whole audio frame ends
+    public long getDataEnd() { return dataEnd; }
+    public long getDurationUs() { return durationUs; }
+    // Gapless trimming from the LAME tag, in samples; 0 when the file has none
+    public int getEncoderDelay() { return encoderDelay; }
+    public int getEncoderPadding() { return encoderPadding; }
+
+    public int size() { return positions.length; }
+    public long getTimeUs(int entry) { return timesUs[entry]; }
+    public long getPosition(int entry) { return positions[entry]; }
+
+    // The last entry starting at or before the time
+    public int indexOfTime(long timeUs) {
+        return floor(timesUs, timeUs);
+    }
+
+    // The last entry starting at or before the byte offset
+    public int indexOfPosition(long position) {
+        return floor(positions, position);
+    }
+
+    private static int floor(long[] values, long key) {
+        int index = Arrays.binarySearch(values, key);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return Math.max(0, index);
+    }
+
+    public static SeekIndex build(File file) throws IOException {
+        try (InputStream in = new FileInputStream(file)) {
+            return scan(in, file.length());
+        }
+    }
+
+    // Walks the frame headers of an MPEG audio stream. Returns null when no frames are found.
+    static SeekIndex scan(InputStream in, long fileLength) throws IOException {
+        Reader reader = new Reader(in);
+        long pos = 0;
+        // Any number of ID3v2 tags, each 10 header bytes, the syncsafe size and an optional footer
+        while (reader.mark(pos) && reader.ensure(pos, 10) && reader.byteAt(pos) == 'I' && reader.byteAt(pos + 1) == 'D' && reader.byteAt(pos + 2) == '3') {
+            long size = (reader.byteAt(pos + 6) & 0x7F) << 21 | (reader.byteAt(pos + 7) & 0x7F) << 14
+                    | (reader.byteAt(pos + 8) & 0x7F) << 7 | (reader.byteAt(pos + 9) & 0x7F);
+            boolean footer = (reader.byteAt(pos + 5) & 0x10) != 0;
+            pos += 10 + size + (footer ? 10 : 0);
+        }
+
+        long[] times = new long[256];
+        long[] offsets = new long[256];
+        int count = 0;
+        int frames = 0;
+        int encoderDelay = 0;
+        int encoderPadding = 0;
+        boolean first = true;
+        // Time runs from a base that moves whenever the sample rate does
+        long baseUs = 0;
+        long samples = 0;
+        int sampleRate = 0;
+        long dataEnd = 0;
+        while (reader.mark(pos) && reader.ensure(pos, 4)) {
+            if (reader.isTrailingTag(pos)) {
+                break;
+            }
+            int header = reader.intAt(pos);
+            int frameSize = frameSize(header);
+            if (frameSize <= 0 || !isConfirmed(reader, pos, header, frameSize)) {
+                // Lost sync; look for the next header a byte further on
+                pos++;
+                continue;
+            }
+            if (first) {
+                first = false;
+                int xing = xingOffset(header);
+                boolean seekFrame = xing + 4 <= frameSize && (reader.matches(pos + xing, "Xing") || reader.matches(pos + xing, "Info"));
+                if (seekFrame) {
+                    // Same place Mp3Extractor reads the LAME encoder delay and padding from
+                    if (xing + 144 <= frameSize) {
+                        int value = reader.byteAt(pos + xing + 141) << 16 | reader.byteAt(pos + xing + 142) << 8 | reader.byteAt(pos + xing + 143);
+                        encoderDelay = value >> 12;
+                        encoderPadding = value & 0xFFF;
+                    }
+                    pos += frameSize;
+                    continue;
+                }
+                if (40 <= frameSize && reader.matches(pos + 36, "VBRI")) {
+                    pos += frameSize;
+                    continue;
+                }
+            }
+            int rate = sampleRate(header);
+            if (rate != sampleRate) {
+                baseUs = sampleRate == 0 ? 0 : baseUs + samples * 1000000L / sampleRate;
+                samples = 0;
+                sampleRate = rate;
+            }
+            if (frames % FRAMES_PER_ENTRY == 0) {
+                if (count == offsets.length) {
+                    times = Arrays.copyOf(times, count * 2);
+                    offsets = Arrays.copyOf(offsets, count * 2);
+                }
+                times[count] = baseUs + samples * 1000000L / sampleRate;
+                offsets[count] = pos;
+                count++;
+            }
+            samples += samplesPerFrame(header);
+            frames++;
+            pos += frameSize;
+            dataEnd = pos;
+        }
+        if (count == 0) {
+            return null;
+        }
+        long durationUs = baseUs + samples * 1000000L / sampleRate;
+        return new SeekIndex(fileLength, dataEnd, durationUs, encoderDelay, encoderPadding,
+                Arrays.copyOf(times, count), Arrays.copyOf(offsets, count));
+    }
+
+    // A header only counts when the frame fits and is followed by the end of the data or by a
+    // header of the same stream, so a stray sync pattern in a tag or a frame is not taken
+    private static boolean isConfirmed(Reader reader, long pos, int header, int frameSize) throws IOException {
+        long next = pos + frameSize;
+        if (reader.ensure(pos, frameSize + 4)) {
+            if (reader.isTrailingTag(next)) {
+                return true;
+            }
+            int nextHeader = reader.intAt(next);
+            return frameSize(nextHeader) > 0 && (nextHeader & 0xFFFE0C00) == (header & 0xFFFE0C00);
+        }
+        // The last frame, unless it is cut short
+        return reader.ensure(pos, frameSize);
+    }
+
+    private static final int[] BITRATE_V1_L1 = {32, 64, 96, 128, 160, 192, 224, 256, 288, 320, 352, 384, 416, 448};
+    private static final int[] BITRATE_V1_L2 = {32, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320, 384};
+    private static final int[] BITRATE_V1_L3 = {32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+    private static final int[] BITRATE_V2_L1 = {32, 48, 56, 64, 80, 96, 112, 128, 144, 160, 176, 192, 224, 256};
+    private static final int[] BITRATE_V2_L23 = {8, 16, 24, 32, 40, 48, 56, 64, 80, 96, 112, 128, 144, 160};
+    private static final int[] SAMPLE_RATE_V1 = {44100, 48000, 32000};
+
+    // Version bits: 3 is MPEG-1, 2 is MPEG-2, 0 is MPEG-2.5. Layer bits: 3 is I, 2 is II, 1 is III.
+    private static int version(int header) { return (header >>> 19) & 3; }
+    private static int layer(int header) { return (header >>> 17) & 3; }
+
+    // Size of the frame the header starts, or -1 when it is not a usable header
+    static int frameSize(int header) {
+        if ((header & 0xFFE00000) != 0xFFE00000) {
+            return -1;
+        }
+        int version = version(header);
+        int layer = layer(header);
+        int bitrateIndex = (header >>> 12) & 0xF;
+        int sampleRateIndex = (header >>> 10) & 3;
+        if (version == 1 || layer == 0 || bitrateIndex == 0 || bitrateIndex == 15 || sampleRateIndex == 3) {
+            return -1;
+        }
+        int[] bitrates;
+        if (version == 3) {
+            bitrates = layer == 3 ? BITRATE_V1_L1 : layer == 2 ? BITRATE_V1_L2 : BITRATE_V1_L3;
+        } else {
+            bitrates = layer == 3 ? BITRATE_V2_L1 : BITRATE_V2_L23;
+        }
+        int bitrate = bitrates[bitrateIndex - 1] * 1000;
+        int padding = (header >>> 9) & 1;
+        int sampleRate = sampleRate(header);
+        if (layer == 3) {
+            return (12 * bitrate / sampleRate + padding) * 4;
+        }
+        return samplesPerFrame(header) / 8 * bitrate / sampleRate + padding;
+    }
+
+    static int sampleRate(int header) {
+        int rate = SAMPLE_RATE_V1[(header >>> 10) & 3];
+        int version = version(header);
+        return version == 3 ? rate : version == 2 ? rate / 2 : rate / 4;
+    }
+
+    static int samplesPerFrame(int header) {
+        int layer = layer(header);
+        if (layer == 3) {
+            return 384;
+        }
+        return layer == 1 && version(header) != 3 ? 576 : 1152;
+    }
+
+    // Where a Xing or Info header sits in the first frame: just past the side information
+    private static int xingOffset(int header) {
+        boolean mono = ((header >>> 6) & 3) == 3;
+        if (version(header) == 3) {
+            return mono ? 21 : 36;
+        }
+        return mono ? 13 : 21;
+    }
+
+    // Header fields, then each entry as the change in its time step and its byte step. Steps are
+    // nearly constant, so most entries take three bytes.
+    public byte[] encode() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(16 + positions.length * 3);
+        out.write(FORMAT_VERSION);
+        writeVarint(out, fileLength);
+        writeVarint(out, dataEnd);
+        writeVarint(out, durationUs);
+        writeVarint(out, encoderDelay);
+        writeVarint(out, encoderPadding);
+        writeVarint(out, positions.length);
+        long lastTime = 0;
+        long lastStep = 0;
+        long lastPosition = 0;
+        for (int i = 0; i < positions.length; i++) {
+            long step = timesUs[i] - lastTime;
+            long change = step - lastStep;
+            writeVarint(out, (change << 1) ^ (change >> 63));
+            writeVarint(out, positions[i] - lastPosition);
+            lastTime = timesUs[i];
+            lastStep = step;
+            lastPosition = positions[i];
+        }
+        return out.toByteArray();
+    }
+
+    // Returns null for anything encode() did not write, including an empty blob
+    public static SeekIndex decode(byte[] blob) {
+        if (blob == null || blob.length == 0 || blob[0] != FORMAT_VERSION) {
+            return null;
+        }
+        try {
+            int[] cursor = {1};
+            long fileLength = readVarint(blob, cursor);
+            long dataEnd = readVarint(blob, cursor);
+            long durationUs = readVarint(blob, cursor);
+            int encoderDelay = (int) readVarint(blob, cursor);
+            int encoderPadding = (int) readVarint(blob, cursor);
+            int count = (int) readVarint(blob, cursor);
+            if (count <= 0 || count > blob.length) {
+                return null;
+            }
+            long[] times = new long[count];
+            long[] offsets = new long[count];
+            long lastTime = 0;
+            long lastStep = 0;
+            long lastPosition = 0;
+            for (int i = 0; i < count; i++) {
+                long zigzag = readVarint(blob, cursor);
+                lastStep += (zigzag >>> 1) ^ -(zigzag & 1);
+                lastTime += lastStep;
+                lastPosition += readVarint(blob, cursor);
+                times[i] = lastTime;
+                offsets[i] = lastPosition;
+            }
+            return new SeekIndex(fileLength, dataEnd, durationUs, encoderDelay, encoderPadding, times, offsets);
+        } catch (ArrayIndexOutOfBoundsException e) {
+            return null;
+        }
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(byte[] blob, int[] cursor) {
+        long value = 0;
+        for (int shift = 0; ; shift += 7) {
+            int b = blob[cursor[0]++];
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+    }
+
+    // A forward-only window over the stream, addressed by file offset. Bytes before the mark
+    // may be dropped, so callers only look at or after it.
+    private static final class Reader {
+        private final InputStream in;
+        private byte[] buffer = new byte[64 * 1024];
+        private long start;
+        private int length;
+        private long mark;
+
+        Reader(InputStream in) {
+            this.in = in instanceof BufferedInputStream ? in : new BufferedInputStream(in, 64 * 1024);
+        }
+
+        // Always true, so it can lead a loop condition
+        boolean mark(long pos) {
+            mark = pos;
+            return true;
+        }
+
+        // Whether the n bytes at pos are available
+        boolean ensure(long pos, int n) throws IOException {
+            if (pos >= start && pos + n <= start + length) {
+                return true;
+            }
+            long keep = Math.min(pos, mark);
+            if (keep > start) {
+                int drop = (int) Math.min(keep - start, length);
+                System.arraycopy(buffer, drop, buffer, 0, length - drop);
+                start += drop;
+                length -= drop;
+                // Nothing buffered reaches it, so skip the stream forward
+                while (length == 0 && start < keep) {
+                    long skipped = in.skip(keep - start);
+                    if (skipped <= 0) {
+                        if (in.read() < 0) {
+                            return false;
+                        }
+                        skipped = 1;
+                    }
+                    start += skipped;
+                }
+            }
+            long needed = pos + n - start;
+            if (needed > buffer.length) {
+                buffer = Arrays.copyOf(buffer, (int) needed);
+            }
+            while (length < needed) {
+                int read = in.read(buffer, length, buffer.length - length);
+                if (read < 0) {
+                    return false;
+                }
+                length += read;
+            }
+            return true;
+        }
+
+        int byteAt(long pos) {
+            return buffer[(int) (pos - start)] & 0xFF;
+        }
+
+        int intAt(long pos) {
+            return byteAt(pos) << 24 | byteAt(pos + 1) << 16 | byteAt(pos + 2) << 8 | byteAt(pos + 3);
+        }
+
+        boolean matches(long pos, String tag) throws IOException {
+            if (!ensure(pos, tag.length())) {
+                return false;
+            }
+            for (int i = 0; i < tag.length(); i++) {
+                if (byteAt(pos + i) != tag.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        // ID3v1 and APE tags close the audio data
+        boolean isTrailingTag(long pos) throws IOException {
+            return matches(pos, "TAG") || matches(pos, "APETAGEX");
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.griffin3.simplemusic;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Seek indexes by file path. Files are indexed in the background, by the scan over the library
+ * or when the player opens one that has none yet, and the result is kept in the media row. The
+ * few files playing or queued next stay decoded in memory.
+ */
+public class SeekIndexStore {
+    private static final String TAG = "SeekIndexStore";
+    private static final int CACHE_SIZE = 4;
+    private static final int SCAN_BATCH = 32;
+
+    private static SeekIndexStore sInstance;
+
+    private final DatabaseHelper dbHelper;
+    private final Map<String, SeekIndex> cache = new LinkedHashMap<String, SeekIndex>(CACHE_SIZE, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, SeekIndex> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+    // The scan stays out of the way of playback and the UI
+    private final ExecutorService scanExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "seek-index");
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+    private boolean scanning;
+    // Files the player asked for that are waiting to be indexed
+    private final HashSet<String> pending = new HashSet<>();
+
+    public static synchronized SeekIndexStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new SeekIndexStore(DatabaseHelper.getInstance(context));
+        }
+        return sInstance;
+    }
+
+    private SeekIndexStore(DatabaseHelper dbHelper) {
+        this.dbHelper = dbHelper;
+    }
+
+    // The stored index of the file, or null when there is none. A file that was never indexed,
+    // or has changed since, is queued for the background indexer and has its index from the next
+    // play on. Reads the database, so never call it on the main thread.
+    public SeekIndex get(String path) {
+        synchronized (cache) {
+            SeekIndex index = cache.get(path);
+            if (index != null) {
+                return index;
+            }
+        }
+        byte[] blob = dbHelper.getSeekIndex(path);
+        SeekIndex index = SeekIndex.decode(blob);
+        if (index == null || index.getFileLength() != new File(path).length()) {
+            // An empty blob is a file that cannot be indexed, so there is nothing to queue
+            if (blob == null || blob.length > 0) {
+                indexInBackground(path);
+            }
+            return null;
+        }
+        synchronized (cache) {
+            cache.put(path, index);
+        }
+        return index;
+    }
+
+    // Indexes the library's MP3 files that have none yet, a batch at a time
+    public void indexLibraryInBackground() {
+        synchronized (this) {
+            if (scanning) {
+                return;
+            }
+            scanning = true;
+        }
+        scanExecutor.execute(() -> {
+            try {
+                ArrayList<String> paths;
+                while (!(paths = dbHelper.getUnindexedPaths(SCAN_BATCH)).isEmpty()) {
+                    for (String path : paths) {
+                        build(path);
+                    }
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Library scan stopped", e);
+            } finally {
+                synchronized (this) {
+                    scanning = false;
+                }
+            }
+        });
+    }
+
+    private void indexInBackground(String path) {
+        synchronized (pending) {
+            if (!pending.add(path)) {
+                return;
+            }
+        }
+        scanExecutor.execute(() -> {
+            try {
+                build(path);
+            } finally {
+                synchronized (pending) {
+                    pending.remove(path);
+                }
+            }
+        });
+    }
+
+    // Scans the file and stores the result; a file that cannot be indexed gets an empty blob so
+    // the background scan does not come back to it
+    private SeekIndex build(String path) {
+        SeekIndex index = null;
+        try {
+            index = SeekIndex.build(new File(path));
+        } catch (IOException e) {
+            Log.e(TAG, "Cannot index " + path, e);
+        }
+        dbHelper.setSeekIndex(path, index != null ? index.encode() : new byte[0]);
+        return index;
+    }
+}
@@ -0,0 +1,94 @@
+package com.griffin3.simplemusic;
+
+/**
+ * A seeded bijection on [0, size) that maps a queue position to a library index without
+ * storing the shuffled order. It is a small Feistel network over the next even power of two,
+ * with cycle walking to stay inside the range, so both directions cost O(1) on average and
+ * reshuffling is just picking a new seed.
+ */
+public final class ShufflePermutation {
+    private static final int ROUNDS = 4;
+
+    private final int size;
+    private final long seed;
+    private final int halfBits;
+    private final long halfMask;
+    private final long[] roundKeys = new long[ROUNDS];
+
+    public ShufflePermutation(long seed, int size) {
+        if (size < 0) {
+            throw new IllegalArgumentException("size must not be negative, was " + size);
+        }
+        this.size = size;
+        this.seed = seed;
+
+        int bits = size <= 1 ? 2 : 64 - Long.numberOfLeadingZeros(size - 1L);
+        bits += bits & 1;
+        halfBits = Math.max(1, bits / 2);
+        halfMask = (1L << halfBits) - 1;
+
+        long state = seed;
+        for (int i = 0; i < ROUNDS; i++) {
+            state += 0x9E3779B97F4A7C15L;
+            roundKeys[i] = mix(state);
+        }
+    }
+
+    public int size() { return size; }
+    public long getSeed() { return seed; }
+
+    // The library index played at the given queue position
+    public int apply(int position) {
+        checkIndex(position);
+        long x = position;
+        do {
+            x = encrypt(x);
+        } while (x >= size);
+        return (int) x;
+    }
+
+    // The queue position at which the given library index is played
+    public int inverse(int index) {
+        checkIndex(index);
+        long x = index;
+        do {
+            x = decrypt(x);
+        } while (x >= size);
+        return (int) x;
+    }
+
+    private long encrypt(long x) {
+        long left = x >>> halfBits;
+        long right = x & halfMask;
+        for (int i = 0; i < ROUNDS; i++) {
+            long next = left ^ (mix(right ^ roundKeys[i]) & halfMask);
+            left = right;
+            right = next;
+        }
+        return (left << halfBits) | right;
+    }
+
+    private long decrypt(long x) {
+        long left = x >>> halfBits;
+        long right = x & halfMask;
+        for (int i = ROUNDS - 1; i >= 0; i--) {
+            long previous = right ^ (mix(left ^ roundKeys[i]) & halfMask);
+            right = left;
+            left = previous;
+        }
+        return (left << halfBits) | right;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + " out of range for size " + size);
+        }
+    }
+
+    // SplitMix64 finalizer
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+}
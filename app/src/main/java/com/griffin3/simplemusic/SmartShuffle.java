@@ -0,0 +1,214 @@
+package com.griffin3.simplemusic;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Draws library indices with probability proportional to their weight (likes + 1) using
+ * Vose's alias method, so each pick is O(1) and a rebuild is O(n).
+ *
+ * <p>Weight changes are applied without a rebuild. A track whose weight dropped is accepted
+ * with probability new / old; a track whose weight grew keeps its alias mass and gets the
+ * difference in a small overflow list sampled alongside the table. Together that is plain
+ * rejection sampling from max(old, new), so picks follow the current weights exactly. The
+ * table is rebuilt once the overflow list grows or too many draws are rejected.
+ *
+ * <p>The last {@code recentWindow} picks are remembered in a ring buffer and a bitset, and a
+ * pick that would repeat one of them is drawn again.
+ */
+public class SmartShuffle {
+    private static final int MAX_ATTEMPTS = 64;
+    private static final int MIN_OVERFLOW_CAPACITY = 64;
+
+    private final int size;
+    private final Random random;
+
+    // Alias table over the weights at the last rebuild
+    private final double[] probability;
+    private final int[] alias;
+    private final double[] baseWeights;
+    private double baseTotal;
+
+    private final double[] weights;
+    private double total;
+
+    // Weight added on top of the base weight, for tracks whose weight grew since the rebuild
+    private final int[] overflowSlot;
+    private final int[] overflowIndex;
+    private final double[] overflowWeight;
+    private int overflowCount;
+    private double overflowTotal;
+
+    private final int[] recent;
+    private final long[] recentBits;
+    private int recentCount;
+    private int recentHead;
+
+    public SmartShuffle(int[] likes, int recentWindow, long seed) {
+        size = likes.length;
+        random = new Random(seed);
+        probability = new double[size];
+        alias = new int[size];
+        baseWeights = new double[size];
+        weights = new double[size];
+        for (int i = 0; i < size; i++) {
+            weights[i] = weightOf(likes[i]);
+            total += weights[i];
+        }
+
+        int overflowCapacity = Math.max(MIN_OVERFLOW_CAPACITY, size / 64);
+        overflowSlot = new int[size];
+        overflowIndex = new int[overflowCapacity];
+        overflowWeight = new double[overflowCapacity];
+
+        // A window as large as the library would leave nothing to pick
+        recent = new int[Math.max(0, Math.min(recentWindow, size - 1))];
+        recentBits = new long[(size + 63) >>> 6];
+
+        rebuild();
+    }
+
+    public int size() { return size; }
+
+    public static double weightOf(int likes) {
+        return 1.0 + Math.max(0, likes);
+    }
+
+    public double getWeight(int index) {
+        return weights[index];
+    }
+
+    // Returns the next library index, or -1 when every weight is zero
+    public int next() {
+        if (size == 0 || total <= 0) {
+            return -1;
+        }
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            int index = propose();
+            double proposalWeight = Math.max(baseWeights[index], weights[index]);
+            if (weights[index] < proposalWeight && random.nextDouble() * proposalWeight >= weights[index]) {
+                continue;
+            }
+            // Give up on avoiding repeats rather than loop forever on a tiny or lopsided library
+            if (isRecent(index) && attempt < MAX_ATTEMPTS / 2) {
+                continue;
+            }
+            remember(index);
+            return index;
+        }
+        // Too many rejections mean the table drifted far from the weights; start over from them
+        rebuild();
+        return next();
+    }
+
+    // O(1) unless the overflow list is full, in which case the table is rebuilt
+    public void setWeight(int index, double weight) {
+        if (weight < 0) {
+            throw new IllegalArgumentException("weight must not be negative, was " + weight);
+        }
+        total += weight - weights[index];
+        weights[index] = weight;
+
+        double extra = Math.max(0, weight - baseWeights[index]);
+        int slot = overflowSlot[index];
+        if (slot >= 0) {
+            overflowTotal += extra - overflowWeight[slot];
+            overflowWeight[slot] = extra;
+        } else if (extra > 0) {
+            if (overflowCount == overflowIndex.length) {
+                rebuild();
+                return;
+            }
+            overflowSlot[index] = overflowCount;
+            overflowIndex[overflowCount] = index;
+            overflowWeight[overflowCount] = extra;
+            overflowCount++;
+            overflowTotal += extra;
+        }
+    }
+
+    public void setLikes(int index, int likes) {
+        setWeight(index, weightOf(likes));
+    }
+
+    // Vose's alias method over the current weights
+    public void rebuild() {
+        System.arraycopy(weights, 0, baseWeights, 0, size);
+        baseTotal = 0;
+        for (int i = 0; i < size; i++) {
+            baseTotal += weights[i];
+        }
+        total = baseTotal;
+        Arrays.fill(overflowSlot, -1);
+        overflowCount = 0;
+        overflowTotal = 0;
+        if (size == 0 || baseTotal <= 0) {
+            return;
+        }
+
+        // Small and large work lists share one array from either end
+        int[] work = new int[size];
+        int small = 0;
+        int large = size;
+        for (int i = 0; i < size; i++) {
+            probability[i] = weights[i] * size / baseTotal;
+            if (probability[i] < 1.0) {
+                work[small++] = i;
+            } else {
+                work[--large] = i;
+            }
+        }
+        while (small > 0 && large < size) {
+            int less = work[--small];
+            int more = work[large++];
+            alias[less] = more;
+            probability[more] = probability[more] + probability[less] - 1.0;
+            if (probability[more] < 1.0) {
+                work[small++] = more;
+            } else {
+                work[--large] = more;
+            }
+        }
+        // Whatever is left is 1 up to rounding error
+        while (large < size) {
+            probability[work[large++]] = 1.0;
+        }
+        while (small > 0) {
+            probability[work[--small]] = 1.0;
+        }
+    }
+
+    private int propose() {
+        if (overflowCount > 0 && random.nextDouble() * (baseTotal + overflowTotal) >= baseTotal) {
+            double target = random.nextDouble() * overflowTotal;
+            for (int slot = 0; slot < overflowCount; slot++) {
+                target -= overflowWeight[slot];
+                if (target < 0) {
+                    return overflowIndex[slot];
+                }
+            }
+            return overflowIndex[overflowCount - 1];
+        }
+        int column = random.nextInt(size);
+        return random.nextDouble() < probability[column] ? column : alias[column];
+    }
+
+    private boolean isRecent(int index) {
+        return (recentBits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private void remember(int index) {
+        if (recent.length == 0) {
+            return;
+        }
+        if (recentCount == recent.length) {
+            int evicted = recent[recentHead];
+            recentBits[evicted >>> 6] &= ~(1L << evicted);
+        } else {
+            recentCount++;
+        }
+        recent[recentHead] = index;
+        recentBits[index >>> 6] |= 1L << index;
+        recentHead = (recentHead + 1) % recent.length;
+    }
+}
@@ -19,19 +19,6 @@ public class SongInfo {
         this.likes = likes;
     }
 
-    // Static factory method to parse from pipe-separated string (from queue)
-    public static SongInfo fromQueueString(String queueString) {
-        String[] parts = queueString.split("\\|", -1);
-        if (parts.length >= 4) {
-            String artist = parts[0];
-            String title = parts[1];
-            long duration = Long.parseLong(parts[2]);
-            String data = parts[3];
-            return new SongInfo(-1, artist, title, duration, data, 128, 0);
-        }
-        return null;
-    }
-
     // Static factory method to parse from JSON string (from getCurrentSongInfo)
     public static SongInfo fromJsonString(String jsonString) {
         try {
@@ -0,0 +1,49 @@
+package com.griffin3.simplemusic;
+
+import java.util.Arrays;
+
+/**
+ * A fixed number of SongInfo records keyed by queue position. Each position has one slot,
+ * position modulo capacity, so filling the tracks after the current one overwrites the ones
+ * furthest behind it and nothing is ever allocated after construction.
+ */
+public class SongRing {
+    private final int[] positions;
+    private final SongInfo[] songs;
+
+    public SongRing(int capacity) {
+        positions = new int[Math.max(1, capacity)];
+        songs = new SongInfo[positions.length];
+        clear();
+    }
+
+    public int capacity() { return positions.length; }
+
+    public void put(int position, SongInfo song) {
+        if (position < 0) {
+            return;
+        }
+        int slot = position % positions.length;
+        positions[slot] = position;
+        songs[slot] = song;
+    }
+
+    // The record for the position, or null when its slot holds another position or nothing
+    public SongInfo get(int position) {
+        if (position < 0) {
+            return null;
+        }
+        int slot = position % positions.length;
+        return positions[slot] == position ? songs[slot] : null;
+    }
+
+    public boolean contains(int position) {
+        return get(position) != null;
+    }
+
+    // Queue edits shift positions, so they drop every record rather than fixing slots up
+    public void clear() {
+        Arrays.fill(positions, -1);
+        Arrays.fill(songs, null);
+    }
+}
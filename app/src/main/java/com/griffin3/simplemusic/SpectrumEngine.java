@@ -0,0 +1,101 @@
+package com.griffin3.simplemusic;
+
+/**
+ * Turns a Visualizer FFT capture into one magnitude per bar. Bars are spaced on a log scale
+ * between MIN_HZ and MAX_HZ, the way the ear hears pitch, and the FFT bins that fall in each bar
+ * are worked out once per capture size, sample rate and bar count rather than on every frame.
+ * Magnitudes come from a table indexed by re² + im², which the byte-sized parts keep small.
+ * Not thread safe; each view keeps its own.
+ */
+public final class SpectrumEngine {
+    public static final float MIN_HZ = 50f;
+    public static final float MAX_HZ = 4096f;
+
+    // Bytes run -128..127, so re² + im² is at most 2 * 128²
+    private static final float[] MAGNITUDE = new float[2 * 128 * 128 + 1];
+
+    static {
+        for (int i = 0; i < MAGNITUDE.length; i++) {
+            MAGNITUDE[i] = (float) Math.sqrt(i);
+        }
+    }
+
+    private int bars;
+    // The tables below were built for these; 0 until the first capture
+    private int tableCaptureSize;
+    private int tableSampleRate;
+    private int tableBars;
+    // Per bar, the bins [start, end) and 1 / (end - start)
+    private int[] bandStart = new int[0];
+    private int[] bandEnd = new int[0];
+    private float[] bandScale = new float[0];
+
+    public SpectrumEngine(int bars) {
+        this.bars = bars;
+    }
+
+    public int getBarCount() {
+        return bars;
+    }
+
+    public void setBarCount(int bars) {
+        this.bars = bars;
+    }
+
+    static float magnitude(int re, int im) {
+        return MAGNITUDE[re * re + im * im];
+    }
+
+    // Writes the average magnitude of each bar into out, which holds at least getBarCount()
+    // values, and returns the largest magnitude of any single bin in the bars. The capture is
+    // laid out as the Visualizer gives it: the real parts of DC and Nyquist first, then a real
+    // and imaginary byte per bin. sampleRateHz is in Hz, not the milliHertz the capture carries.
+    public float process(byte[] fft, int sampleRateHz, float[] out) {
+        if (fft.length != tableCaptureSize || sampleRateHz != tableSampleRate || bars != tableBars) {
+            buildTables(fft.length, sampleRateHz, bars);
+        }
+        float peak = 0;
+        for (int bar = 0; bar < bars; bar++) {
+            float sum = 0;
+            for (int bin = bandStart[bar], end = bandEnd[bar]; bin < end; bin++) {
+                float magnitude = MAGNITUDE[fft[2 * bin] * fft[2 * bin] + fft[2 * bin + 1] * fft[2 * bin + 1]];
+                sum += magnitude;
+                if (magnitude > peak) {
+                    peak = magnitude;
+                }
+            }
+            out[bar] = sum * bandScale[bar];
+        }
+        return peak;
+    }
+
+    // Low bars are narrower than a bin at common capture sizes; they get the bin they fall in,
+    // so neighbouring bars there can show the same bin
+    private void buildTables(int captureSize, int sampleRate, int bars) {
+        if (bandStart.length < bars) {
+            bandStart = new int[bars];
+            bandEnd = new int[bars];
+            bandScale = new float[bars];
+        }
+        int bins = captureSize / 2;
+        double binHz = sampleRate / (double) captureSize;
+        double ratio = Math.pow(MAX_HZ / MIN_HZ, 1.0 / bars);
+        double low = MIN_HZ;
+        for (int bar = 0; bar < bars; bar++) {
+            double high = low * ratio;
+            int start = Math.max(1, Math.min(bins - 1, (int) (low / binHz)));
+            int end = Math.max(start + 1, Math.min(bins, (int) (high / binHz)));
+            bandStart[bar] = start;
+            bandEnd[bar] = end;
+            bandScale[bar] = 1f / (end - start);
+            low = high;
+        }
+        tableCaptureSize = captureSize;
+        tableSampleRate = sampleRate;
+        tableBars = bars;
+    }
+
+    // For tests
+    int bandStart(int bar) { return bandStart[bar]; }
+    int bandEnd(int bar) { return bandEnd[bar]; }
+}
@@ -0,0 +1,40 @@
+package com.griffin3.simplemusic;
+
+/**
+ * Writes playback times as "mm:ss" into a caller's char array, so a progress label can be
+ * redrawn every frame without building strings. Minutes grow past two digits when they need to.
+ */
+public final class TimeText {
+    // Room for "mmmmmm:ss / mmmmmm:ss"
+    public static final int MAX_LENGTH = 24;
+
+    private TimeText() {}
+
+    // Writes "current / duration" at the start of out and returns its length
+    public static int formatPosition(long currentMs, long durationMs, char[] out) {
+        int length = format(currentMs, out, 0);
+        out[length++] = ' ';
+        out[length++] = '/';
+        out[length++] = ' ';
+        return format(durationMs, out, length);
+    }
+
+    // Writes the time at offset and returns the offset just past it
+    public static int format(long millis, char[] out, int offset) {
+        long seconds = Math.max(0, millis) / 1000;
+        long minutes = Math.min(seconds / 60, 999999);
+        int digits = 2;
+        for (long m = minutes; m >= 100; m /= 10) {
+            digits++;
+        }
+        for (int i = offset + digits - 1; i >= offset; i--) {
+            out[i] = (char) ('0' + minutes % 10);
+            minutes /= 10;
+        }
+        offset += digits;
+        out[offset++] = ':';
+        out[offset++] = (char) ('0' + (seconds % 60) / 10);
+        out[offset++] = (char) ('0' + seconds % 10);
+        return offset;
+    }
+}
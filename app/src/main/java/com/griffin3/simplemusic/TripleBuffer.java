@@ -0,0 +1,69 @@
+package com.griffin3.simplemusic;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands FFT captures from the capture thread to the render thread without locks or copies on
+ * the reading side. Three slots are allocated up front: the writer owns one, the reader owns
+ * one, and the third is the latest complete frame. Publishing copies into the writer's slot and
+ * swaps it for the middle one in a single atomic step; taking swaps the middle for the reader's
+ * slot if it holds something newer. Neither side ever sees a slot the other is writing, and a
+ * reader that falls behind simply gets the newest frame. One writer thread and one reader thread.
+ */
+public final class TripleBuffer {
+    private static final int INDEX = 3;
+    private static final int FRESH = 4;
+
+    private final byte[][] frames = new byte[3][];
+    private final int[] sampleRates = new int[3];
+    // The middle slot's index, with FRESH set while the reader has not taken it
+    private final AtomicInteger middle = new AtomicInteger(1);
+    // Writer thread only
+    private int writeIndex = 0;
+    // Reader thread only
+    private int readIndex = 2;
+    private boolean hasFrame;
+
+    // Slots of the capture size in use, so publishing does not allocate
+    public TripleBuffer(int captureSize) {
+        for (int i = 0; i < 3; i++) {
+            frames[i] = new byte[captureSize];
+        }
+    }
+
+    // Writer: copies the capture in and makes it the latest frame. A capture of another size
+    // resizes the writer's slot, which only happens when the capture size is changed.
+    public void publish(byte[] capture, int sampleRate) {
+        int index = writeIndex;
+        if (frames[index].length != capture.length) {
+            frames[index] = new byte[capture.length];
+        }
+        System.arraycopy(capture, 0, frames[index], 0, capture.length);
+        sampleRates[index] = sampleRate;
+        writeIndex = middle.getAndSet(index | FRESH) & INDEX;
+    }
+
+    // Reader: moves to the latest frame if there is one it has not seen; true when it did
+    public boolean take() {
+        if ((middle.get() & FRESH) == 0) {
+            return false;
+        }
+        readIndex = middle.getAndSet(readIndex) & INDEX;
+        hasFrame = true;
+        return true;
+    }
+
+    // Reader: whether any frame has been taken yet
+    public boolean hasFrame() {
+        return hasFrame;
+    }
+
+    // Reader: the frame last taken, valid until the next take()
+    public byte[] getFrame() {
+        return frames[readIndex];
+    }
+
+    public int getSampleRate() {
+        return sampleRates[readIndex];
+    }
+}
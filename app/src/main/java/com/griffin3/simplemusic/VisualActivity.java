@@ -3,26 +3,33 @@ package com.griffin3.simplemusic;
 import android.Manifest;
 import android.content.Context;
 import android.content.pm.PackageManager;
+import android.content.res.TypedArray;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
-import android.graphics.Rect;
 import android.media.audiofx.Visualizer;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
 import android.util.Log;
-import android.view.View;
+import android.view.Choreographer;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
 import android.widget.Toast;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class VisualActivity extends AppCompatActivity {
     private static final String TAG = "VisualActivity";
     private static final int REQUEST_RECORD_AUDIO_PERMISSION = 200;
 
-    private Visualizer mVisualizer;
     private VisualizerView mVisualizerView;
-    private int audioSessionId;    @Override
+    private int audioSessionId;
+
+    @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
@@ -71,64 +78,48 @@ public class VisualActivity extends AppCompatActivity {
         }
     }
 
+    // The view shares the session's Visualizer through VisualizerHub and leaves it with its surface
     public void setupVisualizer() {
-        try {
-            mVisualizer = new Visualizer(audioSessionId);
-            mVisualizer.setCaptureSize(Visualizer.getCaptureSizeRange()[1]);
-            mVisualizer.setDataCaptureListener(new Visualizer.OnDataCaptureListener() {
-                @Override
-                public void onWaveFormDataCapture(Visualizer visualizer, byte[] bytes, int samplingRate) {
-                    // Not used - using FFT instead
-                }
-
-                @Override
-                public void onFftDataCapture(Visualizer visualizer, byte[] bytes, int samplingRate) {
-                    mVisualizerView.updateVisualizerFFT(bytes);
-                }
-            }, Visualizer.getMaxCaptureRate() / 2, false, true);
-            mVisualizer.setEnabled(true);
+        if (mVisualizerView.updateAudioSession(audioSessionId)) {
             Log.d(TAG, "Visualizer enabled with FFT");
-        } catch (Exception e) {
-            Log.e(TAG, "Error setting up Visualizer", e);
+        } else {
             Toast.makeText(this, "Failed to setup audio visualization", Toast.LENGTH_SHORT).show();
             finish();
         }
     }
 
-    @Override
-    protected void onPause() {
-        super.onPause();
-        if (isFinishing() && mVisualizer != null) {
-            mVisualizer.release();
-            mVisualizer = null;
-        }
-    }
-
-    @Override
-    protected void onDestroy() {
-        super.onDestroy();
-        if (mVisualizer != null) {
-            mVisualizer.setEnabled(false);
-            mVisualizer.release();
-            mVisualizer = null;
-        }
-    }
-
     /**
-     * A simple class that draws FFT frequency data as an LED equalizer
+     * Draws FFT frequency data as an LED equalizer. Drawing happens on a render thread of its
+     * own, into the view's surface, so it never competes with the seek bar or the list. A new
+     * capture asks for one frame at the next vsync and nothing is drawn until the next one, so
+     * captures faster than the display are coalesced and a quiet visualizer costs nothing. The
+     * thread lives as long as the surface, which goes when the view is hidden or removed.
      */
-    public static class VisualizerView extends View {
+    public static class VisualizerView extends SurfaceView implements SurfaceHolder.Callback, Choreographer.FrameCallback,
+            CaptureHub.Subscriber {
+        private static final String TAG = "VisualizerView";
         private static final String VIZ_TYPE = "classic"; // "classic" or "fire"
-        private byte[] mFFTBytes;
-        private float[] mPoints;
-        private Rect mRect = new Rect();
-        private Paint mForePaint = new Paint();
-        private Paint mBarPaint = new Paint();
-        private int mNumBars;
-        private int mMaxMagnitude = 1; // Start with 1 to avoid division by zero
+        // Frame stats are logged and restarted after this many frames
+        private static final int STATS_INTERVAL = 600;
+        // Written by the capture callback, read by the render thread
+        private final TripleBuffer mFrames = new TripleBuffer(Visualizer.getCaptureSizeRange()[1]);
+        private volatile int mNumBars;
+        private final LedLayout mLeds = new LedLayout(VIZ_TYPE.equals("fire"));
+        private final Paint[] mBandPaints = new Paint[LedLayout.BANDS];
+        private final Paint mOutlinePaint = new Paint();
+        // Render thread only
+        private float mMaxMagnitude = 1; // Start with 1 to avoid division by zero
+        private final SpectrumEngine mSpectrum = new SpectrumEngine(16);
+        private float[] mBands = new float[0];
         private float vis_vert_scale = 1.5f; // Vertical scaling factor
-        private Visualizer mVisualizer;
         private int audioSessionId;
+        private int mBackgroundColor;
+        private final FrameStats mFrameStats = new FrameStats(16666667);
+        private final AtomicBoolean mFrameRequested = new AtomicBoolean();
+        private final Runnable mPostFrame = () -> Choreographer.getInstance().postFrameCallback(this);
+        // Set while the surface exists
+        private HandlerThread mRenderThread;
+        private volatile Handler mRenderHandler;
 
         public VisualizerView(Context context) {
             super(context);
@@ -136,14 +127,25 @@ public class VisualActivity extends AppCompatActivity {
         }
 
         private void init() {
-            mFFTBytes = null;
-            mForePaint.setStrokeWidth(1f);
-            mForePaint.setAntiAlias(true);
-            mForePaint.setColor(Color.rgb(0, 128, 255));
+            // A segment is a line as wide as its bar, so one call draws every segment of a colour
+            for (int band = 0; band < LedLayout.BANDS; band++) {
+                mBandPaints[band] = new Paint();
+                mBandPaints[band].setStyle(Paint.Style.STROKE);
+                mBandPaints[band].setStrokeCap(Paint.Cap.BUTT);
+                mBandPaints[band].setColor(LedLayout.BAND_COLOURS[band]);
+            }
 
-            mBarPaint.setStyle(Paint.Style.FILL);
-            mBarPaint.setAntiAlias(true);
+            mOutlinePaint.setStyle(Paint.Style.STROKE);
+            mOutlinePaint.setStrokeWidth(2f);
+            mOutlinePaint.setColor(Color.RED);
+            mOutlinePaint.setAntiAlias(true);
 
+            // The surface has no window background behind it, so frames start from the theme's
+            TypedArray attributes = getContext().obtainStyledAttributes(new int[]{android.R.attr.colorBackground});
+            mBackgroundColor = attributes.getColor(0, Color.BLACK);
+            attributes.recycle();
+
+            getHolder().addCallback(this);
             updateNumBars();
         }
 
@@ -156,173 +158,143 @@ public class VisualActivity extends AppCompatActivity {
         protected void onConfigurationChanged(android.content.res.Configuration newConfig) {
             super.onConfigurationChanged(newConfig);
             updateNumBars();
-            invalidate();
+            requestFrame();
+        }
+
+        // samplingRate is in milliHertz, as the Visualizer reports it
+        public void updateVisualizerFFT(byte[] bytes, int samplingRate) {
+            mFrames.publish(bytes, samplingRate / 1000);
+            if (!requestFrame() && mRenderHandler != null) {
+                mFrameStats.recordCoalesced();
+            }
         }
 
-        public void updateVisualizerFFT(byte[] bytes) {
-            mFFTBytes = bytes;
-            invalidate();
+        public FrameStats getFrameStats() {
+            return mFrameStats;
         }
 
-        public void updateAudioSession(int sessionId) {
-            if (mVisualizer != null) {
-                mVisualizer.release();
+        // Asks for a frame at the next vsync; false when one is already waiting or nothing is shown
+        private boolean requestFrame() {
+            Handler handler = mRenderHandler;
+            if (handler == null || !mFrameRequested.compareAndSet(false, true)) {
+                return false;
             }
-            audioSessionId = sessionId;
-            setupVisualizer();
+            handler.post(mPostFrame);
+            return true;
         }
 
-        public void setupVisualizer() {
-            try {
-                mVisualizer = new Visualizer(audioSessionId);
-                mVisualizer.setCaptureSize(Visualizer.getCaptureSizeRange()[1]);
-                mVisualizer.setDataCaptureListener(new Visualizer.OnDataCaptureListener() {
-                    @Override
-                    public void onWaveFormDataCapture(Visualizer visualizer, byte[] bytes, int samplingRate) {
-                        // Not used - using FFT instead
-                    }
-
-                    @Override
-                    public void onFftDataCapture(Visualizer visualizer, byte[] bytes, int samplingRate) {
-                        updateVisualizerFFT(bytes);
-                    }
-                }, Visualizer.getMaxCaptureRate() / 2, false, true);
-                mVisualizer.setEnabled(true);
-            } catch (Exception e) {
-                Log.e("VisualizerView", "Error setting up Visualizer", e);
+        @Override
+        public void surfaceCreated(SurfaceHolder holder) {
+            mRenderThread = new HandlerThread("visualizer-render", Process.THREAD_PRIORITY_DISPLAY);
+            mRenderThread.start();
+            if (getDisplay() != null) {
+                mFrameStats.setBudgetNanos((long) (1e9 / getDisplay().getRefreshRate()));
+            }
+            mFrameRequested.set(false);
+            mRenderHandler = new Handler(mRenderThread.getLooper());
+            requestFrame();
+            if (audioSessionId != 0) {
+                updateAudioSession(audioSessionId);
             }
         }
 
         @Override
-        protected void onDraw(Canvas canvas) {
-            super.onDraw(canvas);
+        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            requestFrame();
+        }
+
+        // The surface must not be touched once this returns, so it waits for the thread to finish
+        @Override
+        public void surfaceDestroyed(SurfaceHolder holder) {
+            // Nothing is shown, so the session's Visualizer can go if nobody else is watching
+            VisualizerHub.getInstance().unsubscribe(this);
+            Handler handler = mRenderHandler;
+            mRenderHandler = null;
+            handler.post(() -> Choreographer.getInstance().removeFrameCallback(this));
+            mRenderThread.quitSafely();
+            try {
+                mRenderThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            mRenderThread = null;
+            Log.d(TAG, "Render thread stopped: " + mFrameStats);
+        }
 
-            if (mFFTBytes == null) {
+        // Render thread, at vsync
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            mFrameRequested.set(false);
+            long start = System.nanoTime();
+            Canvas canvas = getHolder().lockHardwareCanvas();
+            if (canvas == null) {
                 return;
             }
+            try {
+                drawFrame(canvas);
+            } finally {
+                getHolder().unlockCanvasAndPost(canvas);
+            }
+            mFrameStats.recordFrame(System.nanoTime() - start);
+            if (mFrameStats.getFrameCount() >= STATS_INTERVAL) {
+                Log.d(TAG, mFrameStats.toString());
+                mFrameStats.reset();
+            }
+        }
 
-            mRect.set(0, 0, getWidth(), getHeight());
-            
-            // Calculate spacing as 20% of bar width, then adjust bar width accordingly
-            int totalSpacing = (int) (mRect.width() * 0.20f * mNumBars / (mNumBars + 0.20f * mNumBars)); // Approximate spacing
-            int availableWidth = mRect.width() - totalSpacing;
-            int barWidth = availableWidth / mNumBars;
-            int spacing = (int) (barWidth * 0.20f);
-            
-            // Calculate total width of all bars and spacing, then center them
-            int totalBarWidth = (barWidth * mNumBars) + (spacing * (mNumBars - 1));
-            int startX = (mRect.width() - totalBarWidth) / 2;
-            
-            int maxHeight = mRect.height();
-
-            // Calculate how many FFT bins represent frequencies below 4096Hz
-            // Assuming sample rate of 44100Hz, Nyquist is 22050Hz
-            // FFT size is typically 1024 or 2048 bins
-            int fftSize = mFFTBytes.length / 2; // Divide by 2 because FFT data comes as real/imag pairs
-            int maxBins = (int) ((4096.0 / 22050.0) * fftSize); // 4096Hz out of 22050Hz
-            int binsPerBar = Math.max(1, maxBins / mNumBars);
-
-            // Track the maximum magnitude for dynamic scaling
-            int currentMaxMagnitude = 0;
-
-            for (int i = 0; i < mNumBars; i++) {
-                int fftStartIndex = i * binsPerBar * 2; // *2 because each bin has real and imaginary parts
-
-                if (fftStartIndex >= mFFTBytes.length) continue;
-
-                // Average the magnitude across the bins for this bar
-                int totalMagnitude = 0;
-                int binCount = 0;
-
-                for (int j = 0; j < binsPerBar && (fftStartIndex + j * 2) < mFFTBytes.length - 1; j++) {
-                    int real = mFFTBytes[fftStartIndex + j * 2];
-                    int imag = mFFTBytes[fftStartIndex + j * 2 + 1];
-                    int magnitude = (int) Math.sqrt(real * real + imag * imag);
-                    totalMagnitude += magnitude;
-                    binCount++;
-                    if (magnitude > currentMaxMagnitude) {
-                        currentMaxMagnitude = magnitude;
-                    }
-                }
+        // Captures the session through VisualizerHub; false when it cannot be captured
+        public boolean updateAudioSession(int sessionId) {
+            audioSessionId = sessionId;
+            return VisualizerHub.getInstance().subscribe(audioSessionId, this, Visualizer.getMaxCaptureRate() / 2);
+        }
 
-                int avgMagnitude = binCount > 0 ? totalMagnitude / binCount : 0;
+        @Override
+        public void onFftCapture(byte[] fft, int samplingRate) {
+            updateVisualizerFFT(fft, samplingRate);
+        }
 
-                // Update the global maximum magnitude for scaling
-                if (currentMaxMagnitude > mMaxMagnitude) {
-                    mMaxMagnitude = currentMaxMagnitude;
+        // Render thread. The layout is only rebuilt when the size or bar count changes; a frame
+        // is one drawLines call per colour and allocates nothing.
+        private void drawFrame(Canvas canvas) {
+            canvas.drawColor(mBackgroundColor);
+            mFrames.take();
+            if (!mFrames.hasFrame()) {
+                return;
+            }
+            int numBars = mNumBars;
+            if (mSpectrum.getBarCount() != numBars) {
+                mSpectrum.setBarCount(numBars);
+                if (mBands.length < numBars) {
+                    mBands = new float[numBars];
                 }
+            }
+            int width = canvas.getWidth();
+            int height = canvas.getHeight();
+            if (mLeds.setSize(width, height, numBars)) {
+                for (Paint paint : mBandPaints) {
+                    paint.setStrokeWidth(mLeds.getBarWidth());
+                }
+            }
 
-                // Use dynamic scaling based on the maximum magnitude seen
-                int scaleFactor = Math.max(1, mMaxMagnitude);
-                int barHeight = (int)((avgMagnitude * maxHeight * vis_vert_scale) / scaleFactor);
-
-                // Draw the bar as vertical stack of green rectangles with 15% spacing
-                int left = startX + i * (barWidth + spacing);
-                int right = left + barWidth;
-                
-                // Calculate rectangle height and spacing
-                int rectHeight = Math.max(4, barWidth / 2); // Rectangle height is 1/2 of bar width
-                int verticalSpacing = (int) (rectHeight * 0.30f);
-                int rectWithSpacing = rectHeight + verticalSpacing;
-                
-                // Calculate maximum possible rectangles for full height
-                int maxPossibleRects = maxHeight / rectWithSpacing;
-                
-                // Calculate how many rectangles to draw
-                int numRects = barHeight / rectWithSpacing;
-                if (numRects == 0 && barHeight > 0) numRects = 1; // At least one rectangle if there's any height
-                
-                // Draw rectangles from bottom up
-                for (int r = 0; r < numRects; r++) {
-                    int rectTop = maxHeight - (r + 1) * rectWithSpacing + verticalSpacing;
-                    int rectBottom = rectTop + rectHeight;
-                    
-                    // Ensure we don't draw outside the bar bounds
-                    if (rectTop < maxHeight - barHeight) break;
-                    
-                    // Set color based on visualization type
-                    if (VIZ_TYPE.equals("fire")) {
-                        // Fire mode: colors based on position within each bar
-                        float positionRatio = (float) r / Math.max(1, numRects - 1);
-                        
-                        if (positionRatio >= 0.9f) { // Top 10%
-                            mBarPaint.setColor(Color.RED);
-                        } else if (positionRatio >= 0.7f) { // Next 20% (70-90%)
-                            mBarPaint.setColor(Color.rgb(255, 165, 0)); // Orange
-                        } else if (positionRatio >= 0.5f) { // Next 20% (50-70%)
-                            mBarPaint.setColor(Color.YELLOW);
-                        } else { // Bottom 50%
-                            mBarPaint.setColor(Color.GREEN);
-                        }
-                    } else { // Classic mode: colors based on absolute window position
-                        // Calculate position from top of window (1.0) to bottom (0.0)
-                        float windowPositionRatio = 1.0f - ((float) rectTop / maxHeight);
-                        
-                        if (windowPositionRatio >= 0.9f) { // Top 10% of window
-                            mBarPaint.setColor(Color.RED);
-                        } else if (windowPositionRatio >= 0.7f) { // Next 20% of window (70-90%)
-                            mBarPaint.setColor(Color.rgb(255, 165, 0)); // Orange
-                        } else if (windowPositionRatio >= 0.5f) { // Next 20% of window (50-70%)
-                            mBarPaint.setColor(Color.YELLOW);
-                        } else { // Bottom 50% of window
-                            mBarPaint.setColor(Color.GREEN);
-                        }
-                    }
-                    
-                    canvas.drawRect(left, rectTop, right, rectBottom, mBarPaint);
+            // Log-spaced bars up to 4096Hz at the rate the capture was taken at
+            float currentMaxMagnitude = mSpectrum.process(mFrames.getFrame(), mFrames.getSampleRate(), mBands);
+            if (currentMaxMagnitude > mMaxMagnitude) {
+                mMaxMagnitude = currentMaxMagnitude;
+            }
+
+            // Use dynamic scaling based on the maximum magnitude seen
+            mLeds.layout(mBands, mMaxMagnitude, vis_vert_scale);
+            for (int band = 0; band < LedLayout.BANDS; band++) {
+                if (mLeds.getLineCount(band) > 0) {
+                    canvas.drawLines(mLeds.getLines(band), 0, mLeds.getLineCount(band), mBandPaints[band]);
                 }
             }
 
             // Gradually decrease the maximum magnitude over time to allow for new peaks
-            mMaxMagnitude = Math.max(1, (int)(mMaxMagnitude * 0.95f));
-            
+            mMaxMagnitude = Math.max(1f, mMaxMagnitude * 0.95f);
+
             // Draw red 2px outline around the entire view
-            Paint outlinePaint = new Paint();
-            outlinePaint.setStyle(Paint.Style.STROKE);
-            outlinePaint.setStrokeWidth(2f);
-            outlinePaint.setColor(Color.RED);
-            outlinePaint.setAntiAlias(true);
-            canvas.drawRect(1, 1, getWidth() - 1, getHeight() - 1, outlinePaint);
+            canvas.drawRect(1, 1, width - 1, height - 1, mOutlinePaint);
         }
 
         private int getBarColor(int barIndex, int totalBars) {
@@ -0,0 +1,72 @@
+package com.griffin3.simplemusic;
+
+import android.media.audiofx.Visualizer;
+
+/**
+ * The process-wide CaptureHub over the platform Visualizer, so the player's embedded view and
+ * the full-screen one share a single Visualizer on the playback session instead of each
+ * opening their own and failing when the other already holds it. Main thread only.
+ */
+public final class VisualizerHub extends CaptureHub {
+    private static VisualizerHub sInstance;
+
+    public static VisualizerHub getInstance() {
+        if (sInstance == null) {
+            sInstance = new VisualizerHub();
+        }
+        return sInstance;
+    }
+
+    private VisualizerHub() {
+        super(VisualizerHub::open);
+    }
+
+    private static Capture open(int sessionId, int rate, CaptureHub hub) {
+        Visualizer visualizer = new Visualizer(sessionId);
+        try {
+            visualizer.setCaptureSize(Visualizer.getCaptureSizeRange()[1]);
+            VisualizerCapture capture = new VisualizerCapture(visualizer, sessionId, hub);
+            capture.setRate(rate);
+            return capture;
+        } catch (RuntimeException e) {
+            visualizer.release();
+            throw e;
+        }
+    }
+
+    private static final class VisualizerCapture implements Capture, Visualizer.OnDataCaptureListener {
+        private final Visualizer visualizer;
+        private final int sessionId;
+        private final CaptureHub hub;
+
+        VisualizerCapture(Visualizer visualizer, int sessionId, CaptureHub hub) {
+            this.visualizer = visualizer;
+            this.sessionId = sessionId;
+            this.hub = hub;
+        }
+
+        // The rate can only be changed while the Visualizer is disabled
+        @Override
+        public void setRate(int rate) {
+            visualizer.setEnabled(false);
+            visualizer.setDataCaptureListener(this, Math.min(rate, Visualizer.getMaxCaptureRate()), false, true);
+            visualizer.setEnabled(true);
+        }
+
+        @Override
+        public void release() {
+            visualizer.setEnabled(false);
+            visualizer.release();
+        }
+
+        @Override
+        public void onWaveFormDataCapture(Visualizer visualizer, byte[] bytes, int samplingRate) {
+            // Not used - using FFT instead
+        }
+
+        @Override
+        public void onFftDataCapture(Visualizer visualizer, byte[] bytes, int samplingRate) {
+            hub.deliver(sessionId, bytes, samplingRate);
+        }
+    }
+}
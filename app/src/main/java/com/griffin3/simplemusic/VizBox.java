@@ -5,6 +5,7 @@ import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.media.audiofx.Visualizer;
 import android.view.View;
 
 /**
@@ -12,10 +13,13 @@ import android.view.View;
  * as stacked rectangles in an LED-style equalizer
  */
 public class VizBox extends View {
-    private byte[] mFFTBytes;
+    // Written by the capture callback, read when drawing
+    private final TripleBuffer mFrames = new TripleBuffer(Visualizer.getCaptureSizeRange()[1]);
     private Paint mBarPaint = new Paint();
     private int mNumBars;
-    private int mMaxMagnitude = 1;
+    private float mMaxMagnitude = 1;
+    private final SpectrumEngine mSpectrum = new SpectrumEngine(16);
+    private float[] mBands = new float[0];
     private int mNumLevels = 8; // Number of stacked rectangles per bar
 
     public VizBox(Context context) {
@@ -24,7 +28,6 @@ public class VizBox extends View {
     }
 
     private void init() {
-        mFFTBytes = null;
         mBarPaint.setStyle(Paint.Style.FILL);
         mBarPaint.setAntiAlias(true);
 
@@ -34,6 +37,10 @@ public class VizBox extends View {
     private void updateConfiguration() {
         int orientation = getResources().getConfiguration().orientation;
         mNumBars = (orientation == android.content.res.Configuration.ORIENTATION_LANDSCAPE) ? 32 : 16;
+        mSpectrum.setBarCount(mNumBars);
+        if (mBands.length < mNumBars) {
+            mBands = new float[mNumBars];
+        }
     }
 
     @Override
@@ -43,8 +50,9 @@ public class VizBox extends View {
         invalidate();
     }
 
-    public void updateFFTData(byte[] bytes) {
-        mFFTBytes = bytes;
+    // samplingRate is in milliHertz, as the Visualizer reports it
+    public void updateFFTData(byte[] bytes, int samplingRate) {
+        mFrames.publish(bytes, samplingRate / 1000);
         invalidate();
     }
 
@@ -52,7 +60,8 @@ public class VizBox extends View {
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
 
-        if (mFFTBytes == null) {
+        mFrames.take();
+        if (!mFrames.hasFrame()) {
             return;
         }
 
@@ -70,44 +79,17 @@ public class VizBox extends View {
         int availableHeight = height - totalVerticalSpacing;
         int actualRectHeight = availableHeight / mNumLevels;
 
-        // Calculate how many FFT bins represent frequencies below 4096Hz
-        int fftSize = mFFTBytes.length / 2;
-        int maxBins = (int) ((4096.0 / 22050.0) * fftSize);
-        int binsPerBar = Math.max(1, maxBins / mNumBars);
-
-        // Track the maximum magnitude for dynamic scaling
-        int currentMaxMagnitude = 0;
+        // Log-spaced bars up to 4096Hz at the rate the capture was taken at
+        float currentMaxMagnitude = mSpectrum.process(mFrames.getFrame(), mFrames.getSampleRate(), mBands);
+        if (currentMaxMagnitude > mMaxMagnitude) {
+            mMaxMagnitude = currentMaxMagnitude;
+        }
 
         for (int barIndex = 0; barIndex < mNumBars; barIndex++) {
-            int fftStartIndex = barIndex * binsPerBar * 2;
-
-            if (fftStartIndex >= mFFTBytes.length) continue;
-
-            // Average the magnitude across the bins for this bar
-            int totalMagnitude = 0;
-            int binCount = 0;
-
-            for (int j = 0; j < binsPerBar && (fftStartIndex + j * 2) < mFFTBytes.length - 1; j++) {
-                int real = mFFTBytes[fftStartIndex + j * 2];
-                int imag = mFFTBytes[fftStartIndex + j * 2 + 1];
-                int magnitude = (int) Math.sqrt(real * real + imag * imag);
-                totalMagnitude += magnitude;
-                binCount++;
-                if (magnitude > currentMaxMagnitude) {
-                    currentMaxMagnitude = magnitude;
-                }
-            }
-
-            int avgMagnitude = binCount > 0 ? totalMagnitude / binCount : 0;
-
-            // Update the global maximum magnitude for scaling
-            if (currentMaxMagnitude > mMaxMagnitude) {
-                mMaxMagnitude = currentMaxMagnitude;
-            }
+            float avgMagnitude = mBands[barIndex];
 
             // Calculate how many levels to light up
-            int scaleFactor = Math.max(1, mMaxMagnitude);
-            float normalizedMagnitude = (float) avgMagnitude / scaleFactor;
+            float normalizedMagnitude = avgMagnitude / mMaxMagnitude;
             int levelsToLight = Math.round(normalizedMagnitude * mNumLevels);
 
             // Calculate bar position
@@ -127,6 +109,6 @@ public class VizBox extends View {
         }
 
         // Gradually decrease the maximum magnitude over time
-        mMaxMagnitude = Math.max(1, (int)(mMaxMagnitude * 0.95f));
+        mMaxMagnitude = Math.max(1f, mMaxMagnitude * 0.95f);
     }
 }
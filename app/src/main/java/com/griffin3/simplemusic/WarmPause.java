@@ -0,0 +1,76 @@
+package com.griffin3.simplemusic;
+
+import android.os.Handler;
+import android.os.Looper;
+import com.google.android.exoplayer2.ExoPlayer;
+import com.google.android.exoplayer2.Player;
+
+/**
+ * Keeps a paused player warm. A pause leaves the decoder, the buffers and the audio session in
+ * place, so resuming is just play(). Only a pause that outlasts the idle timeout stops the
+ * player to give the resources back; resuming after that prepares again from the same spot.
+ * Buffering stalls never count as a pause, since the player still wants to play through them.
+ */
+public class WarmPause implements Player.Listener {
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 10 * 60 * 1000;
+
+    private final ExoPlayer player;
+    private final Handler handler;
+    private final Runnable releaseRunnable = this::releaseIdle;
+    private long idleTimeoutMs;
+    private int releaseCount;
+
+    // Call on the player's application thread
+    public WarmPause(ExoPlayer player, long idleTimeoutMs) {
+        this.player = player;
+        this.handler = new Handler(Looper.myLooper());
+        this.idleTimeoutMs = idleTimeoutMs;
+        player.addListener(this);
+    }
+
+    public void setIdleTimeout(long idleTimeoutMs) {
+        this.idleTimeoutMs = idleTimeoutMs;
+        if (handler.hasCallbacks(releaseRunnable)) {
+            handler.removeCallbacks(releaseRunnable);
+            handler.postDelayed(releaseRunnable, idleTimeoutMs);
+        }
+    }
+
+    public long getIdleTimeout() { return idleTimeoutMs; }
+
+    // How many pauses ran out and gave the resources back, for tests
+    public int getReleaseCount() { return releaseCount; }
+
+    // Whether a resume can start without preparing again
+    public boolean isWarm() {
+        return player.getPlaybackState() != Player.STATE_IDLE;
+    }
+
+    public void resume() {
+        if (player.getPlaybackState() == Player.STATE_IDLE) {
+            player.prepare();
+        }
+        player.play();
+    }
+
+    public void release() {
+        handler.removeCallbacks(releaseRunnable);
+        player.removeListener(this);
+    }
+
+    @Override
+    public void onPlayWhenReadyChanged(boolean playWhenReady, int reason) {
+        handler.removeCallbacks(releaseRunnable);
+        if (!playWhenReady && player.getPlaybackState() != Player.STATE_IDLE) {
+            handler.postDelayed(releaseRunnable, idleTimeoutMs);
+        }
+    }
+
+    // stop() keeps the playlist and the position, so nothing but the pipeline is lost
+    private void releaseIdle() {
+        if (!player.getPlayWhenReady() && player.getPlaybackState() != Player.STATE_IDLE) {
+            player.stop();
+            releaseCount++;
+        }
+    }
+}
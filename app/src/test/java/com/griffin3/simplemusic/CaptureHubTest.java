@@ -0,0 +1,152 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+
+import static org.junit.Assert.*;
+
+public class CaptureHubTest {
+    // Stands in for the Visualizer, remembering what the hub did with it
+    private static final class FakeCapture implements CaptureHub.Capture {
+        final int sessionId;
+        final ArrayList<Integer> rates = new ArrayList<>();
+        boolean released;
+
+        FakeCapture(int sessionId, int rate) {
+            this.sessionId = sessionId;
+            rates.add(rate);
+        }
+
+        @Override
+        public void setRate(int rate) {
+            assertFalse(released);
+            rates.add(rate);
+        }
+
+        @Override
+        public void release() {
+            assertFalse("released twice", released);
+            released = true;
+        }
+    }
+
+    private static final class Recorder implements CaptureHub.Subscriber {
+        int captures;
+        byte[] last;
+
+        @Override
+        public void onFftCapture(byte[] fft, int samplingRate) {
+            captures++;
+            last = fft;
+        }
+    }
+
+    private final ArrayList<FakeCapture> opened = new ArrayList<>();
+    private final CaptureHub hub = new CaptureHub((sessionId, rate, hub) -> {
+        if (sessionId < 0) {
+            throw new UnsupportedOperationException("already in use");
+        }
+        FakeCapture capture = new FakeCapture(sessionId, rate);
+        opened.add(capture);
+        return capture;
+    });
+
+    @Test
+    public void subscribers_shareOneCapture() {
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        assertTrue(hub.subscribe(7, first, 10000));
+        assertTrue(hub.subscribe(7, second, 10000));
+        assertEquals(1, opened.size());
+        assertEquals(2, hub.getSubscriberCount(7));
+
+        byte[] fft = new byte[1024];
+        hub.deliver(7, fft, 44100000);
+        assertEquals(1, first.captures);
+        assertEquals(1, second.captures);
+        assertSame(fft, second.last);
+    }
+
+    @Test
+    public void lastToLeave_releasesTheCapture() {
+        Recorder first = new Recorder();
+        Recorder second = new Recorder();
+        hub.subscribe(7, first, 10000);
+        hub.subscribe(7, second, 10000);
+        hub.unsubscribe(first);
+        assertFalse(opened.get(0).released);
+        hub.unsubscribe(second);
+        assertTrue(opened.get(0).released);
+        assertEquals(0, hub.getSubscriberCount(7));
+        // Leaving twice is harmless, and a capture after release goes nowhere
+        hub.unsubscribe(second);
+        hub.deliver(7, new byte[1024], 44100000);
+        assertEquals(0, second.captures);
+
+        hub.subscribe(7, first, 10000);
+        assertEquals(2, opened.size());
+    }
+
+    @Test
+    public void rate_followsTheFastestSubscriber() {
+        Recorder slow = new Recorder();
+        Recorder fast = new Recorder();
+        hub.subscribe(7, slow, 5000);
+        assertEquals(5000, hub.getRate(7));
+        hub.subscribe(7, fast, 20000);
+        assertEquals(20000, hub.getRate(7));
+        hub.unsubscribe(fast);
+        assertEquals(5000, hub.getRate(7));
+        // Opened at 5000, then up and back down: no redundant changes in between
+        assertEquals(java.util.Arrays.asList(5000, 20000, 5000), opened.get(0).rates);
+    }
+
+    @Test
+    public void subscribingAgain_isANoOp() {
+        Recorder recorder = new Recorder();
+        hub.subscribe(7, recorder, 10000);
+        hub.subscribe(7, recorder, 10000);
+        assertEquals(1, hub.getSubscriberCount(7));
+        hub.deliver(7, new byte[1024], 44100000);
+        assertEquals(1, recorder.captures);
+    }
+
+    @Test
+    public void newSession_leavesTheOldOne() {
+        Recorder recorder = new Recorder();
+        hub.subscribe(7, recorder, 10000);
+        hub.subscribe(8, recorder, 10000);
+        assertTrue(opened.get(0).released);
+        assertEquals(8, opened.get(1).sessionId);
+        hub.deliver(7, new byte[1024], 44100000);
+        assertEquals(0, recorder.captures);
+        hub.deliver(8, new byte[1024], 44100000);
+        assertEquals(1, recorder.captures);
+    }
+
+    @Test
+    public void failedOpen_subscribesNothing() {
+        Recorder recorder = new Recorder();
+        assertFalse(hub.subscribe(-1, recorder, 10000));
+        assertEquals(0, hub.getSubscriberCount(-1));
+        assertEquals(0, hub.getRate(-1));
+        assertTrue(hub.subscribe(7, recorder, 10000));
+    }
+
+    @Test
+    public void subscriberLeavingDuringDelivery_doesNotDisturbIt() {
+        Recorder second = new Recorder();
+        CaptureHub.Subscriber first = new CaptureHub.Subscriber() {
+            @Override
+            public void onFftCapture(byte[] fft, int samplingRate) {
+                hub.unsubscribe(this);
+            }
+        };
+        hub.subscribe(7, first, 10000);
+        hub.subscribe(7, second, 10000);
+        hub.deliver(7, new byte[1024], 44100000);
+        assertEquals(1, second.captures);
+        assertEquals(1, hub.getSubscriberCount(7));
+    }
+}
@@ -0,0 +1,110 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class EqualizerTest {
+    private static final int RATE = 44100;
+
+    // Interleaved stereo, the sine on the left and silence on the right
+    private static float[] sine(double frequency, double amplitude, int frames) {
+        float[] samples = new float[frames * 2];
+        for (int i = 0; i < frames; i++) {
+            samples[2 * i] = (float) (amplitude * Math.sin(2 * Math.PI * frequency * i / RATE));
+        }
+        return samples;
+    }
+
+    private static float peak(float[] samples, int fromFrame, int toFrame) {
+        float peak = 0;
+        for (int i = fromFrame; i < toFrame; i++) {
+            peak = Math.max(peak, Math.abs(samples[2 * i]));
+        }
+        return peak;
+    }
+
+    private static float[] gains(int band, float gain) {
+        float[] gains = new float[Equalizer.DEFAULT_FREQUENCIES.length];
+        gains[band] = gain;
+        return gains;
+    }
+
+    private static Equalizer equalizer(float[] gains) {
+        Equalizer equalizer = new Equalizer(RATE, 2, Equalizer.DEFAULT_FREQUENCIES);
+        equalizer.setGains(gains);
+        return equalizer;
+    }
+
+    @Test
+    public void flat_leavesSamplesAlone() {
+        float[] samples = sine(1000, 0.5, 4096);
+        float[] original = samples.clone();
+        Equalizer equalizer = equalizer(new float[5]);
+        assertTrue(equalizer.isFlat());
+        equalizer.process(samples, 0, 4096);
+        assertArrayEquals(original, samples, 0f);
+    }
+
+    @Test
+    public void boostAtBandFrequency_raisesByTheGain() {
+        float[] samples = sine(910, 0.1, RATE);
+        equalizer(gains(2, 6f)).process(samples, 0, RATE);
+        assertEquals(0.1 * Math.pow(10, 6 / 20.0), peak(samples, RATE / 2, RATE), 0.005);
+    }
+
+    @Test
+    public void cutAtBandFrequency_lowersByTheGain() {
+        float[] samples = sine(60, 0.5, RATE);
+        equalizer(gains(0, -12f)).process(samples, 0, RATE);
+        assertEquals(0.5 * Math.pow(10, -12 / 20.0), peak(samples, RATE / 2, RATE), 0.005);
+    }
+
+    @Test
+    public void farFromTheBand_isLeftNearlyAlone() {
+        float[] samples = sine(3600, 0.5, RATE);
+        equalizer(gains(0, 12f)).process(samples, 0, RATE);
+        assertEquals(0.5, peak(samples, RATE / 2, RATE), 0.01);
+    }
+
+    @Test
+    public void channels_areFilteredApart() {
+        float[] samples = sine(230, 0.5, 8192);
+        equalizer(new float[]{12f, 12f, 12f, 12f, 12f}).process(samples, 0, 8192);
+        for (int i = 0; i < 8192; i++) {
+            assertEquals(0f, samples[2 * i + 1], 0f);
+        }
+    }
+
+    @Test
+    public void gainChange_glidesInsteadOfStepping() {
+        int frames = 172 * 256;
+        float[] samples = sine(910, 0.1, frames);
+        Equalizer equalizer = equalizer(new float[5]);
+        int changeAt = 8192;
+        for (int at = 0; at < frames; at += 256) {
+            if (at == changeAt) {
+                equalizer.setGains(gains(2, 12f));
+            }
+            equalizer.process(samples, at * 2, 256);
+        }
+        // One cycle after the change the level has barely moved; a step would already be near 4x
+        int cycle = RATE / 910 + 1;
+        assertEquals(0.1, peak(samples, changeAt, changeAt + cycle), 0.01);
+        // Half way through the glide it is on its way
+        float half = peak(samples, changeAt + Equalizer.RAMP_FRAMES / 2 - cycle, changeAt + Equalizer.RAMP_FRAMES / 2);
+        assertTrue("half way " + half, half > 0.15 && half < 0.35);
+        assertEquals(0.1 * Math.pow(10, 12 / 20.0), peak(samples, frames - 4096, frames), 0.01);
+    }
+
+    @Test
+    public void glideBackToFlat_endsFlat() {
+        Equalizer equalizer = equalizer(gains(1, 6f));
+        float[] samples = sine(230, 0.5, 4096);
+        equalizer.process(samples, 0, 4096);
+        equalizer.setGains(new float[5]);
+        assertFalse(equalizer.isFlat());
+        equalizer.process(sine(230, 0.5, Equalizer.RAMP_FRAMES), 0, Equalizer.RAMP_FRAMES);
+        assertTrue(equalizer.isFlat());
+    }
+}
@@ -0,0 +1,55 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameStatsTest {
+    private static final long MS = 1000000;
+
+    @Test
+    public void empty_reportsZeroes() {
+        FrameStats stats = new FrameStats(16 * MS);
+        assertEquals(0, stats.getFrameCount());
+        assertEquals(0, stats.getAverageNanos());
+        assertEquals(0, stats.getPercentileNanos(0.95));
+    }
+
+    @Test
+    public void frames_areSummarised() {
+        FrameStats stats = new FrameStats(16 * MS);
+        for (int i = 0; i < 95; i++) {
+            stats.recordFrame(2 * MS);
+        }
+        for (int i = 0; i < 5; i++) {
+            stats.recordFrame(20 * MS);
+        }
+        assertEquals(100, stats.getFrameCount());
+        assertEquals(5, stats.getOverBudgetCount());
+        assertEquals(20 * MS, stats.getWorstNanos());
+        assertEquals((95 * 2 + 5 * 20) * MS / 100, stats.getAverageNanos());
+        // Quarter-millisecond buckets: a 2 ms frame is reported as at most 2.25 ms
+        assertEquals(2250000, stats.getPercentileNanos(0.95));
+        assertEquals(20250000, stats.getPercentileNanos(0.99));
+    }
+
+    @Test
+    public void hugeFrames_landInTheLastBucket() {
+        FrameStats stats = new FrameStats(16 * MS);
+        stats.recordFrame(5000 * MS);
+        assertEquals(50 * MS, stats.getPercentileNanos(0.5));
+        assertEquals(5000 * MS, stats.getWorstNanos());
+    }
+
+    @Test
+    public void reset_startsOver() {
+        FrameStats stats = new FrameStats(16 * MS);
+        stats.recordFrame(20 * MS);
+        stats.recordCoalesced();
+        stats.reset();
+        assertEquals(0, stats.getFrameCount());
+        assertEquals(0, stats.getOverBudgetCount());
+        assertEquals(0, stats.getCoalescedCount());
+        assertEquals(0, stats.getWorstNanos());
+    }
+}
@@ -0,0 +1,74 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.*;
+
+public class GapMeterTest {
+    // Square wave, so no sample of the "sound" ever lands on zero
+    private static short[] tone(int frames, int channels) {
+        short[] samples = new short[frames * channels];
+        for (int i = 0; i < frames; i++) {
+            short value = (short) ((i / 50) % 2 == 0 ? 8000 : -8000);
+            for (int c = 0; c < channels; c++) {
+                samples[i * channels + c] = value;
+            }
+        }
+        return samples;
+    }
+
+    private static short[] silence(int frames, int channels) {
+        return new short[frames * channels];
+    }
+
+    @Test
+    public void backToBackTracks_haveNoGap() {
+        GapMeter meter = new GapMeter(2, 0);
+        meter.process(tone(4410, 2), 0, 8820);
+        meter.process(tone(4410, 2), 0, 8820);
+        assertEquals(0, meter.getLongestGapFrames());
+        assertEquals(0, meter.getGapCount());
+        assertEquals(8820, meter.getFrameCount());
+    }
+
+    @Test
+    public void silenceBetweenTracks_isMeasuredToTheFrame() {
+        GapMeter meter = new GapMeter(1, 0);
+        meter.process(tone(1000, 1), 0, 1000);
+        meter.process(silence(441, 1), 0, 441);
+        meter.process(tone(1000, 1), 0, 1000);
+        meter.process(silence(100, 1), 0, 100);
+        meter.process(tone(1000, 1), 0, 1000);
+
+        assertEquals(441, meter.getLongestGapFrames());
+        assertEquals(2, meter.getGapCount());
+        assertEquals(10.0, meter.getLongestGapMillis(44100), 1e-9);
+    }
+
+    @Test
+    public void leadingAndTrailingSilence_doNotCount() {
+        GapMeter meter = new GapMeter(1, 0);
+        meter.process(silence(5000, 1), 0, 5000);
+        meter.process(tone(1000, 1), 0, 1000);
+        meter.process(silence(5000, 1), 0, 5000);
+        assertEquals(0, meter.getLongestGapFrames());
+    }
+
+    @Test
+    public void byteBuffer_isReadWithoutConsumingIt() {
+        short[] samples = tone(100, 2);
+        samples[100] = 0;
+        samples[101] = 0;
+        ByteBuffer buffer = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.nativeOrder());
+        buffer.asShortBuffer().put(samples);
+
+        GapMeter meter = new GapMeter(2, 10);
+        meter.process(buffer);
+        assertEquals(0, buffer.position());
+        assertEquals(1, meter.getLongestGapFrames());
+        assertEquals(100, meter.getFrameCount());
+    }
+}
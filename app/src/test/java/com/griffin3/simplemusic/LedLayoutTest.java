@@ -0,0 +1,141 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class LedLayoutTest {
+    // A phone on its side, where the visualizer shows 32 bars
+    private static final int WIDTH = 2400;
+    private static final int HEIGHT = 800;
+    private static final int BARS = 32;
+    private static final float SCALE = 1.5f;
+
+    private static float[] magnitudes(Random random) {
+        float[] magnitudes = new float[BARS];
+        for (int bar = 0; bar < BARS; bar++) {
+            magnitudes[bar] = random.nextFloat() * 100;
+        }
+        return magnitudes;
+    }
+
+    // Segments as "left,top,right,bottom:band", from the per-segment loop the view used to run
+    private static ArrayList<String> reference(float[] magnitudes, float maxMagnitude, boolean fire) {
+        ArrayList<String> segments = new ArrayList<>();
+        int totalSpacing = (int) (WIDTH * 0.20f * BARS / (BARS + 0.20f * BARS));
+        int barWidth = (WIDTH - totalSpacing) / BARS;
+        int spacing = (int) (barWidth * 0.20f);
+        int startX = (WIDTH - (barWidth * BARS + spacing * (BARS - 1))) / 2;
+        for (int i = 0; i < BARS; i++) {
+            int barHeight = (int) ((magnitudes[i] * HEIGHT * SCALE) / maxMagnitude);
+            int left = startX + i * (barWidth + spacing);
+            int rectHeight = Math.max(4, barWidth / 2);
+            int verticalSpacing = (int) (rectHeight * 0.30f);
+            int rectWithSpacing = rectHeight + verticalSpacing;
+            int numRects = barHeight / rectWithSpacing;
+            if (numRects == 0 && barHeight > 0) numRects = 1;
+            for (int r = 0; r < numRects; r++) {
+                int rectTop = HEIGHT - (r + 1) * rectWithSpacing + verticalSpacing;
+                if (rectTop < HEIGHT - barHeight) break;
+                // Off the top of the view, so never seen
+                if (rectTop + rectHeight <= 0) break;
+                float ratio = fire ? (float) r / Math.max(1, numRects - 1) : 1.0f - ((float) rectTop / HEIGHT);
+                int band = ratio >= 0.9f ? LedLayout.RED : ratio >= 0.7f ? LedLayout.ORANGE : ratio >= 0.5f ? LedLayout.YELLOW : LedLayout.GREEN;
+                segments.add(left + "," + rectTop + "," + (left + barWidth) + "," + (rectTop + rectHeight) + ":" + band);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    private static ArrayList<String> segments(LedLayout leds) {
+        ArrayList<String> segments = new ArrayList<>();
+        float half = leds.getBarWidth() / 2;
+        for (int band = 0; band < LedLayout.BANDS; band++) {
+            float[] lines = leds.getLines(band);
+            for (int i = 0; i < leds.getLineCount(band); i += 4) {
+                segments.add((int) (lines[i] - half) + "," + (int) lines[i + 1] + "," + (int) (lines[i + 2] + half) + ","
+                        + (int) lines[i + 3] + ":" + band);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    @Test
+    public void classic_matchesThePerSegmentLoop() {
+        Random random = new Random(1);
+        LedLayout leds = new LedLayout(false);
+        assertTrue(leds.setSize(WIDTH, HEIGHT, BARS));
+        for (int frame = 0; frame < 200; frame++) {
+            float[] magnitudes = magnitudes(random);
+            leds.layout(magnitudes, 100, SCALE);
+            assertEquals(reference(magnitudes, 100, false), segments(leds));
+        }
+    }
+
+    @Test
+    public void fire_matchesThePerSegmentLoop() {
+        Random random = new Random(2);
+        LedLayout leds = new LedLayout(true);
+        leds.setSize(WIDTH, HEIGHT, BARS);
+        for (int frame = 0; frame < 200; frame++) {
+            float[] magnitudes = magnitudes(random);
+            leds.layout(magnitudes, 100, SCALE);
+            assertEquals(reference(magnitudes, 100, true), segments(leds));
+        }
+    }
+
+    @Test
+    public void slivers_andSilence() {
+        LedLayout leds = new LedLayout(false);
+        leds.setSize(WIDTH, HEIGHT, BARS);
+        float[] magnitudes = new float[BARS];
+        // Under one segment high draws nothing, as before
+        magnitudes[3] = 0.5f;
+        magnitudes[4] = 3f;
+        leds.layout(magnitudes, 100, SCALE);
+        assertEquals(reference(magnitudes, 100, false), segments(leds));
+        leds.layout(new float[BARS], 100, SCALE);
+        for (int band = 0; band < LedLayout.BANDS; band++) {
+            assertEquals(0, leds.getLineCount(band));
+        }
+    }
+
+    @Test
+    public void sameSize_keepsTheTables() {
+        LedLayout leds = new LedLayout(false);
+        assertTrue(leds.setSize(WIDTH, HEIGHT, BARS));
+        float[] lines = leds.getLines(LedLayout.GREEN);
+        assertFalse(leds.setSize(WIDTH, HEIGHT, BARS));
+        assertSame(lines, leds.getLines(LedLayout.GREEN));
+        assertTrue(leds.setSize(HEIGHT, WIDTH, 16));
+    }
+
+    @Test
+    public void layout_doesNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        Random random = new Random(3);
+        float[][] frames = new float[64][];
+        for (int i = 0; i < frames.length; i++) {
+            frames[i] = magnitudes(random);
+        }
+        LedLayout leds = new LedLayout(false);
+        leds.setSize(WIDTH, HEIGHT, BARS);
+        for (int i = 0; i < 100000; i++) {
+            leds.layout(frames[i & 63], 100, SCALE);
+        }
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int i = 0; i < 100000; i++) {
+            leds.layout(frames[i & 63], 100, SCALE);
+        }
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        // Room for the measuring itself; a frame's tables are reused, never rebuilt
+        assertTrue(allocated + " bytes", allocated < 4096);
+    }
+}
@@ -0,0 +1,44 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LibrarySearchTest {
+    @Test
+    public void toMatchQuery_prefixesEveryWord() {
+        assertEquals("beat* sgt*", LibrarySearch.toMatchQuery("  beat   sgt"));
+        assertEquals("ac* dc*", LibrarySearch.toMatchQuery("AC/DC"));
+        assertEquals("don* t*", LibrarySearch.toMatchQuery("don't"));
+        assertEquals("café*", LibrarySearch.toMatchQuery("café\""));
+    }
+
+    @Test
+    public void toMatchQuery_dropsOperatorsAndEmptyInput() {
+        assertEquals("a* b* or*", LibrarySearch.toMatchQuery("a* -\"b\" OR(\")"));
+        assertNull(LibrarySearch.toMatchQuery("  \"*- "));
+        assertNull(LibrarySearch.toMatchQuery(null));
+    }
+
+    @Test
+    public void countWords_countsPhrases() {
+        assertEquals(1, LibrarySearch.countWords("beat*"));
+        assertEquals(3, LibrarySearch.countWords("artist* 42* title*"));
+    }
+
+    @Test
+    public void toStartQuery_anchorsTheFirstWord() {
+        assertEquals("title:^beat*", LibrarySearch.toStartQuery("beat* sgt*", "title"));
+        assertEquals("artist:^ac*", LibrarySearch.toStartQuery("ac*", "artist"));
+    }
+
+    @Test
+    public void scoreSql_readsEachWordsHitsPerColumn() {
+        // matchinfo 'x' is three 4-byte counts per word and column, artist before title
+        assertEquals(1, LibrarySearch.hitsOffset(0, LibrarySearch.COLUMN_ARTIST));
+        assertEquals(13, LibrarySearch.hitsOffset(0, LibrarySearch.COLUMN_TITLE));
+        assertEquals(25, LibrarySearch.hitsOffset(1, LibrarySearch.COLUMN_ARTIST));
+        assertEquals("(0 + (substr(mi, 1, 4) != x'00000000') + 2 * (substr(mi, 13, 4) != x'00000000'))",
+                LibrarySearch.scoreSql("mi", 1));
+    }
+}
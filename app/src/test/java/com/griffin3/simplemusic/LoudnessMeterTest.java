@@ -0,0 +1,79 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class LoudnessMeterTest {
+    private static final int RATE = 48000;
+
+    // Interleaved stereo sine with the same signal on both channels
+    private static short[] sine(double amplitude, double seconds) {
+        int frames = (int) (RATE * seconds);
+        short[] samples = new short[frames * 2];
+        for (int i = 0; i < frames; i++) {
+            short value = (short) Math.round(amplitude * 32767 * Math.sin(2 * Math.PI * 997 * i / RATE));
+            samples[2 * i] = value;
+            samples[2 * i + 1] = value;
+        }
+        return samples;
+    }
+
+    private static double measure(short[]... parts) {
+        LoudnessMeter meter = new LoudnessMeter(RATE, 2);
+        for (short[] part : parts) {
+            meter.process(part, 0, part.length);
+        }
+        return meter.getIntegratedLoudness();
+    }
+
+    @Test
+    public void fullScaleStereoSine_isZeroLufs() {
+        // BS.1770 calibrates a 997 Hz sine at full scale in one channel to -3.01; two channels double it
+        assertEquals(0.0, measure(sine(1.0, 5)), 0.05);
+    }
+
+    @Test
+    public void twentyDbDown_isTwentyLuDown() {
+        assertEquals(-20.0, measure(sine(0.1, 5)), 0.05);
+    }
+
+    @Test
+    public void silence_isGatedOut() {
+        // Long enough that the few blocks straddling an edge barely count
+        short[] tone = sine(0.1, 30);
+        assertEquals(measure(tone), measure(new short[RATE * 2 * 5], tone, new short[RATE * 2 * 5]), 0.05);
+        assertEquals(LoudnessMeter.SILENCE, measure(new short[RATE * 2 * 5]), 0.0);
+    }
+
+    @Test
+    public void quietPassages_fallUnderTheRelativeGate() {
+        // 30 dB down is well under the relative gate of the loud part
+        short[] loud = sine(0.5, 30);
+        assertEquals(measure(loud), measure(loud, sine(0.5 / 31.6, 5)), 0.05);
+    }
+
+    @Test
+    public void processFloat_matchesShorts() {
+        short[] shorts = sine(0.25, 3);
+        float[] floats = new float[shorts.length];
+        for (int i = 0; i < shorts.length; i++) {
+            floats[i] = shorts[i] / 32768f;
+        }
+        LoudnessMeter meter = new LoudnessMeter(RATE, 2);
+        meter.process(floats, 0, floats.length);
+        assertEquals(measure(shorts), meter.getIntegratedLoudness(), 0.001);
+        assertEquals(0.25, meter.getPeak(), 0.001);
+    }
+
+    @Test
+    public void volumeFor_levelsToTheTargetWithoutClipping() {
+        assertEquals(LoudnessMeter.UNITY_VOLUME, LoudnessMeter.volumeFor(-18.0, 0.5));
+        // 6 dB too loud halves it
+        assertEquals(64, LoudnessMeter.volumeFor(-12.0, 1.0));
+        // 6 dB too quiet would double it, but the peak allows only 1.25x
+        assertEquals(160, LoudnessMeter.volumeFor(-24.0, 0.8));
+        assertEquals(LoudnessMeter.MAX_VOLUME, LoudnessMeter.volumeFor(-60.0, 0.01));
+        assertEquals(LoudnessMeter.UNITY_VOLUME, LoudnessMeter.volumeFor(LoudnessMeter.SILENCE, 0));
+    }
+}
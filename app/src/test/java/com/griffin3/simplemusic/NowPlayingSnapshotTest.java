@@ -0,0 +1,84 @@
+package com.griffin3.simplemusic;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import static org.junit.Assert.*;
+
+public class NowPlayingSnapshotTest {
+    private File file;
+
+    @Before
+    public void setUp() throws IOException {
+        file = File.createTempFile("now_playing", ".bin");
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void write_thenRead_roundTrips() throws IOException {
+        QueueModel window = new QueueModel.Builder(2)
+                .add(11, "Artïst", "First", 185000, "/music/a.mp3")
+                .add(12, null, "Second", 0, "/music/b.mp3")
+                .build();
+        NowPlayingSnapshot.write(file, 40, 61000, 1000, 40, window);
+
+        NowPlayingSnapshot snapshot = NowPlayingSnapshot.read(file);
+        assertNotNull(snapshot);
+        assertEquals(40, snapshot.getPosition());
+        assertEquals(61000, snapshot.getOffset());
+        assertEquals(1000, snapshot.getQueueSize());
+        assertTrue(snapshot.contains(41));
+        assertFalse(snapshot.contains(39));
+        assertFalse(snapshot.contains(42));
+        assertEquals(11, snapshot.getMediaId(40));
+        assertEquals("Artïst", snapshot.getArtist(40));
+        assertEquals(185000, snapshot.getDuration(40));
+        assertEquals("", snapshot.getArtist(41));
+        assertEquals("/music/b.mp3", snapshot.getData(41));
+    }
+
+    @Test
+    public void read_rejectsMissingOrDamagedFiles() throws IOException {
+        file.delete();
+        assertNull(NowPlayingSnapshot.read(file));
+
+        QueueModel window = new QueueModel.Builder(1).add(1, "A", "T", 1, "/p").build();
+        NowPlayingSnapshot.write(file, 0, 0, 1, 0, window);
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(raf.length() - 3);
+        }
+        assertNull(NowPlayingSnapshot.read(file));
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.writeInt(0);
+        }
+        assertNull(NowPlayingSnapshot.read(file));
+    }
+
+    @Test
+    public void writeOffset_patchesOnlyTheSamePosition() throws IOException {
+        QueueModel window = new QueueModel.Builder(1).add(7, "A", "T", 200000, "/p").build();
+        NowPlayingSnapshot.write(file, 3, 1000, 10, 3, window);
+
+        assertTrue(NowPlayingSnapshot.writeOffset(file, 3, 96000));
+        NowPlayingSnapshot snapshot = NowPlayingSnapshot.read(file);
+        assertEquals(3, snapshot.getPosition());
+        assertEquals(96000, snapshot.getOffset());
+        assertEquals("T", snapshot.getTitle(3));
+
+        // Another track needs a new window, so the caller has to write it in full
+        assertFalse(NowPlayingSnapshot.writeOffset(file, 4, 0));
+        assertEquals(96000, NowPlayingSnapshot.read(file).getOffset());
+        file.delete();
+        assertFalse(NowPlayingSnapshot.writeOffset(file, 3, 0));
+    }
+}
@@ -0,0 +1,119 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class PlaylistWindowTest {
+    // Stands in for the player's playlist, remembering how often it was rebuilt
+    private static final class FakePlaylist implements PlaylistWindow.Playlist {
+        final ArrayList<String> items = new ArrayList<>();
+        int current;
+        int sets;
+
+        @Override
+        public int getItemCount() { return items.size(); }
+
+        @Override
+        public int getCurrentIndex() { return current; }
+
+        @Override
+        public String getItemId(int index) { return items.get(index); }
+
+        @Override
+        public void setItem(String data) {
+            items.clear();
+            items.add(data);
+            current = 0;
+            sets++;
+        }
+
+        @Override
+        public void addItem(String data) { items.add(data); }
+
+        @Override
+        public void removeItems(int fromIndex, int toIndex) {
+            items.subList(fromIndex, toIndex).clear();
+            if (current >= toIndex) {
+                current -= toIndex - fromIndex;
+            }
+        }
+    }
+
+    private final FakePlaylist playlist = new FakePlaylist();
+    private List<String> queue = tracks(10);
+    private final PlaylistWindow window = new PlaylistWindow(playlist,
+            position -> position >= 0 && position < queue.size() ? queue.get(position) : null, 2);
+
+    private static List<String> tracks(int count) {
+        ArrayList<String> tracks = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            tracks.add("/music/" + i + ".mp3");
+        }
+        return tracks;
+    }
+
+    @Test
+    public void start_loadsTheTrackAndTheNextTwo() {
+        assertTrue(window.start(4));
+        assertEquals(Arrays.asList("/music/4.mp3", "/music/5.mp3", "/music/6.mp3"), playlist.items);
+        assertEquals(4, window.getCurrentPosition());
+
+        // Near the end there is less to load, and an unknown track loads nothing
+        window.start(9);
+        assertEquals(Arrays.asList("/music/9.mp3"), playlist.items);
+        assertFalse(window.start(10));
+        assertEquals(Arrays.asList("/music/9.mp3"), playlist.items);
+    }
+
+    @Test
+    public void advancing_slidesTheWindowWithoutRebuildingIt() {
+        window.start(0);
+        for (int position = 1; position < 10; position++) {
+            playlist.current++;
+            assertEquals(position, window.advanced());
+            assertEquals(queue.get(position), playlist.items.get(0));
+            assertEquals(Math.min(3, 10 - position), playlist.items.size());
+        }
+        assertEquals(1, playlist.sets);
+    }
+
+    @Test
+    public void queueChange_keepsMatchingItemsAndReplacesTheRest() {
+        window.start(2);
+        queue = new ArrayList<>(queue);
+        queue.set(4, "/music/other.mp3");
+        window.queueChanged(2);
+        assertEquals(Arrays.asList("/music/2.mp3", "/music/3.mp3", "/music/other.mp3"), playlist.items);
+
+        // A track inserted before the current one only moves the window along
+        queue.add(0, "/music/new.mp3");
+        window.queueChanged(3);
+        assertEquals(3, window.getCurrentPosition());
+        assertEquals(Arrays.asList("/music/2.mp3", "/music/3.mp3", "/music/other.mp3"), playlist.items);
+        assertEquals(1, playlist.sets);
+    }
+
+    @Test
+    public void removingTheCurrentTrack_asksForARestart() {
+        window.start(2);
+        playlist.current = 1;
+        window.advanced();
+        queue = new ArrayList<>(queue);
+        queue.remove(3);
+
+        // The queue keeps the position, which now holds the track after the removed one
+        assertFalse(window.queueChanged(3));
+        assertEquals(Arrays.asList("/music/3.mp3", "/music/4.mp3", "/music/5.mp3"), playlist.items);
+        assertTrue(window.start(3));
+        assertEquals(Arrays.asList("/music/4.mp3", "/music/5.mp3", "/music/6.mp3"), playlist.items);
+
+        // Removing the last track leaves nothing at the position
+        queue.subList(3, queue.size()).clear();
+        assertFalse(window.queueChanged(3));
+    }
+}
@@ -0,0 +1,70 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class QueueKeysTest {
+    @Test
+    public void keyFor_sortsBetweenNeighbours() {
+        QueueKeys keys = new QueueKeys(QueueKeys.spaced(3));
+        long front = keys.keyFor(0);
+        long middle = keys.keyFor(2);
+        long end = keys.keyFor(3);
+
+        assertTrue(front < keys.get(0));
+        assertTrue(middle > keys.get(1) && middle < keys.get(2));
+        assertTrue(end > keys.get(2));
+        assertFalse(keys.isCrowded());
+    }
+
+    @Test
+    public void repeatedInsertsInOneSpot_flagCrowdingBeforeRunningOut() {
+        QueueKeys keys = new QueueKeys(QueueKeys.spaced(2));
+        int inserts = 0;
+        while (!keys.isCrowded()) {
+            long key = keys.keyFor(1);
+            assertNotEquals(QueueKeys.NO_ROOM, key);
+            keys.insert(1, key);
+            inserts++;
+        }
+        assertTrue("crowded after " + inserts + " inserts", inserts > 8);
+        assertNotEquals(QueueKeys.NO_ROOM, keys.keyFor(1));
+
+        for (int i = 1; i < keys.size(); i++) {
+            assertTrue(keys.get(i - 1) < keys.get(i));
+        }
+    }
+
+    @Test
+    public void adjacentKeys_haveNoRoom() {
+        QueueKeys keys = new QueueKeys(new long[]{0, 1, 2});
+        assertEquals(QueueKeys.NO_ROOM, keys.keyFor(1));
+        assertTrue(keys.isCrowded());
+    }
+
+    @Test
+    public void remove_shiftsLaterPositions() {
+        QueueKeys keys = new QueueKeys(QueueKeys.spaced(4));
+        assertEquals(QueueKeys.GAP, keys.remove(1));
+        assertEquals(3, keys.size());
+        assertEquals(2 * QueueKeys.GAP, keys.get(1));
+    }
+
+    @Test
+    public void currentPosition_followsThePlayingTrack() {
+        assertEquals(6, QueueKeys.positionAfterInsert(5, 5));
+        assertEquals(5, QueueKeys.positionAfterInsert(5, 6));
+        assertEquals(4, QueueKeys.positionAfterRemove(5, 2));
+        assertEquals(5, QueueKeys.positionAfterRemove(5, 5));
+        assertEquals(9, QueueKeys.positionAfterMove(5, 5, 9));
+        assertEquals(4, QueueKeys.positionAfterMove(5, 1, 7));
+        assertEquals(6, QueueKeys.positionAfterMove(5, 8, 2));
+        assertEquals(5, QueueKeys.positionAfterMove(5, 7, 9));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void get_rejectsPositionsOutsideTheQueue() {
+        new QueueKeys(QueueKeys.spaced(2)).get(2);
+    }
+}
@@ -0,0 +1,85 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class QueueModelTest {
+    @Test
+    public void accessors_returnStoredColumns() {
+        QueueModel queue = new QueueModel.Builder(2)
+                .add(7, "Artist", "Title | with pipe", 185000, "/music/a.mp3")
+                .add(9, "Other", "Second", 0, "/music/b.mp3")
+                .build();
+
+        assertEquals(2, queue.size());
+        assertEquals(7, queue.getMediaId(0));
+        assertEquals("Title | with pipe", queue.getTitle(0));
+        assertEquals("Artist", queue.getArtist(0));
+        assertEquals(185000, queue.getDuration(0));
+        assertEquals("/music/b.mp3", queue.getData(1));
+    }
+
+    @Test
+    public void songInfo_carriesTheStoredVolume() {
+        QueueModel queue = new QueueModel.Builder(2)
+                .add(7, "Artist", "Loud", 185000, "/music/a.mp3", 90, 2)
+                .add(9, "Other", "Unmeasured", 0, "/music/b.mp3")
+                .build();
+
+        assertEquals(90, queue.getVolume(0));
+        assertEquals(90, queue.getSongInfo(0).getVolume());
+        assertEquals(2, queue.getSongInfo(0).getLikes());
+        assertEquals(LoudnessMeter.UNITY_VOLUME, queue.getSongInfo(1).getVolume());
+    }
+
+    @Test
+    public void artists_areStoredOnce() {
+        QueueModel.Builder builder = new QueueModel.Builder(4);
+        for (int i = 0; i < 1000; i++) {
+            builder.add(i, new String("Artist " + (i % 10)), "Title " + i, 1000, "/music/" + i + ".mp3");
+        }
+        QueueModel queue = builder.build();
+
+        assertEquals(1000, queue.size());
+        assertEquals(10, queue.getDistinctArtistCount());
+        assertSame(queue.getArtist(3), queue.getArtist(13));
+    }
+
+    @Test
+    public void shuffledQueue_mapsPositionsThroughPermutation() {
+        ShufflePermutation order = new ShufflePermutation(99, 50);
+        QueueModel.Builder builder = new QueueModel.Builder(50).setOrder(order);
+        for (int i = 0; i < 50; i++) {
+            builder.add(i, "Artist", "Title " + i, 1000, "/music/" + i + ".mp3");
+        }
+        QueueModel queue = builder.build();
+
+        assertTrue(queue.isShuffled());
+        for (int position = 0; position < 50; position++) {
+            assertEquals(order.apply(position), queue.getMediaId(position));
+            assertEquals("Title " + order.apply(position), queue.getTitle(position));
+        }
+    }
+
+    @Test
+    public void edits_rearrangePositionsOnly() {
+        QueueModel.Builder builder = new QueueModel.Builder(5);
+        for (int i = 0; i < 5; i++) {
+            builder.add(i, "Artist", "Title " + i, 1000, "/music/" + i + ".mp3");
+        }
+        QueueModel queue = builder.build();
+
+        queue.move(0, 3);
+        queue.insert(1, 3);
+        queue.remove(4);
+        queue.insert(queue.size(), 0);
+
+        long[] expected = {1, 0, 2, 3, 4, 1};
+        assertEquals(expected.length, queue.size());
+        for (int position = 0; position < expected.length; position++) {
+            assertEquals(expected[position], queue.getMediaId(position));
+            assertEquals("Title " + expected[position], queue.getTitle(position));
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class SeekIndexTest {
+    // MPEG-1 Layer III, 44.1 kHz, stereo, no CRC
+    private static final int[] BITRATES = {32, 40, 48, 56, 64, 80, 96, 112, 128, 160, 192, 224, 256, 320};
+
+    private static int header(int bitrateIndex, boolean padding) {
+        return 0xFFFB0000 | bitrateIndex << 12 | (padding ? 1 << 9 : 0);
+    }
+
+    private static int frameSize(int bitrateIndex, boolean padding) {
+        return 144 * BITRATES[bitrateIndex - 1] * 1000 / 44100 + (padding ? 1 : 0);
+    }
+
+    private static void writeInt(ByteArrayOutputStream out, int value) {
+        out.write(value >>> 24);
+        out.write(value >>> 16);
+        out.write(value >>> 8);
+        out.write(value);
+    }
+
+    // A VBR file: an ID3v2 tag, an Info frame with a LAME delay and padding, the audio frames and
+    // an ID3v1 tag. Frame start offsets go into starts.
+    private static byte[] vbrFile(int frames, ArrayList<Long> starts, long seed) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write('I');
+        out.write('D');
+        out.write('3');
+        out.write(3);
+        out.write(0);
+        out.write(0);
+        writeInt(out, 300);
+        out.write(new byte[300], 0, 300);
+
+        int infoSize = frameSize(9, false);
+        byte[] info = new byte[infoSize];
+        int h = header(9, false);
+        info[0] = (byte) (h >>> 24);
+        info[1] = (byte) (h >>> 16);
+        info[2] = (byte) (h >>> 8);
+        info[3] = (byte) h;
+        System.arraycopy("Info".getBytes(), 0, info, 36, 4);
+        int lame = 576 << 12 | 1000;
+        info[36 + 141] = (byte) (lame >>> 16);
+        info[36 + 142] = (byte) (lame >>> 8);
+        info[36 + 143] = (byte) lame;
+        out.write(info, 0, info.length);
+
+        Random random = new Random(seed);
+        for (int i = 0; i < frames; i++) {
+            int bitrateIndex = 1 + random.nextInt(BITRATES.length);
+            boolean padding = random.nextBoolean();
+            starts.add((long) out.size());
+            writeInt(out, header(bitrateIndex, padding));
+            int payload = frameSize(bitrateIndex, padding) - 4;
+            out.write(new byte[payload], 0, payload);
+        }
+        out.write('T');
+        out.write('A');
+        out.write('G');
+        out.write(new byte[125], 0, 125);
+        return out.toByteArray();
+    }
+
+    private static SeekIndex scan(byte[] file) throws IOException {
+        return SeekIndex.scan(new ByteArrayInputStream(file), file.length);
+    }
+
+    @Test
+    public void scan_findsEveryEntryOfAVbrFile() throws IOException {
+        ArrayList<Long> starts = new ArrayList<>();
+        byte[] file = vbrFile(1000, starts, 1);
+        SeekIndex index = scan(file);
+
+        assertNotNull(index);
+        assertEquals(file.length, index.getFileLength());
+        assertEquals(576, index.getEncoderDelay());
+        assertEquals(1000, index.getEncoderPadding());
+        assertEquals((1000 + SeekIndex.FRAMES_PER_ENTRY - 1) / SeekIndex.FRAMES_PER_ENTRY, index.size());
+        assertEquals((long) starts.get(0), index.getDataStart());
+        assertEquals(file.length - 128, index.getDataEnd());
+        assertEquals(1000L * 1152 * 1000000 / 44100, index.getDurationUs());
+        for (int entry = 0; entry < index.size(); entry++) {
+            int frame = entry * SeekIndex.FRAMES_PER_ENTRY;
+            assertEquals((long) starts.get(frame), index.getPosition(entry));
+            assertEquals((long) frame * 1152 * 1000000 / 44100, index.getTimeUs(entry));
+        }
+    }
+
+    @Test
+    public void scan_resyncsPastJunk() throws IOException {
+        ArrayList<Long> starts = new ArrayList<>();
+        byte[] clean = vbrFile(64, starts, 2);
+        // Junk that starts like a header, dropped in just before frame 20
+        int at = (int) (long) starts.get(20);
+        byte[] junk = {(byte) 0xFF, (byte) 0xFB, (byte) 0x90, 0, 1, 2, 3};
+        byte[] file = new byte[clean.length + junk.length];
+        System.arraycopy(clean, 0, file, 0, at);
+        System.arraycopy(junk, 0, file, at, junk.length);
+        System.arraycopy(clean, at, file, at + junk.length, clean.length - at);
+
+        SeekIndex index = scan(file);
+
+        assertEquals(4, index.size());
+        assertEquals(starts.get(16) + 0, index.getPosition(1));
+        assertEquals(starts.get(32) + junk.length, index.getPosition(2));
+        assertEquals(64L * 1152 * 1000000 / 44100, index.getDurationUs());
+    }
+
+    @Test
+    public void scan_rejectsSomethingElse() throws IOException {
+        byte[] noise = new byte[100000];
+        new Random(3).nextBytes(noise);
+        assertNull(scan(noise));
+        assertNull(scan(new byte[0]));
+    }
+
+    @Test
+    public void encode_roundTrips() throws IOException {
+        SeekIndex index = scan(vbrFile(5000, new ArrayList<>(), 4));
+        byte[] blob = index.encode();
+        SeekIndex decoded = SeekIndex.decode(blob);
+
+        // A few bytes an entry
+        assertTrue(blob.length < index.size() * 4 + 32);
+        assertEquals(index.getFileLength(), decoded.getFileLength());
+        assertEquals(index.getDataEnd(), decoded.getDataEnd());
+        assertEquals(index.getDurationUs(), decoded.getDurationUs());
+        assertEquals(index.getEncoderDelay(), decoded.getEncoderDelay());
+        assertEquals(index.getEncoderPadding(), decoded.getEncoderPadding());
+        assertEquals(index.size(), decoded.size());
+        for (int entry = 0; entry < index.size(); entry++) {
+            assertEquals(index.getTimeUs(entry), decoded.getTimeUs(entry));
+            assertEquals(index.getPosition(entry), decoded.getPosition(entry));
+        }
+
+        assertNull(SeekIndex.decode(null));
+        assertNull(SeekIndex.decode(new byte[0]));
+        assertNull(SeekIndex.decode(new byte[]{1, (byte) 0x80}));
+    }
+
+    @Test
+    public void indexOf_findsTheEntryAtOrBefore() throws IOException {
+        SeekIndex index = scan(vbrFile(100, new ArrayList<>(), 5));
+
+        assertEquals(0, index.indexOfTime(-1));
+        assertEquals(0, index.indexOfTime(0));
+        assertEquals(1, index.indexOfTime(index.getTimeUs(1)));
+        assertEquals(1, index.indexOfTime(index.getTimeUs(2) - 1));
+        assertEquals(index.size() - 1, index.indexOfTime(Long.MAX_VALUE));
+        assertEquals(0, index.indexOfPosition(0));
+        assertEquals(3, index.indexOfPosition(index.getPosition(3)));
+        assertEquals(3, index.indexOfPosition(index.getPosition(4) - 1));
+    }
+}
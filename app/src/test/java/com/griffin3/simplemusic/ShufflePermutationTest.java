@@ -0,0 +1,51 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class ShufflePermutationTest {
+    private static final int[] SIZES = {1, 2, 3, 7, 16, 1000, 65537};
+
+    @Test
+    public void apply_isBijectiveForAnySize() {
+        for (int size : SIZES) {
+            ShufflePermutation permutation = new ShufflePermutation(42, size);
+            boolean[] seen = new boolean[size];
+            for (int position = 0; position < size; position++) {
+                int index = permutation.apply(position);
+                assertTrue(index >= 0 && index < size);
+                assertFalse("index " + index + " repeated for size " + size, seen[index]);
+                seen[index] = true;
+            }
+        }
+    }
+
+    @Test
+    public void inverse_undoesApply() {
+        for (int size : SIZES) {
+            ShufflePermutation permutation = new ShufflePermutation(-7, size);
+            for (int position = 0; position < size; position++) {
+                assertEquals(position, permutation.inverse(permutation.apply(position)));
+            }
+        }
+    }
+
+    @Test
+    public void differentSeeds_giveDifferentOrders() {
+        ShufflePermutation first = new ShufflePermutation(1, 1000);
+        ShufflePermutation second = new ShufflePermutation(2, 1000);
+        int samePositions = 0;
+        for (int position = 0; position < 1000; position++) {
+            if (first.apply(position) == second.apply(position)) {
+                samePositions++;
+            }
+        }
+        assertTrue("orders overlap in " + samePositions + " positions", samePositions < 20);
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void apply_rejectsPositionsOutsideTheQueue() {
+        new ShufflePermutation(1, 10).apply(10);
+    }
+}
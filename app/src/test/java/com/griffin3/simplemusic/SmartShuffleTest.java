@@ -0,0 +1,98 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SmartShuffleTest {
+    private static final int DRAWS = 400000;
+
+    @Test
+    public void next_followsLikeWeights() {
+        int[] likes = {0, 1, 2, 3, 9};
+        SmartShuffle shuffle = new SmartShuffle(likes, 0, 42);
+        assertDistribution(shuffle, new double[]{1, 2, 3, 4, 10});
+    }
+
+    @Test
+    public void setLikes_updatesDistributionWithoutRebuild() {
+        int[] likes = {0, 0, 0, 0, 0, 0, 0, 0};
+        SmartShuffle shuffle = new SmartShuffle(likes, 0, 7);
+        shuffle.setLikes(2, 7);
+        shuffle.setLikes(5, 3);
+        shuffle.setLikes(2, 4);
+        assertDistribution(shuffle, new double[]{1, 1, 5, 1, 1, 4, 1, 1});
+
+        // Dropping back below the built weight goes through rejection instead of the overflow list
+        shuffle.rebuild();
+        shuffle.setLikes(2, 0);
+        assertDistribution(shuffle, new double[]{1, 1, 1, 1, 1, 4, 1, 1});
+    }
+
+    @Test
+    public void setWeight_zeroNeverPicks() {
+        SmartShuffle shuffle = new SmartShuffle(new int[]{5, 5, 5}, 0, 3);
+        shuffle.setWeight(1, 0);
+        for (int i = 0; i < 10000; i++) {
+            assertNotEquals(1, shuffle.next());
+        }
+    }
+
+    @Test
+    public void next_skipsRecentPicks() {
+        int window = 5;
+        SmartShuffle shuffle = new SmartShuffle(new int[20], window, 11);
+        int[] history = new int[1000];
+        for (int i = 0; i < history.length; i++) {
+            history[i] = shuffle.next();
+            for (int back = 1; back <= window && back <= i; back++) {
+                assertNotEquals("repeat at pick " + i, history[i - back], history[i]);
+            }
+        }
+    }
+
+    @Test
+    public void next_onEmptyLibrary() {
+        assertEquals(-1, new SmartShuffle(new int[0], 10, 1).next());
+        assertEquals(0, new SmartShuffle(new int[1], 10, 1).next());
+    }
+
+    @Test
+    public void largeLibrary_staysInRangeAcrossUpdates() {
+        int size = 100000;
+        int window = 50;
+        int[] likes = new int[size];
+        for (int i = 0; i < size; i++) {
+            likes[i] = i % 10 == 0 ? i % 7 : 0;
+        }
+        SmartShuffle shuffle = new SmartShuffle(likes, window, 1);
+        // Raised likes are drawn from the overflow list alongside the table
+        for (int i = 0; i < 1000; i++) {
+            shuffle.setLikes(i * 97, 5);
+        }
+        int[] history = new int[size];
+        for (int i = 0; i < size; i++) {
+            history[i] = shuffle.next();
+            assertTrue("pick " + history[i], history[i] >= 0 && history[i] < size);
+            for (int back = 1; back <= window && back <= i; back++) {
+                assertNotEquals("repeat at pick " + i, history[i - back], history[i]);
+            }
+        }
+    }
+
+    private static void assertDistribution(SmartShuffle shuffle, double[] weights) {
+        double total = 0;
+        for (double weight : weights) {
+            total += weight;
+        }
+        int[] counts = new int[weights.length];
+        for (int i = 0; i < DRAWS; i++) {
+            counts[shuffle.next()]++;
+        }
+        for (int i = 0; i < weights.length; i++) {
+            double expected = weights[i] / total;
+            double actual = (double) counts[i] / DRAWS;
+            assertEquals("share of index " + i, expected, actual, 0.01);
+        }
+    }
+}
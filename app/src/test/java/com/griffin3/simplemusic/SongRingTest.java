@@ -0,0 +1,46 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SongRingTest {
+    private static SongInfo song(int position) {
+        return new SongInfo(position, "Artist", "Title " + position, 1000, "/music/" + position + ".mp3", 128, 0);
+    }
+
+    @Test
+    public void get_returnsWhatWasPut() {
+        SongRing ring = new SongRing(4);
+        for (int position = 10; position < 14; position++) {
+            ring.put(position, song(position));
+        }
+        for (int position = 10; position < 14; position++) {
+            assertEquals("Title " + position, ring.get(position).getTitle());
+        }
+        assertNull(ring.get(9));
+        assertNull(ring.get(14));
+        assertNull(ring.get(-1));
+    }
+
+    @Test
+    public void fillingAhead_overwritesTheOldestSlots() {
+        SongRing ring = new SongRing(4);
+        for (int position = 0; position < 6; position++) {
+            ring.put(position, song(position));
+        }
+        assertFalse(ring.contains(0));
+        assertFalse(ring.contains(1));
+        assertTrue(ring.contains(2));
+        assertTrue(ring.contains(5));
+    }
+
+    @Test
+    public void clear_dropsEverything() {
+        SongRing ring = new SongRing(8);
+        ring.put(3, song(3));
+        ring.clear();
+        assertFalse(ring.contains(3));
+        assertEquals(8, ring.capacity());
+    }
+}
@@ -0,0 +1,103 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class SpectrumEngineTest {
+    private static final int CAPTURE = 1024;
+
+    // A capture with one bin lit, laid out as the Visualizer does it
+    private static byte[] capture(int bin, int re, int im) {
+        byte[] fft = new byte[CAPTURE];
+        fft[2 * bin] = (byte) re;
+        fft[2 * bin + 1] = (byte) im;
+        return fft;
+    }
+
+    private static int barOf(float[] bands) {
+        int lit = -1;
+        for (int bar = 0; bar < bands.length; bar++) {
+            if (bands[bar] > 0) {
+                assertEquals("only one bar lit", -1, lit);
+                lit = bar;
+            }
+        }
+        return lit;
+    }
+
+    @Test
+    public void magnitude_matchesSqrt() {
+        for (int re = -128; re < 128; re++) {
+            for (int im = -128; im < 128; im++) {
+                assertEquals(Math.sqrt(re * re + im * im), SpectrumEngine.magnitude(re, im), 1e-4);
+            }
+        }
+    }
+
+    @Test
+    public void bars_coverTheRangeInOrder() {
+        SpectrumEngine engine = new SpectrumEngine(32);
+        engine.process(new byte[CAPTURE], 44100, new float[32]);
+        double binHz = 44100.0 / CAPTURE;
+        assertEquals((int) (SpectrumEngine.MIN_HZ / binHz), engine.bandStart(0));
+        assertEquals((int) (SpectrumEngine.MAX_HZ / binHz), engine.bandEnd(31));
+        for (int bar = 0; bar < 32; bar++) {
+            assertTrue(engine.bandEnd(bar) > engine.bandStart(bar));
+            if (bar > 0) {
+                assertTrue(engine.bandStart(bar) >= engine.bandStart(bar - 1));
+                assertTrue(engine.bandEnd(bar) >= engine.bandEnd(bar - 1));
+            }
+        }
+        // Log spacing: the top bar is many bins wide, the bottom one a single bin
+        assertEquals(1, engine.bandEnd(0) - engine.bandStart(0));
+        assertTrue(engine.bandEnd(31) - engine.bandStart(31) > 5);
+    }
+
+    @Test
+    public void toneLightsItsBar() {
+        SpectrumEngine engine = new SpectrumEngine(16);
+        float[] bands = new float[16];
+        // 1 kHz at 44.1 kHz is bin 23; the bars run log-evenly from 50 Hz to 4096 Hz
+        float peak = engine.process(capture(23, 30, 40), 44100, bands);
+        int bar = barOf(bands);
+        double hz = 23 * 44100.0 / CAPTURE;
+        assertEquals((int) (16 * Math.log(hz / SpectrumEngine.MIN_HZ) / Math.log(SpectrumEngine.MAX_HZ / SpectrumEngine.MIN_HZ)), bar);
+        assertEquals(50f, peak, 0f);
+        assertEquals(50f / (engine.bandEnd(bar) - engine.bandStart(bar)), bands[bar], 1e-4);
+    }
+
+    @Test
+    public void sampleRate_movesTheBins() {
+        SpectrumEngine engine = new SpectrumEngine(16);
+        float[] bands = new float[16];
+        // The same bin is a higher pitch at a higher rate
+        engine.process(capture(60, 100, 0), 22050, bands);
+        int low = barOf(bands);
+        engine.process(capture(60, 100, 0), 48000, bands);
+        int high = barOf(bands);
+        assertTrue(low + " < " + high, low < high);
+    }
+
+    @Test
+    public void dcAndNyquist_areNotShown() {
+        SpectrumEngine engine = new SpectrumEngine(32);
+        float[] bands = new float[32];
+        byte[] fft = new byte[CAPTURE];
+        fft[0] = 127;
+        fft[1] = 127;
+        assertEquals(0f, engine.process(fft, 44100, bands), 0f);
+        assertEquals(-1, barOf(bands));
+    }
+
+    @Test
+    public void barCountChange_rebuildsTables() {
+        SpectrumEngine engine = new SpectrumEngine(16);
+        engine.process(new byte[CAPTURE], 44100, new float[16]);
+        int sixteenth = engine.bandEnd(15);
+        engine.setBarCount(32);
+        engine.process(new byte[CAPTURE], 44100, new float[32]);
+        assertEquals(sixteenth, engine.bandEnd(31));
+        assertTrue(engine.bandEnd(15) < sixteenth);
+    }
+}
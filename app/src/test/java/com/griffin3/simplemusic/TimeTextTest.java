@@ -0,0 +1,37 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TimeTextTest {
+    private static String format(long millis) {
+        char[] out = new char[TimeText.MAX_LENGTH];
+        return new String(out, 0, TimeText.format(millis, out, 0));
+    }
+
+    @Test
+    public void format_matchesTheOldStringFormat() {
+        for (long millis = 0; millis < 2 * 3600 * 1000; millis += 997) {
+            String expected = String.format("%02d:%02d", millis / 60000, (millis / 1000) % 60);
+            assertEquals(expected, format(millis));
+        }
+    }
+
+    @Test
+    public void format_handlesEdges() {
+        assertEquals("00:00", format(-5000));
+        assertEquals("00:59", format(59999));
+        assertEquals("100:00", format(6000000));
+    }
+
+    @Test
+    public void formatPosition_joinsBothTimes() {
+        char[] out = new char[TimeText.MAX_LENGTH];
+        int length = TimeText.formatPosition(61000, 3723000, out);
+        assertEquals("01:01 / 62:03", new String(out, 0, length));
+
+        length = TimeText.formatPosition(Long.MAX_VALUE, Long.MAX_VALUE, out);
+        assertTrue(length <= TimeText.MAX_LENGTH);
+    }
+}
@@ -0,0 +1,143 @@
+package com.griffin3.simplemusic;
+
+import org.junit.Test;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+public class TripleBufferTest {
+    private static final int SIZE = 1024;
+
+    // Every byte of frame n is n's low byte and the first four hold n, so a torn frame shows
+    private static void fill(byte[] frame, int n) {
+        java.util.Arrays.fill(frame, (byte) n);
+        frame[0] = (byte) (n >>> 24);
+        frame[1] = (byte) (n >>> 16);
+        frame[2] = (byte) (n >>> 8);
+        frame[3] = (byte) n;
+    }
+
+    private static int sequence(byte[] frame) {
+        int n = ((frame[0] & 0xff) << 24) | ((frame[1] & 0xff) << 16) | ((frame[2] & 0xff) << 8) | (frame[3] & 0xff);
+        for (int i = 4; i < frame.length; i++) {
+            if (frame[i] != (byte) n) {
+                throw new AssertionError("frame " + n + " torn at byte " + i);
+            }
+        }
+        return n;
+    }
+
+    @Test
+    public void nothingPublished_nothingTaken() {
+        TripleBuffer buffer = new TripleBuffer(SIZE);
+        assertFalse(buffer.take());
+        assertFalse(buffer.hasFrame());
+    }
+
+    @Test
+    public void take_getsTheLatestFrameOnce() {
+        TripleBuffer buffer = new TripleBuffer(SIZE);
+        byte[] capture = new byte[SIZE];
+        for (int n = 1; n <= 5; n++) {
+            fill(capture, n);
+            buffer.publish(capture, 44100000 + n);
+        }
+        assertTrue(buffer.take());
+        assertEquals(5, sequence(buffer.getFrame()));
+        assertEquals(44100005, buffer.getSampleRate());
+        // Nothing newer: the reader keeps what it has
+        assertFalse(buffer.take());
+        assertEquals(5, sequence(buffer.getFrame()));
+        fill(capture, 6);
+        buffer.publish(capture, 0);
+        assertTrue(buffer.take());
+        assertEquals(6, sequence(buffer.getFrame()));
+    }
+
+    @Test
+    public void publish_copiesTheCapture() {
+        TripleBuffer buffer = new TripleBuffer(SIZE);
+        byte[] capture = new byte[SIZE];
+        fill(capture, 1);
+        buffer.publish(capture, 0);
+        // The platform may reuse its array for the next capture
+        fill(capture, 2);
+        assertTrue(buffer.take());
+        assertEquals(1, sequence(buffer.getFrame()));
+    }
+
+    @Test
+    public void newCaptureSize_resizesTheSlot() {
+        TripleBuffer buffer = new TripleBuffer(SIZE);
+        byte[] capture = new byte[SIZE / 2];
+        fill(capture, 3);
+        buffer.publish(capture, 0);
+        assertTrue(buffer.take());
+        assertEquals(SIZE / 2, buffer.getFrame().length);
+        assertEquals(3, sequence(buffer.getFrame()));
+    }
+
+    @Test
+    public void publishAndTake_doNotAllocate() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        TripleBuffer buffer = new TripleBuffer(SIZE);
+        byte[] capture = new byte[SIZE];
+        for (int n = 0; n < 100000; n++) {
+            buffer.publish(capture, n);
+            buffer.take();
+        }
+        long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+        for (int n = 0; n < 100000; n++) {
+            buffer.publish(capture, n);
+            buffer.take();
+        }
+        long allocated = threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+        // Room for the measuring itself, far below one 1 KB frame per call
+        assertTrue(allocated + " bytes", allocated < 4096);
+    }
+
+    @Test
+    public void concurrentStress_neverTearsOrGoesBack() throws Exception {
+        TripleBuffer buffer = new TripleBuffer(SIZE);
+        int frames = 500000;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread writer = new Thread(() -> {
+            byte[] capture = new byte[SIZE];
+            for (int n = 1; n <= frames; n++) {
+                fill(capture, n);
+                buffer.publish(capture, n);
+            }
+        }, "writer");
+        int[] taken = new int[1];
+        Thread reader = new Thread(() -> {
+            try {
+                int last = 0;
+                while (last < frames) {
+                    if (buffer.take()) {
+                        int n = sequence(buffer.getFrame());
+                        assertTrue(n + " after " + last, n > last);
+                        assertEquals(n, buffer.getSampleRate());
+                        last = n;
+                        taken[0]++;
+                    } else if (buffer.hasFrame()) {
+                        // Re-reading the held frame must be just as whole
+                        assertEquals(last, sequence(buffer.getFrame()));
+                    }
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }, "reader");
+        reader.start();
+        writer.start();
+        writer.join(60000);
+        reader.join(60000);
+        if (failure.get() != null) {
+            throw new AssertionError(failure.get());
+        }
+        assertFalse(reader.isAlive());
+        assertTrue(taken[0] > 0);
+    }
+}